@@ -22,6 +22,98 @@ echo ""
 echo "=== Running Dynamic Queue Tests ==="
 java -cp bin -ea DynamicBoundedBlockingQueueTest
 
+echo ""
+echo "=== Running Pipeline Tests ==="
+java -cp bin -ea PipelineTest
+
+echo ""
+echo "=== Running Ordered Sink Tests ==="
+java -cp bin -ea OrderedSinkTest
+
+echo ""
+echo "=== Running Rate Limiter Tests ==="
+java -cp bin -ea TokenBucketRateLimiterTest
+
+echo ""
+echo "=== Running NIO Server Tests ==="
+java -cp bin -ea NioQueueServerTest
+
+echo ""
+echo "=== Running Binary Protocol Tests ==="
+java -cp bin -ea BinaryProtocolTest
+
+echo ""
+echo "=== Running Batch Command Tests ==="
+java -cp bin -ea BatchCommandsTest
+
+echo ""
+echo "=== Running Timed Command Tests ==="
+java -cp bin -ea TimedCommandsTest
+
+echo ""
+echo "=== Running Named Queue Tests ==="
+java -cp bin -ea NamedQueuesTest
+
+echo ""
+echo "=== Running Subscribe Tests ==="
+java -cp bin -ea SubscribeTest
+
+echo ""
+echo "=== Running Replication Tests ==="
+java -cp bin -ea ReplicationTest
+
+echo ""
+echo "=== Running Partitioned Queue Tests ==="
+java -cp bin -ea PartitionedQueueTest
+
+echo ""
+echo "=== Running Queue Client Tests ==="
+java -cp bin -ea QueueClientTest
+
+echo ""
+echo "=== Running Load Generator Tests ==="
+java -cp bin -ea LoadGeneratorTest
+
+echo ""
+echo "=== Running Server Stats Tests ==="
+java -cp bin -ea ServerStatsTest
+
+echo ""
+echo "=== Running Response Encoding Tests ==="
+java -cp bin -ea ResponseEncodingTest
+
+echo ""
+echo "=== Running Backpressure Tests ==="
+java -cp bin -ea BackpressureTest
+
+echo ""
+echo "=== Running Snapshot Tests ==="
+java -cp bin -ea SnapshotTest
+
+echo ""
+echo "=== Running Unix Domain Socket Tests ==="
+java -cp bin -ea UnixSocketTest
+
+echo ""
+echo "=== Running Shared Memory Ring Tests ==="
+java -cp bin -ea SharedMemoryRingTest
+
+echo ""
+echo "=== Running Handler Pool Tests ==="
+java -cp bin -ea HandlerPoolTest
+
+echo ""
+echo "=== Running Timing Wheel Tests ==="
+java -cp bin -ea TimingWheelTest
+
+echo ""
+echo "=== Running TTL Tests ==="
+java -cp bin -ea TtlTest
+
+echo ""
+echo "=== Running Virtual Thread Load Test ==="
+java -cp bin -ea VirtualThreadLoadTest 500
+
 echo ""
 echo "=== Running Integration Tests ==="
 java -cp bin -ea ProducerConsumerIntegrationTest
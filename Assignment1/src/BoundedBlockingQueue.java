@@ -1,12 +1,39 @@
 
-// Fixed Bounded Blocking Queue Implementation
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class BoundedBlockingQueue {
+// Fixed Bounded Blocking Queue Implementation
+//
+// Blocking uses a ReentrantLock with notFull/notEmpty conditions rather than
+// synchronized + wait(), so a virtual thread blocked in put() or take() unmounts from its
+// carrier thread instead of pinning it. Code that waits on the queue's monitor
+// (synchronized (queue) { queue.wait(...); }) is still woken after every change.
+//
+// Items may expire: setTtl() gives every item put from then on a time to live, and
+// putWithTtl()/offerWithTtl() give one item its own. Deadlines are kept in a primitive array
+// parallel to the buffer, allocated with the first TTL, so an expiring item costs no object.
+// Expired items are dropped when they reach the head, as part of a take (which then goes on
+// to the next item), a put that finds the queue full, size() and the like, or by
+// removeExpired(), which a background sweeper calls in batches. A put waiting on a full queue
+// wakes up when the head expires. An item whose deadline is later shields the expired ones
+// behind it until it leaves the queue.
+public class BoundedBlockingQueue implements QueueEngine {
     private final Integer[] buffer;
     private final int capacity;
     private int size;
     private int putIndex;  
     private int takeIndex; 
+    private long takeSequence; // Sequence number of the next item to be taken
+    private long[] enqueueNanos; // Put timestamps parallel to buffer, only when tracing
+    private long[] expiresAt;    // System.nanoTime() deadlines parallel to buffer, 0 for none; null until a TTL is used
+    private long ttlNanos;       // TTL of items put without their own, 0 for none
+    private volatile long expiredCount; // Written under the lock, read without it
+    private SojournTracer tracer;
+    private QueueChangeListener changeListener; // Only set when the queue is replicated
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
     
     // Constructor to create a fixed bounded queue with specified capacity
     public BoundedBlockingQueue(int capacity) {
@@ -21,56 +48,566 @@ public class BoundedBlockingQueue {
     }
     
     // Inserts an element into the queue
-    public synchronized void put(Integer item) throws InterruptedException {
-        while (size == capacity) {
-            wait();
+    @Override
+    public void put(Integer item) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // When tracing, the sojourn time starts at the put call and includes time blocked on a full queue
+            long putCallNanos = enqueueNanos != null ? System.nanoTime() : 0;
+            while (isFullNow()) {
+                awaitRoom();
+            }
+            
+            enqueue(item, putCallNanos);
+        } finally {
+            lock.unlock();
         }
         
-        // Insert element at putIndex
-        buffer[putIndex] = item;
-        putIndex = (putIndex + 1) % capacity;
-        size++;
-        
         // Notify waiting consumers that an item is available
-        notifyAll();
+        notifyMonitorWaiters();
     }
     
     // Removes and returns an element from the queue
-    public synchronized Integer take() throws InterruptedException {
-        while (size == 0) {
-            wait();
+    @Override
+    public Integer take() throws InterruptedException {
+        Integer item;
+        lock.lockInterruptibly();
+        try {
+            while (available() == 0) {
+                notEmpty.await();
+            }
+            
+            item = dequeue();
+        } finally {
+            lock.unlock();
         }
         
-        // Remove element from takeIndex
-        Integer item = buffer[takeIndex];
-        buffer[takeIndex] = null; 
-        takeIndex = (takeIndex + 1) % capacity;
-        size--;
-        
         // Notify waiting producers that space is available
-        notifyAll();
+        notifyMonitorWaiters();
         
         return item;
     }
     
-    // Returns the current number of elements in the queue
-    public synchronized int size() {
+    // Inserts an element if there is space; returns false instead of blocking when full
+    @Override
+    public boolean offer(Integer item) {
+        lock.lock();
+        try {
+            if (isFullNow()) {
+                return false;
+            }
+            enqueue(item, 0);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return true;
+    }
+    
+    // Removes and returns the head element; returns null instead of blocking when empty
+    @Override
+    public Integer poll() {
+        Integer item;
+        lock.lock();
+        try {
+            if (available() == 0) {
+                return null;
+            }
+            item = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return item;
+    }
+    
+    // Inserts an element, waiting at most timeoutMs for space; returns false on timeout
+    @Override
+    public boolean offer(Integer item, long timeoutMs) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lockInterruptibly();
+        try {
+            long putCallNanos = enqueueNanos != null ? System.nanoTime() : 0;
+            while (isFullNow()) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                long waitNanos = Math.min(remainingNanos, untilHeadExpires());
+                remainingNanos -= waitNanos - notFull.awaitNanos(waitNanos);
+            }
+            enqueue(item, putCallNanos);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return true;
+    }
+    
+    // Removes and returns the head element, waiting at most timeoutMs; returns null on timeout
+    @Override
+    public Integer poll(long timeoutMs) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Integer item;
+        lock.lockInterruptibly();
+        try {
+            while (available() == 0) {
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+                remainingNanos = notEmpty.awaitNanos(remainingNanos);
+            }
+            item = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return item;
+    }
+    
+    // Inserts all items taking the lock once; waits for space only when the queue fills up mid-batch
+    @Override
+    public void putAll(int[] items, int offset, int count) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long putCallNanos = enqueueNanos != null ? System.nanoTime() : 0;
+            for (int i = 0; i < count; i++) {
+                while (isFullNow()) {
+                    awaitRoom();
+                }
+                enqueue(items[offset + i], putCallNanos);
+            }
+        } finally {
+            lock.unlock();
+            notifyMonitorWaiters();
+        }
+    }
+    
+    // Inserts as many items as fit; returns the number inserted
+    @Override
+    public int offerAll(int[] items, int offset, int count) {
+        int added = 0;
+        lock.lock();
+        try {
+            while (added < count && !isFullNow()) {
+                enqueue(items[offset + added], 0);
+                added++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (added > 0) {
+            notifyMonitorWaiters();
+        }
+        return added;
+    }
+    
+    // Waits for the first element, then drains up to max elements under the same lock
+    @Override
+    public int takeUpTo(int[] dest, int offset, int max) throws InterruptedException {
+        int count = 0;
+        lock.lockInterruptibly();
+        try {
+            while (available() == 0) {
+                notEmpty.await();
+            }
+            while (count < max && available() > 0) {
+                dest[offset + count] = dequeue();
+                count++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return count;
+    }
+    
+    // Drains up to max elements without blocking; returns the number removed
+    @Override
+    public int pollUpTo(int[] dest, int offset, int max) {
+        int count = 0;
+        lock.lock();
+        try {
+            while (count < max && available() > 0) {
+                dest[offset + count] = dequeue();
+                count++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (count > 0) {
+            notifyMonitorWaiters();
+        }
+        return count;
+    }
+    
+    // Wakes threads waiting on the queue's monitor (e.g. Producer/Consumer flow control).
+    // Called after the lock is released so the lock is never held while taking the monitor.
+    private void notifyMonitorWaiters() {
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+    
+    // Inserts element at putIndex; caller holds the lock and has checked for space
+    private void enqueue(Integer item, long putCallNanos) {
+        enqueue(item, putCallNanos, ttlNanos);
+    }
+    
+    // Inserts element at putIndex, expiring after itemTtlNanos (0 for never)
+    private void enqueue(Integer item, long putCallNanos, long itemTtlNanos) {
+        buffer[putIndex] = item;
+        if (enqueueNanos != null) {
+            enqueueNanos[putIndex] = putCallNanos != 0 ? putCallNanos : System.nanoTime();
+        }
+        if (expiresAt != null) {
+            expiresAt[putIndex] = itemTtlNanos > 0 ? System.nanoTime() + itemTtlNanos : 0;
+        }
+        putIndex = (putIndex + 1) % capacity;
+        size++;
+        notEmpty.signal();
+        if (changeListener != null) {
+            changeListener.onEnqueue(item);
+        }
+    }
+    
+    // Removes element from takeIndex; caller holds the lock and has checked for an item.
+    // Only items handed to a taker advance the sequence, so every number takeSequenced()
+    // can return belongs to an item some consumer actually received.
+    private Integer dequeue() {
+        Integer item = buffer[takeIndex];
+        takeSequence++;
+        if (enqueueNanos != null) {
+            long enqueuedAt = enqueueNanos[takeIndex];
+            if (enqueuedAt != 0) {
+                tracer.record(item, enqueuedAt, System.nanoTime());
+            }
+        }
+        removeHead();
+        return item;
+    }
+    
+    // Drops the head element; caller holds the lock
+    private void removeHead() {
+        buffer[takeIndex] = null;
+        takeIndex = (takeIndex + 1) % capacity;
+        size--;
+        if (changeListener != null) {
+            changeListener.onDequeue();
+        }
+        notFull.signal();
+    }
+    
+    // The number of elements once expired ones at the head are dropped; caller holds the lock
+    private int available() {
+        if (expiresAt != null) {
+            dropExpired(Integer.MAX_VALUE);
+        }
         return size;
     }
     
+    // True if there is no room even after dropping expired elements at the head; caller holds the lock
+    private boolean isFullNow() {
+        if (size == capacity && expiresAt != null) {
+            dropExpired(Integer.MAX_VALUE);
+        }
+        return size == capacity;
+    }
+    
+    // Waits for room on a full queue, at most until the head expires and makes room by itself;
+    // caller holds the lock
+    private void awaitRoom() throws InterruptedException {
+        long waitNanos = untilHeadExpires();
+        if (waitNanos == Long.MAX_VALUE) {
+            notFull.await();
+        } else {
+            notFull.awaitNanos(waitNanos);
+        }
+    }
+    
+    // Nanoseconds until the head element expires, Long.MAX_VALUE if it never does; caller holds the lock
+    private long untilHeadExpires() {
+        if (expiresAt == null || size == 0 || expiresAt[takeIndex] == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, expiresAt[takeIndex] - System.nanoTime());
+    }
+    
+    // Drops up to max expired elements from the head; caller holds the lock and expiresAt is set
+    private int dropExpired(int max) {
+        int dropped = 0;
+        long now = 0;
+        while (dropped < max && size > 0) {
+            long deadline = expiresAt[takeIndex];
+            if (deadline == 0) {
+                break;
+            }
+            if (now == 0) {
+                now = System.nanoTime();
+            }
+            if (deadline - now > 0) {
+                break;
+            }
+            removeHead();
+            dropped++;
+        }
+        if (dropped > 0) {
+            expiredCount += dropped;
+        }
+        return dropped;
+    }
+    
+    // Gives items put from now on a time to live of ttlMs, or none with 0; items already in the
+    // queue keep theirs
+    @Override
+    public void setTtl(long ttlMs) {
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+        lock.lock();
+        try {
+            ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+            if (ttlMs > 0) {
+                trackExpiry();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public long getTtl() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Inserts an element that expires after ttlMs instead of the queue's TTL, blocking while full
+    @Override
+    public void putWithTtl(Integer item, long ttlMs) throws InterruptedException {
+        long itemTtlNanos = itemTtlNanos(ttlMs);
+        lock.lockInterruptibly();
+        try {
+            long putCallNanos = enqueueNanos != null ? System.nanoTime() : 0;
+            while (isFullNow()) {
+                awaitRoom();
+            }
+            trackExpiry();
+            enqueue(item, putCallNanos, itemTtlNanos);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+    }
+    
+    // Inserts an element that expires after ttlMs if there is space; returns false when full
+    @Override
+    public boolean offerWithTtl(Integer item, long ttlMs) {
+        long itemTtlNanos = itemTtlNanos(ttlMs);
+        lock.lock();
+        try {
+            if (isFullNow()) {
+                return false;
+            }
+            trackExpiry();
+            enqueue(item, 0, itemTtlNanos);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return true;
+    }
+    
+    private static long itemTtlNanos(long ttlMs) {
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        return TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+    
+    // Allocates the deadlines on first use; caller holds the lock
+    private void trackExpiry() {
+        if (expiresAt == null) {
+            expiresAt = new long[capacity];
+        }
+    }
+    
+    // Drops up to max expired elements from the head under one lock acquisition; returns the
+    // number dropped
+    @Override
+    public int removeExpired(int max) {
+        int dropped;
+        lock.lock();
+        try {
+            dropped = expiresAt != null ? dropExpired(max) : 0;
+        } finally {
+            lock.unlock();
+        }
+        if (dropped > 0) {
+            notifyMonitorWaiters();
+        }
+        return dropped;
+    }
+    
+    // Number of elements dropped because they expired; does not take the queue lock
+    @Override
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+    
+    // Removes the head element and wraps it in an envelope carrying its sequence number.
+    // Because the queue is FIFO, the n-th item taken is always the n-th item put, so the
+    // sequence number identifies the put order even when several consumers take concurrently.
+    public SequencedItem takeSequenced() throws InterruptedException {
+        long sequence;
+        Integer item;
+        lock.lockInterruptibly();
+        try {
+            while (available() == 0) {
+                notEmpty.await();
+            }
+            
+            // Lock is held from here on, so no other consumer can interleave
+            sequence = takeSequence;
+            item = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return new SequencedItem(sequence, item);
+    }
+    
+    // Enables latency tracing: every put stores a timestamp in a primitive array parallel to
+    // the buffer (no per-item objects) and every take records the item's sojourn time.
+    // Items already in the queue when tracing starts are not traced.
+    public void enableLatencyTracing(SojournTracer tracer) {
+        if (tracer == null) {
+            throw new IllegalArgumentException("Tracer must not be null");
+        }
+        lock.lock();
+        try {
+            this.tracer = tracer;
+            this.enqueueNanos = new long[capacity];
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Disables latency tracing
+    public void disableLatencyTracing() {
+        lock.lock();
+        try {
+            this.tracer = null;
+            this.enqueueNanos = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Returns the active latency tracer, or null when tracing is disabled
+    public SojournTracer getLatencyTracer() {
+        lock.lock();
+        try {
+            return tracer;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Sets (or with null, removes) the listener that sees every change of the queue. The
+    // listener first receives a snapshot of the current items, under the same lock
+    // acquisition, so snapshot and changes together always describe the queue exactly.
+    @Override
+    public void setChangeListener(QueueChangeListener listener) {
+        lock.lock();
+        try {
+            changeListener = listener;
+            if (listener != null) {
+                listener.onSnapshot(copyItems());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // A snapshot (e.g. SNAPSHOT) pauses the queue only for this copy
+    @Override
+    public int[] toArray() {
+        lock.lock();
+        try {
+            available();
+            return copyItems();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // The items, head first; caller holds the lock. Deadlines are not copied, so snapshots and
+    // replicas hold the items without their TTLs.
+    private int[] copyItems() {
+        int[] items = new int[size];
+        int index = takeIndex;
+        for (int i = 0; i < size; i++) {
+            items[i] = buffer[index];
+            if (++index == capacity) {
+                index = 0;
+            }
+        }
+        return items;
+    }
+    
+    // Returns the current number of elements in the queue. Expired elements at the head are
+    // dropped first; expired ones behind a live head still count until they reach it.
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return available();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // Returns the maximum capacity of the queue
+    @Override
     public int capacity() {
         return capacity;
     }
     
     // Checks if the queue is empty
-    public synchronized boolean isEmpty() {
-        return size == 0;
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return available() == 0;
+        } finally {
+            lock.unlock();
+        }
     }
     
     // Checks if the queue is full
-    public synchronized boolean isFull() {
-        return size == capacity;
+    @Override
+    public boolean isFull() {
+        lock.lock();
+        try {
+            return isFullNow();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Reads size and capacity together; the capacity never changes, so only size needs the lock
+    @Override
+    public void snapshot(QueueSnapshot into) {
+        lock.lock();
+        try {
+            into.size = available();
+        } finally {
+            lock.unlock();
+        }
+        into.capacity = capacity;
     }
 }
 
@@ -0,0 +1,33 @@
+// Source of time and waiting used by the flow-control logic in Producer and Consumer.
+// Production code uses Clock.SYSTEM; tests can plug in a virtual clock so that
+// 30-second flow-control behavior runs in milliseconds.
+public interface Clock {
+    
+    // Clock backed by System.currentTimeMillis(), Thread.sleep() and Object.wait()
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+        
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+        
+        @Override
+        public void waitOn(Object monitor, long millis) throws InterruptedException {
+            monitor.wait(millis);
+        }
+    };
+    
+    // Returns the current time in milliseconds
+    long currentTimeMillis();
+    
+    // Pauses the calling thread for the given time
+    void sleep(long millis) throws InterruptedException;
+    
+    // Waits on the monitor for up to the given time; the caller must hold the monitor.
+    // Like Object.wait(), this may return early, so callers must re-check their condition.
+    void waitOn(Object monitor, long millis) throws InterruptedException;
+}
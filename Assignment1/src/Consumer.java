@@ -1,5 +1,6 @@
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 // Consumer class that reads integers from a queue and stores them in a destination list.
 public class Consumer implements Runnable {
@@ -7,15 +8,50 @@ public class Consumer implements Runnable {
     private final List<Integer> destinationList;
     private final AtomicBoolean shutdown;
     private final String name;
-    private static final long EMPTY_QUEUE_CHECK_INTERVAL_MS = 30000; // 30 seconds
+    private final OrderedSink orderedSink;
+    private final Function<Integer, Integer> processor;
+    private final Clock clock;
+    private final long emptyQueueCheckIntervalMs;
+    // Tunable without code changes via -Dconsumer.emptyCheckIntervalMs=<ms>
+    private static final long EMPTY_QUEUE_CHECK_INTERVAL_MS = Long.getLong("consumer.emptyCheckIntervalMs", 30000); // 30 seconds
+    private static final long POLL_INTERVAL_MS = 1000;
   
     // Constructor for Consumer
     public Consumer(BoundedBlockingQueue queue, List<Integer> destinationList, 
                    AtomicBoolean shutdown, String name) {
+        this(queue, destinationList, shutdown, name, Clock.SYSTEM, EMPTY_QUEUE_CHECK_INTERVAL_MS);
+    }
+    
+    // Constructor for a Consumer with an injected clock and empty-queue check interval
+    public Consumer(BoundedBlockingQueue queue, List<Integer> destinationList, 
+                   AtomicBoolean shutdown, String name, Clock clock, long emptyQueueCheckIntervalMs) {
+        this(queue, destinationList, null, shutdown, name, Function.identity(), clock, emptyQueueCheckIntervalMs);
+    }
+    
+    // Constructor for an ordered Consumer: several of these can share one OrderedSink,
+    // process items in parallel and still deliver results in the original put order
+    public Consumer(BoundedBlockingQueue queue, OrderedSink orderedSink, 
+                   AtomicBoolean shutdown, String name) {
+        this(queue, orderedSink, shutdown, name, Function.identity());
+    }
+    
+    // Constructor for an ordered Consumer that applies a processor to every item
+    public Consumer(BoundedBlockingQueue queue, OrderedSink orderedSink, 
+                   AtomicBoolean shutdown, String name, Function<Integer, Integer> processor) {
+        this(queue, null, orderedSink, shutdown, name, processor, Clock.SYSTEM, EMPTY_QUEUE_CHECK_INTERVAL_MS);
+    }
+    
+    private Consumer(BoundedBlockingQueue queue, List<Integer> destinationList, OrderedSink orderedSink,
+                     AtomicBoolean shutdown, String name, Function<Integer, Integer> processor,
+                     Clock clock, long emptyQueueCheckIntervalMs) {
         this.queue = queue;
         this.destinationList = destinationList;
+        this.orderedSink = orderedSink;
         this.shutdown = shutdown;
         this.name = name;
+        this.processor = processor;
+        this.clock = clock;
+        this.emptyQueueCheckIntervalMs = emptyQueueCheckIntervalMs;
     }
     
     @Override
@@ -31,9 +67,26 @@ public class Consumer implements Runnable {
                 
                 //If queue is not empty, consume item
                 if (!shutdown.get() && !queue.isEmpty()) {
-                    Integer item = queue.take();
-                    synchronized (destinationList) {
-                        destinationList.add(item);
+                    Integer item;
+                    if (orderedSink != null) {
+                        // Keep the sequence number so the sink can restore FIFO order
+                        SequencedItem sequenced = queue.takeSequenced();
+                        boolean delivered = false;
+                        try {
+                            item = processor.apply(sequenced.getValue());
+                            orderedSink.accept(sequenced.getSequence(), item);
+                            delivered = true;
+                        } finally {
+                            if (!delivered) {
+                                // Failed or interrupted: release the number, or the sink waits for it forever
+                                orderedSink.abandon(sequenced);
+                            }
+                        }
+                    } else {
+                        item = queue.take();
+                        synchronized (destinationList) {
+                            destinationList.add(item);
+                        }
                     }
                     consumedCount++;
                     System.out.println("[" + name + "] Consumed: " + item + " (total: " + consumedCount + ")");
@@ -41,6 +94,10 @@ public class Consumer implements Runnable {
             }
             
             System.out.println("[" + name + "] Finished consuming. Total items consumed: " + consumedCount);
+            SojournTracer tracer = queue.getLatencyTracer();
+            if (tracer != null) {
+                System.out.println("[" + name + "] Queue latency " + tracer.getHistogram());
+            }
         } catch (InterruptedException e) {
             System.out.println("[" + name + "] Interrupted while consuming");
             Thread.currentThread().interrupt();
@@ -48,16 +105,16 @@ public class Consumer implements Runnable {
     }
     
 
-    // Checks every 30 seconds and prints status message.
+    // Checks every 30 seconds (emptyQueueCheckIntervalMs) and prints status message.
     // Waits indefinitely until items become available.
     private void handleEmptyQueue() throws InterruptedException {
-        long lastCheckTime = System.currentTimeMillis();
+        long lastCheckTime = clock.currentTimeMillis();
         
         while (queue.isEmpty() && !shutdown.get()) {
-            long currentTime = System.currentTimeMillis();
+            long currentTime = clock.currentTimeMillis();
             long elapsed = currentTime - lastCheckTime;
             
-            if (elapsed >= EMPTY_QUEUE_CHECK_INTERVAL_MS) {
+            if (elapsed >= emptyQueueCheckIntervalMs) {
                 System.out.println("[" + name + "] Queue is still empty, waiting... " +
                                   "(elapsed: " + (elapsed / 1000) + " seconds)");
                 lastCheckTime = currentTime;
@@ -65,7 +122,7 @@ public class Consumer implements Runnable {
             
             synchronized (queue) {
                 if (queue.isEmpty() && !shutdown.get()) {
-                    queue.wait(1000);
+                    clock.waitOn(queue, POLL_INTERVAL_MS);
                 }
             }
         }
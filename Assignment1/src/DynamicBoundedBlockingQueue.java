@@ -1,5 +1,13 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 // Dynamic Bounded Blocking Queue Implementation
-public class DynamicBoundedBlockingQueue {
+// Like BoundedBlockingQueue, blocking uses a ReentrantLock and conditions so virtual
+// threads do not pin their carrier, and monitor waiters are still notified after changes.
+// Items expire the same way too (setTtl(), putWithTtl(), removeExpired()); the deadlines
+// array grows and shrinks with the buffer.
+public class DynamicBoundedBlockingQueue implements QueueEngine {
     private Integer[] buffer;
     private final int initialCapacity;
     private int capacity;
@@ -7,6 +15,15 @@ public class DynamicBoundedBlockingQueue {
     private int putIndex;
     private int takeIndex;
     private final Object resizeLock = new Object(); // Lock for resize operations
+    private volatile long growCount;   // Written under resizeLock, read without any lock
+    private volatile long shrinkCount;
+    private QueueChangeListener changeListener; // Only set when the queue is replicated
+    private long[] expiresAt;    // System.nanoTime() deadlines parallel to buffer, 0 for none; null until a TTL is used
+    private long ttlNanos;       // TTL of items put without their own, 0 for none
+    private volatile long expiredCount; // Written under the lock, read without it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
     
     // Constructor to create a dynamic bounded queue with initial capacity
     public DynamicBoundedBlockingQueue(int initialCapacity) {
@@ -22,79 +39,467 @@ public class DynamicBoundedBlockingQueue {
     }
     
     // Inserts an element into the queue
+    @Override
     public void put(Integer item) throws InterruptedException {
-        synchronized (this) {
+        lock.lockInterruptibly();
+        try {
             // If queue is full, attempt to grow
-            if (size == capacity) {
+            if (isFullNow()) {
                 grow();
             }
             
             // Wait if resize is in progress 
-            while (size == capacity) {
-                wait();
-            }
-            
-            // Insert element at putIndex
-            buffer[putIndex] = item;
-            putIndex = (putIndex + 1) % capacity;
-            size++;
-            
-            // Check if we should shrink 
-            if (size < initialCapacity && capacity > initialCapacity) {
-                checkAndShrink();
+            while (isFullNow()) {
+                awaitRoom();
             }
             
-            // Notify waiting consumers
-            notifyAll();
+            enqueue(item);
+        } finally {
+            lock.unlock();
         }
+        
+        // Notify waiting consumers
+        notifyMonitorWaiters();
     }
     
     // Removes and returns an element from the queue
+    @Override
     public Integer take() throws InterruptedException {
-        synchronized (this) {
+        Integer item;
+        lock.lockInterruptibly();
+        try {
             // Wait for queue to have items
-            while (size == 0) {
-                wait();
+            while (available() == 0) {
+                notEmpty.await();
             }
             
-            // Remove element from takeIndex
-            Integer item = buffer[takeIndex];
-            buffer[takeIndex] = null; 
-            takeIndex = (takeIndex + 1) % capacity;
-            size--;
-            
-            // Check if we should shrink 
-            if (size < initialCapacity && capacity > initialCapacity) {
-                checkAndShrink();
+            item = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        
+        // Notify waiting producers
+        notifyMonitorWaiters();
+        
+        return item;
+    }
+    
+    // Inserts an element without blocking; the queue grows instead of rejecting
+    @Override
+    public boolean offer(Integer item) {
+        lock.lock();
+        try {
+            if (isFullNow()) {
+                grow();
             }
-            
-            // Notify waiting producers
+            if (isFullNow()) {
+                return false;
+            }
+            enqueue(item);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return true;
+    }
+    
+    // Removes and returns the head element; returns null instead of blocking when empty
+    @Override
+    public Integer poll() {
+        Integer item;
+        lock.lock();
+        try {
+            if (available() == 0) {
+                return null;
+            }
+            item = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return item;
+    }
+    
+    // Inserts an element; the queue grows instead of waiting, so this only waits out a resize
+    @Override
+    public boolean offer(Integer item, long timeoutMs) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lockInterruptibly();
+        try {
+            if (isFullNow()) {
+                grow();
+            }
+            while (isFullNow()) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                long waitNanos = Math.min(remainingNanos, untilHeadExpires());
+                remainingNanos -= waitNanos - notFull.awaitNanos(waitNanos);
+            }
+            enqueue(item);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return true;
+    }
+    
+    // Removes and returns the head element, waiting at most timeoutMs; returns null on timeout
+    @Override
+    public Integer poll(long timeoutMs) throws InterruptedException {
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Integer item;
+        lock.lockInterruptibly();
+        try {
+            while (available() == 0) {
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+                remainingNanos = notEmpty.awaitNanos(remainingNanos);
+            }
+            item = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return item;
+    }
+    
+    // Inserts all items taking the lock once; the queue grows once for the rest of the batch when full
+    @Override
+    public void putAll(int[] items, int offset, int count) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (isFullNow()) {
+                    growFor(count - i);
+                }
+                while (isFullNow()) {
+                    awaitRoom();
+                }
+                enqueue(items[offset + i]);
+            }
+        } finally {
+            lock.unlock();
+            notifyMonitorWaiters();
+        }
+    }
+    
+    // Inserts every item, growing as needed; returns the number inserted
+    @Override
+    public int offerAll(int[] items, int offset, int count) {
+        int added = 0;
+        lock.lock();
+        try {
+            while (added < count) {
+                if (isFullNow()) {
+                    growFor(count - added);
+                }
+                if (isFullNow()) {
+                    break;
+                }
+                enqueue(items[offset + added]);
+                added++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (added > 0) {
+            notifyMonitorWaiters();
+        }
+        return added;
+    }
+    
+    // Waits for the first element, then drains up to max elements under the same lock
+    @Override
+    public int takeUpTo(int[] dest, int offset, int max) throws InterruptedException {
+        int count = 0;
+        lock.lockInterruptibly();
+        try {
+            while (available() == 0) {
+                notEmpty.await();
+            }
+            while (count < max && available() > 0) {
+                dest[offset + count] = dequeue();
+                count++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return count;
+    }
+    
+    // Drains up to max elements without blocking; returns the number removed
+    @Override
+    public int pollUpTo(int[] dest, int offset, int max) {
+        int count = 0;
+        lock.lock();
+        try {
+            while (count < max && available() > 0) {
+                dest[offset + count] = dequeue();
+                count++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (count > 0) {
+            notifyMonitorWaiters();
+        }
+        return count;
+    }
+    
+    // Wakes threads waiting on the queue's monitor; called after the lock is released
+    private void notifyMonitorWaiters() {
+        synchronized (this) {
             notifyAll();
-            
-            return item;
         }
     }
     
+    // Inserts element at putIndex; caller holds the lock and has checked for space
+    private void enqueue(Integer item) {
+        enqueue(item, ttlNanos);
+    }
+    
+    // Inserts element at putIndex, expiring after itemTtlNanos (0 for never)
+    private void enqueue(Integer item, long itemTtlNanos) {
+        buffer[putIndex] = item;
+        if (expiresAt != null) {
+            expiresAt[putIndex] = itemTtlNanos > 0 ? System.nanoTime() + itemTtlNanos : 0;
+        }
+        putIndex = (putIndex + 1) % capacity;
+        size++;
+
+        if (changeListener != null) {
+            changeListener.onEnqueue(item);
+        }        
+        // Check if we should shrink 
+        if (size < initialCapacity && capacity > initialCapacity) {
+            checkAndShrink();
+        }
+        notEmpty.signal();
+    }
+    
+    // Removes element from takeIndex; caller holds the lock and has checked for an item
+    private Integer dequeue() {
+        Integer item = buffer[takeIndex];
+        removeHead();
+        return item;
+    }
+    
+    // Drops the head element; caller holds the lock
+    private void removeHead() {
+        buffer[takeIndex] = null;
+        takeIndex = (takeIndex + 1) % capacity;
+        size--;
+
+        if (changeListener != null) {
+            changeListener.onDequeue();
+        }        
+        // Check if we should shrink 
+        if (size < initialCapacity && capacity > initialCapacity) {
+            checkAndShrink();
+        }
+        notFull.signal();
+    }
+    
+    // The number of elements once expired ones at the head are dropped; caller holds the lock
+    private int available() {
+        if (expiresAt != null) {
+            dropExpired(Integer.MAX_VALUE);
+        }
+        return size;
+    }
+    
+    // True if there is no room even after dropping expired elements at the head; caller holds the lock
+    private boolean isFullNow() {
+        if (size == capacity && expiresAt != null) {
+            dropExpired(Integer.MAX_VALUE);
+        }
+        return size == capacity;
+    }
+    
+    // Waits for room on a queue at its largest, at most until the head expires and makes room
+    // by itself; caller holds the lock
+    private void awaitRoom() throws InterruptedException {
+        long waitNanos = untilHeadExpires();
+        if (waitNanos == Long.MAX_VALUE) {
+            notFull.await();
+        } else {
+            notFull.awaitNanos(waitNanos);
+        }
+    }
+    
+    // Nanoseconds until the head element expires, Long.MAX_VALUE if it never does; caller holds the lock
+    private long untilHeadExpires() {
+        if (expiresAt == null || size == 0 || expiresAt[takeIndex] == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, expiresAt[takeIndex] - System.nanoTime());
+    }
+    
+    // Drops up to max expired elements from the head; caller holds the lock and expiresAt is set
+    private int dropExpired(int max) {
+        int dropped = 0;
+        long now = 0;
+        while (dropped < max && size > 0) {
+            long deadline = expiresAt[takeIndex];
+            if (deadline == 0) {
+                break;
+            }
+            if (now == 0) {
+                now = System.nanoTime();
+            }
+            if (deadline - now > 0) {
+                break;
+            }
+            removeHead();
+            dropped++;
+        }
+        if (dropped > 0) {
+            expiredCount += dropped;
+        }
+        return dropped;
+    }
+    
+    // Gives items put from now on a time to live of ttlMs, or none with 0; items already in the
+    // queue keep theirs
+    @Override
+    public void setTtl(long ttlMs) {
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+        lock.lock();
+        try {
+            ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+            if (ttlMs > 0) {
+                trackExpiry();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public long getTtl() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Inserts an element that expires after ttlMs instead of the queue's TTL; grows when full
+    @Override
+    public void putWithTtl(Integer item, long ttlMs) throws InterruptedException {
+        long itemTtlNanos = itemTtlNanos(ttlMs);
+        lock.lockInterruptibly();
+        try {
+            if (isFullNow()) {
+                grow();
+            }
+            while (isFullNow()) {
+                awaitRoom();
+            }
+            trackExpiry();
+            enqueue(item, itemTtlNanos);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+    }
+    
+    // Inserts an element that expires after ttlMs without blocking; the queue grows instead
+    @Override
+    public boolean offerWithTtl(Integer item, long ttlMs) {
+        long itemTtlNanos = itemTtlNanos(ttlMs);
+        lock.lock();
+        try {
+            if (isFullNow()) {
+                grow();
+            }
+            if (isFullNow()) {
+                return false;
+            }
+            trackExpiry();
+            enqueue(item, itemTtlNanos);
+        } finally {
+            lock.unlock();
+        }
+        notifyMonitorWaiters();
+        return true;
+    }
+    
+    private static long itemTtlNanos(long ttlMs) {
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        return TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+    
+    // Allocates the deadlines on first use; caller holds the lock
+    private void trackExpiry() {
+        if (expiresAt == null) {
+            expiresAt = new long[capacity];
+        }
+    }
+    
+    // Drops up to max expired elements from the head under one lock acquisition; returns the
+    // number dropped
+    @Override
+    public int removeExpired(int max) {
+        int dropped;
+        lock.lock();
+        try {
+            dropped = expiresAt != null ? dropExpired(max) : 0;
+        } finally {
+            lock.unlock();
+        }
+        if (dropped > 0) {
+            notifyMonitorWaiters();
+        }
+        return dropped;
+    }
+    
+    // Number of elements dropped because they expired; does not take the queue lock
+    @Override
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+    
     // Grows the queue by initialCapacity amount
     private void grow() {
+        growFor(1);
+    }
+    
+    // Grows the queue in initialCapacity steps until count more elements fit, copying once
+    private void growFor(int count) {
         synchronized (resizeLock) {
             // Sanity check
-            if (size < capacity) {
+            if (size + count <= capacity) {
                 return;
             }
             
-            int newCapacity = capacity + initialCapacity;
+            int steps = (size + count - capacity + initialCapacity - 1) / initialCapacity;
+            int newCapacity = capacity + steps * initialCapacity;
             Integer[] newBuffer = new Integer[newCapacity];
+            long[] newExpiresAt = expiresAt != null ? new long[newCapacity] : null;
             
             // Copy existing elements maintaining order
             for (int i = 0; i < size; i++) {
                 newBuffer[i] = buffer[(takeIndex + i) % capacity];
+                if (newExpiresAt != null) {
+                    newExpiresAt[i] = expiresAt[(takeIndex + i) % capacity];
+                }
             }
 
             buffer = newBuffer;
+            expiresAt = newExpiresAt;
             capacity = newCapacity;
             takeIndex = 0;
             putIndex = size;
+            growCount++;
         }
     }
     
@@ -105,26 +510,87 @@ public class DynamicBoundedBlockingQueue {
             // Shrink if size is less than initial capacity and capacity is greater than initial capacity
             if (size < initialCapacity && capacity > initialCapacity) {
                 Integer[] newBuffer = new Integer[initialCapacity];
+                long[] newExpiresAt = expiresAt != null ? new long[initialCapacity] : null;
                 // Copy existing elements to new buffer
                 for (int i = 0; i < size; i++) {
                     newBuffer[i] = buffer[(takeIndex + i) % capacity];
+                    if (newExpiresAt != null) {
+                        newExpiresAt[i] = expiresAt[(takeIndex + i) % capacity];
+                    }
                 }
                 buffer = newBuffer;
+                expiresAt = newExpiresAt;
                 capacity = initialCapacity;
                 takeIndex = 0;
                 putIndex = size;
+                shrinkCount++;
             }
         }
     }
     
-    // Returns the current number of elements in the queue
-    public synchronized int size() {
-        return size;
+    // Sets (or with null, removes) the listener that sees every change of the queue. The
+    // listener first receives a snapshot of the current items, under the same lock
+    // acquisition, so snapshot and changes together always describe the queue exactly.
+    @Override
+    public void setChangeListener(QueueChangeListener listener) {
+        lock.lock();
+        try {
+            changeListener = listener;
+            if (listener != null) {
+                listener.onSnapshot(copyItems());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // A snapshot (e.g. SNAPSHOT) pauses the queue only for this copy
+    @Override
+    public int[] toArray() {
+        lock.lock();
+        try {
+            available();
+            return copyItems();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // The items, head first; caller holds the lock. Deadlines are not copied, so snapshots and
+    // replicas hold the items without their TTLs.
+    private int[] copyItems() {
+        int[] items = new int[size];
+        int index = takeIndex;
+        for (int i = 0; i < size; i++) {
+            items[i] = buffer[index];
+            if (++index == capacity) {
+                index = 0;
+            }
+        }
+        return items;
+    }
+    
+    // Returns the current number of elements in the queue. Expired elements at the head are
+    // dropped first; expired ones behind a live head still count until they reach it.
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return available();
+        } finally {
+            lock.unlock();
+        }
     }
     
     // Returns the current capacity of the queue
-    public synchronized int capacity() {
-        return capacity;
+    @Override
+    public int capacity() {
+        lock.lock();
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
     }
     
     // Returns the initial capacity of the queue
@@ -132,14 +598,48 @@ public class DynamicBoundedBlockingQueue {
         return initialCapacity;
     }
     
+    // Number of times the queue has grown; does not take the queue lock
+    public long getGrowCount() {
+        return growCount;
+    }
+    
+    // Number of times the queue has shrunk back to its initial capacity; does not take the queue lock
+    public long getShrinkCount() {
+        return shrinkCount;
+    }
+    
     // Checks if the queue is empty
-    public synchronized boolean isEmpty() {
-        return size == 0;
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return available() == 0;
+        } finally {
+            lock.unlock();
+        }
     }
     
     // Checks if the queue is full (at current capacity)
-    public synchronized boolean isFull() {
-        return size == capacity;
+    @Override
+    public boolean isFull() {
+        lock.lock();
+        try {
+            return isFullNow();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Reads size and capacity under one lock acquisition, so the pair is never torn by a resize
+    @Override
+    public void snapshot(QueueSnapshot into) {
+        lock.lock();
+        try {
+            into.size = available();
+            into.capacity = capacity;
+        } finally {
+            lock.unlock();
+        }
     }
 }
 
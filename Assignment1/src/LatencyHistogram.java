@@ -0,0 +1,165 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free log-linear histogram for latency values (in nanoseconds).
+// Each power of two is split into 16 linear sub-buckets, so any recorded value is
+// reported with a relative error below 1/16 while the whole histogram stays a fixed
+// array of counters that concurrent threads can increment without locking.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    // Records a single value; negative values are clamped to 0
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexFor(value));
+        totalCount.increment();
+        totalSum.add(value);
+
+        long currentMin;
+        while (value < (currentMin = min.get()) && !min.compareAndSet(currentMin, value)) {
+            // Retry until this value is no longer smaller than the minimum
+        }
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Retry until this value is no longer larger than the maximum
+        }
+    }
+
+    // Maps a value to its bucket index
+    private static int indexFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Returns the largest value that maps to the given bucket index
+    private static long upperBoundFor(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    // Returns the value below which the given percentage (0-100) of recorded values fall
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += counts.get(i);
+            if (cumulative >= target) {
+                return Math.min(upperBoundFor(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0.0 : (double) totalSum.sum() / count;
+    }
+
+    // Adds all values recorded in another histogram to this one
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.add(other.totalCount.sum());
+        totalSum.add(other.totalSum.sum());
+        if (other.getCount() > 0) {
+            min.accumulateAndGet(other.getMin(), Math::min);
+            max.accumulateAndGet(other.getMax(), Math::max);
+        }
+    }
+
+    // Returns a copy corrected for coordinated omission: a client that waits for each reply
+    // before sending the next request records one slow value where a client sending every
+    // expectedIntervalNanos would have seen value, value - interval, value - 2*interval ..
+    // The copy adds those missing samples (the same correction as HdrHistogram's).
+    public LatencyHistogram copyCorrectedForCoordinatedOmission(long expectedIntervalNanos) {
+        LatencyHistogram corrected = new LatencyHistogram();
+        long maxValue = getMax();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                long value = Math.min(upperBoundFor(i), maxValue);
+                corrected.recordValues(value, c);
+                for (long missing = value - expectedIntervalNanos;
+                     expectedIntervalNanos > 0 && missing >= expectedIntervalNanos; missing -= expectedIntervalNanos) {
+                    corrected.recordValues(missing, c);
+                }
+            }
+        }
+        if (getCount() > 0) {
+            corrected.min.accumulateAndGet(getMin(), Math::min);
+        }
+        return corrected;
+    }
+
+    // Records the same value count times
+    private void recordValues(long value, long count) {
+        counts.addAndGet(indexFor(value), count);
+        totalCount.add(count);
+        totalSum.add(value * count);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    // Clears all recorded values
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    // One-line summary in microseconds
+    @Override
+    public String toString() {
+        return String.format("count: %d, mean: %.1fus, p50: %.1fus, p90: %.1fus, p99: %.1fus, p99.9: %.1fus, max: %.1fus",
+                             getCount(), getMean() / 1000.0,
+                             getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+                             getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0,
+                             getMax() / 1000.0);
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Ordered sink that reassembles results from several parallel consumers.
+// Consumers submit items tagged with their sequence number in any order; the sink
+// appends them to the destination list strictly in sequence order. Items that arrive
+// early wait in a reorder buffer bounded by the window size.
+//
+// Every sequence number a consumer takes must reach the sink, or the sink waits for it
+// forever. A consumer that cannot deliver its item (its processing failed, or it was
+// interrupted) calls abandon() instead, which releases the gap without blocking.
+public class OrderedSink {
+    private final List<Integer> destinationList;
+    private final Integer[] reorderBuffer;
+    private final boolean[] present;
+    private final int window;
+    private final Set<Long> abandonedAhead = new HashSet<>(); // Abandoned beyond the window
+    private long nextSequence;      // Next sequence number to be emitted
+    private int bufferedCount;      // Items currently held in the reorder buffer
+    private int maxBufferedCount;   // High-water mark of the reorder buffer
+    private long emittedCount;
+    private long abandonedCount;
+
+    // Constructor for OrderedSink with the given reorder window
+    public OrderedSink(List<Integer> destinationList, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Reorder window must be at least 1");
+        }
+        this.destinationList = destinationList;
+        this.window = window;
+        this.reorderBuffer = new Integer[window];
+        this.present = new boolean[window];
+        this.nextSequence = 0;
+    }
+
+    // Submits an item with its sequence number.
+    // Blocks while the item is too far ahead of the next expected sequence number, which
+    // bounds the reorder buffer. The item with the next expected number is always accepted,
+    // so consumers holding earlier items can always make progress.
+    // A null value marks the sequence number as consumed without emitting anything.
+    public synchronized void accept(long sequence, Integer value) throws InterruptedException {
+        if (sequence < nextSequence) {
+            throw new IllegalArgumentException("Sequence " + sequence + " was already emitted");
+        }
+        while (sequence >= nextSequence + window) {
+            wait();
+        }
+
+        buffer(sequence, value);
+        drain();
+    }
+
+    // Gives up a sequence number whose item will never be submitted, so that the items after
+    // it are not held back. Never blocks: a number beyond the window is remembered until the
+    // window reaches it.
+    public synchronized void abandon(long sequence) {
+        if (sequence < nextSequence) {
+            throw new IllegalArgumentException("Sequence " + sequence + " was already emitted");
+        }
+        if (sequence >= nextSequence + window) {
+            if (!abandonedAhead.add(sequence)) {
+                throw new IllegalArgumentException("Duplicate sequence " + sequence);
+            }
+        } else {
+            buffer(sequence, null);
+        }
+        abandonedCount++;
+        drain();
+    }
+
+    // Convenience method for items taken with BoundedBlockingQueue.takeSequenced()
+    public void abandon(SequencedItem item) {
+        abandon(item.getSequence());
+    }
+
+    // Stores a value within the window; caller holds the lock
+    private void buffer(long sequence, Integer value) {
+        int slot = (int) (sequence % window);
+        if (present[slot] || abandonedAhead.contains(sequence)) {
+            throw new IllegalArgumentException("Duplicate sequence " + sequence);
+        }
+        reorderBuffer[slot] = value;
+        present[slot] = true;
+        bufferedCount++;
+        maxBufferedCount = Math.max(maxBufferedCount, bufferedCount);
+    }
+
+    // Emits every contiguous item starting at the next expected sequence number; caller
+    // holds the lock
+    private void drain() {
+        boolean emitted = false;
+        while (true) {
+            int slot = (int) (nextSequence % window);
+            if (present[slot]) {
+                Integer item = reorderBuffer[slot];
+                reorderBuffer[slot] = null;
+                present[slot] = false;
+                bufferedCount--;
+                if (item != null) {
+                    synchronized (destinationList) {
+                        destinationList.add(item);
+                    }
+                    emittedCount++;
+                }
+            } else if (!abandonedAhead.remove(nextSequence)) {
+                break;
+            }
+            nextSequence++;
+            emitted = true;
+        }
+
+        // Window moved forward, wake up consumers waiting to submit
+        if (emitted) {
+            notifyAll();
+        }
+    }
+
+    // Convenience method for items taken with BoundedBlockingQueue.takeSequenced()
+    public void accept(SequencedItem item) throws InterruptedException {
+        accept(item.getSequence(), item.getValue());
+    }
+
+    // Returns the number of items waiting in the reorder buffer
+    public synchronized int getBufferedCount() {
+        return bufferedCount;
+    }
+
+    // Returns the highest reorder buffer occupancy seen so far
+    public synchronized int getMaxBufferedCount() {
+        return maxBufferedCount;
+    }
+
+    // Returns the next sequence number the sink is waiting for
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    // Returns the number of items appended to the destination list
+    public synchronized long getEmittedCount() {
+        return emittedCount;
+    }
+
+    // Returns the number of sequence numbers given up with abandon()
+    public synchronized long getAbandonedCount() {
+        return abandonedCount;
+    }
+
+    // Returns the maximum number of items that can be buffered out of order
+    public int getWindow() {
+        return window;
+    }
+}
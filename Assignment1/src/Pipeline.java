@@ -0,0 +1,320 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Multi-stage pipeline built on top of BoundedBlockingQueue.
+// Source -> queue -> stage -> queue -> stage ... -> destination list.
+// Every stage owns a bounded input queue, so a slow stage blocks the puts of the
+// stage before it and backpressure propagates all the way back to the source.
+public class Pipeline {
+    // End-of-stream marker, told apart from items by identity rather than by value. Integer
+    // caches no values below -128, so this instance is never the boxed form of a source item,
+    // even one equal to Integer.MIN_VALUE, and null stays an ordinary (filtered) item.
+    private static final Integer END_OF_STREAM = Integer.valueOf(Integer.MIN_VALUE);
+
+    private final List<Stage> stages;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean started = false;
+
+    private Pipeline(List<Stage> stages) {
+        this.stages = Collections.unmodifiableList(stages);
+    }
+
+    // Creates a new builder for a pipeline
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Starts the source thread and all stage workers.
+    // Items from sourceList flow through every stage and end up in destinationList.
+    public synchronized void start(List<Integer> sourceList, List<Integer> destinationList) {
+        if (started) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        started = true;
+
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            Stage next = (i + 1 < stages.size()) ? stages.get(i + 1) : null;
+            stage.startTimeNanos = System.nanoTime();
+            for (int w = 0; w < stage.parallelism; w++) {
+                Thread worker = new Thread(new StageWorker(stage, next, destinationList),
+                                           stage.name + "-" + (w + 1));
+                threads.add(worker);
+                worker.start();
+            }
+        }
+
+        Stage first = stages.get(0);
+        Thread source = new Thread(() -> {
+            try {
+                for (Integer item : sourceList) {
+                    first.input.put(item);
+                }
+                // One end-of-stream marker per worker of the first stage
+                for (int w = 0; w < first.parallelism; w++) {
+                    first.input.put(END_OF_STREAM);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Pipeline-Source");
+        threads.add(source);
+        source.start();
+    }
+
+    // Waits until every item has been pushed through the last stage
+    public void awaitCompletion() throws InterruptedException {
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    // Convenience method that starts the pipeline and waits for it to drain
+    public void run(List<Integer> sourceList, List<Integer> destinationList) throws InterruptedException {
+        start(sourceList, destinationList);
+        awaitCompletion();
+    }
+
+    // Interrupts all pipeline threads
+    public void stop() {
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+    }
+
+    // Returns the stages after fusion, in execution order
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    // Prints throughput and queue depth of every stage
+    public void printStats() {
+        for (Stage stage : stages) {
+            System.out.println("  " + stage);
+        }
+    }
+
+    // A (possibly fused) stage with its own input queue and worker count
+    public static class Stage {
+        private final String name;
+        private final Function<Integer, Integer> function;
+        private final int parallelism;
+        private final boolean stateless;
+        private final BoundedBlockingQueue input;
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicInteger activeWorkers;
+        private volatile long startTimeNanos;
+        private volatile long endTimeNanos;
+
+        Stage(String name, Function<Integer, Integer> function, int parallelism,
+              int inputCapacity, boolean stateless) {
+            this.name = name;
+            this.function = function;
+            this.parallelism = parallelism;
+            this.stateless = stateless;
+            this.input = new BoundedBlockingQueue(inputCapacity);
+            this.activeWorkers = new AtomicInteger(parallelism);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public boolean isStateless() {
+            return stateless;
+        }
+
+        // Number of items this stage has finished processing
+        public long getProcessedCount() {
+            return processed.get();
+        }
+
+        // Current number of items waiting in the stage's input queue
+        public int getQueueDepth() {
+            return input.size();
+        }
+
+        public int getQueueCapacity() {
+            return input.capacity();
+        }
+
+        // Items processed per second since the stage started (until it finished)
+        public double getThroughput() {
+            long start = startTimeNanos;
+            if (start == 0) {
+                return 0.0;
+            }
+            long end = endTimeNanos != 0 ? endTimeNanos : System.nanoTime();
+            long elapsed = Math.max(1, end - start);
+            return processed.get() * 1_000_000_000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s] parallelism: %d, processed: %d, throughput: %.1f items/s, queue depth: %d / %d",
+                                 name, parallelism, getProcessedCount(), getThroughput(),
+                                 getQueueDepth(), getQueueCapacity());
+        }
+    }
+
+    // Worker thread body: takes from the stage's input queue, applies the function
+    // and hands the result to the next stage (or to the destination list)
+    private static class StageWorker implements Runnable {
+        private final Stage stage;
+        private final Stage next;
+        private final List<Integer> destinationList;
+
+        StageWorker(Stage stage, Stage next, List<Integer> destinationList) {
+            this.stage = stage;
+            this.next = next;
+            this.destinationList = destinationList;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Integer item = stage.input.take();
+                    if (item == END_OF_STREAM) {
+                        break;
+                    }
+
+                    Integer result;
+                    try {
+                        result = stage.function.apply(item);
+                    } catch (RuntimeException e) {
+                        System.out.println("[" + Thread.currentThread().getName() + "] Dropped item " +
+                                           item + ": " + e.getMessage());
+                        continue;
+                    }
+                    stage.processed.incrementAndGet();
+
+                    if (result == null) {
+                        continue; // Stage filtered the item out
+                    }
+                    if (next != null) {
+                        next.input.put(result);
+                    } else {
+                        synchronized (destinationList) {
+                            destinationList.add(result);
+                        }
+                    }
+                }
+
+                // Last worker of this stage forwards end-of-stream downstream
+                if (stage.activeWorkers.decrementAndGet() == 0) {
+                    stage.endTimeNanos = System.nanoTime();
+                    if (next != null) {
+                        for (int w = 0; w < next.parallelism; w++) {
+                            next.input.put(END_OF_STREAM);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Builder that collects stage definitions and fuses adjacent stateless stages
+    public static class Builder {
+        private final List<StageSpec> specs = new ArrayList<>();
+        private boolean fusionEnabled = true;
+
+        // Adds a stateless stage; a function returning null filters the item out
+        public Builder stage(String name, int parallelism, int inputCapacity,
+                             Function<Integer, Integer> function) {
+            return addStage(name, parallelism, inputCapacity, function, true);
+        }
+
+        // Adds a stage that keeps state between items and must never be fused
+        public Builder statefulStage(String name, int parallelism, int inputCapacity,
+                                     Function<Integer, Integer> function) {
+            return addStage(name, parallelism, inputCapacity, function, false);
+        }
+
+        // Enables or disables fusion of adjacent stateless stages (enabled by default)
+        public Builder fusion(boolean enabled) {
+            this.fusionEnabled = enabled;
+            return this;
+        }
+
+        private Builder addStage(String name, int parallelism, int inputCapacity,
+                                 Function<Integer, Integer> function, boolean stateless) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be at least 1");
+            }
+            if (inputCapacity < 1) {
+                throw new IllegalArgumentException("Input capacity must be at least 1");
+            }
+            if (function == null) {
+                throw new IllegalArgumentException("Stage function must not be null");
+            }
+            specs.add(new StageSpec(name, parallelism, inputCapacity, function, stateless));
+            return this;
+        }
+
+        public Pipeline build() {
+            if (specs.isEmpty()) {
+                throw new IllegalStateException("Pipeline needs at least one stage");
+            }
+
+            List<Stage> stages = new ArrayList<>();
+            StageSpec current = specs.get(0);
+            for (int i = 1; i < specs.size(); i++) {
+                StageSpec spec = specs.get(i);
+                if (fusionEnabled && current.stateless && spec.stateless
+                        && current.parallelism == spec.parallelism) {
+                    // Fuse: run both functions in the same worker, skipping the intermediate queue
+                    current = current.fuse(spec);
+                } else {
+                    stages.add(current.toStage());
+                    current = spec;
+                }
+            }
+            stages.add(current.toStage());
+            return new Pipeline(stages);
+        }
+    }
+
+    // Stage definition before fusion
+    private static class StageSpec {
+        private final String name;
+        private final int parallelism;
+        private final int inputCapacity;
+        private final Function<Integer, Integer> function;
+        private final boolean stateless;
+
+        StageSpec(String name, int parallelism, int inputCapacity,
+                  Function<Integer, Integer> function, boolean stateless) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.inputCapacity = inputCapacity;
+            this.function = function;
+            this.stateless = stateless;
+        }
+
+        // Combines this stage with the following one; null results short-circuit
+        StageSpec fuse(StageSpec next) {
+            Function<Integer, Integer> first = function;
+            Function<Integer, Integer> second = next.function;
+            Function<Integer, Integer> fused = item -> {
+                Integer intermediate = first.apply(item);
+                return intermediate == null ? null : second.apply(intermediate);
+            };
+            return new StageSpec(name + "+" + next.name, parallelism, inputCapacity, fused, true);
+        }
+
+        Stage toStage() {
+            return new Stage(name, function, parallelism, inputCapacity, stateless);
+        }
+    }
+}
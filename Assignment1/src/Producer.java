@@ -7,16 +7,36 @@ public class Producer implements Runnable {
     private final List<Integer> sourceList;
     private final AtomicBoolean shutdown;
     private final String name;
-    private static final long FLOW_CONTROL_WAIT_TIME_MS = 30000; // 30 seconds
-    
+    private final TokenBucketRateLimiter rateLimiter;
+    private final Clock clock;
+    private final long flowControlWaitTimeMs;
+    // Tunable without code changes via -Dproducer.flowControlWaitMs=<ms>
+    private static final long FLOW_CONTROL_WAIT_TIME_MS = Long.getLong("producer.flowControlWaitMs", 30000); // 30 seconds
+    private static final long POLL_INTERVAL_MS = 1000;
 
     // Constructor for Producer
     public Producer(BoundedBlockingQueue queue, List<Integer> sourceList, 
                     AtomicBoolean shutdown, String name) {
+        this(queue, sourceList, shutdown, name, null);
+    }
+    
+    // Constructor for a rate-limited Producer; every put first takes a token from the limiter
+    public Producer(BoundedBlockingQueue queue, List<Integer> sourceList, 
+                    AtomicBoolean shutdown, String name, TokenBucketRateLimiter rateLimiter) {
+        this(queue, sourceList, shutdown, name, rateLimiter, Clock.SYSTEM, FLOW_CONTROL_WAIT_TIME_MS);
+    }
+    
+    // Constructor for a Producer with an injected clock and flow-control wait time
+    public Producer(BoundedBlockingQueue queue, List<Integer> sourceList, 
+                    AtomicBoolean shutdown, String name, TokenBucketRateLimiter rateLimiter,
+                    Clock clock, long flowControlWaitTimeMs) {
         this.queue = queue;
         this.sourceList = sourceList;
         this.shutdown = shutdown;
         this.name = name;
+        this.rateLimiter = rateLimiter;
+        this.clock = clock;
+        this.flowControlWaitTimeMs = flowControlWaitTimeMs;
     }
     
     @Override
@@ -33,6 +53,11 @@ public class Producer implements Runnable {
                 }
                 // Produce item if not shutdown and queue has space
                 if (!shutdown.get() && index < sourceList.size() && !queue.isFull()) {
+                    if (rateLimiter != null && !rateLimiter.acquire()) {
+                        // Rejected by the limiter, back off until the next token is due
+                        clock.sleep(Math.max(1, rateLimiter.nanosUntilAvailable() / 1_000_000));
+                        continue;
+                    }
                     Integer item = sourceList.get(index);
                     queue.put(item);
                     System.out.println("[" + name + "] Produced: " + item);
@@ -41,6 +66,9 @@ public class Producer implements Runnable {
             }
             
             System.out.println("[" + name + "] Finished producing. Total items produced: " + index);
+            if (rateLimiter != null) {
+                System.out.println("[" + name + "] Rate limiter: " + rateLimiter);
+            }
         } catch (InterruptedException e) {
             System.out.println("[" + name + "] Interrupted while producing");
             Thread.currentThread().interrupt();
@@ -48,19 +76,19 @@ public class Producer implements Runnable {
     }
     
     
-    // Waits 30 seconds and monitors if queue size decreases.
+    // Waits 30 seconds (flowControlWaitTimeMs) and monitors if queue size decreases.
     // If size doesn't decrease, pauses and waits for size to decrease.
     private void handleFullQueue() throws InterruptedException {
-        long startTime = System.currentTimeMillis();
+        long startTime = clock.currentTimeMillis();
         int initialSize = queue.size();
         
         System.out.println("[" + name + "] Queue is full (size: " + initialSize + 
-                          "), monitoring for " + (FLOW_CONTROL_WAIT_TIME_MS / 1000) + " seconds...");
+                          "), monitoring for " + (flowControlWaitTimeMs / 1000) + " seconds...");
         
         while (queue.isFull() && !shutdown.get()) {
-            long elapsed = System.currentTimeMillis() - startTime;
+            long elapsed = clock.currentTimeMillis() - startTime;
             
-            if (elapsed >= FLOW_CONTROL_WAIT_TIME_MS) {
+            if (elapsed >= flowControlWaitTimeMs) {
                 int currentSize = queue.size();
                 
                 if (currentSize < initialSize) {
@@ -74,7 +102,7 @@ public class Producer implements Runnable {
                     
                     synchronized (queue) {
                         while (queue.isFull() && !shutdown.get()) {
-                            queue.wait(1000);
+                            clock.waitOn(queue, POLL_INTERVAL_MS);
                             if (!queue.isFull()) {
                                 System.out.println("[" + name + "] Queue has space, resuming production");
                                 return;
@@ -86,7 +114,7 @@ public class Producer implements Runnable {
                     }
                 }
             } else {
-                Thread.sleep(1000);
+                clock.sleep(POLL_INTERVAL_MS);
                 
                 if (!queue.isFull()) {
                     System.out.println("[" + name + "] Queue size decreased during wait, resuming production");
@@ -0,0 +1,15 @@
+// Receives every change of a queue in the order the changes happen, e.g. to replicate the
+// queue to another process. Methods are called while the queue's lock is held, so they
+// must be quick and must not call back into the queue.
+public interface QueueChangeListener {
+    
+    // Called once when the listener is set, with the items in the queue at that moment
+    // (head first); every later change follows it
+    void onSnapshot(int[] items);
+    
+    // Called after an item was added at the tail
+    void onEnqueue(int item);
+    
+    // Called after the head item was removed
+    void onDequeue();
+}
@@ -0,0 +1,77 @@
+// Common operations of the fixed and dynamic bounded blocking queues.
+// Lets servers and tools work with either queue type.
+public interface QueueEngine {
+    
+    // Inserts an element, blocking while the queue is full
+    void put(Integer item) throws InterruptedException;
+    
+    // Removes and returns the head element, blocking while the queue is empty
+    Integer take() throws InterruptedException;
+    
+    // Inserts an element without blocking; returns false if there is no space
+    boolean offer(Integer item);
+    
+    // Removes and returns the head element without blocking; returns null if empty
+    Integer poll();
+    
+    // Inserts an element, waiting up to timeoutMs for space; returns false on timeout
+    boolean offer(Integer item, long timeoutMs) throws InterruptedException;
+    
+    // Removes and returns the head element, waiting up to timeoutMs; returns null on timeout
+    Integer poll(long timeoutMs) throws InterruptedException;
+    
+    // Inserts count items from the array in order under a single lock acquisition,
+    // blocking while the queue is full. If interrupted, the items before the
+    // interruption stay in the queue.
+    void putAll(int[] items, int offset, int count) throws InterruptedException;
+    
+    // Inserts as many of the items as fit without blocking; returns the number inserted
+    int offerAll(int[] items, int offset, int count);
+    
+    // Waits for at least one element, then removes up to max elements into dest;
+    // returns the number removed
+    int takeUpTo(int[] dest, int offset, int max) throws InterruptedException;
+    
+    // Removes up to max elements into dest without blocking; returns the number removed
+    int pollUpTo(int[] dest, int offset, int max);
+    
+    // Copies the elements, head first, under one lock acquisition
+    int[] toArray();
+    
+    // Gives items put from now on a time to live of ttlMs, or none with 0
+    void setTtl(long ttlMs);
+    
+    // Returns the time to live of items put without their own, 0 for none
+    long getTtl();
+    
+    // Inserts an element that expires after ttlMs instead of the queue's TTL, blocking while
+    // the queue is full
+    void putWithTtl(Integer item, long ttlMs) throws InterruptedException;
+    
+    // Inserts an element that expires after ttlMs without blocking; returns false if there is no space
+    boolean offerWithTtl(Integer item, long ttlMs);
+    
+    // Drops up to max expired elements from the head; returns the number dropped
+    int removeExpired(int max);
+    
+    // Returns the number of elements dropped because they expired
+    long getExpiredCount();
+    
+    // Sets the listener that sees a snapshot and then every change of the queue, or removes it with null
+    void setChangeListener(QueueChangeListener listener);
+    
+    // Returns the current number of elements
+    int size();
+    
+    // Returns the current capacity
+    int capacity();
+    
+    // Checks if the queue is empty
+    boolean isEmpty();
+    
+    // Checks if the queue is full (at current capacity)
+    boolean isFull();
+    
+    // Reads size and capacity under one lock acquisition into the given snapshot
+    void snapshot(QueueSnapshot into);
+}
@@ -0,0 +1,23 @@
+// Size and capacity of a queue read together under one lock acquisition, so replies built
+// from them are consistent (a dynamic queue cannot resize between the two reads). Mutable so
+// that a connection can reuse one instance for every reply.
+public final class QueueSnapshot {
+    int size;
+    int capacity;
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+}
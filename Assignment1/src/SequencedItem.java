@@ -0,0 +1,23 @@
+// Envelope pairing a queue item with its position in the queue's FIFO order
+public class SequencedItem {
+    private final long sequence;
+    private final Integer value;
+    
+    public SequencedItem(long sequence, Integer value) {
+        this.sequence = sequence;
+        this.value = value;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public Integer getValue() {
+        return value;
+    }
+    
+    @Override
+    public String toString() {
+        return "#" + sequence + "=" + value;
+    }
+}
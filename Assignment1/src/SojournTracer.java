@@ -0,0 +1,109 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Records end-to-end queue latency (sojourn time): the time between an item's put and
+// the take that removed it. Keeps a histogram of all sojourn times plus the slowest items
+// seen so far for a trace dump.
+public class SojournTracer {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final int slowestLimit;
+    private final PriorityQueue<TraceEntry> slowest; // Min-heap of the slowest items
+    private volatile long slowestThresholdNanos = -1; // Fastest entry in a full heap
+
+    // Constructor for a tracer that keeps the given number of slowest items
+    public SojournTracer(int slowestLimit) {
+        if (slowestLimit < 1) {
+            throw new IllegalArgumentException("Slowest item limit must be at least 1");
+        }
+        this.slowestLimit = slowestLimit;
+        this.slowest = new PriorityQueue<>(slowestLimit, Comparator.comparingLong(TraceEntry::getSojournNanos));
+    }
+
+    // Constructor for a tracer keeping the 10 slowest items
+    public SojournTracer() {
+        this(10);
+    }
+
+    // Records the sojourn time of one item
+    public void record(Integer item, long enqueueNanos, long dequeueNanos) {
+        long sojourn = dequeueNanos - enqueueNanos;
+        histogram.recordValue(sojourn);
+
+        // Cheap check first so fast items never touch the lock
+        if (sojourn <= slowestThresholdNanos) {
+            return;
+        }
+        synchronized (slowest) {
+            if (slowest.size() < slowestLimit) {
+                slowest.add(new TraceEntry(item, enqueueNanos, sojourn));
+            } else if (sojourn > slowest.peek().getSojournNanos()) {
+                slowest.poll();
+                slowest.add(new TraceEntry(item, enqueueNanos, sojourn));
+            }
+            if (slowest.size() == slowestLimit) {
+                slowestThresholdNanos = slowest.peek().getSojournNanos();
+            }
+        }
+    }
+
+    // Returns the histogram of all recorded sojourn times (nanoseconds)
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    // Returns the slowest items, slowest first
+    public List<TraceEntry> getSlowest() {
+        List<TraceEntry> entries;
+        synchronized (slowest) {
+            entries = new ArrayList<>(slowest);
+        }
+        entries.sort(Comparator.comparingLong(TraceEntry::getSojournNanos).reversed());
+        return entries;
+    }
+
+    // Prints the histogram summary and the slowest items
+    public void dump(PrintStream out) {
+        out.println("Sojourn time: " + histogram);
+        List<TraceEntry> entries = getSlowest();
+        if (entries.isEmpty()) {
+            return;
+        }
+        out.println("Slowest items:");
+        for (TraceEntry entry : entries) {
+            out.println("  " + entry);
+        }
+    }
+
+    // One traced item
+    public static class TraceEntry {
+        private final Integer item;
+        private final long enqueueNanos;
+        private final long sojournNanos;
+
+        TraceEntry(Integer item, long enqueueNanos, long sojournNanos) {
+            this.item = item;
+            this.enqueueNanos = enqueueNanos;
+            this.sojournNanos = sojournNanos;
+        }
+
+        public Integer getItem() {
+            return item;
+        }
+
+        public long getEnqueueNanos() {
+            return enqueueNanos;
+        }
+
+        public long getSojournNanos() {
+            return sojournNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("item %d waited %.3fms", item, sojournNanos / 1_000_000.0);
+        }
+    }
+}
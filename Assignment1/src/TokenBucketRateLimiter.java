@@ -0,0 +1,176 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Lock-free token bucket rate limiter.
+// Implemented as a generic cell rate algorithm: instead of a token count plus a refill
+// timestamp, the bucket keeps a single "theoretical arrival time" that is advanced with
+// compareAndSet, so acquiring a token never takes a lock.
+public class TokenBucketRateLimiter {
+
+    // What to do when no token is available
+    public enum Mode {
+        DELAY,  // Wait until a token becomes available
+        REJECT  // Fail immediately
+    }
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final Mode mode;
+    private final long nanosPerPermit;
+    private final long burstToleranceNanos;
+    private final AtomicLong theoreticalArrivalNanos;
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder delayedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder totalDelayNanos = new LongAdder();
+
+    // Constructor for a limiter allowing permitsPerSecond on average and bursts of up to burst permits
+    public TokenBucketRateLimiter(double permitsPerSecond, int burst, Mode mode) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.mode = mode;
+        this.nanosPerPermit = Math.max(1, (long) (1_000_000_000.0 / permitsPerSecond));
+        this.burstToleranceNanos = nanosPerPermit * (burst - 1);
+        this.theoreticalArrivalNanos = new AtomicLong(System.nanoTime());
+    }
+
+    // Acquires one permit according to the limiter's mode
+    public boolean acquire() throws InterruptedException {
+        return acquire(1);
+    }
+
+    // Acquires permits according to the limiter's mode.
+    // In DELAY mode this blocks until the permits are available and always returns true; a
+    // batch larger than the burst is charged in burst-sized parts, each waiting for its turn.
+    // In REJECT mode this never blocks and returns false when the bucket is empty.
+    public boolean acquire(int permits) throws InterruptedException {
+        if (mode == Mode.REJECT) {
+            return tryAcquire(permits);
+        }
+
+        boolean delayed = false;
+        int charged = 0;
+        try {
+            while (charged < permits) {
+                int part = Math.min(burst, permits - charged);
+                long waitNanos = reserve(part);
+                charged += part;
+                if (waitNanos > 0) {
+                    delayed = true;
+                    totalDelayNanos.add(waitNanos);
+                    park(waitNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Nothing was handed out: return the reserved permits to the bucket
+            theoreticalArrivalNanos.addAndGet(-nanosPerPermit * charged);
+            throw e;
+        }
+        if (delayed) {
+            delayedCount.increment();
+        }
+        acquiredCount.add(permits);
+        return true;
+    }
+
+    // Takes permits if they are available right now, never blocks.
+    // A batch larger than the burst could never fit in the bucket, so it is refused outright.
+    public boolean tryAcquire(int permits) {
+        if (permits > burst) {
+            throw new IllegalArgumentException("Batch of " + permits + " exceeds burst of " + burst);
+        }
+        long cost = nanosPerPermit * permits;
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrivalNanos.get();
+            long tat = Math.max(current, now);
+            if (tat + cost - now > burstToleranceNanos + nanosPerPermit) {
+                rejectedCount.increment();
+                return false;
+            }
+            if (theoreticalArrivalNanos.compareAndSet(current, tat + cost)) {
+                acquiredCount.add(permits);
+                return true;
+            }
+        }
+    }
+
+    // Parks the caller for waitNanos, ending early only when interrupted
+    private void park(long waitNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + waitNanos;
+        long remaining = waitNanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    // Reserves permits unconditionally and returns how long the caller has to wait for them
+    private long reserve(int permits) {
+        long cost = nanosPerPermit * permits;
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrivalNanos.get();
+            long tat = Math.max(current, now);
+            if (theoreticalArrivalNanos.compareAndSet(current, tat + cost)) {
+                return tat + cost - now - burstToleranceNanos - nanosPerPermit;
+            }
+        }
+    }
+
+    // Returns how long until one permit becomes available (0 if available now)
+    public long nanosUntilAvailable() {
+        long wait = theoreticalArrivalNanos.get() - System.nanoTime() - burstToleranceNanos;
+        return Math.max(0, wait);
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // Number of permits handed out
+    public long getAcquiredCount() {
+        return acquiredCount.sum();
+    }
+
+    // Number of acquisitions that had to wait for a permit
+    public long getDelayedCount() {
+        return delayedCount.sum();
+    }
+
+    // Number of acquisitions rejected because the bucket was empty
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    // Total time spent waiting for permits, in milliseconds
+    public long getTotalDelayMillis() {
+        return totalDelayNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f/s (burst %d, %s) acquired: %d, delayed: %d, rejected: %d",
+                             permitsPerSecond, burst, mode.name().toLowerCase(),
+                             getAcquiredCount(), getDelayedCount(), getRejectedCount());
+    }
+}
@@ -0,0 +1,38 @@
+import java.lang.reflect.Method;
+
+// Starts tasks on virtual threads when the running JVM supports them (Java 21+).
+// Looked up reflectively so the project still compiles and runs on older JDKs, where
+// tasks fall back to regular platform threads.
+public final class VirtualThreads {
+    private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+    
+    private VirtualThreads() {
+    }
+    
+    private static Method findStartVirtualThread() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+    
+    // Checks if the JVM can create virtual threads
+    public static boolean isSupported() {
+        return START_VIRTUAL_THREAD != null;
+    }
+    
+    // Starts the task on a virtual thread, or on a platform thread if unsupported
+    public static Thread start(Runnable task) {
+        if (START_VIRTUAL_THREAD != null) {
+            try {
+                return (Thread) START_VIRTUAL_THREAD.invoke(null, task);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not start virtual thread", e);
+            }
+        }
+        Thread thread = new Thread(task);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,90 @@
+// Parsing and formatting for the text batch commands, shared by all servers:
+//
+//   PUTN k v1 .. vk   ->  same reply as PUT, sent once after all k items are in the queue
+//   TAKEN k           ->  OK n v1 .. vn <size> [<capacity>], waits for one item and
+//                         returns up to k
+//   TAKEN k ms        ->  the same, or TIMEOUT if no item arrived within ms milliseconds
+//
+// Batches are limited to the same size as binary batches.
+public final class BatchCommands {
+    public static final int MAX_BATCH = BinaryProtocol.MAX_BATCH;
+
+    private BatchCommands() {
+    }
+
+    // Parses the arguments of PUTN ("k v1 .. vk") without splitting the line into Strings
+    public static int[] parsePutN(String args) {
+        if (args == null) {
+            throw new IllegalArgumentException("PUTN needs a count and items");
+        }
+        int[] position = {0};
+        int count = nextInt(args, position);
+        checkCount(count);
+        int[] items = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (position[0] >= args.length()) {
+                throw new IllegalArgumentException("PUTN expected " + count + " items, got " + i);
+            }
+            items[i] = nextInt(args, position);
+        }
+        if (position[0] < args.length()) {
+            throw new IllegalArgumentException("PUTN got more than " + count + " items");
+        }
+        return items;
+    }
+
+    // Parses the count of TAKEN ("k [ms]")
+    public static int parseTakeN(String args) {
+        if (args == null) {
+            throw new IllegalArgumentException("TAKEN needs a count");
+        }
+        String[] parts = args.trim().split(" ");
+        if (parts.length > 2) {
+            throw new IllegalArgumentException("Usage: TAKEN [<queue>] <count> [<timeoutMs>]");
+        }
+        int count = Integer.parseInt(parts[0]);
+        checkCount(count);
+        return count;
+    }
+
+    // Parses the optional timeout of TAKEN ("k [ms]"); -1 when it waits without a limit
+    public static long parseTakeNTimeout(String args) {
+        String[] parts = args.trim().split(" ");
+        if (parts.length < 2) {
+            return -1;
+        }
+        long timeoutMs = Long.parseLong(parts[1]);
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        return timeoutMs;
+    }
+
+    // Formats a TAKEN reply; suffix holds the size (and capacity) fields
+    public static String takeNResponse(int[] items, int count, String suffix) {
+        StringBuilder response = new StringBuilder(12 * count + 16);
+        response.append("OK ").append(count);
+        for (int i = 0; i < count; i++) {
+            response.append(' ').append(items[i]);
+        }
+        return response.append(' ').append(suffix).toString();
+    }
+
+    private static void checkCount(int count) {
+        if (count < 1 || count > MAX_BATCH) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH);
+        }
+    }
+
+    // Parses the space-separated int starting at position[0] and moves past it
+    private static int nextInt(String s, int[] position) {
+        int start = position[0];
+        int end = s.indexOf(' ', start);
+        if (end < 0) {
+            end = s.length();
+        }
+        int value = Integer.parseInt(s, start, end, 10);
+        position[0] = end + 1;
+        return value;
+    }
+}
@@ -0,0 +1,177 @@
+import java.nio.ByteBuffer;
+
+// Length-prefixed binary wire protocol, served alongside the text protocol by QueueServer,
+// DynamicQueueServer and NioQueueServer.
+//
+// A client selects it by sending HANDSHAKE followed by its VERSION as the first two bytes of
+// the connection (text commands always start with an ASCII letter). The server answers with
+// HANDSHAKE and its own VERSION, and from then on both sides exchange frames in network
+// byte order:
+//
+//   Requests:  PUT        [op][int32 item]
+//              TAKE       [op]
+//              SIZE       [op]
+//              PUT_BATCH  [op][int32 count][count x int32 item]
+//              TAKE_BATCH [op][int32 max]
+//              QUIT       [op]
+//
+//   Responses: [status][int32 a][int32 b], followed for TAKE_BATCH by a x int32 items
+//              PUT, PUT_BATCH, SIZE, QUIT: a = size, b = capacity
+//              TAKE:                       a = item, b = size
+//              TAKE_BATCH:                 a = count, b = size
+//              ERROR:                      a = error code, b = 0
+//
+// All encode and decode methods work directly on ByteBuffers and allocate nothing.
+public final class BinaryProtocol {
+    public static final byte HANDSHAKE = (byte) 0xB1;
+    public static final byte VERSION = 1;
+
+    public static final byte OP_PUT = 1;
+    public static final byte OP_TAKE = 2;
+    public static final byte OP_SIZE = 3;
+    public static final byte OP_PUT_BATCH = 4;
+    public static final byte OP_TAKE_BATCH = 5;
+    public static final byte OP_QUIT = 6;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    public static final int ERROR_UNKNOWN_OPCODE = 1;
+    public static final int ERROR_BAD_BATCH = 2;
+    public static final int ERROR_THROTTLED = 3;
+    public static final int ERROR_INTERRUPTED = 4;
+
+    public static final int MAX_BATCH = 1024;
+    public static final int RESPONSE_HEADER_SIZE = 9;
+    public static final int MAX_REQUEST_SIZE = 5 + 4 * MAX_BATCH;
+    public static final int MAX_RESPONSE_SIZE = RESPONSE_HEADER_SIZE + 4 * MAX_BATCH;
+
+    // Returned by requestLength() for a frame that can never be valid
+    public static final int INVALID_REQUEST = -1;
+
+    private BinaryProtocol() {
+    }
+
+    // Writes the two handshake bytes (sent by the client, echoed by the server)
+    public static void writeHandshake(ByteBuffer out) {
+        out.put(HANDSHAKE).put(VERSION);
+    }
+
+    // ---- Requests (client side) ----
+
+    public static void writePut(ByteBuffer out, int item) {
+        out.put(OP_PUT).putInt(item);
+    }
+
+    public static void writeTake(ByteBuffer out) {
+        out.put(OP_TAKE);
+    }
+
+    public static void writeSize(ByteBuffer out) {
+        out.put(OP_SIZE);
+    }
+
+    public static void writePutBatch(ByteBuffer out, int[] items, int offset, int count) {
+        if (count < 1 || count > MAX_BATCH) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH);
+        }
+        out.put(OP_PUT_BATCH).putInt(count);
+        for (int i = 0; i < count; i++) {
+            out.putInt(items[offset + i]);
+        }
+    }
+
+    public static void writeTakeBatch(ByteBuffer out, int max) {
+        if (max < 1 || max > MAX_BATCH) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH);
+        }
+        out.put(OP_TAKE_BATCH).putInt(max);
+    }
+
+    public static void writeQuit(ByteBuffer out) {
+        out.put(OP_QUIT);
+    }
+
+    // ---- Requests (server side) ----
+
+    // Returns the length of the request frame starting at the buffer's position, 0 if more
+    // bytes are needed to tell, or INVALID_REQUEST for an unknown opcode or batch size.
+    // Does not move the position.
+    public static int requestLength(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return 0;
+        }
+        int start = in.position();
+        switch (in.get(start)) {
+            case OP_TAKE:
+            case OP_SIZE:
+            case OP_QUIT:
+                return 1;
+            case OP_PUT:
+            case OP_TAKE_BATCH:
+                return 5;
+            case OP_PUT_BATCH:
+                if (in.remaining() < 5) {
+                    return 0;
+                }
+                int count = in.getInt(start + 1);
+                if (count < 1 || count > MAX_BATCH) {
+                    return INVALID_REQUEST;
+                }
+                return 5 + 4 * count;
+            default:
+                return INVALID_REQUEST;
+        }
+    }
+
+    // Checks the count of a TAKE_BATCH request
+    public static boolean isValidBatchSize(int count) {
+        return count >= 1 && count <= MAX_BATCH;
+    }
+
+    // ---- Responses ----
+
+    public static void writeOk(ByteBuffer out, int a, int b) {
+        out.put(STATUS_OK).putInt(a).putInt(b);
+    }
+
+    public static void writeError(ByteBuffer out, int errorCode) {
+        out.put(STATUS_ERROR).putInt(errorCode).putInt(0);
+    }
+
+    // Name of a request opcode, as reported by STATS
+    public static String opName(byte op) {
+        switch (op) {
+            case OP_PUT:
+                return "PUT";
+            case OP_TAKE:
+                return "TAKE";
+            case OP_SIZE:
+                return "SIZE";
+            case OP_PUT_BATCH:
+                return "PUT_BATCH";
+            case OP_TAKE_BATCH:
+                return "TAKE_BATCH";
+            case OP_QUIT:
+                return "QUIT";
+            default:
+                return ServerStats.OTHER;
+        }
+    }
+
+    // Human-readable name of an error code
+    public static String errorMessage(int errorCode) {
+        switch (errorCode) {
+            case ERROR_UNKNOWN_OPCODE:
+                return "Unknown opcode";
+            case ERROR_BAD_BATCH:
+                return "Invalid batch size";
+            case ERROR_THROTTLED:
+                return "Throttled";
+            case ERROR_INTERRUPTED:
+                return "Interrupted";
+            default:
+                return "Error " + errorCode;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// Blocking client for the binary protocol (see BinaryProtocol). Works against QueueServer,
+// DynamicQueueServer and their --nio mode. Not thread-safe: use one client per thread.
+public class BinaryQueueClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BinaryProtocol.MAX_REQUEST_SIZE);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BinaryProtocol.MAX_RESPONSE_SIZE);
+    private int lastSize;
+    private int lastCapacity;
+    private long bytesSent;
+    private long bytesReceived;
+
+    // Connects and performs the protocol handshake
+    public BinaryQueueClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        in.limit(0);
+
+        BinaryProtocol.writeHandshake(out);
+        send();
+        receive(2);
+        byte magic = in.get();
+        byte version = in.get();
+        if (magic != BinaryProtocol.HANDSHAKE || version != BinaryProtocol.VERSION) {
+            channel.close();
+            throw new IOException("Server does not support binary protocol version " + BinaryProtocol.VERSION);
+        }
+    }
+
+    // Adds an item and returns the queue size afterwards
+    public int put(int item) throws IOException {
+        BinaryProtocol.writePut(out, item);
+        send();
+        readHeader();
+        lastSize = in.getInt();
+        lastCapacity = in.getInt();
+        return lastSize;
+    }
+
+    // Adds all items using as few PUT_BATCH frames as possible; returns the queue size afterwards
+    public int putBatch(int[] items) throws IOException {
+        for (int offset = 0; offset < items.length; offset += BinaryProtocol.MAX_BATCH) {
+            BinaryProtocol.writePutBatch(out, items, offset, Math.min(BinaryProtocol.MAX_BATCH, items.length - offset));
+            send();
+            readHeader();
+            lastSize = in.getInt();
+            lastCapacity = in.getInt();
+        }
+        return lastSize;
+    }
+
+    // Removes an item, waiting until one is available
+    public int take() throws IOException {
+        BinaryProtocol.writeTake(out);
+        send();
+        readHeader();
+        int item = in.getInt();
+        lastSize = in.getInt();
+        return item;
+    }
+
+    // Waits for at least one item and copies up to dest.length items into dest; returns the count
+    public int takeBatch(int[] dest) throws IOException {
+        BinaryProtocol.writeTakeBatch(out, Math.min(dest.length, BinaryProtocol.MAX_BATCH));
+        send();
+        readHeader();
+        int count = in.getInt();
+        lastSize = in.getInt();
+        receive(4 * count);
+        for (int i = 0; i < count; i++) {
+            dest[i] = in.getInt();
+        }
+        return count;
+    }
+
+    // Returns the current queue size (capacity is available from getLastCapacity())
+    public int size() throws IOException {
+        BinaryProtocol.writeSize(out);
+        send();
+        readHeader();
+        lastSize = in.getInt();
+        lastCapacity = in.getInt();
+        return lastSize;
+    }
+
+    // Queue size reported by the last response
+    public int getLastSize() {
+        return lastSize;
+    }
+
+    // Queue capacity reported by the last PUT, PUT_BATCH or SIZE response
+    public int getLastCapacity() {
+        return lastCapacity;
+    }
+
+    // Total bytes written to the socket, including the handshake
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    // Total bytes read from the socket, including the handshake
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // Sends QUIT and closes the connection
+    @Override
+    public void close() throws IOException {
+        try {
+            if (channel.isOpen()) {
+                BinaryProtocol.writeQuit(out);
+                send();
+                readHeader();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Closes the connection without QUIT, e.g. from another thread to end a waiting take()
+    public void abort() throws IOException {
+        channel.close();
+    }
+
+    private void send() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            bytesSent += channel.write(out);
+        }
+        out.clear();
+    }
+
+    // Reads a response header and throws if it carries an error
+    private void readHeader() throws IOException {
+        receive(BinaryProtocol.RESPONSE_HEADER_SIZE);
+        if (in.get() == BinaryProtocol.STATUS_ERROR) {
+            int code = in.getInt();
+            in.getInt();
+            throw new IOException("Server error: " + BinaryProtocol.errorMessage(code));
+        }
+    }
+
+    // Makes sure at least the given number of unread bytes are buffered
+    private void receive(int needed) throws IOException {
+        if (in.remaining() >= needed) {
+            return;
+        }
+        in.compact();
+        while (in.position() < needed) {
+            int n = channel.read(in);
+            if (n < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            bytesReceived += n;
+        }
+        in.flip();
+    }
+}
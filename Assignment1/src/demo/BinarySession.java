@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Serves one binary-protocol connection for the thread-per-connection servers.
+// The ClientHandler detects the handshake byte and hands the rest of the stream over.
+//
+// Requests are decoded straight from a reusable ByteBuffer and responses are encoded into
+// another one, which is written out only when no complete request is left in the input or
+// before a call that may block, so pipelined requests share a single write. In SYNC
+// replication mode that write waits for the backup like the text replies do.
+// Every request is recorded in the connection's ServerStats under its opcode's name.
+public class BinarySession {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+
+    private final InputStream input;
+    private final OutputStream output;
+    private final QueueRegistry registry;
+    private final QueueEngine queue;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final ServerStats.Connection stats;
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);  // Unprocessed bytes, in write mode
+    private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // Encoded responses, in write mode
+    private int[] batchItems; // Allocated on the first batch request
+
+    // Constructor for a session on the registry's default queue over a stream whose HANDSHAKE
+    // byte was already consumed; rateLimiter may be null
+    public BinarySession(InputStream input, OutputStream output, QueueRegistry registry, TokenBucketRateLimiter rateLimiter,
+                         ServerStats.Connection stats) {
+        this.input = input;
+        this.output = output;
+        this.registry = registry;
+        this.queue = registry.getDefaultQueue();
+        this.rateLimiter = rateLimiter;
+        this.stats = stats;
+    }
+
+    // Finishes the handshake and serves requests until QUIT, end of stream or a protocol error
+    public void run() throws IOException {
+        int version = input.read();
+        BinaryProtocol.writeHandshake(out);
+        write();
+        if (version != BinaryProtocol.VERSION) {
+            return;
+        }
+
+        try {
+            while (fill()) {
+                in.flip();
+                boolean open;
+                try {
+                    open = processRequests();
+                } finally {
+                    in.compact();
+                }
+                flush();
+                if (!open) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            BinaryProtocol.writeError(out, BinaryProtocol.ERROR_INTERRUPTED);
+            write();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Reads more bytes; returns false at end of stream
+    private boolean fill() throws IOException {
+        if (!in.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(in.capacity() * 2, BinaryProtocol.MAX_REQUEST_SIZE));
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+        int n = input.read(in.array(), in.arrayOffset() + in.position(), in.remaining());
+        if (n < 0) {
+            return false;
+        }
+        in.position(in.position() + n);
+        return true;
+    }
+
+    // Executes every complete request in the input; returns false when the connection should close
+    private boolean processRequests() throws IOException, InterruptedException {
+        while (true) {
+            int length = BinaryProtocol.requestLength(in);
+            if (length == BinaryProtocol.INVALID_REQUEST) {
+                // The stream cannot be resynchronized after a bad frame
+                ensureOutput(BinaryProtocol.RESPONSE_HEADER_SIZE);
+                BinaryProtocol.writeError(out, in.get(in.position()) == BinaryProtocol.OP_PUT_BATCH
+                                               ? BinaryProtocol.ERROR_BAD_BATCH : BinaryProtocol.ERROR_UNKNOWN_OPCODE);
+                return false;
+            }
+            if (length == 0 || in.remaining() < length) {
+                return true;
+            }
+            ensureOutput(BinaryProtocol.RESPONSE_HEADER_SIZE);
+
+            long started = System.nanoTime();
+            byte op = in.get();
+            switch (op) {
+                case BinaryProtocol.OP_PUT: {
+                    int item = in.getInt();
+                    if (rateLimiter != null && !rateLimiter.acquire()) {
+                        BinaryProtocol.writeError(out, BinaryProtocol.ERROR_THROTTLED);
+                        stats.command("PUT", System.nanoTime() - started);
+                        break;
+                    }
+                    put(item);
+                    BinaryProtocol.writeOk(out, queue.size(), queue.capacity());
+                    stats.command("PUT", System.nanoTime() - started);
+                    break;
+                }
+                case BinaryProtocol.OP_PUT_BATCH: {
+                    int count = in.getInt();
+                    if (rateLimiter != null && count > rateLimiter.getBurst() && rateLimiter.getMode() == TokenBucketRateLimiter.Mode.REJECT) {
+                        // Would be throttled forever: the client has to send smaller batches
+                        in.position(in.position() + 4 * count);
+                        BinaryProtocol.writeError(out, BinaryProtocol.ERROR_BAD_BATCH);
+                        stats.command("PUT_BATCH", System.nanoTime() - started);
+                        break;
+                    }
+                    if (rateLimiter != null && !rateLimiter.acquire(count)) {
+                        in.position(in.position() + 4 * count);
+                        BinaryProtocol.writeError(out, BinaryProtocol.ERROR_THROTTLED);
+                        stats.command("PUT_BATCH", System.nanoTime() - started);
+                        break;
+                    }
+                    int[] items = batchItems();
+                    for (int i = 0; i < count; i++) {
+                        items[i] = in.getInt();
+                    }
+                    // One lock acquisition for the whole batch unless the queue fills up
+                    int added = queue.offerAll(items, 0, count);
+                    if (added < count) {
+                        flush();
+                        long blockedAt = System.nanoTime();
+                        queue.putAll(items, added, count - added);
+                        stats.blockedPut(System.nanoTime() - blockedAt);
+                    }
+                    BinaryProtocol.writeOk(out, queue.size(), queue.capacity());
+                    stats.command("PUT_BATCH", System.nanoTime() - started);
+                    break;
+                }
+                case BinaryProtocol.OP_TAKE: {
+                    int item = take();
+                    BinaryProtocol.writeOk(out, item, queue.size());
+                    stats.command("TAKE", System.nanoTime() - started);
+                    break;
+                }
+                case BinaryProtocol.OP_TAKE_BATCH: {
+                    int max = in.getInt();
+                    if (!BinaryProtocol.isValidBatchSize(max)) {
+                        BinaryProtocol.writeError(out, BinaryProtocol.ERROR_BAD_BATCH);
+                        stats.command("TAKE_BATCH", System.nanoTime() - started);
+                        break;
+                    }
+                    // Wait for the first item, then return whatever else is already there
+                    int[] items = batchItems();
+                    int count = queue.pollUpTo(items, 0, max);
+                    if (count == 0) {
+                        flush();
+                        long blockedAt = System.nanoTime();
+                        count = queue.takeUpTo(items, 0, max);
+                        stats.blockedTake(System.nanoTime() - blockedAt);
+                    }
+                    ensureOutput(BinaryProtocol.RESPONSE_HEADER_SIZE + 4 * count);
+                    BinaryProtocol.writeOk(out, count, queue.size());
+                    for (int i = 0; i < count; i++) {
+                        out.putInt(items[i]);
+                    }
+                    stats.command("TAKE_BATCH", System.nanoTime() - started);
+                    break;
+                }
+                case BinaryProtocol.OP_SIZE:
+                    BinaryProtocol.writeOk(out, queue.size(), queue.capacity());
+                    stats.command("SIZE", System.nanoTime() - started);
+                    break;
+                case BinaryProtocol.OP_QUIT:
+                    BinaryProtocol.writeOk(out, queue.size(), queue.capacity());
+                    stats.command("QUIT", System.nanoTime() - started);
+                    return false;
+                default:
+                    // Unreachable: requestLength() rejects unknown opcodes
+                    return false;
+            }
+        }
+    }
+
+    // Adds an item, flushing pending responses first if the put has to wait
+    private void put(int item) throws IOException, InterruptedException {
+        if (!queue.offer(item)) {
+            flush();
+            long blockedAt = System.nanoTime();
+            queue.put(item);
+            stats.blockedPut(System.nanoTime() - blockedAt);
+        }
+    }
+
+    // Removes an item, flushing pending responses first if the take has to wait
+    private int take() throws IOException, InterruptedException {
+        Integer item = queue.poll();
+        if (item == null) {
+            flush();
+            long blockedAt = System.nanoTime();
+            item = queue.take();
+            stats.blockedTake(System.nanoTime() - blockedAt);
+        }
+        return item;
+    }
+
+    private int[] batchItems() {
+        if (batchItems == null) {
+            batchItems = new int[BinaryProtocol.MAX_BATCH];
+        }
+        return batchItems;
+    }
+
+    private void ensureOutput(int needed) throws IOException, InterruptedException {
+        if (out.remaining() < needed) {
+            flush();
+            if (out.remaining() < needed) {
+                out = ByteBuffer.allocate(Math.max(needed, out.capacity() * 2));
+            }
+        }
+    }
+
+    // Writes the encoded responses; in sync replication mode only once the backup has applied
+    // the changes they report
+    private void flush() throws IOException, InterruptedException {
+        if (out.position() > 0) {
+            ReplicationPrimary replication = registry.getReplication();
+            if (replication != null) {
+                replication.awaitReplicated();
+            }
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        if (out.position() > 0) {
+            output.write(out.array(), out.arrayOffset(), out.position());
+            output.flush();
+            out.clear();
+        }
+    }
+}
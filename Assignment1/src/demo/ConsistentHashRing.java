@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Maps keys to nodes so that adding or removing a node only moves the keys of that node:
+// with N nodes, adding one moves about 1/(N+1) of the keys and leaves the rest in place.
+//
+// Each node is placed on a 64-bit hash ring at VIRTUAL_NODES points, and a key belongs to
+// the first node point at or after its own hash (wrapping around). Many points per node
+// keep the share of each node close to 1/N. Not thread-safe.
+public class ConsistentHashRing {
+    public static final int VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> nodes = new ArrayList<>();
+
+    public void addNode(String node) {
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already on the ring");
+        }
+        nodes.add(node);
+        for (int i = 0; i < VIRTUAL_NODES; i++) {
+            ring.put(hash(node + "#" + i), node);
+        }
+    }
+
+    public void removeNode(String node) {
+        if (nodes.remove(node)) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.remove(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    // Nodes in the order they were added
+    public List<String> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    // Returns the node that owns the key
+    public String nodeFor(String key) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("No nodes on the ring");
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    // FNV-1a over the chars, finished with the MurmurHash3 mixer so that similar keys
+    // ("node#1", "node#2") land far apart on the ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
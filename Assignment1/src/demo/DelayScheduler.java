@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Delayed delivery for PUTDELAY: holds items in a TimingWheel of 1 ms ticks and, on its own
+// thread, moves them into their queues once due. Scheduling an item and delivering it are
+// O(1) whatever the number pending, and the items due at a tick go into each queue in
+// batches of up to MAX_BATCH under one lock, in the order they were scheduled.
+//
+// The thread sleeps until the wheel's next event (a due tick or a cascade), and a PUTDELAY due
+// before that wakes it. A full queue holds the thread in putAll, which holds back every later
+// delivery, as a blocking PUT would. Pending items are kept in memory only: they are neither
+// snapshotted nor replicated until delivered, and at most MAX_PENDING of them are accepted.
+public class DelayScheduler implements TimingWheel.Expiry, AutoCloseable {
+    public static final int MAX_BATCH = BatchCommands.MAX_BATCH;
+    public static final int MAX_PENDING = 16 * 1024 * 1024;
+    public static final long MAX_DELAY_MS = Integer.MAX_VALUE;
+    private static final long AWAKE = -1;
+    private static final long UNTIL_NOTIFIED = Long.MAX_VALUE;
+
+    private final ServerStats stats;
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    // Guarded by this
+    private final TimingWheel wheel = new TimingWheel();
+    private final Map<NamedQueue, Integer> tags = new IdentityHashMap<>();
+    private final List<NamedQueue> queues = new ArrayList<>();
+    private long sleepingUntil = AWAKE;
+    private boolean closed;
+    // Due items being delivered, filled by expired(); owned by the thread
+    private int[] dueItems = new int[MAX_BATCH];
+    private int[] dueTags = new int[MAX_BATCH];
+    private int dueCount;
+
+    // Constructor for a scheduler counting into the server's stats; starts its thread
+    public DelayScheduler(ServerStats stats) {
+        this.stats = stats;
+        this.thread = new Thread(this::run, "delay-scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Schedules the item of PUTDELAY's arguments, "<ms> <item>", for the queue
+    public void schedule(NamedQueue queue, String args) {
+        String[] parts = args == null ? new String[0] : args.trim().split(" +");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Usage: PUTDELAY [<queue>] <delayMs> <item>");
+        }
+        long delayMs = Long.parseLong(parts[0]);
+        int item = Integer.parseInt(parts[1]);
+        schedule(queue, delayMs, item);
+    }
+
+    // Schedules the item to enter the queue after delayMs (at the next tick for 0)
+    public synchronized void schedule(NamedQueue queue, long delayMs, int item) {
+        if (delayMs < 0 || delayMs > MAX_DELAY_MS) {
+            throw new IllegalArgumentException("Delay must be between 0 and " + MAX_DELAY_MS + " ms");
+        }
+        if (closed) {
+            throw new IllegalStateException("Server shutting down");
+        }
+        if (wheel.size() >= MAX_PENDING) {
+            throw new IllegalStateException("Too many delayed items");
+        }
+        Integer tag = tags.get(queue);
+        if (tag == null) {
+            tag = queues.size();
+            tags.put(queue, tag);
+            queues.add(queue);
+        }
+        long tick = Math.max(currentTick() + delayMs, wheel.getNow() + 1);
+        wheel.add(tick, item, tag);
+        stats.delayScheduled();
+        if (tick < sleepingUntil) {
+            // Due before the thread would look again
+            notify();
+        }
+    }
+
+    // Items scheduled and not delivered yet
+    public synchronized int pending() {
+        return wheel.size();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notify();
+        }
+        thread.interrupt();
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (dueCount == 0) {
+                        if (closed) {
+                            return;
+                        }
+                        long tick = currentTick();
+                        wheel.advanceTo(tick, this);
+                        if (dueCount > 0) {
+                            break;
+                        }
+                        long next = wheel.nextEventTick();
+                        sleepingUntil = next < 0 ? UNTIL_NOTIFIED : next;
+                        wait(next < 0 ? 0 : next - tick);
+                        sleepingUntil = AWAKE;
+                    }
+                }
+                deliver();
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    @Override
+    public void expired(int item, int tag) {
+        if (dueCount == dueItems.length) {
+            dueItems = Arrays.copyOf(dueItems, dueCount * 2);
+            dueTags = Arrays.copyOf(dueTags, dueCount * 2);
+        }
+        dueItems[dueCount] = item;
+        dueTags[dueCount] = tag;
+        dueCount++;
+    }
+
+    // Puts the due items into their queues, each run of items for one queue in batches
+    private void deliver() throws InterruptedException {
+        int start = 0;
+        while (start < dueCount) {
+            int tag = dueTags[start];
+            int end = start + 1;
+            while (end < dueCount && end - start < MAX_BATCH && dueTags[end] == tag) {
+                end++;
+            }
+            NamedQueue queue;
+            synchronized (this) {
+                queue = queues.get(tag);
+            }
+            // Counted before they are visible, so a consumer that takes an item never finds it
+            // still in STATS' delayed; items waiting for room in a full queue no longer count
+            stats.delayDelivered(end - start);
+            queue.putAll(dueItems, start, end - start);
+            start = end;
+        }
+        dueCount = 0;
+        if (dueItems.length > MAX_BATCH) {
+            // Let go of the room a burst needed
+            dueItems = new int[MAX_BATCH];
+            dueTags = new int[MAX_BATCH];
+        }
+    }
+}
@@ -1,35 +1,79 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 // Dynamic Queue Server - Run this to use DynamicBoundedBlockingQueue
 // This server holds the shared dynamic queue that grows when full
 public class DynamicQueueServer {
     private static DynamicBoundedBlockingQueue queue;
+    private static QueueRegistry registry; // Named queues, with queue as the default one
     private static ServerSocket serverSocket;
+    // Optional Unix domain socket for clients on the same host, next to the TCP port
+    private static String unixSocketPath;
+    private static ServerSocketChannel unixSocket;
     private static AtomicBoolean running = new AtomicBoolean(true);
     private static final int DEFAULT_PORT = 8889; 
+    // Commands and responses are single short lines, so small per-connection buffers keep
+    // tens of thousands of mostly idle connections cheap
+    private static final int CONNECTION_BUFFER_SIZE = 512;
+    // Replies to pipelined commands may grow a connection's reply buffer up to this size
+    private static final int MAX_REPLY_BUFFER_SIZE = 8 * 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
+    
+    // Non-blocking event-loop mode
+    private static boolean nioMode = false;
+    // Run each ClientHandler on a virtual thread instead of a platform thread
+    private static boolean virtualThreads = false;
+    private static int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    // Admission control: at most maxConnections handlers at once (0 for no limit), and what
+    // happens to the connections beyond that
+    private static int maxConnections = 0;
+    private static HandlerPool.Overload overload = HandlerPool.Overload.REJECT;
+    private static int maxQueued = HandlerPool.DEFAULT_MAX_QUEUED;
+    private static HandlerPool handlers;
+    // How PUT and PUTN answer a full fixed-size named queue: wait for room, or reply FULL <retryAfterMs>
+    private static QueueRegistry.Backpressure backpressure = QueueRegistry.Backpressure.BLOCK;
+    
+    // Time to live of items in every queue, 0 for none
+    private static long ttlMs = 0;
+    
+    // Snapshots of the queues, restored on start (off without a path)
+    private static String snapshotPath;
+    private static long snapshotIntervalMs = Snapshotter.DEFAULT_INTERVAL_MS;
+    
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
         int initialCapacity = 5; // Default initial capacity
         
-        if (args.length > 0) {
+        List<String> positional = parseOptions(args);
+        
+        if (positional.size() > 0) {
             try {
-                initialCapacity = Integer.parseInt(args[0]);
+                initialCapacity = Integer.parseInt(positional.get(0));
             } catch (NumberFormatException e) {
                 System.out.println("Invalid initial capacity, using default: 5");
             }
         }
         
-        if (args.length > 1) {
+        if (positional.size() > 1) {
             try {
-                port = Integer.parseInt(args[1]);
+                port = Integer.parseInt(positional.get(1));
             } catch (NumberFormatException e) {
                 System.out.println("Invalid port, using default: 8889");
             }
         }
         
         queue = new DynamicBoundedBlockingQueue(initialCapacity);
+        registry = new QueueRegistry(queue);
+        registry.setBackpressure(backpressure);
+        registry.setDefaultTtl(ttlMs);
+        handlers = new HandlerPool(maxConnections, overload, maxQueued, virtualThreads, registry.getStats());
         
         System.out.println("========================================");
         System.out.println("   Dynamic Queue Server");
@@ -38,15 +82,50 @@ public class DynamicQueueServer {
         System.out.println("Queue will GROW when full");
         System.out.println("Queue will SHRINK when underutilized");
         System.out.println("Server port: " + port);
+        if (unixSocketPath != null) {
+            System.out.println("Unix domain socket: " + unixSocketPath);
+        }
+        if (registry.rejectsWhenFull()) {
+            System.out.println("Backpressure: PUT on a full fixed-size queue replies FULL <retryAfterMs>");
+        }
+        if (ttlMs > 0) {
+            System.out.println("TTL: items expire " + ttlMs + " ms after they are put");
+        }
+        if (nioMode) {
+            System.out.println("Mode: non-blocking (" + ioThreads + " event-loop threads)");
+        } else if (virtualThreads) {
+            System.out.println("Mode: virtual thread per connection" +
+                               (VirtualThreads.isSupported() ? "" : " (unsupported on this JVM, using platform threads)"));
+        }
+        if (maxConnections > 0 && !nioMode) {
+            System.out.println("Max connections: " + maxConnections + ", then " +
+                               (overload == HandlerPool.Overload.QUEUE ? "queue up to " + maxQueued :
+                                overload == HandlerPool.Overload.SHED_IDLE ? "close the longest idle one" : "reject"));
+        }
+        if (snapshotPath != null && !startSnapshots()) {
+            return;
+        }
         System.out.println("Server is running...");
         System.out.println("Connect producers and consumers to this server");
         System.out.println("Press Ctrl+C to stop the server");
         System.out.println("========================================");
         System.out.println();
         
+        if (nioMode) {
+            if (maxConnections > 0) {
+                System.out.println("Note: --max-connections applies to thread-per-connection mode only");
+            }
+            runNio(port);
+            return;
+        }
+        
         // Start server
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+            if (unixSocketPath != null) {
+                unixSocket = StreamConnection.listenUnix(Paths.get(unixSocketPath));
+                startUnixAcceptor();
+            }
             
             // Add shutdown hook to handle Ctrl+C
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -56,6 +135,9 @@ public class DynamicQueueServer {
                 } catch (IOException e) {
                     System.err.println("Error closing server socket: " + e.getMessage());
                 }
+                if (unixSocket != null) {
+                    StreamConnection.closeUnix(unixSocket, Paths.get(unixSocketPath));
+                }
                 System.out.println("\nServer shutting down...");
             }));
             
@@ -63,7 +145,7 @@ public class DynamicQueueServer {
                 try {
                     // Accept client connection
                     Socket clientSocket = serverSocket.accept();
-                    new Thread(new ClientHandler(clientSocket, queue)).start();
+                    startHandler(new ClientHandler(StreamConnection.of(clientSocket), registry));
                 } catch (IOException e) {
                     if (running.get()) {
                         System.err.println("Error accepting client: " + e.getMessage());
@@ -75,64 +157,237 @@ public class DynamicQueueServer {
         }
     }
     
-    static class ClientHandler implements Runnable {
-        private Socket socket;
-        private DynamicBoundedBlockingQueue queue;
+    // Runs the handler, or queues or rejects its connection once --max-connections are served
+    private static void startHandler(ClientHandler handler) {
+        handlers.submit(handler.connection, handler);
+    }
+    
+    // Accepts connections on the Unix domain socket; they are served exactly like TCP ones
+    private static void startUnixAcceptor() {
+        Thread acceptor = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    startHandler(new ClientHandler(StreamConnection.of(unixSocket.accept()), registry));
+                } catch (IOException e) {
+                    if (running.get() && unixSocket.isOpen()) {
+                        System.err.println("Error accepting client: " + e.getMessage());
+                    } else {
+                        return;
+                    }
+                }
+            }
+        }, "unix-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    // Parses --option [value] arguments and returns the remaining positional arguments
+    private static List<String> parseOptions(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            if (arg.equals("--nio")) {
+                nioMode = true;
+                continue;
+            }
+            if (arg.equals("--virtual-threads")) {
+                virtualThreads = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.out.println("Missing value for " + arg + ", ignoring");
+                break;
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--io-threads":
+                        ioThreads = Integer.parseInt(value);
+                        break;
+                    case "--unix":
+                        unixSocketPath = value;
+                        break;
+                    case "--snapshot":
+                        snapshotPath = value;
+                        break;
+                    case "--snapshot-interval":
+                        snapshotIntervalMs = Long.parseLong(value);
+                        break;
+                    case "--max-connections":
+                        maxConnections = Integer.parseInt(value);
+                        break;
+                    case "--overload":
+                        overload = HandlerPool.parseOverload(value);
+                        break;
+                    case "--max-queued":
+                        maxQueued = Integer.parseInt(value);
+                        break;
+                    case "--backpressure":
+                        backpressure = QueueRegistry.Backpressure.valueOf(value.toUpperCase());
+                        break;
+                    case "--ttl":
+                        long ttl = Long.parseLong(value);
+                        if (ttl < 0) {
+                            throw new IllegalArgumentException("TTL must not be negative");
+                        }
+                        ttlMs = ttl;
+                        break;
+                    default:
+                        System.out.println("Unknown option " + arg + ", ignoring");
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Invalid value for " + arg + ": " + value);
+            }
+        }
+        return positional;
+    }
+    
+    // Restores the last snapshot, if there is one, and starts taking new ones; returns false
+    // if the server cannot run
+    private static boolean startSnapshots() {
+        Path path = Paths.get(snapshotPath);
+        if (Files.exists(path)) {
+            try {
+                System.out.println("Restored " + Snapshotter.restore(registry, path) + " from " + path);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error restoring snapshot: " + e.getMessage() + " (move the file away to start empty)");
+                return false;
+            }
+        }
+        Snapshotter snapshotter = new Snapshotter(registry, path, snapshotIntervalMs);
+        registry.setSnapshotter(snapshotter);
+        snapshotter.start();
+        // A last snapshot on the way out
+        Runtime.getRuntime().addShutdownHook(new Thread(snapshotter::close));
+        System.out.println("Snapshots: " + path + (snapshotIntervalMs > 0 ? " every " + snapshotIntervalMs + " ms," : "") +
+                           " on SNAPSHOT and at shutdown");
+        return true;
+    }
+    
+    // Serves the queue from a few event-loop threads instead of a thread per connection
+    private static void runNio(int port) {
+        NioQueueServer server = new NioQueueServer(registry, port, ioThreads);
+        if (unixSocketPath != null) {
+            server.setUnixSocket(Paths.get(unixSocketPath));
+        }
+        try {
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                System.out.println("\nServer shutting down...");
+            }));
+            server.awaitTermination();
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    static class ClientHandler implements HandlerPool.Handler {
+        private StreamConnection connection; // TCP or Unix domain socket
+        private HandlerPool.Slot slot = HandlerPool.Slot.UNTRACKED;
+        private QueueRegistry registry;
+        private TextSession session;       // Text protocol state, once the connection speaks text
         
+        // Constructor for a handler serving a single queue as its default queue
         public ClientHandler(Socket socket, DynamicBoundedBlockingQueue queue) {
-            this.socket = socket;
-            this.queue = queue;
+            this(socket, new QueueRegistry(queue));
+        }
+        
+        public ClientHandler(Socket socket, QueueRegistry registry) {
+            this(StreamConnection.of(socket), registry);
+        }
+        
+        public ClientHandler(StreamConnection connection, QueueRegistry registry) {
+            this.connection = connection;
+            this.registry = registry;
+        }
+        
+        @Override
+        public void setSlot(HandlerPool.Slot slot) {
+            this.slot = slot;
+        }
+        
+        @Override
+        public HandlerPool.Slot getSlot() {
+            return slot;
+        }
+        
+        // Reports the wait for the next command, during which the connection may be shed; a
+        // subscriber is never idle, its stream is running
+        private void awaitCommand() {
+            if (!session.isSubscribed()) {
+                slot.idle();
+            }
         }
         
         @Override
         public void run() {
+            ServerStats stats = registry.getStats();
+            ServerStats.Connection connStats = stats.open();
             try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
+                BufferedInputStream input = new BufferedInputStream(connStats.countIn(connection.getInputStream()), CONNECTION_BUFFER_SIZE);
+                BufferedReader in = new BufferedReader(new InputStreamReader(input), CONNECTION_BUFFER_SIZE);
+                OutputStream output = connStats.countOut(connection.getOutputStream());
+                TextReply out = new TextReply(output, CONNECTION_BUFFER_SIZE, MAX_REPLY_BUFFER_SIZE)
             ) {
+                // A leading handshake byte selects the binary protocol
+                input.mark(1);
+                slot.idle();
+                int leading = input.read();
+                if (!slot.busy()) {
+                    return;
+                }
+                if (leading == (BinaryProtocol.HANDSHAKE & 0xFF)) {
+                    new BinarySession(input, output, registry, null, connStats).run();
+                    return;
+                }
+                input.reset();
+                session = new TextSession(input, out, registry, null, connStats, virtualThreads);
+                
                 // Read commands from client
                 String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    String[] parts = inputLine.split(" ", 2);
-                    String command = parts[0];
-                    
-                    if (command.equals("PUT")) {
-                        try {
-                            int item = Integer.parseInt(parts[1]);
-                            queue.put(item);
-                            out.println("OK " + queue.size() + " " + queue.capacity());
-                        } catch (InterruptedException e) {
-                            out.println("ERROR Interrupted");
-                            break;
-                        } catch (Exception e) {
-                            out.println("ERROR " + e.getMessage());
-                        }
-                    } else if (command.equals("TAKE")) {
-                        try {
-                            Integer item = queue.take();
-                            out.println("OK " + item + " " + queue.size() + " " + queue.capacity());
-                        } catch (InterruptedException e) {
-                            out.println("ERROR Interrupted");
-                            break;
-                        }
-                    } else if (command.equals("SIZE")) {
-                        out.println("OK " + queue.size() + " " + queue.capacity() + " " + queue.getInitialCapacity());
-                    } else if (command.equals("STATUS")) {
-                        out.println("OK " + queue.size() + " " + queue.capacity() + 
-                                   " " + queue.getInitialCapacity() + " " + 
-                                   queue.isEmpty() + " " + queue.isFull());
-                    } else if (command.equals("QUIT")) {
-                        out.println("OK");
+                for (awaitCommand(); (inputLine = in.readLine()) != null; awaitCommand()) {
+                    if (!slot.busy()) {
+                        break; // Shed while waiting for this command, which must not run
+                    }
+                    long started = System.nanoTime();
+                    TextCommand cmd = TextCommand.parse(inputLine);
+                    boolean open;
+                    try {
+                        open = session.execute(cmd);
+                    } catch (InterruptedException e) {
+                        out.println("ERROR Interrupted");
                         break;
-                    } else {
-                        out.println("ERROR Unknown command");
+                    }
+                    connStats.command(cmd.command, System.nanoTime() - started);
+                    if (!open) {
+                        // QUIT, or a RING whose producer keeps the connection until it disconnects
+                        session.runRing();
+                        break;
+                    }
+                    
+                    // Pipelined commands are answered together: write only once the client has nothing more queued up
+                    if (!in.ready()) {
+                        out.flush();
                     }
                 }
             } catch (IOException e) {
-                System.err.println("Error handling client: " + e.getMessage());
+                if (!slot.isShed()) {
+                    System.err.println("Error handling client: " + e.getMessage());
+                }
             } finally {
+                if (session != null) {
+                    session.close();
+                }
+                connStats.close();
                 try {
-                    socket.close();
+                    connection.close();
                 } catch (IOException e) {
                     System.err.println("Error closing socket: " + e.getMessage());
                 }
@@ -0,0 +1,80 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Background half of item expiry (TTL and PUT <item> <ttlMs>). The queues drop expired items
+// lazily, at the head, whenever a take looks at them; this sweeper drops them from queues
+// nobody is taking from, so that they stop holding space. Every INTERVAL_MS it walks the
+// registry's queues and removes expired items from each head in batches of up to MAX_BATCH
+// under one lock acquisition, for as long as full batches come back.
+//
+// Like the lazy drop, a sweep stops at the first item that has not expired: an item with a
+// long TTL, or none, shields the shorter-lived items behind it until it is taken. Deadlines
+// live in a long[] beside each queue's buffer, so expiry adds no object per item.
+//
+// A backup never sweeps; the primary's drops reach it as dequeues. The registry's expiry
+// listener runs after a sweep removed anything, so NioQueueServer can retry parked PUTs.
+public class ExpirySweeper implements AutoCloseable {
+    public static final long INTERVAL_MS = 100;
+    public static final int MAX_BATCH = BatchCommands.MAX_BATCH;
+
+    private final QueueRegistry registry;
+    private final ScheduledExecutorService executor;
+
+    // Constructor for a sweeper of the registry's queues; starts its thread
+    public ExpirySweeper(QueueRegistry registry) {
+        this.registry = registry;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ttl-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweep, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Removes the expired items at the head of every queue; returns the number removed
+    public int sweep() {
+        if (registry.isReadOnly()) {
+            return 0;
+        }
+        int removed = 0;
+        for (NamedQueue queue : registry.list()) {
+            int batch;
+            do {
+                batch = queue.removeExpired(MAX_BATCH);
+                removed += batch;
+            } while (batch == MAX_BATCH);
+        }
+        if (removed > 0) {
+            Runnable listener = registry.getExpiryListener();
+            if (listener != null) {
+                listener.run();
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // The item of PUT's arguments, "<item> [<ttlMs>]"
+    public static int parseItem(String args) {
+        int space = args == null ? -1 : args.indexOf(' ');
+        return Integer.parseInt(space < 0 ? args : args.substring(0, space));
+    }
+
+    // The TTL of PUT's arguments, or 0 if it has none
+    public static long parseTtl(String args) {
+        int space = args == null ? -1 : args.indexOf(' ');
+        if (space < 0) {
+            return 0;
+        }
+        long ttlMs = Long.parseLong(args.substring(space + 1).trim());
+        if (ttlMs <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        return ttlMs;
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Admission control for the thread-per-connection servers (--max-connections): runs at most
+// maxConnections ClientHandlers at once, so a connection storm costs a bounded number of
+// threads and buffers. What happens to a connection beyond the limit is the overload policy:
+//
+//   REJECT     it is answered "ERROR Server busy" and closed
+//   QUEUE      it waits, accepted but unread, until a handler finishes (at most maxQueued of
+//              them; beyond that it is rejected). Its requests stay in the socket buffers.
+//   SHED_IDLE  the connection that has waited longest for its next command is closed to
+//              make room; if every connection is in the middle of a command it is rejected
+//
+// A handler reports through its Slot when it waits for a command (idle) and when it starts
+// one (busy). Shedding claims an idle slot atomically, and a handler that finds its slot
+// claimed drops the command it just read instead of running it, so no item is ever taken
+// for a connection that is being closed. Binary, SUBSCRIBE and RING connections never report
+// idle and are never shed.
+//
+// Rejected, shed and queued connections are counted in ServerStats.
+public class HandlerPool {
+    public enum Overload { REJECT, QUEUE, SHED_IDLE }
+
+    public static final int DEFAULT_MAX_QUEUED = 1024;
+    private static final byte[] BUSY_REPLY = "ERROR Server busy, too many connections\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int maxConnections;
+    private final Overload overload;
+    private final int maxQueued;
+    private final boolean virtualThreads;
+    private final ServerStats stats;
+    private final Set<Slot> active = new LinkedHashSet<>(); // Guarded by this
+    private final ArrayDeque<Handler> waiting = new ArrayDeque<>(); // Guarded by this
+
+    // A ClientHandler that reports when it is idle
+    public interface Handler extends Runnable {
+        void setSlot(Slot slot);
+
+        Slot getSlot();
+    }
+
+    // One admitted (or waiting) connection
+    public static final class Slot {
+        // Slot of a handler that is not run by a pool
+        public static final Slot UNTRACKED = new Slot(null, false);
+        private static final long BUSY = 0;
+        private static final long SHED = -1;
+        private static final long EPOCH = System.nanoTime();
+
+        private final StreamConnection connection;
+        private final boolean tracked;
+        // When the handler started waiting for a command (nanos after EPOCH, plus 1), BUSY or SHED
+        private final AtomicLong idleSince = new AtomicLong(BUSY);
+
+        Slot(StreamConnection connection, boolean tracked) {
+            this.connection = connection;
+            this.tracked = tracked;
+        }
+
+        // Called before reading the next command
+        public void idle() {
+            if (tracked) {
+                idleSince.set(System.nanoTime() - EPOCH + 1);
+            }
+        }
+
+        // Called with a command just read; false if the connection is being shed, in which
+        // case the command must not run
+        public boolean busy() {
+            if (!tracked) {
+                return true;
+            }
+            long since = idleSince.get();
+            return since != SHED && (since == BUSY || idleSince.compareAndSet(since, BUSY));
+        }
+
+        // True once the pool has closed the connection to make room
+        public boolean isShed() {
+            return idleSince.get() == SHED;
+        }
+
+        boolean shed(long since) {
+            return idleSince.compareAndSet(since, SHED);
+        }
+    }
+
+    // Constructor for a pool of at most maxConnections handlers (0 for no limit)
+    public HandlerPool(int maxConnections, Overload overload, int maxQueued, boolean virtualThreads, ServerStats stats) {
+        this.maxConnections = maxConnections;
+        this.overload = overload;
+        this.maxQueued = maxQueued;
+        this.virtualThreads = virtualThreads;
+        this.stats = stats;
+    }
+
+    public static Overload parseOverload(String value) {
+        switch (value) {
+            case "reject":
+                return Overload.REJECT;
+            case "queue":
+                return Overload.QUEUE;
+            case "shed-idle":
+                return Overload.SHED_IDLE;
+            default:
+                throw new IllegalArgumentException("Unknown overload policy " + value + ", use reject, queue or shed-idle");
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public Overload getOverload() {
+        return overload;
+    }
+
+    // Connections with a running handler
+    public synchronized int getActive() {
+        return active.size();
+    }
+
+    public synchronized int getQueued() {
+        return waiting.size();
+    }
+
+    // Runs the handler for the connection now, later or not at all, as the limit and the
+    // overload policy decide
+    public void submit(StreamConnection connection, Handler handler) {
+        Slot slot = new Slot(connection, maxConnections > 0 && overload == Overload.SHED_IDLE);
+        handler.setSlot(slot);
+        Slot victim = null;
+        synchronized (this) {
+            if (maxConnections > 0 && active.size() >= maxConnections) {
+                if (overload == Overload.QUEUE && waiting.size() < maxQueued) {
+                    waiting.add(handler);
+                    stats.connectionQueued();
+                    return;
+                }
+                victim = overload == Overload.SHED_IDLE ? claimOldestIdle() : null;
+                if (victim != null) {
+                    active.remove(victim);
+                }
+            }
+            if (victim != null || maxConnections <= 0 || active.size() < maxConnections) {
+                active.add(slot);
+                slot = null;
+            }
+        }
+        if (slot != null) {
+            reject(connection);
+            return;
+        }
+        if (victim != null) {
+            stats.connectionShed();
+            close(victim.connection);
+        }
+        start(handler);
+    }
+
+    // Called with this locked; claims the slot idle for longest, or returns null if none is idle
+    private Slot claimOldestIdle() {
+        while (true) {
+            Slot oldest = null;
+            long oldestSince = 0;
+            for (Slot slot : active) {
+                long since = slot.idleSince.get();
+                if (since > 0 && (oldest == null || since - oldestSince < 0)) {
+                    oldest = slot;
+                    oldestSince = since;
+                }
+            }
+            if (oldest == null || oldest.shed(oldestSince)) {
+                return oldest;
+            }
+            // It started a command or went idle again meanwhile; look again
+        }
+    }
+
+    private void start(Handler handler) {
+        Runnable task = () -> {
+            try {
+                handler.run();
+            } finally {
+                finished(handler.getSlot());
+            }
+        };
+        if (virtualThreads) {
+            VirtualThreads.start(task);
+        } else {
+            new Thread(task).start();
+        }
+    }
+
+    // Frees the slot and starts the longest waiting connection, if any
+    private void finished(Slot slot) {
+        Handler next;
+        synchronized (this) {
+            if (!active.remove(slot)) {
+                // Shed: its place was given away already
+                return;
+            }
+            next = waiting.poll();
+            if (next == null) {
+                return;
+            }
+            active.add(next.getSlot());
+        }
+        stats.connectionDequeued();
+        start(next);
+    }
+
+    private void reject(StreamConnection connection) {
+        stats.connectionRejected();
+        try {
+            connection.getOutputStream().write(BUSY_REPLY);
+        } catch (IOException e) {
+            // Gone already
+        }
+        close(connection);
+    }
+
+    private static void close(StreamConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Error closing socket: " + e.getMessage());
+        }
+    }
+}
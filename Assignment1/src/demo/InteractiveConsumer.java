@@ -1,6 +1,7 @@
-import java.io.*;
-import java.net.*;
+import java.io.IOException;
+import java.net.ConnectException;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 
 // Interactive Consumer - Run this in another terminal
 // Connects to QueueServer or DynamicQueueServer and allows you to manually consume items
@@ -34,21 +35,24 @@ public class InteractiveConsumer {
             }
         }
         
+        // A host of the form unix:<path> connects through the server's Unix domain socket
+        String address = StreamConnection.isUnix(host) ? host : host + ":" + port;
+        
         Scanner scanner = new Scanner(System.in);
         // Print welcome message
         System.out.println("========================================");
         System.out.println("   Interactive Consumer" + (isDynamic ? " (Dynamic Queue)" : ""));
         System.out.println("========================================");
-        System.out.println("Connecting to " + (isDynamic ? "dynamic queue " : "") + "server at " + host + ":" + port + "...");
+        System.out.println("Connecting to " + (isDynamic ? "dynamic queue " : "") + "server at " + address + "...");
         
-        try (Socket socket = new Socket(host, port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        try (QueueClient client = new QueueClient(host, port)) {
             
             System.out.println("Connected to " + (isDynamic ? "dynamic queue " : "") + "server!");
             System.out.println();
             System.out.println("Commands:");
             System.out.println("  - Type 'take' or 'consume' to consume an item");
+            System.out.println("  - Type 'take <ms>' to wait at most <ms> milliseconds for an item");
+            System.out.println("  - Type 'trytake' to consume an item only if one is available");
             System.out.println("  - Type 'size' to check queue size" + (isDynamic ? " and capacity" : ""));
             System.out.println("  - Type 'status' to see queue status");
             System.out.println("  - Type 'quit' to exit");
@@ -61,21 +65,21 @@ public class InteractiveConsumer {
             
             String input;
             int consumedCount = 0;
+            // Capacity as of the last reply; TAKE replies carry it, so no extra SIZE per item
+            String[] sizeParts = call(client, "SIZE").split(" ");
+            int capacity = sizeParts[0].equals("OK") ? Integer.parseInt(sizeParts[2]) : 0;
             
             while (true) {
                 System.out.print("Consumer> ");
                 input = scanner.nextLine().trim();
                 
                 if (input.equalsIgnoreCase("quit") || input.equalsIgnoreCase("exit")) {
-                    out.println("QUIT");
-                    in.readLine(); 
                     System.out.println("Consumer shutting down. Consumed " + consumedCount + " items total.");
                     break;
                 }
                 
                 if (input.equalsIgnoreCase("size")) {
-                    out.println("SIZE");
-                    String response = in.readLine();
+                    String response = call(client, "SIZE");
                     if (response.startsWith("OK")) {
                         String[] parts = response.split(" ");
                         if (isDynamic && parts.length > 3) {
@@ -95,8 +99,7 @@ public class InteractiveConsumer {
                 }
                 
                 if (input.equalsIgnoreCase("status")) {
-                    out.println("STATUS");
-                    String response = in.readLine();
+                    String response = call(client, "STATUS");
                     if (response.startsWith("OK")) {
                         String[] parts = response.split(" ");
                         if (isDynamic && parts.length > 5) {
@@ -119,72 +122,56 @@ public class InteractiveConsumer {
                     continue;
                 }
                 
-                if (input.equalsIgnoreCase("take") || input.equalsIgnoreCase("consume") || input.equalsIgnoreCase("c")) {
-                    int oldCapacity = 0;
-                    
-                    if (isDynamic) {
-                        // Get current capacity before taking an item
-                        out.println("SIZE");
-                        String sizeResponse = in.readLine();
-                        if (sizeResponse.startsWith("OK")) {
-                            String[] parts = sizeResponse.split(" ");
-                            oldCapacity = Integer.parseInt(parts[2]);
+                String[] words = input.split("\\s+");
+                String command = words[0].toLowerCase();
+                boolean isTake = command.equals("take") || command.equals("consume") || command.equals("c");
+                if ((isTake && words.length <= 2) || (command.equals("trytake") && words.length == 1)) {
+                    long timeoutMs = -1;
+                    if (isTake && words.length == 2) {
+                        try {
+                            timeoutMs = Long.parseLong(words[1]);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid timeout: " + words[1]);
+                            continue;
                         }
                     }
-                    
-                    // Check if queue is empty
-                    out.println("STATUS");
-                    String statusResponse = in.readLine();
-                    boolean isEmpty = false;
-                    if (statusResponse.startsWith("OK")) {
-                        String[] parts = statusResponse.split(" ");
-                        if (isDynamic && parts.length > 4) {
-                            isEmpty = parts[4].equals("true");
+                    try {
+                        QueueClient.Reply reply;
+                        if (!isTake) {
+                            reply = client.tryTake().join();
+                        } else if (timeoutMs >= 0) {
+                            reply = client.poll(timeoutMs).join();
                         } else {
-                            isEmpty = parts[3].equals("true");
-                        }
-                    }
-                    
-                    if (isEmpty) {
-                        System.out.println("Queue is EMPTY. Waiting for items...");
-                        System.out.println("(This will block until a producer adds an item)");
-                    }
-                    
-                    out.println("TAKE");
-                    String response = in.readLine();
-                    
-                    if (response.startsWith("OK")) {
-                        String[] parts = response.split(" ");
-                        int item = Integer.parseInt(parts[1]);
-                        int queueSize = Integer.parseInt(parts[2]);
-                        consumedCount++;
-                        
-                        if (isDynamic && parts.length > 3) {
-                            // Dynamic queue item size, capacity, and total consumed
-                            int newCapacity = Integer.parseInt(parts[3]);
-                            System.out.println(" Consumed: " + item + " (queue size: " + queueSize + ", capacity: " + newCapacity + ", total consumed: " + consumedCount + ")");
-                            
-                            if (newCapacity < oldCapacity) {
-                                System.out.println("Queue SHRANK from " + oldCapacity + " to " + newCapacity);
+                            // Try first so that the user learns when the TAKE is going to block
+                            reply = client.tryTake().join();
+                            if (reply == null) {
+                                System.out.println("Queue is EMPTY. Waiting for items...");
+                                System.out.println("(This will block until a producer adds an item)");
+                                reply = client.take().join();
                             }
-                        } else {
-                            // Fixed queue item size and total consumed
-                            System.out.println("Consumed: " + item + " (queue size: " + queueSize + ", total consumed: " + consumedCount + ")");
                         }
                         
-                        if (queueSize == 0) {
-                            System.out.println("Queue is now EMPTY");
+                        if (reply == null && !isTake) {
+                            System.out.println("Queue is EMPTY, nothing consumed");
+                        } else if (reply == null) {
+                            System.out.println("No item arrived within " + timeoutMs + " ms");
+                        } else {
+                            consumedCount++;
+                            printTakeReply(reply, isDynamic, capacity, consumedCount);
+                            if (reply.getCapacity() >= 0) {
+                                capacity = reply.getCapacity();
+                            }
                         }
-                    } else {
-                        System.out.println("Error: " + response);
+                    } catch (CompletionException e) {
+                        System.out.println("Error: " + e.getCause().getMessage());
                     }
                     continue;
                 }
                 
-                System.out.println("Invalid command. Use 'take', 'size', 'status', or 'quit'");
+                System.out.println("Invalid command. Use 'take [ms]', 'trytake', 'size', 'status', or 'quit'");
             }
         } catch (ConnectException e) {
-                System.out.println("Could not connect to server at " + host + ":" + port);
+                System.out.println("Could not connect to server at " + address);
                 // Print error message if unable to connect to server
             if (isDynamic) {
                 System.out.println("Make sure DynamicQueueServer is running first!");
@@ -199,4 +186,35 @@ public class InteractiveConsumer {
         
         scanner.close();
     }
+    
+    // Prints the reply to TAKE or TRYTAKE
+    private static void printTakeReply(QueueClient.Reply reply, boolean isDynamic, int oldCapacity, int consumedCount) {
+        int queueSize = reply.getSize();
+        
+        if (isDynamic && reply.getCapacity() >= 0) {
+            // Dynamic queue item size, capacity, and total consumed
+            int newCapacity = reply.getCapacity();
+            System.out.println(" Consumed: " + reply.getItem() + " (queue size: " + queueSize + ", capacity: " + newCapacity + ", total consumed: " + consumedCount + ")");
+            
+            if (newCapacity < oldCapacity) {
+                System.out.println("Queue SHRANK from " + oldCapacity + " to " + newCapacity);
+            }
+        } else {
+            // Fixed queue item size and total consumed
+            System.out.println("Consumed: " + reply.getItem() + " (queue size: " + queueSize + ", total consumed: " + consumedCount + ")");
+        }
+        
+        if (queueSize == 0) {
+            System.out.println("Queue is now EMPTY");
+        }
+    }
+    
+    // Sends a command and returns the reply, or the error as a reply
+    private static String call(QueueClient client, String command) {
+        try {
+            return client.call(command).join();
+        } catch (CompletionException e) {
+            return "ERROR " + e.getCause().getMessage();
+        }
+    }
 }
@@ -1,6 +1,7 @@
-import java.io.*;
-import java.net.*;
+import java.io.IOException;
+import java.net.ConnectException;
 import java.util.Scanner;
+import java.util.concurrent.CompletionException;
 
 // Interactive Producer - Run this in one terminal
 // Connects to QueueServer or DynamicQueueServer and allows you to manually produce items
@@ -35,16 +36,17 @@ public class InteractiveProducer {
             }
         }
         
+        // A host of the form unix:<path> connects through the server's Unix domain socket
+        String address = StreamConnection.isUnix(host) ? host : host + ":" + port;
+        
         Scanner scanner = new Scanner(System.in);
         // Print welcome message
         System.out.println("========================================");
         System.out.println("   Interactive Producer" + (isDynamic ? " (Dynamic Queue)" : ""));
         System.out.println("========================================");
-        System.out.println("Connecting to " + (isDynamic ? "dynamic queue " : "") + "server at " + host + ":" + port + "...");
+        System.out.println("Connecting to " + (isDynamic ? "dynamic queue " : "") + "server at " + address + "...");
         
-        try (Socket socket = new Socket(host, port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        try (QueueClient client = new QueueClient(host, port)) {
             
             System.out.println("✓ Connected to " + (isDynamic ? "dynamic queue " : "") + "server!");
             System.out.println();
@@ -62,21 +64,21 @@ public class InteractiveProducer {
             
             String input;
             int itemCount = 0;
+            // Capacity as of the last reply; PUT replies carry it, so no extra SIZE per item
+            String[] sizeParts = call(client, "SIZE").split(" ");
+            int capacity = sizeParts[0].equals("OK") ? Integer.parseInt(sizeParts[2]) : Integer.MAX_VALUE;
             
             while (true) {
                 System.out.print("Producer> ");
                 input = scanner.nextLine().trim();
                 
                 if (input.equalsIgnoreCase("quit") || input.equalsIgnoreCase("exit")) {
-                    out.println("QUIT");
-                    in.readLine(); 
                     System.out.println("Producer shutting down. Produced " + itemCount + " items total.");
                     break;
                 }
                 
                 if (input.equalsIgnoreCase("size")) {
-                    out.println("SIZE");
-                    String response = in.readLine();
+                    String response = call(client, "SIZE");
                     if (response.startsWith("OK")) {
                         String[] parts = response.split(" ");
                         if (isDynamic && parts.length > 3) {
@@ -94,8 +96,7 @@ public class InteractiveProducer {
                 }
                 
                 if (input.equalsIgnoreCase("status")) {
-                    out.println("STATUS");
-                    String response = in.readLine();
+                    String response = call(client, "STATUS");
                     if (response.startsWith("OK")) {
                         String[] parts = response.split(" ");
                         if (isDynamic && parts.length > 5) {
@@ -121,57 +122,36 @@ public class InteractiveProducer {
                 // Try to parse as integer
                 try {
                     int item = Integer.parseInt(input);
-                    int oldCapacity = 0;
-                    
-                    if (isDynamic) {
-                        out.println("SIZE");
-                        String sizeResponse = in.readLine();
-                        if (sizeResponse.startsWith("OK")) {
-                            String[] parts = sizeResponse.split(" ");
-                            oldCapacity = Integer.parseInt(parts[2]);
-                        }
-                    }
+                    QueueClient.Reply reply = client.put(item).join();
+                    itemCount++;
                     
-                    out.println("PUT " + item);
-                    String response = in.readLine();
-                    
-                    if (response.startsWith("OK")) {
-                        String[] parts = response.split(" ");
-                        int queueSize = Integer.parseInt(parts[1]);
-                        itemCount++;
+                    if (isDynamic && reply.getCapacity() >= 0) {
+                        // Dynamic queue size and capacity
+                        int newCapacity = reply.getCapacity();
+                        System.out.println("Produced: " + item + " (queue size: " + reply.getSize() + ", capacity: " + newCapacity + ")");
                         
-                        if (isDynamic && parts.length > 2) {
-                            // Dynamic queue size and capacity
-                            int newCapacity = Integer.parseInt(parts[2]);
-                            System.out.println("Produced: " + item + " (queue size: " + queueSize + ", capacity: " + newCapacity + ")");
-                            
-                            if (newCapacity > oldCapacity) {
-                                System.out.println(" Queue GREW from " + oldCapacity + " to " + newCapacity + "!");
-                            }
-                        } else {
-                            // Fixed queue size
-                            System.out.println("Produced: " + item + " (queue size: " + queueSize + ")");
-                            
-                            // Check if full
-                            out.println("STATUS");
-                            String statusResponse = in.readLine();
-                            if (statusResponse.startsWith("OK")) {
-                                String[] statusParts = statusResponse.split(" ");
-                                if (statusParts.length > 4 && statusParts[4].equals("true")) {
-                                    System.out.println("  ⚠ Queue is now FULL!");
-                                }
-                            }
+                        if (newCapacity > capacity) {
+                            System.out.println(" Queue GREW from " + capacity + " to " + newCapacity + "!");
                         }
+                        capacity = newCapacity;
                     } else {
-                        System.out.println("  ✗ Error: " + response);
+                        // Fixed queue size
+                        System.out.println("Produced: " + item + " (queue size: " + reply.getSize() + ")");
+                        
+                        // Check if full
+                        if (reply.getSize() >= capacity) {
+                            System.out.println("  ⚠ Queue is now FULL!");
+                        }
                     }
                 } catch (NumberFormatException e) {
                     System.out.println("  ✗ Invalid input. Enter a number, 'size', 'status', or 'quit'");
+                } catch (CompletionException e) {
+                    System.out.println("  ✗ Error: " + e.getCause().getMessage());
                 }
             }
         } catch (ConnectException e) {
             // Print error message if unable to connect to server
-            System.out.println("✗ Could not connect to server at " + host + ":" + port);
+            System.out.println("✗ Could not connect to server at " + address);
             if (isDynamic) {
                 System.out.println("  Make sure DynamicQueueServer is running first!");
                 System.out.println("  Run: java -cp bin DynamicQueueServer [initialCapacity] [port]");
@@ -185,4 +165,13 @@ public class InteractiveProducer {
         
         scanner.close();
     }
+    
+    // Sends a command and returns the reply, or the error as a reply
+    private static String call(QueueClient client, String command) {
+        try {
+            return client.call(command).join();
+        } catch (CompletionException e) {
+            return "ERROR " + e.getCause().getMessage();
+        }
+    }
 }
@@ -0,0 +1,563 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load generator for QueueServer and DynamicQueueServer (either mode). Producer
+// connections send PUT (or PUTN / PUT_BATCH) and consumer connections TAKE (or TAKEN /
+// TAKE_BATCH), each connection with one request in flight, for a warmup and then a
+// measured period. Reports throughput and latency percentiles per operation type and
+// optionally writes them as JSON for regression tracking.
+//
+// Latency and coordinated omission: a paced connection (--rate / --take-rate) sends on a
+// fixed schedule and measures each request from the time it was due, not from when it was
+// sent, so a stall also counts against the requests that queued up behind it. A closed-loop
+// connection sends the next request when the last reply arrives; its latencies are
+// corrected after the run with the median service time as the expected interval (see
+// LatencyHistogram.copyCorrectedForCoordinatedOmission). Service times, measured from the
+// actual send, are reported next to the corrected latencies.
+//
+// Usage: LoadGenerator [--host h] [--port p] [--producers n] [--consumers n]
+//                      [--rate items/s] [--take-rate items/s] [--batch n]
+//                      [--protocol text|binary] [--queue name] [--duration s]
+//                      [--warmup s] [--json file]
+public class LoadGenerator {
+
+    public enum Protocol {
+        TEXT,
+        BINARY
+    }
+
+    // Run settings; the defaults are one closed-loop producer and consumer for 10 s
+    public static final class Settings {
+        public String host = "localhost";
+        public int port = 8888;
+        public int producers = 1;
+        public int consumers = 1;
+        public double rate;     // Items/s over all producers, 0 = closed loop
+        public double takeRate; // Items/s over all consumers, 0 = closed loop
+        public int batch = 1;
+        public Protocol protocol = Protocol.TEXT;
+        public String queue;    // Text protocol only; null = the server's default queue
+        public long durationMs = 10000;
+        public long warmupMs = 2000;
+        public String jsonFile;
+    }
+
+    // Results of one operation type over the measured period
+    public static final class OperationStats {
+        private final String name;
+        private final boolean paced;
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final LatencyHistogram fromSchedule = new LatencyHistogram();
+        private long requests;
+        private long items;
+        private long errors;
+        private LatencyHistogram latency;
+
+        OperationStats(String name, boolean paced) {
+            this.name = name;
+            this.paced = paced;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        // Latency corrected for coordinated omission
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        // Time from sending a request to its reply
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        // Called once the workers are done
+        void finish() {
+            latency = paced ? fromSchedule : serviceTime.copyCorrectedForCoordinatedOmission(serviceTime.getValueAtPercentile(50));
+        }
+    }
+
+    // Results of a run
+    public static final class Result {
+        private final Settings settings;
+        private final long measuredNanos;
+        private final OperationStats put;
+        private final OperationStats take;
+
+        Result(Settings settings, long measuredNanos, OperationStats put, OperationStats take) {
+            this.settings = settings;
+            this.measuredNanos = measuredNanos;
+            this.put = put;
+            this.take = take;
+        }
+
+        public OperationStats getPut() {
+            return put;
+        }
+
+        public OperationStats getTake() {
+            return take;
+        }
+
+        public double itemsPerSecond(OperationStats stats) {
+            return stats.items / (measuredNanos / 1e9);
+        }
+
+        public String toJson() {
+            StringBuilder json = new StringBuilder(1024);
+            json.append("{\n");
+            json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+            json.append("  \"settings\": {");
+            json.append("\"host\": \"").append(settings.host).append("\", ");
+            json.append("\"port\": ").append(settings.port).append(", ");
+            json.append("\"protocol\": \"").append(settings.protocol.name().toLowerCase()).append("\", ");
+            json.append("\"queue\": ").append(settings.queue == null ? "null" : "\"" + settings.queue + "\"").append(", ");
+            json.append("\"producers\": ").append(settings.producers).append(", ");
+            json.append("\"consumers\": ").append(settings.consumers).append(", ");
+            json.append("\"rate\": ").append(number(settings.rate)).append(", ");
+            json.append("\"takeRate\": ").append(number(settings.takeRate)).append(", ");
+            json.append("\"batch\": ").append(settings.batch).append(", ");
+            json.append("\"durationMs\": ").append(settings.durationMs).append(", ");
+            json.append("\"warmupMs\": ").append(settings.warmupMs).append("},\n");
+            json.append("  \"measuredMs\": ").append(measuredNanos / 1_000_000).append(",\n");
+            json.append("  \"operations\": {\n");
+            appendJson(json, put);
+            json.append(",\n");
+            appendJson(json, take);
+            json.append("\n  }\n}\n");
+            return json.toString();
+        }
+
+        private void appendJson(StringBuilder json, OperationStats stats) {
+            json.append("    \"").append(stats.name).append("\": {");
+            json.append("\"requests\": ").append(stats.requests).append(", ");
+            json.append("\"items\": ").append(stats.items).append(", ");
+            json.append("\"errors\": ").append(stats.errors).append(", ");
+            json.append("\"itemsPerSecond\": ").append(number(itemsPerSecond(stats))).append(", ");
+            json.append("\"paced\": ").append(stats.paced).append(",\n      ");
+            json.append("\"latencyUs\": ");
+            appendPercentiles(json, stats.latency);
+            json.append(",\n      \"serviceTimeUs\": ");
+            appendPercentiles(json, stats.serviceTime);
+            json.append("}");
+        }
+
+        private static void appendPercentiles(StringBuilder json, LatencyHistogram histogram) {
+            json.append("{\"count\": ").append(histogram.getCount());
+            json.append(", \"mean\": ").append(number(histogram.getMean() / 1000.0));
+            for (double percentile : PERCENTILES) {
+                json.append(", \"p").append(label(percentile)).append("\": ")
+                    .append(number(histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            json.append(", \"max\": ").append(number(histogram.getMax() / 1000.0)).append("}");
+        }
+
+        private static String number(double value) {
+            return String.format(Locale.ROOT, "%.1f", value);
+        }
+
+        // Human-readable table
+        public void print() {
+            System.out.printf("Measured %.1f s%n", measuredNanos / 1e9);
+            for (OperationStats stats : new OperationStats[] {put, take}) {
+                System.out.printf("%n%s: %d requests, %d items, %.0f items/s, %d errors (%s)%n", stats.name,
+                                  stats.requests, stats.items, itemsPerSecond(stats), stats.errors,
+                                  stats.paced ? "paced" : "closed loop");
+                System.out.println("  latency (us):      " + percentiles(stats.latency));
+                System.out.println("  service time (us): " + percentiles(stats.serviceTime));
+            }
+        }
+
+        private static String percentiles(LatencyHistogram histogram) {
+            StringBuilder line = new StringBuilder();
+            for (double percentile : PERCENTILES) {
+                line.append(String.format(Locale.ROOT, "p%s %.1f  ", label(percentile), histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            return line.append(String.format(Locale.ROOT, "max %.1f", histogram.getMax() / 1000.0)).toString();
+        }
+
+        private static String label(double percentile) {
+            return percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile);
+        }
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    // One connection's requests, whatever the protocol
+    private interface Connection extends AutoCloseable {
+        // Sends count items; returns once they are in the queue
+        void put(int[] items, int count) throws IOException;
+
+        // Takes up to max items; returns how many
+        int take(int max) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static final class TextConnection implements Connection {
+        private final Socket socket;
+        private final BufferedWriter out;
+        private final BufferedReader in;
+        private final String target; // "" or " <queue>"
+        private final StringBuilder request = new StringBuilder();
+
+        TextConnection(Settings settings) throws IOException {
+            socket = new Socket(settings.host, settings.port);
+            socket.setTcpNoDelay(true);
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            target = settings.queue == null ? "" : " " + settings.queue;
+        }
+
+        @Override
+        public void put(int[] items, int count) throws IOException {
+            request.setLength(0);
+            if (count == 1) {
+                request.append("PUT").append(target).append(' ').append(items[0]);
+            } else {
+                request.append("PUTN").append(target).append(' ').append(count);
+                for (int i = 0; i < count; i++) {
+                    request.append(' ').append(items[i]);
+                }
+            }
+            call();
+        }
+
+        @Override
+        public int take(int max) throws IOException {
+            request.setLength(0);
+            if (max == 1) {
+                request.append("TAKE").append(target);
+                call();
+                return 1;
+            }
+            request.append("TAKEN").append(target).append(' ').append(max);
+            String reply = call();
+            return Integer.parseInt(reply, 3, reply.indexOf(' ', 3), 10);
+        }
+
+        private String call() throws IOException {
+            out.append(request).append('\n');
+            out.flush();
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new IOException("Server closed the connection");
+            }
+            if (!reply.startsWith("OK")) {
+                throw new IOException(reply);
+            }
+            return reply;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static final class BinaryConnection implements Connection {
+        private final BinaryQueueClient client;
+        private int[] batch = new int[0];
+        private int[] dest = new int[0];
+
+        BinaryConnection(Settings settings) throws IOException {
+            client = new BinaryQueueClient(settings.host, settings.port);
+        }
+
+        @Override
+        public void put(int[] items, int count) throws IOException {
+            if (count == 1) {
+                client.put(items[0]);
+                return;
+            }
+            if (batch.length != count) {
+                batch = new int[count];
+            }
+            System.arraycopy(items, 0, batch, 0, count);
+            client.putBatch(batch);
+        }
+
+        @Override
+        public int take(int max) throws IOException {
+            if (max == 1) {
+                client.take();
+                return 1;
+            }
+            if (dest.length != max) {
+                dest = new int[max];
+            }
+            return client.takeBatch(dest);
+        }
+
+        // Closes the socket without the QUIT round trip, which may be stuck behind a waiting TAKE
+        @Override
+        public void close() throws IOException {
+            client.abort();
+        }
+    }
+
+    // Runs the load described by settings and returns the results
+    public static Result run(Settings settings) throws IOException, InterruptedException {
+        if (settings.protocol == Protocol.BINARY && settings.queue != null) {
+            throw new IllegalArgumentException("The binary protocol only reaches the default queue");
+        }
+        if (settings.batch < 1 || settings.batch > BatchCommands.MAX_BATCH) {
+            throw new IllegalArgumentException("Batch size must be between 1 and " + BatchCommands.MAX_BATCH);
+        }
+        OperationStats put = new OperationStats(settings.batch == 1 ? "put" : "putBatch", settings.rate > 0);
+        OperationStats take = new OperationStats(settings.batch == 1 ? "take" : "takeBatch", settings.takeRate > 0);
+        List<Worker> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < settings.producers; i++) {
+                workers.add(new Worker(settings, connect(settings), true, i, put));
+            }
+            for (int i = 0; i < settings.consumers; i++) {
+                workers.add(new Worker(settings, connect(settings), false, i, take));
+            }
+        } catch (IOException e) {
+            for (Worker worker : workers) {
+                worker.stop();
+            }
+            throw e;
+        }
+
+        long start = System.nanoTime();
+        long measureStart = start + settings.warmupMs * 1_000_000L;
+        long measureEnd = measureStart + settings.durationMs * 1_000_000L;
+        for (Worker worker : workers) {
+            worker.start(start, measureStart, measureEnd);
+        }
+        long remaining;
+        while ((remaining = measureEnd - System.nanoTime()) > 0) {
+            Thread.sleep(Math.max(1, remaining / 1_000_000L));
+        }
+        // Producers may wait on a full queue and consumers on an empty one: closing the
+        // connections ends their last request
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        put.finish();
+        take.finish();
+        return new Result(settings, measureEnd - measureStart, put, take);
+    }
+
+    private static Connection connect(Settings settings) throws IOException {
+        return settings.protocol == Protocol.TEXT ? new TextConnection(settings) : new BinaryConnection(settings);
+    }
+
+    // One connection's loop. Records into its own histograms and merges them into the
+    // operation's totals at the end, so workers do not contend on shared counters.
+    private static final class Worker implements Runnable {
+        private final Settings settings;
+        private final Connection connection;
+        private final boolean producer;
+        private final int index;
+        private final OperationStats totals;
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final LatencyHistogram fromSchedule = new LatencyHistogram();
+        private final Thread thread;
+        private volatile boolean running = true;
+        private long start;
+        private long measureStart;
+        private long measureEnd;
+        private long requests;
+        private long items;
+        private long errors;
+
+        Worker(Settings settings, Connection connection, boolean producer, int index, OperationStats totals) {
+            this.settings = settings;
+            this.connection = connection;
+            this.producer = producer;
+            this.index = index;
+            this.totals = totals;
+            this.thread = new Thread(this, (producer ? "load-producer-" : "load-consumer-") + index);
+        }
+
+        void start(long start, long measureStart, long measureEnd) {
+            this.start = start;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+            thread.start();
+        }
+
+        void stop() {
+            running = false;
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+
+        void join() throws InterruptedException {
+            thread.join();
+            synchronized (totals) {
+                totals.serviceTime.add(serviceTime);
+                totals.fromSchedule.add(fromSchedule);
+                totals.requests += requests;
+                totals.items += items;
+                totals.errors += errors;
+            }
+        }
+
+        @Override
+        public void run() {
+            double rate = producer ? settings.rate : settings.takeRate;
+            int connections = producer ? settings.producers : settings.consumers;
+            // Time between this connection's requests; connections start staggered over one interval
+            long interval = rate > 0 ? (long) (1e9 * settings.batch * connections / rate) : 0;
+            long due = start + (interval > 0 ? interval * index / connections : 0);
+            int[] batch = new int[settings.batch];
+            int next = index << 24;
+            long sent = -1; // Send time of the request in flight
+            try {
+                while (running) {
+                    if (interval > 0) {
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    sent = System.nanoTime();
+                    int count;
+                    if (producer) {
+                        for (int i = 0; i < batch.length; i++) {
+                            batch[i] = next++;
+                        }
+                        connection.put(batch, batch.length);
+                        count = batch.length;
+                    } else {
+                        count = connection.take(batch.length);
+                    }
+                    long done = System.nanoTime();
+                    if (done >= measureStart && done < measureEnd) {
+                        serviceTime.recordValue(done - sent);
+                        if (interval > 0) {
+                            fromSchedule.recordValue(done - due);
+                        }
+                        requests++;
+                        items += count;
+                    }
+                    sent = -1;
+                    due += interval;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    errors++;
+                    System.err.println(thread.getName() + " failed: " + e.getMessage());
+                } else if (sent >= 0 && sent < measureEnd) {
+                    // Cut off by the end of the run: leaving the request out would hide a
+                    // stall, so it counts with the time it had waited so far
+                    serviceTime.recordValue(measureEnd - sent);
+                    for (long missed = due; interval > 0 && missed < measureEnd; missed += interval) {
+                        fromSchedule.recordValue(measureEnd - missed);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = parseOptions(args);
+        System.out.println("=== Load Generator: " + settings.producers + " producers" +
+                           (settings.rate > 0 ? " at " + (long) settings.rate + " items/s" : " closed loop") + ", " +
+                           settings.consumers + " consumers" +
+                           (settings.takeRate > 0 ? " at " + (long) settings.takeRate + " items/s" : " closed loop") +
+                           ", batch " + settings.batch + ", " + settings.protocol.name().toLowerCase() + " protocol, " +
+                           settings.host + ":" + settings.port + " ===");
+        System.out.println("Warming up for " + settings.warmupMs + " ms, then measuring for " + settings.durationMs + " ms\n");
+        Result result = run(settings);
+        result.print();
+        if (settings.jsonFile != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(settings.jsonFile))) {
+                out.print(result.toJson());
+            }
+            System.out.println("\nResults written to " + settings.jsonFile);
+        }
+    }
+
+    // Parses --option value pairs
+    private static Settings parseOptions(String[] args) {
+        Settings settings = new Settings();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String arg = args[i];
+            String value = args[i + 1];
+            try {
+                switch (arg) {
+                    case "--host":
+                        settings.host = value;
+                        break;
+                    case "--port":
+                        settings.port = Integer.parseInt(value);
+                        break;
+                    case "--producers":
+                        settings.producers = Integer.parseInt(value);
+                        break;
+                    case "--consumers":
+                        settings.consumers = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        settings.rate = Double.parseDouble(value);
+                        break;
+                    case "--take-rate":
+                        settings.takeRate = Double.parseDouble(value);
+                        break;
+                    case "--batch":
+                        settings.batch = Integer.parseInt(value);
+                        break;
+                    case "--protocol":
+                        settings.protocol = Protocol.valueOf(value.toUpperCase());
+                        break;
+                    case "--queue":
+                        settings.queue = value;
+                        break;
+                    case "--duration":
+                        settings.durationMs = (long) (Double.parseDouble(value) * 1000);
+                        break;
+                    case "--warmup":
+                        settings.warmupMs = (long) (Double.parseDouble(value) * 1000);
+                        break;
+                    case "--json":
+                        settings.jsonFile = value;
+                        break;
+                    default:
+                        System.out.println("Unknown option " + arg + ", ignoring");
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Invalid value for " + arg + ": " + value);
+            }
+        }
+        if (args.length % 2 != 0) {
+            System.out.println("Missing value for " + args[args.length - 1] + ", ignoring");
+        }
+        return settings;
+    }
+}
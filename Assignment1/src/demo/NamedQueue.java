@@ -0,0 +1,417 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// A queue hosted under a name by a QueueRegistry. Delegates to its fixed or dynamic engine,
+// counts the items that go through it, and formats the text replies for its queue type:
+// a dynamic queue also reports its capacity, the way DynamicQueueServer always has.
+// It also tracks SUBSCRIBE streams: how many subscribers there are and how many items
+// they were sent without returning the credit for them yet (in flight).
+//
+// For servers that reject PUTs on a full queue (QueueRegistry.Backpressure.REJECT) it also
+// estimates how long producers should wait before trying again, from how fast consumers
+// have taken items lately. The take paths keep that rate as a moving average over windows
+// of TAKE_RATE_WINDOW_NANOS, so it is current whenever the queue fills up.
+public class NamedQueue implements QueueEngine {
+    // Bounds of the retry time suggested by FULL replies
+    public static final long MIN_RETRY_MS = 1;
+    public static final long MAX_RETRY_MS = 1000;
+    // Suggested while the take rate is unknown: nothing was taken for IDLE_GAP_NANOS
+    public static final long UNKNOWN_RATE_RETRY_MS = 100;
+    // The take rate behind the suggestion is averaged over windows of at least this long
+    private static final long TAKE_RATE_WINDOW_NANOS = 10_000_000L;
+    // A pause between takes this long means consumers were idle or gone, not slow
+    private static final long IDLE_GAP_NANOS = 100_000_000L;
+
+    private final String name;
+    private final QueueEngine engine;
+    private final DynamicBoundedBlockingQueue dynamicQueue; // Non-null for a dynamic queue
+    private final LongAdder itemsPut = new LongAdder();
+    private final LongAdder itemsTaken = new LongAdder();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Object takeRateLock = new Object();
+    private volatile long lastTakeAt = System.nanoTime();
+    private volatile long takeWindowStart = lastTakeAt;
+    private volatile long takenAtWindowStart;
+    private volatile double takesPerMs; // 0 while unknown
+
+    // Constructor for a queue served under the given name
+    public NamedQueue(String name, QueueEngine engine) {
+        this.name = name;
+        this.engine = engine;
+        this.dynamicQueue = (engine instanceof DynamicBoundedBlockingQueue) ? (DynamicBoundedBlockingQueue) engine : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public QueueEngine getEngine() {
+        return engine;
+    }
+
+    public boolean isDynamic() {
+        return dynamicQueue != null;
+    }
+
+    // Initial capacity of a dynamic queue, current capacity of a fixed one
+    public int getInitialCapacity() {
+        return dynamicQueue != null ? dynamicQueue.getInitialCapacity() : engine.capacity();
+    }
+
+    // Resize events of a dynamic queue (always 0 for a fixed one), read without the queue lock
+    public long getGrowCount() {
+        return dynamicQueue != null ? dynamicQueue.getGrowCount() : 0;
+    }
+
+    public long getShrinkCount() {
+        return dynamicQueue != null ? dynamicQueue.getShrinkCount() : 0;
+    }
+
+    public long getItemsPut() {
+        return itemsPut.sum();
+    }
+
+    public long getItemsTaken() {
+        return itemsTaken.sum();
+    }
+
+    public int getSubscribers() {
+        return subscribers.get();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    // Suggested wait before retrying to put count items into the full queue: the time
+    // consumers take to remove that many at their recent rate, but no more than it takes them
+    // to drain the whole queue, within MIN_RETRY_MS..MAX_RETRY_MS. UNKNOWN_RATE_RETRY_MS if
+    // nothing was taken lately, so that producers neither give up on a queue whose consumers
+    // are just starting nor hammer one whose consumers are gone.
+    public long retryAfterMs(int count) {
+        long now = System.nanoTime();
+        double rate = takesPerMs;
+        if (now - lastTakeAt >= IDLE_GAP_NANOS) {
+            rate = 0;
+        } else if (rate <= 0) {
+            // Takes resumed less than a window ago: go by the part of the window seen so far
+            long elapsed = now - takeWindowStart;
+            long taken = itemsTaken.sum() - takenAtWindowStart;
+            if (elapsed > 0 && taken > 0) {
+                rate = taken * 1e6 / elapsed;
+            }
+        }
+        if (rate <= 0) {
+            return UNKNOWN_RATE_RETRY_MS;
+        }
+        int backlog = Math.min(count, engine.size());
+        return Math.max(MIN_RETRY_MS, Math.min(MAX_RETRY_MS, (long) Math.ceil(backlog / rate)));
+    }
+
+    // Counts items taken and folds them into the take rate once per window
+    private void taken(int count) {
+        if (count <= 0) {
+            return;
+        }
+        itemsTaken.add(count);
+        long now = System.nanoTime();
+        boolean afterIdle = now - lastTakeAt >= IDLE_GAP_NANOS;
+        lastTakeAt = now;
+        if (afterIdle || now - takeWindowStart >= TAKE_RATE_WINDOW_NANOS) {
+            sampleTakeRate(now, afterIdle);
+        }
+    }
+
+    private void sampleTakeRate(long now, boolean afterIdle) {
+        synchronized (takeRateLock) {
+            long taken = itemsTaken.sum();
+            if (afterIdle) {
+                // The pause says nothing about how fast consumers take: start measuring afresh
+                takesPerMs = 0;
+            } else {
+                long elapsed = now - takeWindowStart;
+                if (elapsed < TAKE_RATE_WINDOW_NANOS) {
+                    return; // Another taker closed this window already
+                }
+                double sample = (taken - takenAtWindowStart) * 1e6 / elapsed;
+                double average = takesPerMs;
+                takesPerMs = average > 0 ? (average + sample) / 2 : sample;
+            }
+            takenAtWindowStart = taken;
+            takeWindowStart = now;
+        }
+    }
+
+    // ---- Subscription bookkeeping, called by the servers ----
+
+    public void onSubscribe() {
+        subscribers.incrementAndGet();
+    }
+
+    // unacknowledged: items the subscriber was sent but never returned credit for
+    public void onUnsubscribe(long unacknowledged) {
+        subscribers.decrementAndGet();
+        inFlight.addAndGet(-unacknowledged);
+    }
+
+    public void onDelivered() {
+        inFlight.incrementAndGet();
+    }
+
+    public void onAcknowledged(long count) {
+        inFlight.addAndGet(-count);
+    }
+
+    @Override
+    public void put(Integer item) throws InterruptedException {
+        engine.put(item);
+        itemsPut.increment();
+    }
+
+    @Override
+    public Integer take() throws InterruptedException {
+        Integer item = engine.take();
+        taken(1);
+        return item;
+    }
+
+    @Override
+    public boolean offer(Integer item) {
+        if (!engine.offer(item)) {
+            return false;
+        }
+        itemsPut.increment();
+        return true;
+    }
+
+    @Override
+    public Integer poll() {
+        Integer item = engine.poll();
+        if (item != null) {
+            taken(1);
+        }
+        return item;
+    }
+
+    @Override
+    public boolean offer(Integer item, long timeoutMs) throws InterruptedException {
+        if (!engine.offer(item, timeoutMs)) {
+            return false;
+        }
+        itemsPut.increment();
+        return true;
+    }
+
+    @Override
+    public Integer poll(long timeoutMs) throws InterruptedException {
+        Integer item = engine.poll(timeoutMs);
+        if (item != null) {
+            taken(1);
+        }
+        return item;
+    }
+
+    @Override
+    public void putAll(int[] items, int offset, int count) throws InterruptedException {
+        // Interrupted batches leave a prefix in the queue, which this count then misses
+        engine.putAll(items, offset, count);
+        itemsPut.add(count);
+    }
+
+    @Override
+    public int offerAll(int[] items, int offset, int count) {
+        int added = engine.offerAll(items, offset, count);
+        itemsPut.add(added);
+        return added;
+    }
+
+    @Override
+    public int takeUpTo(int[] dest, int offset, int max) throws InterruptedException {
+        int count = engine.takeUpTo(dest, offset, max);
+        taken(count);
+        return count;
+    }
+
+    @Override
+    public int pollUpTo(int[] dest, int offset, int max) {
+        int count = engine.pollUpTo(dest, offset, max);
+        taken(count);
+        return count;
+    }
+
+    @Override
+    public void setTtl(long ttlMs) {
+        engine.setTtl(ttlMs);
+    }
+
+    @Override
+    public long getTtl() {
+        return engine.getTtl();
+    }
+
+    @Override
+    public void putWithTtl(Integer item, long ttlMs) throws InterruptedException {
+        engine.putWithTtl(item, ttlMs);
+        itemsPut.increment();
+    }
+
+    @Override
+    public boolean offerWithTtl(Integer item, long ttlMs) {
+        if (!engine.offerWithTtl(item, ttlMs)) {
+            return false;
+        }
+        itemsPut.increment();
+        return true;
+    }
+
+    @Override
+    public int removeExpired(int max) {
+        return engine.removeExpired(max);
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return engine.getExpiredCount();
+    }
+
+    @Override
+    public int[] toArray() {
+        return engine.toArray();
+    }
+
+    @Override
+    public void setChangeListener(QueueChangeListener listener) {
+        engine.setChangeListener(listener);
+    }
+
+    @Override
+    public int size() {
+        return engine.size();
+    }
+
+    @Override
+    public int capacity() {
+        return engine.capacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return engine.isEmpty();
+    }
+
+    @Override
+    public boolean isFull() {
+        return engine.isFull();
+    }
+
+    @Override
+    public void snapshot(QueueSnapshot into) {
+        engine.snapshot(into);
+    }
+
+    // ---- Text replies ----
+    // Each reply reads size and capacity in one lock acquisition. The write* methods append the
+    // same replies to a connection's TextReply without building Strings, reusing its snapshot.
+
+    // Size fields that follow PUT, TAKE and TAKEN replies
+    private String sizeSuffix() {
+        QueueSnapshot state = new QueueSnapshot();
+        engine.snapshot(state);
+        if (dynamicQueue != null) {
+            return state.size + " " + state.capacity;
+        }
+        return String.valueOf(state.size);
+    }
+
+    private void writeSizeSuffix(TextReply reply, QueueSnapshot state) {
+        reply.append(state.size);
+        if (dynamicQueue != null) {
+            reply.append(' ').append(state.capacity);
+        }
+    }
+
+    public String putResponse() {
+        return "OK " + sizeSuffix();
+    }
+
+    public void writePutResponse(TextReply reply, QueueSnapshot state) {
+        engine.snapshot(state);
+        reply.append("OK ");
+        writeSizeSuffix(reply, state);
+        reply.newLine();
+    }
+
+    // Reply to a PUT that a rejecting server turned away: FULL <retryAfterMs>
+    public String fullResponse() {
+        return "FULL " + retryAfterMs(1);
+    }
+
+    public void writeFullResponse(TextReply reply) {
+        reply.append("FULL ").append(retryAfterMs(1));
+        reply.newLine();
+    }
+
+    // Reply to a PUTN of which only the first added items fit: FULL <retryAfterMs> <added>
+    public String fullResponse(int count, int added) {
+        return "FULL " + retryAfterMs(count - added) + " " + added;
+    }
+
+    public String takeResponse(Integer item) {
+        return "OK " + item + " " + sizeSuffix();
+    }
+
+    public void writeTakeResponse(TextReply reply, QueueSnapshot state, int item) {
+        engine.snapshot(state);
+        reply.append("OK ").append(item).append(' ');
+        writeSizeSuffix(reply, state);
+        reply.newLine();
+    }
+
+    public String takeNResponse(int[] items, int count) {
+        return BatchCommands.takeNResponse(items, count, sizeSuffix());
+    }
+
+    public String sizeResponse() {
+        QueueSnapshot state = new QueueSnapshot();
+        engine.snapshot(state);
+        if (dynamicQueue != null) {
+            return "OK " + state.size + " " + state.capacity + " " + dynamicQueue.getInitialCapacity();
+        }
+        return "OK " + state.size + " " + state.capacity;
+    }
+
+    public void writeSizeResponse(TextReply reply, QueueSnapshot state) {
+        engine.snapshot(state);
+        reply.append("OK ").append(state.size).append(' ').append(state.capacity);
+        if (dynamicQueue != null) {
+            reply.append(' ').append(dynamicQueue.getInitialCapacity());
+        }
+        reply.newLine();
+    }
+
+    // Ends with the subscriber count, the items in flight to subscribers and the items expired
+    public String statusResponse() {
+        QueueSnapshot state = new QueueSnapshot();
+        engine.snapshot(state);
+        String streams = " " + subscribers.get() + " " + inFlight.get() + " " + engine.getExpiredCount();
+        if (dynamicQueue != null) {
+            return "OK " + state.size + " " + state.capacity + " " + dynamicQueue.getInitialCapacity() +
+                   " " + state.isEmpty() + " " + state.isFull() + streams;
+        }
+        return "OK " + state.size + " " + state.capacity + " " + state.isEmpty() + " " + state.isFull() + streams;
+    }
+
+    public void writeStatusResponse(TextReply reply, QueueSnapshot state) {
+        engine.snapshot(state);
+        reply.append("OK ").append(state.size).append(' ').append(state.capacity);
+        if (dynamicQueue != null) {
+            reply.append(' ').append(dynamicQueue.getInitialCapacity());
+        }
+        reply.append(' ').append(state.isEmpty()).append(' ').append(state.isFull())
+             .append(' ').append(subscribers.get()).append(' ').append(inFlight.get())
+             .append(' ').append(engine.getExpiredCount());
+        reply.newLine();
+    }
+}
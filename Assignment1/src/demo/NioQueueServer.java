@@ -0,0 +1,1197 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking Queue Server - serves the same text and binary protocols as
+// QueueServer/DynamicQueueServer from a small, fixed number of event-loop threads instead
+// of one thread per connection. Started by QueueServer/DynamicQueueServer with the --nio option.
+//
+// A PUT on a full queue or a TAKE on an empty queue never blocks a thread: the command is
+// parked on its event loop and completed as soon as another operation frees space or adds
+// an item. While a connection is parked its later commands stay unprocessed in its input
+// buffer, and reading stops once that buffer is full. A TAKE with a timeout is also
+// completed with TIMEOUT by its event loop once the deadline passes.
+//
+// Parking a PUT is this server's backpressure: the producer's connection is not read while
+// its PUT waits, so its further requests stay in the socket buffers and in the end slow the
+// producer down, with no thread or memory spent on it beyond the parked command. With a
+// registry in reject mode (QueueRegistry.Backpressure.REJECT) text PUTs and PUTNs are
+// answered FULL <retryAfterMs> instead, like on the thread-per-connection servers.
+//
+// Replies a client does not read are held back the same way: once MAX_PENDING_OUTPUT bytes
+// wait for its socket, the server stops executing that connection's commands and stops
+// reading it until the client has taken enough of them.
+//
+// All named queues of the server's QueueRegistry share the event loops; each loop keeps
+// its parked commands per queue. Binary connections use the default queue.
+//
+// SUBSCRIBE streams (see Subscription) are served by the same retries as parked TAKEs:
+// subscribers of a queue with credit left take turns, each turn sending up to
+// SUBSCRIBE_QUANTUM items in one write.
+//
+// STATS counts a parked command once it completes, with the time it was parked as its
+// blocked time.
+//
+// SNAPSHOT is written by the Snapshotter's own thread, not the event loop; the connection
+// waits for it like a parked command and is answered by its loop when the file is written.
+//
+// Items dropped because their TTL ran out free space without waking anyone; the
+// ExpirySweeper's listener asks the loops to retry their parked PUTs after each sweep.
+//
+// With setUnixSocket the server also listens on a Unix domain socket; the first loop accepts
+// from both listeners and the connections are served alike.
+public class NioQueueServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_INPUT = 64 * 1024;
+    private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+    private static final int SUBSCRIBE_QUANTUM = 32;
+
+    private static final int NOT_PARKED = 0;
+    private static final int PARKED_PUT = 1;
+    private static final int PARKED_TAKE = 2;
+    private static final int PARKED_PUT_BATCH = 3;
+    private static final int PARKED_TAKE_BATCH = 4;
+    private static final int PARKED_SNAPSHOT = 5; // Waits for the Snapshotter, not for a queue
+
+    private static final int PROTOCOL_UNKNOWN = 0; // Decided by the first byte of the connection
+    private static final int PROTOCOL_TEXT = 1;
+    private static final int PROTOCOL_BINARY = 2;
+
+    private final QueueRegistry registry;
+    private final int port;
+    private final EventLoop[] loops;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private Path unixSocketPath;
+    private ServerSocketChannel unixChannel;
+
+    // Constructor for a server hosting the given queue as its default queue
+    public NioQueueServer(QueueEngine queue, int port, int ioThreads) {
+        this(new QueueRegistry(queue), port, ioThreads);
+    }
+
+    // Constructor for a server hosting the registry's queues on the port with ioThreads event loops
+    public NioQueueServer(QueueRegistry registry, int port, int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("At least one I/O thread is required");
+        }
+        this.registry = registry;
+        this.port = port;
+        this.loops = new EventLoop[ioThreads];
+    }
+
+    // Also listens on this Unix domain socket file once started
+    public void setUnixSocket(Path path) {
+        this.unixSocketPath = path;
+    }
+
+    // Binds the port (and the Unix domain socket) and starts the event-loop threads
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        if (unixSocketPath != null) {
+            unixChannel = StreamConnection.listenUnix(unixSocketPath);
+            unixChannel.configureBlocking(false);
+        }
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        // The first loop also accepts new connections
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        if (unixChannel != null) {
+            unixChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        }
+        // Items the ExpirySweeper drops make room for parked PUTs on any loop
+        registry.setExpiryListener(this::onItemsExpired);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    // Waits until all event loops have stopped
+    public void awaitTermination() throws InterruptedException {
+        for (EventLoop loop : loops) {
+            loop.thread.join();
+        }
+    }
+
+    // Stops accepting and closes every connection
+    public void stop() {
+        running.set(false);
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing server channel: " + e.getMessage());
+        }
+        if (unixChannel != null) {
+            StreamConnection.closeUnix(unixChannel, unixSocketPath);
+        }
+    }
+
+    // Returns the bound port (useful when started on port 0)
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    public int getIoThreads() {
+        return loops.length;
+    }
+
+    public QueueRegistry getRegistry() {
+        return registry;
+    }
+
+    // Called after an item was added: loops with parked TAKEs may now complete them
+    private void onItemAdded(EventLoop source) {
+        wakeParked(source);
+    }
+
+    // Called after an item was removed: loops with parked PUTs may now complete them
+    private void onItemRemoved(EventLoop source) {
+        wakeParked(source);
+    }
+
+    // Called by the ExpirySweeper's thread after it dropped items
+    private void onItemsExpired() {
+        for (EventLoop loop : loops) {
+            if (loop.parkedCount.get() > 0) {
+                loop.requestRetry();
+            }
+        }
+    }
+
+    private void wakeParked(EventLoop source) {
+        if (source.parkedCount.get() > 0) {
+            source.retryRequested = true;
+        }
+        for (EventLoop loop : loops) {
+            if (loop != source && loop.parkedCount.get() > 0) {
+                loop.requestRetry();
+            }
+        }
+    }
+
+    // Per-connection state; only touched by the connection's own event loop
+    private static class Connection {
+        final SocketChannel channel;
+        final ServerStats.Connection stats;
+        SelectionKey key;
+        ByteBuffer input = ByteBuffer.allocate(1024);  // Unprocessed bytes, in write mode
+        final ArrayDeque<ByteBuffer> pendingOutput = new ArrayDeque<>(); // Bytes the socket did not accept yet, in read mode
+        long pendingBytes;                             // Total remaining in pendingOutput
+        int protocol = PROTOCOL_UNKNOWN;
+        TextDispatcher text; // Executes the commands of a text connection
+        int parkedOp = NOT_PARKED;
+        Parking parking;    // Where the parked command waits
+        int parkedValue;
+        long parkedTtlMs;   // TTL of a parked PUT's item, 0 for the queue's own
+        int[] parkedItems;  // Items of a parked PUT_BATCH that are not in the queue yet
+        int parkedIndex;
+        long parkDeadline;  // System.nanoTime() deadline of a parked TAKE/TAKEN with a timeout, 0 if none
+        long parkedAt;      // When the command was parked
+        String command;     // Name and start time of the command that is being executed or is parked
+        long commandStarted;
+        Parking subscribedTo;  // Queue of an active SUBSCRIBE stream, null if none
+        long credits;          // Items the subscriber may still be sent
+        long delivered;
+        long unacknowledged;   // Items sent that no CREDIT has returned yet
+        boolean closed;
+
+        Connection(SocketChannel channel, ServerStats.Connection stats) {
+            this.channel = channel;
+            this.stats = stats;
+        }
+    }
+
+    // Deadline of a parked TAKE or TAKEN; stale once the connection is no longer parked with it
+    private static class TimedTake {
+        final Connection conn;
+        final long deadline;
+
+        TimedTake(Connection conn, long deadline) {
+            this.conn = conn;
+            this.deadline = deadline;
+        }
+    }
+
+    // Parked commands of one event loop on one queue, in arrival order
+    private static class Parking {
+        final NamedQueue queue;
+        final ArrayDeque<Connection> puts = new ArrayDeque<>();
+        final ArrayDeque<Connection> takes = new ArrayDeque<>();
+        final ArrayDeque<Connection> subscribers = new ArrayDeque<>(); // Served in turn
+        boolean active; // Listed in the loop's activeParkings
+
+        boolean isEmpty() {
+            return puts.isEmpty() && takes.isEmpty() && subscribers.isEmpty();
+        }
+
+        Parking(NamedQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    // One selector thread with its own reusable direct buffers and parked-command lists
+    private class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+        final HashMap<NamedQueue, Parking> parkings = new HashMap<>();
+        final ArrayList<Parking> activeParkings = new ArrayList<>(); // Parkings that may hold commands
+        final int[] batchItems = new int[BatchCommands.MAX_BATCH]; // Scratch space for batch commands
+        final PriorityQueue<TimedTake> takeDeadlines = new PriorityQueue<>(Comparator.comparingLong((TimedTake t) -> t.deadline));
+        final AtomicInteger parkedCount = new AtomicInteger();
+        final AtomicBoolean wakeRequested = new AtomicBoolean();
+        boolean retryRequested;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-loop-" + index);
+        }
+
+        // Hands a newly accepted channel to this loop (called from the accepting loop)
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+
+        // Runs the task on this loop (called from other threads)
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        // Asks this loop to retry its parked commands (called from other loops)
+        void requestRetry() {
+            if (wakeRequested.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running.get()) {
+                    if (retryRequested) {
+                        selector.selectNow();
+                    } else if (!takeDeadlines.isEmpty()) {
+                        // Wake up in time for the earliest TAKE timeout
+                        long waitNanos = takeDeadlines.peek().deadline - System.nanoTime();
+                        selector.select(Math.max(1, (waitNanos + 999_999) / 1_000_000));
+                    } else {
+                        selector.select();
+                    }
+                    registerPending();
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel());
+                        } else {
+                            Connection conn = (Connection) key.attachment();
+                            if (key.isWritable()) {
+                                writePending(conn);
+                            }
+                            if (!conn.closed && key.isValid() && key.isReadable()) {
+                                read(conn);
+                            }
+                        }
+                    }
+
+                    if (wakeRequested.getAndSet(false) || retryRequested) {
+                        retryParked();
+                    }
+                    if (!takeDeadlines.isEmpty()) {
+                        expireTakes();
+                    }
+                }
+            } catch (IOException e) {
+                if (running.get()) {
+                    System.err.println("Event loop failed: " + e.getMessage());
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close((Connection) key.attachment());
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        private void accept(ServerSocketChannel listener) {
+            try {
+                SocketChannel channel;
+                while ((channel = listener.accept()) != null) {
+                    channel.configureBlocking(false);
+                    if (listener == serverChannel) {
+                        channel.socket().setTcpNoDelay(true);
+                    }
+                    EventLoop target = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                    if (target == this) {
+                        attach(channel);
+                    } else {
+                        target.register(channel);
+                    }
+                }
+            } catch (IOException e) {
+                if (running.get()) {
+                    System.err.println("Error accepting client: " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                attach(channel);
+            }
+        }
+
+        private void attach(SocketChannel channel) {
+            Connection conn = new Connection(channel, registry.getStats().open());
+            try {
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            } catch (ClosedChannelException e) {
+                conn.closed = true;
+                conn.stats.close();
+            }
+        }
+
+        private void read(Connection conn) {
+            readBuffer.clear();
+            int n;
+            try {
+                n = conn.channel.read(readBuffer);
+            } catch (IOException e) {
+                close(conn);
+                return;
+            }
+            if (n < 0) {
+                close(conn);
+                return;
+            }
+            conn.stats.bytesIn(n);
+            readBuffer.flip();
+            ensureInputCapacity(conn, readBuffer.remaining());
+            conn.input.put(readBuffer);
+
+            if (conn.parkedOp == NOT_PARKED) {
+                processInput(conn);
+            }
+            updateInterest(conn);
+            flush(conn);
+        }
+
+        private void ensureInputCapacity(Connection conn, int extra) {
+            if (conn.input.remaining() < extra) {
+                int needed = conn.input.position() + extra;
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, conn.input.capacity() * 2));
+                conn.input.flip();
+                bigger.put(conn.input);
+                conn.input = bigger;
+            }
+        }
+
+        // Executes every complete request in the input buffer until the connection parks or closes
+        private void processInput(Connection conn) {
+            ByteBuffer in = conn.input;
+            in.flip();
+            try {
+                if (conn.protocol == PROTOCOL_UNKNOWN) {
+                    detectProtocol(conn, in);
+                }
+                if (conn.protocol == PROTOCOL_TEXT) {
+                    processLines(conn, in);
+                } else if (conn.protocol == PROTOCOL_BINARY) {
+                    processFrames(conn, in);
+                }
+            } finally {
+                in.compact();
+            }
+        }
+
+        // A leading handshake byte selects the binary protocol; anything else starts a text command
+        private void detectProtocol(Connection conn, ByteBuffer in) {
+            if (!in.hasRemaining()) {
+                return;
+            }
+            if (in.get(in.position()) != BinaryProtocol.HANDSHAKE) {
+                conn.protocol = PROTOCOL_TEXT;
+                conn.text = new TextCommands(conn);
+                return;
+            }
+            if (in.remaining() < 2) {
+                return;
+            }
+            in.get();
+            byte version = in.get();
+            reserve(conn, 2);
+            BinaryProtocol.writeHandshake(writeBuffer);
+            if (version != BinaryProtocol.VERSION) {
+                flush(conn);
+                close(conn);
+                return;
+            }
+            conn.protocol = PROTOCOL_BINARY;
+        }
+
+        private void processLines(Connection conn, ByteBuffer in) {
+            while (!conn.closed && conn.parkedOp == NOT_PARKED && !isBackedUp(conn)) {
+                int lineEnd = -1;
+                for (int i = in.position(); i < in.limit(); i++) {
+                    if (in.get(i) == '\n') {
+                        lineEnd = i;
+                        break;
+                    }
+                }
+                if (lineEnd < 0) {
+                    break;
+                }
+                int length = lineEnd - in.position();
+                if (length > 0 && in.get(lineEnd - 1) == '\r') {
+                    length--;
+                }
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                in.position(lineEnd + 1);
+                conn.commandStarted = System.nanoTime();
+                TextCommand cmd = TextCommand.parse(new String(bytes, StandardCharsets.UTF_8));
+                conn.command = cmd.command;
+                try {
+                    if (!conn.text.execute(cmd)) {
+                        // QUIT
+                        flush(conn);
+                        close(conn);
+                    }
+                } catch (InterruptedException e) {
+                    // Unreachable: no command waits on an event loop's thread
+                    Thread.currentThread().interrupt();
+                }
+                commandDone(conn);
+            }
+        }
+
+        private void processFrames(Connection conn, ByteBuffer in) {
+            while (!conn.closed && conn.parkedOp == NOT_PARKED && !isBackedUp(conn)) {
+                int length = BinaryProtocol.requestLength(in);
+                if (length == BinaryProtocol.INVALID_REQUEST) {
+                    // The stream cannot be resynchronized after a bad frame
+                    reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE);
+                    BinaryProtocol.writeError(writeBuffer, in.get(in.position()) == BinaryProtocol.OP_PUT_BATCH
+                                                           ? BinaryProtocol.ERROR_BAD_BATCH : BinaryProtocol.ERROR_UNKNOWN_OPCODE);
+                    in.position(in.limit());
+                    flush(conn);
+                    close(conn);
+                    return;
+                }
+                if (length == 0 || in.remaining() < length) {
+                    break;
+                }
+                conn.commandStarted = System.nanoTime();
+                conn.command = BinaryProtocol.opName(in.get(in.position()));
+                executeFrame(conn, in);
+                commandDone(conn);
+            }
+        }
+
+        private void executeFrame(Connection conn, ByteBuffer in) {
+            NamedQueue queue = registry.getDefaultQueue();
+            switch (in.get()) {
+                case BinaryProtocol.OP_PUT: {
+                    int item = in.getInt();
+                    Parking parking = parkingFor(queue);
+                    if (parking.puts.isEmpty() && queue.offer(item)) {
+                        respondPut(conn, queue);
+                        onItemAdded(this);
+                    } else {
+                        park(conn, parking, PARKED_PUT, item);
+                    }
+                    break;
+                }
+                case BinaryProtocol.OP_PUT_BATCH: {
+                    int count = in.getInt();
+                    for (int i = 0; i < count; i++) {
+                        batchItems[i] = in.getInt();
+                    }
+                    putBatch(conn, parkingFor(queue), batchItems, count);
+                    break;
+                }
+                case BinaryProtocol.OP_TAKE: {
+                    Parking parking = parkingFor(queue);
+                    Integer item = parking.takes.isEmpty() ? queue.poll() : null;
+                    if (item != null) {
+                        respondTake(conn, queue, item);
+                        onItemRemoved(this);
+                    } else {
+                        park(conn, parking, PARKED_TAKE, 0);
+                    }
+                    break;
+                }
+                case BinaryProtocol.OP_TAKE_BATCH: {
+                    int max = in.getInt();
+                    if (!BinaryProtocol.isValidBatchSize(max)) {
+                        reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE);
+                        BinaryProtocol.writeError(writeBuffer, BinaryProtocol.ERROR_BAD_BATCH);
+                        break;
+                    }
+                    takeBatch(conn, parkingFor(queue), max, -1);
+                    break;
+                }
+                case BinaryProtocol.OP_SIZE:
+                    reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE);
+                    BinaryProtocol.writeOk(writeBuffer, queue.size(), queue.capacity());
+                    break;
+                case BinaryProtocol.OP_QUIT:
+                    reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE);
+                    BinaryProtocol.writeOk(writeBuffer, queue.size(), queue.capacity());
+                    flush(conn);
+                    close(conn);
+                    break;
+                default:
+                    // Unreachable: requestLength() rejects unknown opcodes
+                    close(conn);
+            }
+        }
+
+        // Records the command just executed, unless it was parked: a parked command is recorded by unpark()
+        private void commandDone(Connection conn) {
+            if (conn.parkedOp == NOT_PARKED) {
+                conn.stats.command(conn.command, System.nanoTime() - conn.commandStarted);
+            }
+        }
+
+        // Text commands of one connection: TextDispatcher parses and checks them, and a command
+        // that has to wait is parked on this loop instead of blocking it
+        private final class TextCommands extends TextDispatcher {
+            private final Connection conn;
+
+            TextCommands(Connection conn) {
+                super(NioQueueServer.this.registry, null, conn.stats);
+                this.conn = conn;
+            }
+
+            @Override
+            protected void reply(String line) {
+                respond(conn, line);
+            }
+
+            @Override
+            protected void put(NamedQueue queue, int item, long ttlMs) {
+                // Keep FIFO among parked producers: never overtake one that is already waiting
+                Parking parking = parkingFor(queue);
+                if (parking.puts.isEmpty() && (ttlMs > 0 ? queue.offerWithTtl(item, ttlMs) : queue.offer(item))) {
+                    respondPut(conn, queue);
+                    onItemAdded(EventLoop.this);
+                } else if (registry.rejectsWhenFull()) {
+                    respond(conn, queue.fullResponse());
+                    conn.stats.rejectedPut();
+                } else {
+                    park(conn, parking, PARKED_PUT, item);
+                    conn.parkedTtlMs = ttlMs;
+                }
+            }
+
+            @Override
+            protected void putBatch(NamedQueue queue, int[] items) {
+                if (registry.rejectsWhenFull()) {
+                    rejectBatch(conn, parkingFor(queue), items);
+                } else {
+                    EventLoop.this.putBatch(conn, parkingFor(queue), items, items.length);
+                }
+            }
+
+            // Waiting producers go first, so a TRYPUT fails while any are parked
+            @Override
+            protected void tryPut(NamedQueue queue, int item) {
+                if (parkingFor(queue).puts.isEmpty() && queue.offer(item)) {
+                    respondPut(conn, queue);
+                    onItemAdded(EventLoop.this);
+                } else {
+                    respond(conn, "FULL");
+                }
+            }
+
+            @Override
+            protected void take(NamedQueue queue, long timeoutMs) {
+                Parking parking = parkingFor(queue);
+                Integer item = parking.takes.isEmpty() ? queue.poll() : null;
+                if (item != null) {
+                    respondTake(conn, queue, item);
+                    onItemRemoved(EventLoop.this);
+                } else if (timeoutMs == 0) {
+                    respond(conn, "TIMEOUT");
+                } else {
+                    park(conn, parking, PARKED_TAKE, 0);
+                    if (timeoutMs > 0) {
+                        conn.parkDeadline = System.nanoTime() + timeoutMs * 1_000_000;
+                        takeDeadlines.add(new TimedTake(conn, conn.parkDeadline));
+                    }
+                }
+            }
+
+            @Override
+            protected void takeBatch(NamedQueue queue, int max, long timeoutMs) {
+                EventLoop.this.takeBatch(conn, parkingFor(queue), max, timeoutMs);
+            }
+
+            @Override
+            protected void tryTake(NamedQueue queue) {
+                Integer item = parkingFor(queue).takes.isEmpty() ? queue.poll() : null;
+                if (item != null) {
+                    respondTake(conn, queue, item);
+                    onItemRemoved(EventLoop.this);
+                } else {
+                    respond(conn, "EMPTY");
+                }
+            }
+
+            @Override
+            protected boolean isSubscribed() {
+                return conn.subscribedTo != null;
+            }
+
+            @Override
+            protected void subscribe(NamedQueue queue, int credits) {
+                EventLoop.this.subscribe(conn, parkingFor(queue), credits);
+            }
+
+            @Override
+            protected void credit(int credits) {
+                long acknowledged = Math.min(conn.unacknowledged, credits);
+                conn.unacknowledged -= acknowledged;
+                conn.subscribedTo.queue.onAcknowledged(acknowledged);
+                conn.credits = Math.min(conn.credits + credits, Subscription.MAX_CREDITS);
+                retryRequested = true;
+            }
+
+            @Override
+            protected long unsubscribe() {
+                long delivered = conn.delivered;
+                EventLoop.this.unsubscribe(conn);
+                return delivered;
+            }
+
+            // Due items would enter the queue behind the event loops' parked TAKEs
+            @Override
+            protected void putDelayed(NamedQueue queue, String args) {
+                respond(conn, "ERROR PUTDELAY needs a thread-per-connection server (without --nio)");
+            }
+
+            // A ring needs a thread of its own to poll it, which an event loop cannot spare
+            @Override
+            protected boolean ring(NamedQueue queue, String args) {
+                respond(conn, "ERROR RING needs a thread-per-connection server (without --nio)");
+                return true;
+            }
+
+            @Override
+            protected void snapshot() {
+                EventLoop.this.snapshot(conn);
+            }
+        }
+
+        // Adds the connection to the queue's subscribers on this loop
+        private void subscribe(Connection conn, Parking parking, int credits) {
+            conn.subscribedTo = parking;
+            conn.credits = credits;
+            conn.delivered = 0;
+            conn.unacknowledged = 0;
+            parking.subscribers.add(conn);
+            parking.queue.onSubscribe();
+            activate(parking);
+            // Counted like a parked command so that queue changes on other loops wake this one
+            parkedCount.incrementAndGet();
+            retryRequested = true;
+        }
+
+        private void unsubscribe(Connection conn) {
+            Parking parking = conn.subscribedTo;
+            parking.subscribers.remove(conn);
+            parking.queue.onUnsubscribe(conn.unacknowledged);
+            parkedCount.decrementAndGet();
+            conn.subscribedTo = null;
+            conn.unacknowledged = 0;
+        }
+
+        // This loop's parked commands on the queue
+        private Parking parkingFor(NamedQueue queue) {
+            Parking parking = parkings.get(queue);
+            if (parking == null) {
+                parking = new Parking(queue);
+                parkings.put(queue, parking);
+            }
+            return parking;
+        }
+
+        // Adds a batch under one queue lock; whatever does not fit is parked and added in order later
+        private void putBatch(Connection conn, Parking parking, int[] items, int count) {
+            // Keep FIFO among parked producers: never overtake one that is already waiting
+            NamedQueue queue = parking.queue;
+            int added = parking.puts.isEmpty() ? queue.offerAll(items, 0, count) : 0;
+            if (added > 0) {
+                onItemAdded(this);
+            }
+            if (added == count) {
+                respondPut(conn, queue);
+            } else {
+                conn.parkedItems = Arrays.copyOfRange(items, added, count);
+                conn.parkedIndex = 0;
+                park(conn, parking, PARKED_PUT_BATCH, 0);
+            }
+        }
+
+        // Has the Snapshotter write a snapshot and parks the connection until it is done
+        private void snapshot(Connection conn) {
+            Snapshotter snapshotter = registry.getSnapshotter();
+            if (snapshotter == null) {
+                respond(conn, registry.snapshotResponse());
+                return;
+            }
+            conn.parkedOp = PARKED_SNAPSHOT;
+            EventLoop loop = this;
+            snapshotter.request().whenComplete((result, error) -> loop.execute(() -> {
+                if (conn.closed) {
+                    return;
+                }
+                conn.parkedOp = NOT_PARKED;
+                respond(conn, Snapshotter.response(result, error));
+                commandDone(conn);
+                resume(conn);
+            }));
+        }
+
+        // Adds what fits of a PUTN in reject mode and answers FULL <retryAfterMs> <added> for the rest
+        private void rejectBatch(Connection conn, Parking parking, int[] items) {
+            // Like putBatch(), never overtakes a parked (binary) producer
+            NamedQueue queue = parking.queue;
+            int added = parking.puts.isEmpty() ? queue.offerAll(items, 0, items.length) : 0;
+            if (added > 0) {
+                onItemAdded(this);
+            }
+            if (added == items.length) {
+                respondPut(conn, queue);
+            } else {
+                respond(conn, queue.fullResponse(items.length, added));
+                conn.stats.rejectedPut();
+            }
+        }
+
+        // Removes up to max items under one queue lock, or parks until at least one is available
+        // timeoutMs: -1 waits without a limit, 0 answers TIMEOUT right away if nothing is there
+        private void takeBatch(Connection conn, Parking parking, int max, long timeoutMs) {
+            NamedQueue queue = parking.queue;
+            int count = parking.takes.isEmpty() ? queue.pollUpTo(batchItems, 0, max) : 0;
+            if (count > 0) {
+                respondTakeBatch(conn, queue, batchItems, count);
+                onItemRemoved(this);
+            } else if (timeoutMs == 0) {
+                respond(conn, "TIMEOUT");
+            } else {
+                park(conn, parking, PARKED_TAKE_BATCH, max);
+                if (timeoutMs > 0) {
+                    conn.parkDeadline = System.nanoTime() + timeoutMs * 1_000_000;
+                    takeDeadlines.add(new TimedTake(conn, conn.parkDeadline));
+                }
+            }
+        }
+
+        // Parks a command as a continuation that is resumed by retryParked()
+        private void park(Connection conn, Parking parking, int op, int value) {
+            conn.parkedOp = op;
+            conn.parkedValue = value;
+            conn.parking = parking;
+            conn.parkedAt = System.nanoTime();
+            if (op == PARKED_PUT || op == PARKED_PUT_BATCH) {
+                parking.puts.add(conn);
+            } else {
+                parking.takes.add(conn);
+            }
+            activate(parking);
+            parkedCount.incrementAndGet();
+            // Another loop may have changed the queue before it could see this parked command
+            retryRequested = true;
+        }
+
+        // Ends the wait of a parked command that has been answered and records it
+        private void unpark(Connection conn) {
+            long now = System.nanoTime();
+            if (conn.parkedOp == PARKED_PUT || conn.parkedOp == PARKED_PUT_BATCH) {
+                conn.stats.blockedPut(now - conn.parkedAt);
+            } else {
+                conn.stats.blockedTake(now - conn.parkedAt);
+            }
+            conn.stats.command(conn.command, now - conn.commandStarted);
+            conn.parkedOp = NOT_PARKED;
+            conn.parking = null;
+        }
+
+        // Lists the parking for retryParked()
+        private void activate(Parking parking) {
+            if (!parking.active) {
+                parking.active = true;
+                activeParkings.add(parking);
+            }
+        }
+
+        // Completes parked commands for as long as the queues allow
+        private void retryParked() {
+            retryRequested = false;
+            for (int i = activeParkings.size() - 1; i >= 0; i--) {
+                Parking parking = activeParkings.get(i);
+                retryParked(parking);
+                if (parking.isEmpty()) {
+                    // Swap-remove: order between queues does not matter
+                    parking.active = false;
+                    activeParkings.set(i, activeParkings.get(activeParkings.size() - 1));
+                    activeParkings.remove(activeParkings.size() - 1);
+                }
+            }
+        }
+
+        private void retryParked(Parking parking) {
+            NamedQueue queue = parking.queue;
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                while (!parking.takes.isEmpty()) {
+                    Connection conn = parking.takes.peek();
+                    if (conn.parkedOp == PARKED_TAKE_BATCH) {
+                        int count = queue.pollUpTo(batchItems, 0, conn.parkedValue);
+                        if (count == 0) {
+                            break;
+                        }
+                        conn.parkDeadline = 0;
+                        respondTakeBatch(conn, queue, batchItems, count);
+                    } else {
+                        Integer item = queue.poll();
+                        if (item == null) {
+                            break;
+                        }
+                        conn.parkDeadline = 0;
+                        respondTake(conn, queue, item);
+                    }
+                    parking.takes.poll();
+                    parkedCount.decrementAndGet();
+                    unpark(conn);
+                    onItemRemoved(this);
+                    resume(conn);
+                    progress = true;
+                }
+                if (!parking.subscribers.isEmpty() && pushToSubscribers(parking)) {
+                    progress = true;
+                }
+                while (!parking.puts.isEmpty()) {
+                    Connection conn = parking.puts.peek();
+                    if (!offerParked(conn)) {
+                        break;
+                    }
+                    parking.puts.poll();
+                    parkedCount.decrementAndGet();
+                    unpark(conn);
+                    respondPut(conn, queue);
+                    resume(conn);
+                    progress = true;
+                }
+            }
+        }
+
+        // Sends items to the queue's subscribers in turn, skipping those without credit;
+        // returns true if any item was sent
+        private boolean pushToSubscribers(Parking parking) {
+            NamedQueue queue = parking.queue;
+            ArrayDeque<Connection> subscribers = parking.subscribers;
+            boolean progress = false;
+            int skipped = 0;
+            while (skipped < subscribers.size()) {
+                Connection conn = subscribers.poll();
+                subscribers.add(conn);
+                if (conn.credits == 0) {
+                    skipped++;
+                    continue;
+                }
+                int count = queue.pollUpTo(batchItems, 0, (int) Math.min(conn.credits, SUBSCRIBE_QUANTUM));
+                if (count == 0) {
+                    break;
+                }
+                for (int i = 0; i < count; i++) {
+                    respond(conn, "ITEM " + batchItems[i]);
+                    queue.onDelivered();
+                }
+                conn.credits -= count;
+                conn.delivered += count;
+                conn.unacknowledged += count;
+                flush(conn);
+                onItemRemoved(this);
+                skipped = 0;
+                progress = true;
+            }
+            return progress;
+        }
+
+        // Answers parked TAKEs and TAKENs whose timeout has passed with TIMEOUT
+        private void expireTakes() {
+            long now = System.nanoTime();
+            while (!takeDeadlines.isEmpty() && takeDeadlines.peek().deadline - now <= 0) {
+                TimedTake timed = takeDeadlines.poll();
+                Connection conn = timed.conn;
+                if (conn.closed || (conn.parkedOp != PARKED_TAKE && conn.parkedOp != PARKED_TAKE_BATCH)
+                        || conn.parkDeadline != timed.deadline) {
+                    continue; // Completed, re-parked or closed in the meantime
+                }
+                conn.parking.takes.remove(conn);
+                parkedCount.decrementAndGet();
+                unpark(conn);
+                conn.parkDeadline = 0;
+                respond(conn, "TIMEOUT");
+                resume(conn);
+            }
+        }
+
+        // Adds the items of a parked PUT or PUT_BATCH; returns true once all of them are in the queue
+        private boolean offerParked(Connection conn) {
+            NamedQueue queue = conn.parking.queue;
+            if (conn.parkedOp == PARKED_PUT) {
+                long ttlMs = conn.parkedTtlMs;
+                if (!(ttlMs > 0 ? queue.offerWithTtl(conn.parkedValue, ttlMs) : queue.offer(conn.parkedValue))) {
+                    return false;
+                }
+                conn.parkedTtlMs = 0;
+                onItemAdded(this);
+                return true;
+            }
+            int added = queue.offerAll(conn.parkedItems, conn.parkedIndex, conn.parkedItems.length - conn.parkedIndex);
+            if (added > 0) {
+                conn.parkedIndex += added;
+                onItemAdded(this);
+            }
+            if (conn.parkedIndex < conn.parkedItems.length) {
+                return false;
+            }
+            conn.parkedItems = null;
+            return true;
+        }
+
+        // Continues with the commands a connection sent while it was parked
+        private void resume(Connection conn) {
+            processInput(conn);
+            updateInterest(conn);
+            flush(conn);
+        }
+
+        // Reads only while the input buffer has room and the client keeps up with its replies,
+        // so neither a parked connection nor one that never reads can grow its buffers unbounded
+        private void updateInterest(Connection conn) {
+            if (conn.closed || !conn.key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (conn.input.position() < MAX_PENDING_INPUT && !isBackedUp(conn)) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!conn.pendingOutput.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            conn.key.interestOps(ops);
+        }
+
+        // True while the client has left so many replies unread that its commands must wait
+        private boolean isBackedUp(Connection conn) {
+            return conn.pendingBytes >= MAX_PENDING_OUTPUT;
+        }
+
+        // Text replies match the thread-per-connection servers: a dynamic queue also reports capacity
+        private void respondPut(Connection conn, NamedQueue queue) {
+            if (conn.protocol == PROTOCOL_BINARY) {
+                reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE);
+                BinaryProtocol.writeOk(writeBuffer, queue.size(), queue.capacity());
+            } else {
+                respond(conn, queue.putResponse());
+            }
+        }
+
+        private void respondTake(Connection conn, NamedQueue queue, Integer item) {
+            if (conn.protocol == PROTOCOL_BINARY) {
+                reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE);
+                BinaryProtocol.writeOk(writeBuffer, item, queue.size());
+            } else {
+                respond(conn, queue.takeResponse(item));
+            }
+        }
+
+        // Answers a TAKEN or TAKE_BATCH with the items removed from the queue
+        private void respondTakeBatch(Connection conn, NamedQueue queue, int[] items, int count) {
+            if (conn.protocol == PROTOCOL_BINARY) {
+                reserve(conn, BinaryProtocol.RESPONSE_HEADER_SIZE + 4 * count);
+                BinaryProtocol.writeOk(writeBuffer, count, queue.size());
+                for (int i = 0; i < count; i++) {
+                    writeBuffer.putInt(items[i]);
+                }
+            } else {
+                respond(conn, queue.takeNResponse(items, count));
+            }
+        }
+
+        // Makes room in the shared write buffer for a binary response of the given size
+        private void reserve(Connection conn, int length) {
+            if (writeBuffer.remaining() < length) {
+                flush(conn);
+            }
+        }
+
+        // Encodes a response line into the loop's shared direct write buffer; ASCII text, which
+        // all replies but some error messages are, is copied without encoding it first, anything
+        // else is encoded as UTF-8 like on the thread-per-connection servers
+        private void respond(Connection conn, String response) {
+            if (conn.closed) {
+                return;
+            }
+            byte[] encoded = isAscii(response) ? null : (response + "\n").getBytes(StandardCharsets.UTF_8);
+            int length = encoded != null ? encoded.length : response.length() + 1;
+            if (writeBuffer.remaining() < length) {
+                flush(conn);
+            }
+            if (writeBuffer.remaining() < length) {
+                // Oversized response: queue it directly
+                appendPending(conn, ByteBuffer.wrap(encoded != null ? encoded : (response + "\n").getBytes(StandardCharsets.UTF_8)));
+                return;
+            }
+            if (encoded != null) {
+                writeBuffer.put(encoded);
+                return;
+            }
+            for (int i = 0; i < response.length(); i++) {
+                writeBuffer.put((byte) response.charAt(i));
+            }
+            writeBuffer.put((byte) '\n');
+        }
+
+        private boolean isAscii(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Writes the shared buffer to the connection; whatever the socket does not take is kept per connection
+        private void flush(Connection conn) {
+            writeBuffer.flip();
+            try {
+                if (!writeBuffer.hasRemaining() || conn.closed) {
+                    return;
+                }
+                if (conn.pendingOutput.isEmpty()) {
+                    conn.stats.bytesOut(conn.channel.write(writeBuffer));
+                }
+                if (writeBuffer.hasRemaining()) {
+                    ByteBuffer copy = ByteBuffer.allocate(writeBuffer.remaining());
+                    copy.put(writeBuffer);
+                    copy.flip();
+                    appendPending(conn, copy);
+                }
+            } catch (IOException e) {
+                close(conn);
+            } finally {
+                writeBuffer.clear();
+            }
+        }
+
+        // Queues bytes behind the ones already waiting, without copying those again
+        private void appendPending(Connection conn, ByteBuffer data) {
+            conn.pendingOutput.addLast(data);
+            conn.pendingBytes += data.remaining();
+            updateInterest(conn);
+        }
+
+        // Writes as much of the waiting output as the socket takes in one gathering write, and
+        // goes back to the connection's unprocessed commands once the client has caught up
+        private void writePending(Connection conn) {
+            boolean wasBackedUp = isBackedUp(conn);
+            try {
+                long written = conn.channel.write(conn.pendingOutput.toArray(new ByteBuffer[0]));
+                conn.stats.bytesOut(written);
+                conn.pendingBytes -= written;
+                while (!conn.pendingOutput.isEmpty() && !conn.pendingOutput.peekFirst().hasRemaining()) {
+                    conn.pendingOutput.pollFirst();
+                }
+            } catch (IOException e) {
+                close(conn);
+                return;
+            }
+            if (wasBackedUp && !isBackedUp(conn) && conn.parkedOp == NOT_PARKED) {
+                resume(conn);
+            } else {
+                updateInterest(conn);
+            }
+        }
+
+        private void close(Connection conn) {
+            if (conn.closed) {
+                return;
+            }
+            conn.closed = true;
+            conn.stats.close();
+            if (conn.subscribedTo != null) {
+                unsubscribe(conn);
+            }
+            if ((conn.parkedOp == PARKED_PUT || conn.parkedOp == PARKED_PUT_BATCH) && conn.parking.puts.remove(conn)) {
+                parkedCount.decrementAndGet();
+            } else if ((conn.parkedOp == PARKED_TAKE || conn.parkedOp == PARKED_TAKE_BATCH) && conn.parking.takes.remove(conn)) {
+                parkedCount.decrementAndGet();
+            }
+            if (conn.key != null) {
+                conn.key.cancel();
+            }
+            try {
+                conn.channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing socket: " + e.getMessage());
+            }
+        }
+    }
+}
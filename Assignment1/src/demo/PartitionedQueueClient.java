@@ -0,0 +1,251 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Client for one logical queue spread over several queue servers (nodes). Each node holds
+// one partition: a named queue with the logical queue's name. Works against QueueServer,
+// DynamicQueueServer and their --nio mode, using the text protocol.
+//
+//   put(key, item)   goes to the node that owns the key on a ConsistentHashRing, so items
+//                    with the same key stay in order with each other
+//   put(item)        goes to the nodes in turn (round-robin)
+//   putAll(items)    splits the items into PUTN batches, sent to all nodes at once
+//   take/takeUpTo    poll the partitions in turn, starting after the one that last had
+//                    items, so a busy partition cannot starve the others
+//
+// addNode() adds a partition while the client runs: round-robin puts start to include it
+// and about 1/N of the keys move to it, the others stay where they are. Items already
+// queued stay on their old node and are still taken from there, so a key that moved may
+// see its older items after its newer ones.
+//
+// Not thread-safe: use one client per thread.
+public class PartitionedQueueClient implements AutoCloseable {
+    // How long an idle consumer waits on one partition before it checks the others again
+    public static final long POLL_WAIT_MS = 20;
+
+    private final String queueName;
+    private final List<Partition> partitions = new ArrayList<>();
+    private final ConsistentHashRing ring = new ConsistentHashRing();
+    private int nextPut;  // Round-robin position of unkeyed puts
+    private int nextTake; // Partition polled first by the next take
+
+    // One node's connection
+    private static class Partition {
+        final String node;
+        final Socket socket;
+        final PrintWriter out;
+        final BufferedReader in;
+
+        Partition(String node) throws IOException {
+            this.node = node;
+            int colon = node.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Node must be host:port, got " + node);
+            }
+            socket = new Socket(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+            socket.setTcpNoDelay(true);
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        // Reads one reply; ERROR replies become exceptions
+        String readReply() throws IOException {
+            String reply = in.readLine();
+            if (reply == null) {
+                throw new IOException("Node " + node + " closed the connection");
+            }
+            if (reply.startsWith("ERROR")) {
+                throw new IOException("Node " + node + ": " + reply);
+            }
+            return reply;
+        }
+
+        String call(String request) throws IOException {
+            out.println(request);
+            out.flush();
+            return readReply();
+        }
+    }
+
+    // Connects to every node ("host:port"); queueName names the partition on each of them
+    public PartitionedQueueClient(String queueName, List<String> nodes) throws IOException {
+        if (!QueueRegistry.looksLikeName(queueName)) {
+            throw new IllegalArgumentException("Invalid queue name " + queueName);
+        }
+        this.queueName = queueName;
+        try {
+            for (String node : nodes) {
+                addNode(node);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Adds a partition on another node
+    public void addNode(String node) throws IOException {
+        if (ring.getNodes().contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already a partition");
+        }
+        partitions.add(new Partition(node));
+        ring.addNode(node);
+    }
+
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    // Node that items with this key go to
+    public String nodeFor(String key) {
+        return ring.nodeFor(key);
+    }
+
+    // Adds an item to the next partition in turn, waiting while that partition is full
+    public void put(int item) throws IOException {
+        Partition partition = partitions.get(Math.floorMod(nextPut++, partitions.size()));
+        partition.call("PUT " + queueName + " " + item);
+    }
+
+    // Adds a keyed item to the partition that owns the key
+    public void put(String key, int item) throws IOException {
+        partitionOf(ring.nodeFor(key)).call("PUT " + queueName + " " + item);
+    }
+
+    // Adds the items as PUTN batches spread over the partitions in turn. All batches are
+    // sent before any reply is read, so the nodes work on them at the same time.
+    public void putAll(int[] items, int offset, int count) throws IOException {
+        int partitionCount = partitions.size();
+        int batchSize = Math.max(1, Math.min(BatchCommands.MAX_BATCH, (count + partitionCount - 1) / partitionCount));
+        int[] pending = new int[partitionCount];
+        StringBuilder request = new StringBuilder(12 * batchSize + 32);
+        for (int done = 0; done < count; ) {
+            int size = Math.min(batchSize, count - done);
+            int index = Math.floorMod(nextPut++, partitionCount);
+            request.setLength(0);
+            request.append("PUTN ").append(queueName).append(' ').append(size);
+            for (int i = 0; i < size; i++) {
+                request.append(' ').append(items[offset + done + i]);
+            }
+            partitions.get(index).out.println(request);
+            pending[index]++;
+            done += size;
+        }
+        for (int i = 0; i < partitionCount; i++) {
+            if (pending[i] > 0) {
+                partitions.get(i).out.flush();
+            }
+        }
+        for (int i = 0; i < partitionCount; i++) {
+            for (int j = 0; j < pending[i]; j++) {
+                partitions.get(i).readReply();
+            }
+        }
+    }
+
+    // Removes an item from whichever partition has one, waiting until one does
+    public int take() throws IOException {
+        int[] item = new int[1];
+        pollUpTo(item, 1, -1);
+        return item[0];
+    }
+
+    // Removes an item, or returns null if no partition had one within timeoutMs
+    public Integer poll(long timeoutMs) throws IOException {
+        int[] item = new int[1];
+        return pollUpTo(item, 1, timeoutMs) > 0 ? item[0] : null;
+    }
+
+    // Waits for at least one item and copies up to max items from one partition into dest
+    public int takeUpTo(int[] dest, int max) throws IOException {
+        return pollUpTo(dest, max, -1);
+    }
+
+    // Copies up to max items from one partition into dest; returns 0 if none had any
+    // within timeoutMs (-1 waits without a limit)
+    public int pollUpTo(int[] dest, int max, long timeoutMs) throws IOException {
+        max = Math.min(max, BatchCommands.MAX_BATCH);
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (true) {
+            // One pass over all partitions without waiting
+            for (int i = 0; i < partitions.size(); i++) {
+                int index = Math.floorMod(nextTake + i, partitions.size());
+                int count = takeFrom(partitions.get(index), dest, max, 0);
+                if (count > 0) {
+                    nextTake = index + 1;
+                    return count;
+                }
+            }
+            long waitMs = POLL_WAIT_MS;
+            if (timeoutMs >= 0) {
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) {
+                    return 0;
+                }
+                waitMs = Math.min(waitMs, remainingMs);
+            }
+            // All empty: wait a little on the next partition in turn, then look at all again
+            int index = Math.floorMod(nextTake++, partitions.size());
+            int count = takeFrom(partitions.get(index), dest, max, waitMs);
+            if (count > 0) {
+                nextTake = index + 1;
+                return count;
+            }
+        }
+    }
+
+    // Sends TAKEN with a timeout and copies the items into dest; returns 0 on TIMEOUT
+    private int takeFrom(Partition partition, int[] dest, int max, long timeoutMs) throws IOException {
+        String reply = partition.call("TAKEN " + queueName + " " + max + " " + timeoutMs);
+        if (reply.equals("TIMEOUT")) {
+            return 0;
+        }
+        // OK <n> <item1> .. <itemN> <size> [<capacity>]
+        int position = 3;
+        int end = reply.indexOf(' ', position);
+        int count = Integer.parseInt(reply, position, end, 10);
+        for (int i = 0; i < count; i++) {
+            position = end + 1;
+            end = reply.indexOf(' ', position);
+            dest[i] = Integer.parseInt(reply, position, end, 10);
+        }
+        return count;
+    }
+
+    // Total number of items in all partitions
+    public long size() throws IOException {
+        long total = 0;
+        for (Partition partition : partitions) {
+            String reply = partition.call("SIZE " + queueName);
+            int end = reply.indexOf(' ', 3);
+            total += Long.parseLong(end < 0 ? reply.substring(3) : reply.substring(3, end));
+        }
+        return total;
+    }
+
+    private Partition partitionOf(String node) {
+        for (Partition partition : partitions) {
+            if (partition.node.equals(node)) {
+                return partition;
+            }
+        }
+        throw new IllegalStateException("No partition on " + node);
+    }
+
+    @Override
+    public void close() {
+        for (Partition partition : partitions) {
+            try {
+                partition.socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Asynchronous client for one queue on a QueueServer or DynamicQueueServer (either mode),
+// using the text protocol. Thread-safe: any number of threads can share one client.
+//
+//   Pipelining   every call writes its request and returns a CompletableFuture at once;
+//                a reader thread per connection completes the futures as the replies come
+//                in, in request order. Many requests share one round trip.
+//   Pooling      requests go to the open connection with the fewest unanswered requests,
+//                so a TAKE that waits on one connection does not hold up the others.
+//                Requests on different connections may be handled in any order.
+//   Batching     with a linger time, put() collects items and sends them as one PUTN when
+//                MAX_BATCH items are waiting or lingerMs after the first one, whichever
+//                comes first. Every item's future completes with the reply to its batch.
+//   Reconnect    when a connection breaks, its unanswered futures fail with an IOException
+//                and the next request on it connects again (at most once per RECONNECT_MS).
+//                Failed requests are not retried: the server may have handled them.
+//   Backpressure a server in reject mode (--backpressure reject) answers a PUT or PUTN on a
+//                full queue with FULL <retryAfterMs> [<added>]; the items it did not add
+//                are sent again after that time, so they may end up behind items put later.
+//   Transport    a host of the form unix:<path> connects to a server's Unix domain socket
+//                (--unix <path>) instead of TCP; the port is then ignored.
+//
+// Futures complete on the reader threads, so callbacks should not block: a blocked
+// callback holds up every reply behind it on that connection. SUBSCRIBE is not supported.
+public class QueueClient implements AutoCloseable {
+    public static final int MAX_BATCH = BatchCommands.MAX_BATCH;
+    public static final long RECONNECT_MS = 500;
+    // How long close() waits for replies to requests already sent
+    public static final long CLOSE_WAIT_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final String address; // host:port, or unix:<path>, for error messages
+    private final String target; // "" or " <queue name>"
+    private final Connection[] connections;
+    private final long lingerMs;
+    private final ScheduledExecutorService lingerTimer;
+    private volatile boolean closed;
+
+    // Items waiting for the next PUTN, guarded by batchLock
+    private final ReentrantLock batchLock = new ReentrantLock();
+    private final int[] batchItems;
+    private List<CompletableFuture<Reply>> batchReplies = new ArrayList<>();
+    private long batchNumber;
+
+    // Parsed reply to PUT, TAKE and their variants. The capacity is only sent by dynamic
+    // queues; it is -1 for fixed ones.
+    public static final class Reply {
+        private final int item;
+        private final int size;
+        private final int capacity;
+
+        Reply(int item, int size, int capacity) {
+            this.item = item;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        // The item taken, or the item put
+        public int getItem() {
+            return item;
+        }
+
+        // Queue size after the command
+        public int getSize() {
+            return size;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+
+    // Connects once to the server's default queue, without batching
+    public QueueClient(String host, int port) throws IOException {
+        this(host, port, null, 1, 0);
+    }
+
+    // Opens the given number of connections to the queue (null for the server's default
+    // queue). lingerMs > 0 turns on batching of put().
+    public QueueClient(String host, int port, String queueName, int connections, long lingerMs) throws IOException {
+        if (queueName != null && !QueueRegistry.looksLikeName(queueName)) {
+            throw new IllegalArgumentException("Invalid queue name " + queueName);
+        }
+        if (connections < 1) {
+            throw new IllegalArgumentException("Need at least one connection");
+        }
+        this.host = host;
+        this.port = port;
+        this.address = StreamConnection.isUnix(host) ? host : host + ":" + port;
+        this.target = queueName == null ? "" : " " + queueName;
+        this.lingerMs = lingerMs;
+        this.batchItems = lingerMs > 0 ? new int[MAX_BATCH] : null;
+        this.lingerTimer = lingerMs > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "queue-client-linger");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.connections = new Connection[connections];
+        try {
+            for (int i = 0; i < connections; i++) {
+                this.connections[i] = new Connection();
+                this.connections[i].connect();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Adds an item, waiting on the server (or retrying) while the queue is full. With a
+    // linger time the item goes out with the next batch.
+    public CompletableFuture<Reply> put(int item) {
+        if (lingerMs <= 0 || closed) {
+            return send(request("PUT", item)).thenCompose(reply -> putReply(reply, new int[] {item}, 0, 1));
+        }
+        CompletableFuture<Reply> result = new CompletableFuture<>();
+        batchLock.lock();
+        try {
+            if (batchReplies.isEmpty()) {
+                long number = batchNumber;
+                lingerTimer.schedule(() -> flushBatch(number), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            batchItems[batchReplies.size()] = item;
+            batchReplies.add(result);
+            if (batchReplies.size() == MAX_BATCH) {
+                sendBatch();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+        return result;
+    }
+
+    // Adds the items as pipelined PUTN batches; completes with the reply to the last batch
+    public CompletableFuture<Reply> putAll(int[] items, int offset, int count) {
+        CompletableFuture<Reply> last = CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Reply>> all = new ArrayList<>();
+        for (int done = 0; done < count; done += MAX_BATCH) {
+            int size = Math.min(MAX_BATCH, count - done);
+            // A copy, in case the caller reuses the array before a rejected batch is sent again
+            int[] batch = Arrays.copyOfRange(items, offset + done, offset + done + size);
+            last = send(putN(batch, 0, size)).thenCompose(reply -> putReply(reply, batch, 0, size));
+            all.add(last);
+        }
+        CompletableFuture<Reply> result = last;
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture<?>[0])).thenCompose(ignored -> result);
+    }
+
+    // Adds an item only if there is room; completes with null if the queue was full
+    public CompletableFuture<Reply> tryPut(int item) {
+        return send(request("TRYPUT", item)).thenApply(reply -> reply.equals("FULL") ? null : parsePut(reply, item));
+    }
+
+    // Removes an item, waiting on the server until one is available
+    public CompletableFuture<Reply> take() {
+        return send(request("TAKE", "")).thenApply(QueueClient::parseTake);
+    }
+
+    // Removes an item; completes with null if none arrived within timeoutMs
+    public CompletableFuture<Reply> poll(long timeoutMs) {
+        return send(request("TAKE", timeoutMs)).thenApply(reply -> reply.equals("TIMEOUT") ? null : parseTake(reply));
+    }
+
+    // Removes an item if one is available; completes with null if the queue was empty
+    public CompletableFuture<Reply> tryTake() {
+        return send(request("TRYTAKE", "")).thenApply(reply -> reply.equals("EMPTY") ? null : parseTake(reply));
+    }
+
+    // Removes up to max items at once; completes with an empty array if none arrived within
+    // timeoutMs (-1 waits without a limit)
+    public CompletableFuture<int[]> pollUpTo(int max, long timeoutMs) {
+        return send(request("TAKEN", Math.min(max, MAX_BATCH) + (timeoutMs >= 0 ? " " + timeoutMs : ""))).thenApply(QueueClient::parseItems);
+    }
+
+    public CompletableFuture<Integer> size() {
+        return send(request("SIZE", "")).thenApply(reply -> parseFields(reply)[0]);
+    }
+
+    // Sends any text command as is and completes with the raw reply, e.g. for STATUS
+    public CompletableFuture<String> call(String request) {
+        return send(request);
+    }
+
+    // Sends the items put so far without waiting for the linger time
+    public void flush() {
+        if (lingerMs <= 0) {
+            return;
+        }
+        batchLock.lock();
+        try {
+            if (!batchReplies.isEmpty()) {
+                sendBatch();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    // Number of requests sent but not answered yet, over all connections
+    public int getOutstanding() {
+        int total = 0;
+        for (Connection connection : connections) {
+            total += connection.outstanding.get();
+        }
+        return total;
+    }
+
+    // Timer task: sends the batch it was scheduled for unless that went out already
+    private void flushBatch(long number) {
+        batchLock.lock();
+        try {
+            if (batchNumber == number && !batchReplies.isEmpty()) {
+                sendBatch();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    // Called with batchLock held, which also keeps the batches in order
+    private void sendBatch() {
+        List<CompletableFuture<Reply>> replies = batchReplies;
+        int count = replies.size();
+        int[] batch = Arrays.copyOf(batchItems, count);
+        batchReplies = new ArrayList<>();
+        batchNumber++;
+        send(putN(batch, 0, count)).thenCompose(reply -> putReply(reply, batch, 0, count)).whenComplete((parsed, error) -> {
+            for (CompletableFuture<Reply> future : replies) {
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(parsed);
+                }
+            }
+        });
+    }
+
+    // "<command>[ <queue>][ <args>]"
+    private String request(String command, Object args) {
+        String text = String.valueOf(args);
+        return text.isEmpty() ? command + target : command + target + " " + text;
+    }
+
+    private String putN(int[] items, int offset, int count) {
+        StringBuilder request = new StringBuilder(12 * count + 32);
+        request.append("PUTN").append(target).append(' ').append(count);
+        for (int i = 0; i < count; i++) {
+            request.append(' ').append(items[offset + i]);
+        }
+        return request.toString();
+    }
+
+    private CompletableFuture<String> send(String request) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Client is closed"));
+        }
+        // The open connection with the fewest unanswered requests
+        Connection best = null;
+        for (Connection connection : connections) {
+            if (connection.open && (best == null || connection.outstanding.get() < best.outstanding.get())) {
+                best = connection;
+            }
+        }
+        return (best != null ? best : connections[0]).send(request);
+    }
+
+    // Completes a PUT or PUTN of items[offset..offset+count). A FULL <retryAfterMs> [<added>]
+    // reply means the server added only the first added items (none for PUT); the rest are
+    // sent again once the server's suggested wait is over, until the queue takes them all.
+    private CompletableFuture<Reply> putReply(String reply, int[] items, int offset, int count) {
+        if (!reply.startsWith("FULL ")) {
+            try {
+                return CompletableFuture.completedFuture(parsePut(reply, items[offset + count - 1]));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        String[] fields = reply.split(" ");
+        long retryAfterMs = Long.parseLong(fields[1]);
+        int added = fields.length > 2 ? Integer.parseInt(fields[2]) : 0;
+        int from = offset + added;
+        int rest = count - added;
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(retryAfterMs, TimeUnit.MILLISECONDS))
+                .thenCompose(ignored -> send(rest == 1 ? request("PUT", items[from]) : putN(items, from, rest)))
+                .thenCompose(next -> putReply(next, items, from, rest));
+    }
+
+    // OK <size> [<capacity>]
+    private static Reply parsePut(String reply, int item) {
+        int[] fields = parseFields(reply);
+        return new Reply(item, fields[0], fields.length > 1 ? fields[1] : -1);
+    }
+
+    // OK <item> <size> [<capacity>]
+    private static Reply parseTake(String reply) {
+        int[] fields = parseFields(reply);
+        return new Reply(fields[0], fields[1], fields.length > 2 ? fields[2] : -1);
+    }
+
+    private static int[] parseFields(String reply) {
+        if (!reply.startsWith("OK ")) {
+            throw new IllegalStateException("Unexpected reply: " + reply);
+        }
+        String[] parts = reply.substring(3).split(" ");
+        int[] fields = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            fields[i] = Integer.parseInt(parts[i]);
+        }
+        return fields;
+    }
+
+    // OK <n> <item1> .. <itemN> <size> [<capacity>]
+    private static int[] parseItems(String reply) {
+        if (reply.equals("TIMEOUT")) {
+            return new int[0];
+        }
+        if (!reply.startsWith("OK ")) {
+            throw new IllegalStateException("Unexpected reply: " + reply);
+        }
+        int position = 3;
+        int end = reply.indexOf(' ', position);
+        int[] items = new int[Integer.parseInt(reply, position, end, 10)];
+        for (int i = 0; i < items.length; i++) {
+            position = end + 1;
+            end = reply.indexOf(' ', position);
+            items[i] = Integer.parseInt(reply, position, end, 10);
+        }
+        return items;
+    }
+
+    // Waits up to CLOSE_WAIT_MS for the replies to requests already sent (including the
+    // current batch), then closes the connections and fails whatever is still unanswered
+    @Override
+    public void close() {
+        flush();
+        long deadline = System.nanoTime() + CLOSE_WAIT_MS * 1_000_000L;
+        for (Connection connection : connections) {
+            CompletableFuture<String> last = connection != null ? connection.last : null;
+            if (last != null) {
+                try {
+                    last.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (Exception e) {
+                    // Failed or still waiting: closing fails it below
+                }
+            }
+        }
+        closed = true;
+        if (lingerTimer != null) {
+            lingerTimer.shutdownNow();
+        }
+        for (Connection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    // One pooled connection. Writers hold writeLock while they queue their future and write
+    // the request, so futures are queued in the order the server sees the requests.
+    private final class Connection {
+        final ReentrantLock writeLock = new ReentrantLock();
+        final ConcurrentLinkedQueue<CompletableFuture<String>> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile boolean open;
+        volatile CompletableFuture<String> last;
+        StreamConnection socket;
+        Writer out;
+        long lastAttempt; // System.nanoTime() of the last failed connect
+
+        // Called with writeLock held, or by the constructor
+        void connect() throws IOException {
+            try {
+                socket = StreamConnection.connect(host, port);
+            } catch (IOException e) {
+                lastAttempt = System.nanoTime();
+                throw e;
+            }
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            open = true;
+            StreamConnection current = socket;
+            Thread reader = new Thread(() -> read(current, in), "queue-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        CompletableFuture<String> send(String request) {
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            writeLock.lock();
+            try {
+                if (!open) {
+                    if (System.nanoTime() - lastAttempt < RECONNECT_MS * 1_000_000L) {
+                        throw new IOException("Not connected to " + address);
+                    }
+                    connect();
+                }
+                pending.add(reply);
+                outstanding.incrementAndGet();
+                last = reply;
+                out.write(request);
+                out.write('\n');
+                // A writer waiting for the lock flushes after its own request, so the
+                // requests of concurrent callers leave in as few packets as possible
+                if (!writeLock.hasQueuedThreads()) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (!pending.contains(reply)) {
+                    reply.completeExceptionally(e);
+                }
+                closeSocket();
+                // Requests already queued are failed by the reader when it sees the socket close
+            } finally {
+                writeLock.unlock();
+            }
+            return reply;
+        }
+
+        // Completes the futures in order until the socket fails, then fails the rest
+        void read(StreamConnection current, BufferedReader in) {
+            IOException failure;
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    CompletableFuture<String> reply = pending.poll();
+                    if (reply == null) {
+                        throw new IOException("Unexpected reply from " + address + ": " + line);
+                    }
+                    outstanding.decrementAndGet();
+                    if (line.startsWith("ERROR")) {
+                        reply.completeExceptionally(new IOException(line));
+                    } else {
+                        reply.complete(line);
+                    }
+                }
+                failure = new IOException("Server " + address + " closed the connection");
+            } catch (IOException e) {
+                failure = new IOException("Connection to " + address + " lost: " + e.getMessage(), e);
+            }
+            writeLock.lock();
+            try {
+                if (socket == current) {
+                    open = false;
+                    closeSocket();
+                    CompletableFuture<String> reply;
+                    while ((reply = pending.poll()) != null) {
+                        outstanding.decrementAndGet();
+                        reply.completeExceptionally(failure);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        void close() {
+            writeLock.lock();
+            try {
+                closeSocket();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void closeSocket() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The named queues hosted by one server process. Every server has a "default" queue, which
+// commands without a queue name use; other queues are made by CREATE or on first use.
+//
+// The registry also holds the process's replication role: a primary attaches every queue,
+// including ones made later, to its ReplicationPrimary, and a backup's queues are
+// read-only for clients until it is promoted.
+//
+// It also holds how PUT and PUTN answer a full queue (the --backpressure option): BLOCK waits
+// for room, REJECT replies FULL <retryAfterMs> at once so that producers back off instead of
+// each tying up a handler thread and filling socket buffers behind it.
+//
+// It also holds the TTL that queues give their items (the --ttl option and the TTL command)
+// and the ExpirySweeper that drops expired items in the background. A backup's queues keep
+// no TTL, since the primary's drops reach them as dequeues; promote() gives them the default.
+//
+// Lookups are lock-free reads of a ConcurrentHashMap, so connections working on different
+// queues never contend on the registry, only on their own queue's lock.
+public class QueueRegistry {
+    // How a PUT or PUTN that finds its queue full is answered
+    public enum Backpressure { BLOCK, REJECT }
+
+    public static final String DEFAULT_QUEUE = "default";
+    public static final int MAX_NAME_LENGTH = 64;
+    public static final int DEFAULT_MAX_QUEUES = 1024;
+
+    private final ConcurrentHashMap<String, NamedQueue> queues = new ConcurrentHashMap<>();
+    private final NamedQueue defaultQueue;
+    private final int defaultCapacity;   // Used for queues created on first use
+    private final boolean defaultDynamic;
+    private final int maxQueues;
+    private volatile ReplicationPrimary replication; // Set on a replicating primary
+    private volatile ReplicationBackup backup;       // Set on a backup, kept after promotion
+    private volatile boolean readOnly;
+    private volatile Backpressure backpressure = Backpressure.BLOCK;
+    private volatile Snapshotter snapshotter; // Set when the server takes snapshots
+    private DelayScheduler delays;            // Started by the first PUTDELAY; guarded by this
+    private volatile long defaultTtlMs;       // TTL of the default queue and queues made later, 0 for none
+    private volatile ExpirySweeper sweeper;   // Started by the first TTL in use
+    private volatile Runnable expiryListener; // Runs after the sweeper dropped items
+    private final ServerStats stats = new ServerStats(); // Counters for STATS
+
+    // Constructor for a registry whose queues made on first use copy the default queue's type and capacity
+    public QueueRegistry(QueueEngine defaultEngine) {
+        this(defaultEngine, DEFAULT_MAX_QUEUES);
+    }
+
+    public QueueRegistry(QueueEngine defaultEngine, int maxQueues) {
+        this.defaultQueue = new NamedQueue(DEFAULT_QUEUE, defaultEngine);
+        this.defaultCapacity = defaultQueue.getInitialCapacity();
+        this.defaultDynamic = defaultQueue.isDynamic();
+        this.maxQueues = maxQueues;
+        queues.put(DEFAULT_QUEUE, defaultQueue);
+    }
+
+    public NamedQueue getDefaultQueue() {
+        return defaultQueue;
+    }
+
+    // Returns the named queue, creating it with the default type and capacity on first use
+    public NamedQueue get(String name) {
+        NamedQueue queue = queues.get(name);
+        if (queue != null) {
+            return queue;
+        }
+        return create(name, defaultCapacity, defaultDynamic, true);
+    }
+
+    // Returns the named queue, or null if it does not exist
+    public NamedQueue find(String name) {
+        return queues.get(name);
+    }
+
+    // Creates a queue; fails if the name is taken
+    public NamedQueue create(String name, int capacity, boolean dynamic) {
+        return create(name, capacity, dynamic, false);
+    }
+
+    // Returns the named queue, creating it with the given type and capacity if needed
+    public NamedQueue getOrCreate(String name, int capacity, boolean dynamic) {
+        return create(name, capacity, dynamic, true);
+    }
+
+    private NamedQueue create(String name, int capacity, boolean dynamic, boolean existingOk) {
+        checkName(name);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        // Checked before creating, so concurrent creators may overshoot the limit by a few queues
+        if (queues.size() >= maxQueues && !queues.containsKey(name)) {
+            throw new IllegalStateException("Too many queues (limit " + maxQueues + ")");
+        }
+        boolean[] created = {false};
+        NamedQueue queue = queues.computeIfAbsent(name, key -> {
+            created[0] = true;
+            QueueEngine engine = dynamic ? new DynamicBoundedBlockingQueue(capacity) : new BoundedBlockingQueue(capacity);
+            // Set before the queue is published, so no put by another client can miss the TTL
+            long ttlMs = defaultTtlMs;
+            if (ttlMs > 0 && !readOnly) {
+                engine.setTtl(ttlMs);
+            }
+            return new NamedQueue(key, engine);
+        });
+        if (!created[0] && !existingOk) {
+            throw new IllegalStateException("Queue " + name + " already exists");
+        }
+        ReplicationPrimary primary = replication;
+        if (created[0] && primary != null) {
+            // Attached after creation; the snapshot it starts with covers anything put meanwhile
+            primary.attach(queue);
+        }
+        return queue;
+    }
+
+    // Snapshot of all queues, sorted by name
+    public List<NamedQueue> list() {
+        List<NamedQueue> list = new ArrayList<>(queues.values());
+        list.sort(Comparator.comparing(NamedQueue::getName));
+        return list;
+    }
+
+    public int count() {
+        return queues.size();
+    }
+
+    public ServerStats getStats() {
+        return stats;
+    }
+
+    public void setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    // True if PUT and PUTN answer a full queue with FULL instead of waiting
+    public boolean rejectsWhenFull() {
+        return backpressure == Backpressure.REJECT;
+    }
+
+    public void setSnapshotter(Snapshotter snapshotter) {
+        this.snapshotter = snapshotter;
+    }
+
+    public Snapshotter getSnapshotter() {
+        return snapshotter;
+    }
+
+    // The scheduler for PUTDELAY, started on first use
+    public synchronized DelayScheduler getDelays() {
+        if (delays == null) {
+            delays = new DelayScheduler(stats);
+        }
+        return delays;
+    }
+
+    // Gives the default queue, and queues made from now on, a TTL of ttlMs (0 for none)
+    public void setDefaultTtl(long ttlMs) {
+        if (ttlMs < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+        defaultTtlMs = ttlMs;
+        if (!readOnly) {
+            defaultQueue.setTtl(ttlMs);
+        }
+        if (ttlMs > 0) {
+            enableExpiry();
+        }
+    }
+
+    public long getDefaultTtl() {
+        return defaultTtlMs;
+    }
+
+    // Starts the sweeper unless it is running; called whenever a TTL comes into use
+    public void enableExpiry() {
+        if (sweeper == null) {
+            startSweeper();
+        }
+    }
+
+    private synchronized void startSweeper() {
+        if (sweeper == null) {
+            sweeper = new ExpirySweeper(this);
+        }
+    }
+
+    public ExpirySweeper getSweeper() {
+        return sweeper;
+    }
+
+    public void setExpiryListener(Runnable listener) {
+        this.expiryListener = listener;
+    }
+
+    public Runnable getExpiryListener() {
+        return expiryListener;
+    }
+
+    // ---- Replication role ----
+
+    public void setReplication(ReplicationPrimary replication) {
+        this.replication = replication;
+    }
+
+    public ReplicationPrimary getReplication() {
+        return replication;
+    }
+
+    // Makes the queues read-only for clients until promote()
+    public void setBackup(ReplicationBackup backup) {
+        this.backup = backup;
+        this.readOnly = true;
+        for (NamedQueue queue : queues.values()) {
+            // Items expire on the primary only
+            queue.setTtl(0);
+        }
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // Takes over from the primary: stops applying its stream and accepts clients' changes
+    public synchronized void promote() {
+        if (readOnly) {
+            readOnly = false;
+            backup.promote();
+            if (defaultTtlMs > 0) {
+                for (NamedQueue queue : queues.values()) {
+                    queue.setTtl(defaultTtlMs);
+                }
+            }
+            System.out.println("Promoted to primary");
+        }
+    }
+
+    // ---- Text commands shared by all servers ----
+
+    // CREATE <queue> <capacity> [dynamic]  ->  OK <capacity> fixed|dynamic
+    public String createResponse(TextCommand command) {
+        if (command.queueName == null || command.args == null) {
+            return "ERROR Usage: CREATE <queue> <capacity> [dynamic]";
+        }
+        String[] args = command.args.trim().split(" ");
+        if (args.length > 2 || (args.length == 2 && !args[1].equals("dynamic") && !args[1].equals("fixed"))) {
+            return "ERROR Usage: CREATE <queue> <capacity> [dynamic]";
+        }
+        try {
+            NamedQueue queue = create(command.queueName, Integer.parseInt(args[0]), args.length == 2 && args[1].equals("dynamic"));
+            return "OK " + queue.capacity() + " " + (queue.isDynamic() ? "dynamic" : "fixed");
+        } catch (RuntimeException e) {
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    // TTL [<queue>] [<ms>]  ->  OK <ms>, the queue's TTL after setting it (0 for none)
+    public String ttlResponse(NamedQueue queue, String args) {
+        try {
+            if (args != null) {
+                if (readOnly) {
+                    return "ERROR Read-only backup, send PROMOTE to take over";
+                }
+                long ttlMs = Long.parseLong(args.trim());
+                queue.setTtl(ttlMs);
+                if (ttlMs > 0) {
+                    enableExpiry();
+                }
+            }
+            return "OK " + queue.getTtl();
+        } catch (RuntimeException e) {
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    // QUEUES  ->  OK <count> followed by <name> <size> <capacity> <put> <taken> for each queue
+    public String queuesResponse() {
+        List<NamedQueue> list = list();
+        StringBuilder response = new StringBuilder(32 * list.size() + 8);
+        response.append("OK ").append(list.size());
+        for (NamedQueue queue : list) {
+            response.append(' ').append(queue.getName())
+                    .append(' ').append(queue.size())
+                    .append(' ').append(queue.capacity())
+                    .append(' ').append(queue.getItemsPut())
+                    .append(' ').append(queue.getItemsTaken());
+        }
+        return response.toString();
+    }
+
+    // ROLE  ->  OK backup <batch applied>
+    //           OK primary [connected|disconnected <records logged> <records acked>]
+    public String roleResponse() {
+        if (readOnly) {
+            return "OK backup " + backup.getApplied();
+        }
+        ReplicationPrimary primary = replication;
+        if (primary == null) {
+            return "OK primary";
+        }
+        return "OK primary " + (primary.isConnected() ? "connected " : "disconnected ") +
+               primary.getAppended() + " " + primary.getAcked();
+    }
+
+    // SNAPSHOT  ->  OK <queues> <items> <bytes> <longest pause us> <total ms>
+    // Writes the snapshot on the calling thread; NioQueueServer uses Snapshotter.request()
+    public String snapshotResponse() {
+        Snapshotter current = snapshotter;
+        if (current == null) {
+            return "ERROR Snapshots are off, start the server with --snapshot <file>";
+        }
+        try {
+            return Snapshotter.response(current.snapshot(), null);
+        } catch (IOException | RuntimeException e) {
+            return Snapshotter.response(null, e);
+        }
+    }
+
+    // PROMOTE  ->  OK primary
+    public String promoteResponse() {
+        promote();
+        return "OK primary";
+    }
+
+    // Queue names start with a letter, so they never look like the numeric arguments of a command
+    public static boolean looksLikeName(String token) {
+        return !token.isEmpty() && Character.isLetter(token.charAt(0));
+    }
+
+    private static void checkName(String name) {
+        if (name.length() > MAX_NAME_LENGTH || !looksLikeName(name)) {
+            throw new IllegalArgumentException("Invalid queue name " + name);
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                throw new IllegalArgumentException("Invalid queue name " + name);
+            }
+        }
+    }
+}
@@ -1,51 +1,169 @@
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 // Queue Server - Run this first in a separate terminal
 // This server holds the shared queue and handles requests from producers and consumers
 public class QueueServer {
     private static BoundedBlockingQueue queue;
+    private static QueueRegistry registry; // Named queues, with queue as the default one
     private static ServerSocket serverSocket;
+    // Optional Unix domain socket for clients on the same host, next to the TCP port
+    private static String unixSocketPath;
+    private static ServerSocketChannel unixSocket;
     private static AtomicBoolean running = new AtomicBoolean(true);
     private static final int DEFAULT_PORT = 8888;
+    // Commands and responses are single short lines, so small per-connection buffers keep
+    // tens of thousands of mostly idle connections cheap
+    private static final int CONNECTION_BUFFER_SIZE = 512;
+    // Replies to pipelined commands may grow a connection's reply buffer up to this size
+    private static final int MAX_REPLY_BUFFER_SIZE = 8 * 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
+    
+    // PUT rate limiting (disabled when rate is 0)
+    private static double putRate = 0;
+    private static int putBurst = 0;
+    private static TokenBucketRateLimiter.Mode rateMode = TokenBucketRateLimiter.Mode.DELAY;
+    private static boolean perClientRate = true;
+    private static final Map<String, Double> clientRates = new HashMap<>();
+    private static final Map<String, TokenBucketRateLimiter> hostLimiters = new ConcurrentHashMap<>();
+    private static TokenBucketRateLimiter globalLimiter;
+    
+    // How PUT and PUTN answer a full queue: wait for room, or reply FULL <retryAfterMs>
+    private static QueueRegistry.Backpressure backpressure = QueueRegistry.Backpressure.BLOCK;
+    
+    // Time to live of items in every queue, 0 for none
+    private static long ttlMs = 0;
+    
+    // Snapshots of the queues, restored on start (off without a path)
+    private static String snapshotPath;
+    private static long snapshotIntervalMs = Snapshotter.DEFAULT_INTERVAL_MS;
+    
+    // Non-blocking event-loop mode
+    private static boolean nioMode = false;
+    // Run each ClientHandler on a virtual thread instead of a platform thread
+    private static boolean virtualThreads = false;
+    private static int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    // Admission control: at most maxConnections handlers at once (0 for no limit), and what
+    // happens to the connections beyond that
+    private static int maxConnections = 0;
+    private static HandlerPool.Overload overload = HandlerPool.Overload.REJECT;
+    private static int maxQueued = HandlerPool.DEFAULT_MAX_QUEUED;
+    private static HandlerPool handlers;
+    
+    // Replication: a primary ships its changes to a backup, a backup serves them read-only
+    private static String replicateTo;   // host:port of the backup's replication port
+    private static Replication.AckMode ackMode = Replication.AckMode.ASYNC;
+    private static long ackTimeoutMs = Replication.DEFAULT_ACK_TIMEOUT_MS;
+    private static int backupPort = -1;  // Replication port when running as a backup
+    private static long autoPromoteMs = 0;
     
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
         int capacity = 10;
         
-        if (args.length > 0) {
+        List<String> positional = parseOptions(args);
+        
+        if (positional.size() > 0) {
             try {
-                capacity = Integer.parseInt(args[0]);
+                capacity = Integer.parseInt(positional.get(0));
             } catch (NumberFormatException e) {
                 System.out.println("Invalid capacity, using default: 10");
             }
         }
         
-        if (args.length > 1) {
+        if (positional.size() > 1) {
             try {
-                port = Integer.parseInt(args[1]);
+                port = Integer.parseInt(positional.get(1));
             } catch (NumberFormatException e) {
                 System.out.println("Invalid port, using default: 8888");
             }
         }
         
+        if (putRate > 0 && !perClientRate) {
+            globalLimiter = new TokenBucketRateLimiter(putRate, burstFor(putRate), rateMode);
+        }
+        
         queue = new BoundedBlockingQueue(capacity);
+        registry = new QueueRegistry(queue);
+        registry.setBackpressure(backpressure);
+        registry.setDefaultTtl(ttlMs);
+        handlers = new HandlerPool(maxConnections, overload, maxQueued, virtualThreads, registry.getStats());
         
         System.out.println("========================================");
         System.out.println("   Queue Server");
         System.out.println("========================================");
         System.out.println("Queue capacity: " + capacity);
         System.out.println("Server port: " + port);
+        if (unixSocketPath != null) {
+            System.out.println("Unix domain socket: " + unixSocketPath);
+        }
+        if (putRate > 0) {
+            System.out.println("PUT rate limit: " + putRate + "/s " + (perClientRate ? "per client" : "global") +
+                               " (burst " + burstFor(putRate) + ", " + rateMode.name().toLowerCase() + ")");
+        }
+        for (Map.Entry<String, Double> entry : clientRates.entrySet()) {
+            System.out.println("PUT rate limit for " + entry.getKey() + ": " + entry.getValue() + "/s");
+        }
+        if (registry.rejectsWhenFull()) {
+            System.out.println("Backpressure: PUT on a full queue replies FULL <retryAfterMs>");
+        }
+        if (ttlMs > 0) {
+            System.out.println("TTL: items expire " + ttlMs + " ms after they are put");
+        }
+        if (nioMode) {
+            System.out.println("Mode: non-blocking (" + ioThreads + " event-loop threads)");
+        } else if (virtualThreads) {
+            System.out.println("Mode: virtual thread per connection" +
+                               (VirtualThreads.isSupported() ? "" : " (unsupported on this JVM, using platform threads)"));
+        }
+        if (maxConnections > 0 && !nioMode) {
+            System.out.println("Max connections: " + maxConnections + ", then " +
+                               (overload == HandlerPool.Overload.QUEUE ? "queue up to " + maxQueued :
+                                overload == HandlerPool.Overload.SHED_IDLE ? "close the longest idle one" : "reject"));
+        }
+        if (snapshotPath != null && !startSnapshots()) {
+            return;
+        }
+        if (nioMode && (replicateTo != null || backupPort >= 0)) {
+            System.out.println("Note: replication applies to thread-per-connection mode only");
+        } else if (!startReplication()) {
+            return;
+        }
         System.out.println("Server is running...");
         System.out.println("Connect producers and consumers to this server");
         System.out.println("Press Ctrl+C to stop the server");
         System.out.println("========================================");
         System.out.println();
         
+        if (nioMode) {
+            if (putRate > 0 || !clientRates.isEmpty()) {
+                System.out.println("Note: PUT rate limiting applies to thread-per-connection mode only");
+            }
+            if (maxConnections > 0) {
+                System.out.println("Note: --max-connections applies to thread-per-connection mode only");
+            }
+            runNio(port);
+            return;
+        }
+        
         // Start server
         try {
-            serverSocket = new ServerSocket(port);
+            serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
+            if (unixSocketPath != null) {
+                unixSocket = StreamConnection.listenUnix(Paths.get(unixSocketPath));
+                startUnixAcceptor();
+            }
             
             // Add shutdown hook to handle Ctrl+C
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -55,6 +173,9 @@ public class QueueServer {
                 } catch (IOException e) {
                     System.err.println("Error closing server socket: " + e.getMessage());
                 }
+                if (unixSocket != null) {
+                    StreamConnection.closeUnix(unixSocket, Paths.get(unixSocketPath));
+                }
                 System.out.println("\nServer shutting down...");
             }));
             
@@ -62,7 +183,8 @@ public class QueueServer {
                 try {
                     // Accept client connection
                     Socket clientSocket = serverSocket.accept();
-                    new Thread(new ClientHandler(clientSocket, queue)).start();
+                    startHandler(new ClientHandler(StreamConnection.of(clientSocket), registry,
+                                                   limiterFor(clientSocket.getInetAddress().getHostAddress())));
                 } catch (IOException e) {
                     if (running.get()) {
                         System.err.println("Error accepting client: " + e.getMessage());
@@ -74,63 +196,487 @@ public class QueueServer {
         }
     }
     
-    static class ClientHandler implements Runnable {
-        private Socket socket;
-        private BoundedBlockingQueue queue;
+    // Runs the handler, or queues or rejects its connection once --max-connections are served
+    private static void startHandler(ClientHandler handler) {
+        handlers.submit(handler.connection, handler);
+    }
+    
+    // Accepts connections on the Unix domain socket; they are served exactly like TCP ones
+    private static void startUnixAcceptor() {
+        Thread acceptor = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    startHandler(new ClientHandler(StreamConnection.of(unixSocket.accept()), registry, limiterFor(null)));
+                } catch (IOException e) {
+                    if (running.get() && unixSocket.isOpen()) {
+                        System.err.println("Error accepting client: " + e.getMessage());
+                    } else {
+                        return;
+                    }
+                }
+            }
+        }, "unix-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    // Parses --option value pairs and returns the remaining positional arguments
+    private static List<String> parseOptions(String[] args) {
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+            if (arg.equals("--nio")) {
+                nioMode = true;
+                continue;
+            }
+            if (arg.equals("--virtual-threads")) {
+                virtualThreads = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.out.println("Missing value for " + arg + ", ignoring");
+                break;
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--io-threads":
+                        ioThreads = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        putRate = Double.parseDouble(value);
+                        break;
+                    case "--burst":
+                        putBurst = Integer.parseInt(value);
+                        break;
+                    case "--rate-mode":
+                        rateMode = TokenBucketRateLimiter.Mode.valueOf(value.toUpperCase());
+                        break;
+                    case "--max-connections":
+                        maxConnections = Integer.parseInt(value);
+                        break;
+                    case "--overload":
+                        overload = HandlerPool.parseOverload(value);
+                        break;
+                    case "--max-queued":
+                        maxQueued = Integer.parseInt(value);
+                        break;
+                    case "--backpressure":
+                        backpressure = QueueRegistry.Backpressure.valueOf(value.toUpperCase());
+                        break;
+                    case "--ttl":
+                        long ttl = Long.parseLong(value);
+                        if (ttl < 0) {
+                            throw new IllegalArgumentException("TTL must not be negative");
+                        }
+                        ttlMs = ttl;
+                        break;
+                    case "--rate-scope":
+                        perClientRate = !value.equalsIgnoreCase("global");
+                        break;
+                    case "--unix":
+                        unixSocketPath = value;
+                        break;
+                    case "--snapshot":
+                        snapshotPath = value;
+                        break;
+                    case "--snapshot-interval":
+                        snapshotIntervalMs = Long.parseLong(value);
+                        break;
+                    case "--replicate-to":
+                        // host:port
+                        int colon = value.lastIndexOf(':');
+                        if (colon <= 0) {
+                            throw new IllegalArgumentException("Expected host:port");
+                        }
+                        int port = Integer.parseInt(value.substring(colon + 1));
+                        if (port <= 0 || port > 65535) {
+                            throw new IllegalArgumentException("Port out of range");
+                        }
+                        replicateTo = value;
+                        break;
+                    case "--ack":
+                        ackMode = Replication.AckMode.valueOf(value.toUpperCase());
+                        break;
+                    case "--ack-timeout":
+                        ackTimeoutMs = Long.parseLong(value);
+                        break;
+                    case "--backup":
+                        backupPort = Integer.parseInt(value);
+                        break;
+                    case "--auto-promote":
+                        autoPromoteMs = Long.parseLong(value);
+                        break;
+                    case "--client-rate":
+                        // host=permitsPerSecond
+                        String[] pair = value.split("=", 2);
+                        clientRates.put(pair[0], Double.parseDouble(pair[1]));
+                        break;
+                    default:
+                        System.out.println("Unknown option " + arg + ", ignoring");
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Invalid value for " + arg + ": " + value);
+            }
+        }
+        return positional;
+    }
+    
+    // Restores the last snapshot, if there is one, and starts taking new ones; returns false
+    // if the server cannot run
+    private static boolean startSnapshots() {
+        Path path = Paths.get(snapshotPath);
+        if (Files.exists(path)) {
+            try {
+                System.out.println("Restored " + Snapshotter.restore(registry, path) + " from " + path);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error restoring snapshot: " + e.getMessage() + " (move the file away to start empty)");
+                return false;
+            }
+        }
+        Snapshotter snapshotter = new Snapshotter(registry, path, snapshotIntervalMs);
+        registry.setSnapshotter(snapshotter);
+        snapshotter.start();
+        // A last snapshot on the way out
+        Runtime.getRuntime().addShutdownHook(new Thread(snapshotter::close));
+        System.out.println("Snapshots: " + path + (snapshotIntervalMs > 0 ? " every " + snapshotIntervalMs + " ms," : "") +
+                           " on SNAPSHOT and at shutdown");
+        return true;
+    }
+    
+    // Starts shipping to a backup, or receiving as one; returns false if the server cannot run
+    private static boolean startReplication() {
+        if (backupPort >= 0) {
+            try {
+                ReplicationBackup backup = new ReplicationBackup(registry, backupPort, autoPromoteMs);
+                backup.start();
+                System.out.println("Role: backup, read-only until promoted (replication port " + backup.getPort() +
+                                   (autoPromoteMs > 0 ? ", auto-promote after " + autoPromoteMs + " ms)" : ")"));
+            } catch (IOException e) {
+                System.err.println("Error opening replication port: " + e.getMessage());
+                return false;
+            }
+        } else if (replicateTo != null) {
+            int colon = replicateTo.lastIndexOf(':');
+            new ReplicationPrimary(registry, replicateTo.substring(0, colon), Integer.parseInt(replicateTo.substring(colon + 1)),
+                                   ackMode, ackTimeoutMs).start();
+            System.out.println("Role: primary, replicating to " + replicateTo + " (" + ackMode.name().toLowerCase() + " acks)");
+        }
+        return true;
+    }
+    
+    // Burst defaults to one second worth of permits
+    private static int burstFor(double rate) {
+        return putBurst > 0 ? putBurst : (int) Math.max(1, Math.ceil(rate));
+    }
+    
+    // Picks the PUT limiter for a new connection: the bucket of a per-host override, shared
+    // by all of that host's connections, a fresh per-connection bucket, the shared global
+    // bucket, or none at all. Unix domain socket connections have no host (null) and never
+    // match an override.
+    private static TokenBucketRateLimiter limiterFor(String host) {
+        Double hostRate = host == null ? null : clientRates.get(host);
+        if (hostRate != null) {
+            return hostLimiters.computeIfAbsent(host, h -> new TokenBucketRateLimiter(hostRate, burstFor(hostRate), rateMode));
+        }
+        if (putRate <= 0) {
+            return null;
+        }
+        return perClientRate ? new TokenBucketRateLimiter(putRate, burstFor(putRate), rateMode) : globalLimiter;
+    }
+    
+    // Serves the queue from a few event-loop threads instead of a thread per connection
+    private static void runNio(int port) {
+        NioQueueServer server = new NioQueueServer(registry, port, ioThreads);
+        if (unixSocketPath != null) {
+            server.setUnixSocket(Paths.get(unixSocketPath));
+        }
+        try {
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                System.out.println("\nServer shutting down...");
+            }));
+            server.awaitTermination();
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    static class ClientHandler implements HandlerPool.Handler {
+        private StreamConnection connection; // TCP or Unix domain socket
+        private HandlerPool.Slot slot = HandlerPool.Slot.UNTRACKED;
+        private QueueRegistry registry;
+        private TokenBucketRateLimiter rateLimiter;
+        private TextSession session;       // Text protocol state, once the connection speaks text
+        private byte[] lastQueueName;      // Last named queue looked up by executeFast()
+        private NamedQueue lastQueue;
         
+        // Constructor for a handler serving a single queue as its default queue
         public ClientHandler(Socket socket, BoundedBlockingQueue queue) {
-            this.socket = socket;
-            this.queue = queue;
+            this(socket, new QueueRegistry(queue), null);
+        }
+        
+        public ClientHandler(Socket socket, QueueRegistry registry, TokenBucketRateLimiter rateLimiter) {
+            this(StreamConnection.of(socket), registry, rateLimiter);
+        }
+        
+        public ClientHandler(StreamConnection connection, QueueRegistry registry, TokenBucketRateLimiter rateLimiter) {
+            this.connection = connection;
+            this.registry = registry;
+            this.rateLimiter = rateLimiter;
+        }
+        
+        // Answers PUT, TRYPUT, TAKE, TRYTAKE, SIZE and STATUS with well-formed arguments straight
+        // from the line's bytes, with replies encoded into out and the queue's size and capacity
+        // read in one lock acquisition, so these commands allocate nothing (other than boxing an
+        // item outside the Integer cache as it enters the queue). Returns the command's name, or
+        // null to leave the line to the general path, which serves all other commands and
+        // produces every error reply except throttling.
+        private String executeFast(TextLineReader line, TextReply out, QueueSnapshot state,
+                                   ServerStats.Connection connStats) throws InterruptedException {
+            if (session.isSubscribed()) {
+                return null;
+            }
+            int commandEnd = line.tokenEnd(0);
+            String command;
+            if (line.regionEquals(0, commandEnd, "PUT")) {
+                command = "PUT";
+            } else if (line.regionEquals(0, commandEnd, "TAKE")) {
+                command = "TAKE";
+            } else if (line.regionEquals(0, commandEnd, "TRYPUT")) {
+                command = "TRYPUT";
+            } else if (line.regionEquals(0, commandEnd, "TRYTAKE")) {
+                command = "TRYTAKE";
+            } else if (line.regionEquals(0, commandEnd, "SIZE")) {
+                command = "SIZE";
+            } else if (line.regionEquals(0, commandEnd, "STATUS")) {
+                command = "STATUS";
+            } else {
+                return null;
+            }
+            boolean changesQueue = !command.equals("SIZE") && !command.equals("STATUS");
+            if (changesQueue && registry.isReadOnly()) {
+                return null;
+            }
+            
+            // An optional queue name, then at most one number
+            NamedQueue queue = registry.getDefaultQueue();
+            int from = commandEnd + 1;
+            if (from < line.length()) {
+                byte first = line.byteAt(from);
+                if (first < 0) {
+                    return null; // Non-ASCII: leave names in other alphabets to the general path
+                }
+                if (Character.isLetter(first)) {
+                    int nameEnd = line.tokenEnd(from);
+                    queue = lookUp(line, from, nameEnd);
+                    if (queue == null) {
+                        return null;
+                    }
+                    from = nameEnd + 1;
+                }
+            }
+            boolean hasNumber = from < line.length();
+            if (hasNumber && (line.tokenEnd(from) != line.length() || !line.parseNumber(from, line.length()))) {
+                return null;
+            }
+            long number = line.parsedValue();
+            
+            if (command.equals("PUT") || command.equals("TRYPUT")) {
+                if (!hasNumber || number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                    return null;
+                }
+                int item = (int) number;
+                if (command.equals("PUT")) {
+                    if (rateLimiter != null && !rateLimiter.acquire()) {
+                        out.println("ERROR Throttled");
+                    } else {
+                        if (queue.offer(item)) {
+                            queue.writePutResponse(out, state);
+                        } else if (registry.rejectsWhenFull()) {
+                            queue.writeFullResponse(out);
+                            connStats.rejectedPut();
+                        } else {
+                            // About to block: send the replies of earlier pipelined commands first
+                            session.flush();
+                            long blockedAt = System.nanoTime();
+                            queue.put(item);
+                            connStats.blockedPut(System.nanoTime() - blockedAt);
+                            queue.writePutResponse(out, state);
+                        }
+                    }
+                } else if (rateLimiter != null && !rateLimiter.tryAcquire(1)) {
+                    out.println("ERROR Throttled");
+                } else if (queue.offer(item)) {
+                    queue.writePutResponse(out, state);
+                } else {
+                    out.println("FULL");
+                }
+            } else if (command.equals("TAKE")) {
+                // Optional argument: give up after this many milliseconds
+                long timeoutMs = hasNumber ? number : -1;
+                if (hasNumber && timeoutMs < 0) {
+                    return null;
+                }
+                Integer item = queue.poll();
+                if (item == null && timeoutMs != 0) {
+                    session.flush();
+                    long blockedAt = System.nanoTime();
+                    item = timeoutMs < 0 ? queue.take() : queue.poll(timeoutMs);
+                    connStats.blockedTake(System.nanoTime() - blockedAt);
+                }
+                if (item != null) {
+                    queue.writeTakeResponse(out, state, item);
+                } else {
+                    out.println("TIMEOUT");
+                }
+            } else {
+                if (hasNumber) {
+                    return null;
+                }
+                if (command.equals("TRYTAKE")) {
+                    Integer item = queue.poll();
+                    if (item != null) {
+                        queue.writeTakeResponse(out, state, item);
+                    } else {
+                        out.println("EMPTY");
+                    }
+                } else if (command.equals("SIZE")) {
+                    queue.writeSizeResponse(out, state);
+                } else {
+                    queue.writeStatusResponse(out, state);
+                }
+            }
+            return command;
+        }
+        
+        // The named queue in the line's bytes from..to, or null if the name is invalid. The last
+        // name is remembered, so a connection that keeps using one queue makes no String for it.
+        private NamedQueue lookUp(TextLineReader line, int from, int to) {
+            if (lastQueue != null && line.regionEquals(from, to, lastQueueName)) {
+                return lastQueue;
+            }
+            String name = line.substring(from, to);
+            try {
+                lastQueue = registry.get(name);
+            } catch (RuntimeException e) {
+                // Invalid name or too many queues: the general path reports it
+                lastQueue = null;
+                return null;
+            }
+            lastQueueName = name.getBytes(StandardCharsets.UTF_8);
+            return lastQueue;
+        }
+        
+        @Override
+        public void setSlot(HandlerPool.Slot slot) {
+            this.slot = slot;
+        }
+        
+        @Override
+        public HandlerPool.Slot getSlot() {
+            return slot;
+        }
+        
+        // Reports the wait for the next command, during which the connection may be shed; a
+        // subscriber is never idle, its stream is running
+        private void awaitCommand() {
+            if (!session.isSubscribed()) {
+                slot.idle();
+            }
         }
         
         @Override
         public void run() {
+            ServerStats stats = registry.getStats();
+            ServerStats.Connection connStats = stats.open();
             try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
+                BufferedInputStream input = new BufferedInputStream(connStats.countIn(connection.getInputStream()), CONNECTION_BUFFER_SIZE);
+                OutputStream output = connStats.countOut(connection.getOutputStream());
+                TextReply out = new TextReply(output, CONNECTION_BUFFER_SIZE, MAX_REPLY_BUFFER_SIZE)
             ) {
+                // A leading handshake byte selects the binary protocol
+                input.mark(1);
+                slot.idle();
+                int leading = input.read();
+                if (!slot.busy()) {
+                    return;
+                }
+                if (leading == (BinaryProtocol.HANDSHAKE & 0xFF)) {
+                    if (registry.isReadOnly()) {
+                        // Binary frames have no read-only replies; a backup only speaks text
+                        return;
+                    }
+                    new BinarySession(input, output, registry, rateLimiter, connStats).run();
+                    return;
+                }
+                input.reset();
+                session = new TextSession(input, out, registry, rateLimiter, connStats, virtualThreads);
+                
                 // Read commands from client
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    String[] parts = inputLine.split(" ", 2);
-                    String command = parts[0];
-                    
-                    if (command.equals("PUT")) {
-                        try {
-                            int item = Integer.parseInt(parts[1]);
-                            queue.put(item);
-                            out.println("OK " + queue.size());
-                        } catch (InterruptedException e) {
-                            out.println("ERROR Interrupted");
-                            break;
-                        } catch (Exception e) {
-                            out.println("ERROR " + e.getMessage());
-                        }
-                    } else if (command.equals("TAKE")) {
-                        try {
-                            Integer item = queue.take();
-                            out.println("OK " + item + " " + queue.size());
-                        } catch (InterruptedException e) {
-                            out.println("ERROR Interrupted");
-                            break;
+                TextLineReader in = new TextLineReader(input, CONNECTION_BUFFER_SIZE);
+                QueueSnapshot state = new QueueSnapshot();
+                for (awaitCommand(); in.readLine(); awaitCommand()) {
+                    if (!slot.busy()) {
+                        break; // Shed while waiting for this command, which must not run
+                    }
+                    long started = System.nanoTime();
+                    String fastCommand;
+                    try {
+                        fastCommand = executeFast(in, out, state, connStats);
+                    } catch (InterruptedException e) {
+                        out.println("ERROR Interrupted");
+                        break;
+                    }
+                    if (fastCommand != null) {
+                        connStats.command(fastCommand, System.nanoTime() - started);
+                        if (!in.ready()) {
+                            session.flush();
                         }
-                    } else if (command.equals("SIZE")) {
-                        out.println("OK " + queue.size() + " " + queue.capacity());
-                    } else if (command.equals("STATUS")) {
-                        out.println("OK " + queue.size() + " " + queue.capacity() + 
-                                   " " + queue.isEmpty() + " " + queue.isFull());
-                    } else if (command.equals("QUIT")) {
-                        out.println("OK");
+                        continue;
+                    }
+                    
+                    TextCommand cmd = TextCommand.parse(in.lineString());
+                    boolean open;
+                    try {
+                        open = session.execute(cmd);
+                    } catch (InterruptedException e) {
+                        out.println("ERROR Interrupted");
+                        break;
+                    }
+                    connStats.command(cmd.command, System.nanoTime() - started);
+                    if (!open) {
+                        // QUIT, or a RING whose producer keeps the connection until it disconnects
+                        session.runRing();
                         break;
-                    } else {
-                        out.println("ERROR Unknown command");
+                    }
+                    
+                    // Pipelined commands are answered together: write only once the client has nothing more queued up
+                    if (!in.ready()) {
+                        session.flush();
                     }
                 }
             } catch (IOException e) {
-                System.err.println("Error handling client: " + e.getMessage());
+                if (!slot.isShed()) {
+                    System.err.println("Error handling client: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // Interrupted while waiting for the backup's ack
+                Thread.currentThread().interrupt();
             } finally {
+                if (session != null) {
+                    session.close();
+                }
+                connStats.close();
                 try {
-                    socket.close();
+                    connection.close();
                 } catch (IOException e) {
                     System.err.println("Error closing socket: " + e.getMessage());
                 }
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Stream format between a replicating QueueServer (primary) and its backup.
+//
+// The primary connects to the backup's replication port and sends MAGIC, then batches of
+// records in network byte order. Every batch ends with BATCH_END, which the backup answers
+// with the sequence number it carried once all records before it are applied:
+//
+//   CREATE     [op][int32 id][UTF name][int32 capacity][bool dynamic]
+//   SNAPSHOT   [op][int32 id][int32 count][count x int32 item]   replaces the queue's items
+//   ENQUEUE    [op][int32 id][int32 item]
+//   DEQUEUE    [op][int32 id]
+//   BATCH_END  [op][int64 sequence]                               answered by [int64 sequence]
+//
+// Each queue's records come in the order the queue changed. After every (re)connect the
+// primary sends CREATE and SNAPSHOT for each queue before any of its other records, so a
+// backup that missed changes while disconnected is brought back in line. An idle primary
+// sends an empty batch every HEARTBEAT_MS, which lets the backup tell a quiet primary from
+// a dead one.
+public final class Replication {
+    public static final int MAGIC = 0x51524550; // "QREP"
+
+    public static final byte OP_CREATE = 1;
+    public static final byte OP_SNAPSHOT = 2;
+    public static final byte OP_ENQUEUE = 3;
+    public static final byte OP_DEQUEUE = 4;
+    public static final byte OP_BATCH_END = 5;
+
+    public static final long HEARTBEAT_MS = 100;
+    public static final long RECONNECT_MS = 500;
+    public static final long DEFAULT_ACK_TIMEOUT_MS = 1000;
+    // An ASYNC primary holds a batch smaller than BATCH_BYTES for up to ASYNC_LINGER_MS
+    public static final int BATCH_BYTES = 64 * 1024;
+    public static final long ASYNC_LINGER_MS = 5;
+    // A backup this far behind is dropped and resynchronized from snapshots on reconnect
+    public static final int MAX_PENDING_BYTES = 64 << 20;
+
+    // When a primary answers a client that changed a queue
+    public enum AckMode {
+        ASYNC, // Right away; the change reaches the backup with the next batch
+        SYNC   // Once the backup has applied the change (or could not within the ack timeout)
+    }
+
+    private Replication() {
+    }
+
+    // Returns the length of the record starting at the buffer's position, or 0 if more bytes
+    // are needed to tell. Does not move the position.
+    public static int recordLength(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            return 0;
+        }
+        int start = in.position();
+        switch (in.get(start)) {
+            case OP_ENQUEUE:
+                return 9;
+            case OP_DEQUEUE:
+                return 5;
+            case OP_BATCH_END:
+                return 9;
+            case OP_CREATE:
+                if (in.remaining() < 7) {
+                    return 0;
+                }
+                return 7 + (in.getShort(start + 5) & 0xFFFF) + 5;
+            case OP_SNAPSHOT:
+                if (in.remaining() < 9) {
+                    return 0;
+                }
+                return 9 + 4 * in.getInt(start + 5);
+            default:
+                throw new IOException("Unknown replication record " + in.get(start));
+        }
+    }
+}
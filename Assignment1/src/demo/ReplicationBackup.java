@@ -0,0 +1,277 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Receives a primary's stream (see Replication) on the replication port and applies it to
+// this server's registry. The registry stays read-only for clients until the backup is
+// promoted, either by a PROMOTE command or, with an auto-promote timeout, once a primary
+// that was streaming has sent nothing (not even a heartbeat) for that long.
+//
+// After promotion the replication port is closed, so a former primary that comes back
+// cannot overwrite the queues this server now owns.
+public class ReplicationBackup implements Runnable {
+    private final QueueRegistry registry;
+    private final ServerSocket serverSocket;
+    private final long autoPromoteMs; // 0 = manual promotion only
+    private volatile Socket primary;
+    private volatile long applied;
+    private long dropped; // Items that did not fit into a smaller queue on this side
+    private final int[] scratch = new int[1024]; // Destination of the items a batch takes
+    private Thread receiver;
+
+    // Constructor for a backup listening on replicationPort (0 picks a free port)
+    public ReplicationBackup(QueueRegistry registry, int replicationPort, long autoPromoteMs) throws IOException {
+        this.registry = registry;
+        this.serverSocket = new ServerSocket(replicationPort);
+        this.autoPromoteMs = autoPromoteMs;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Sequence number of the last batch applied from the current primary
+    public long getApplied() {
+        return applied;
+    }
+
+    public void start() {
+        registry.setBackup(this);
+        receiver = new Thread(this, "replication-backup");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    // Makes this server the primary; called by the registry for PROMOTE
+    public void promote() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        Socket current = primary;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean streamed = false;
+        try {
+            while (registry.isReadOnly()) {
+                // Once a primary was seen, its absence counts towards auto-promotion
+                serverSocket.setSoTimeout(streamed ? (int) autoPromoteMs : 0);
+                try (Socket socket = serverSocket.accept()) {
+                    primary = socket;
+                    if (autoPromoteMs > 0) {
+                        socket.setSoTimeout((int) autoPromoteMs);
+                    }
+                    streamed = true;
+                    System.out.println("Primary connected from " + socket.getRemoteSocketAddress());
+                    receive(socket);
+                } catch (SocketTimeoutException e) {
+                    if (autoPromoteMs > 0 && registry.isReadOnly()) {
+                        System.out.println("No word from the primary for " + autoPromoteMs + " ms, taking over");
+                        registry.promote();
+                    }
+                } catch (IOException e) {
+                    if (registry.isReadOnly()) {
+                        System.err.println("Replication stream lost: " + e.getMessage());
+                    }
+                } finally {
+                    primary = null;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Replication port failed: " + e.getMessage());
+        }
+    }
+
+    // Applies records until the stream ends, fails, or this server is promoted. A batch's
+    // records are folded into each queue's net change (items taken from the head, items
+    // added at the tail) and applied at BATCH_END with one pollUpTo and one offerAll, so a
+    // batch costs the backup a few lock acquisitions per queue rather than one per record.
+    private void receive(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        buffer.flip();
+        ByteBuffer ack = ByteBuffer.allocate(8);
+        // Queue ids are only valid for one connection; records for a queue not created on
+        // this connection yet are superseded by the snapshot that follows them
+        Map<Integer, Replica> replicas = new HashMap<>();
+        List<Replica> changed = new ArrayList<>();
+
+        if (!fill(in, buffer, 4) || buffer.getInt() != Replication.MAGIC) {
+            throw new IOException("Not a replication stream");
+        }
+        while (registry.isReadOnly()) {
+            int length = Replication.recordLength(buffer);
+            if (length == 0 || buffer.remaining() < length) {
+                if (length > buffer.capacity()) {
+                    // A snapshot larger than the buffer
+                    ByteBuffer larger = ByteBuffer.allocate(length);
+                    larger.put(buffer).flip();
+                    buffer = larger;
+                }
+                if (!fill(in, buffer, Math.max(length, buffer.remaining() + 1))) {
+                    throw new EOFException("Primary closed the stream");
+                }
+                continue;
+            }
+            byte op = buffer.get();
+            if (op == Replication.OP_BATCH_END) {
+                for (Replica replica : changed) {
+                    replica.apply();
+                }
+                changed.clear();
+                applied = buffer.getLong();
+                ack.clear();
+                out.write(ack.putLong(applied).array());
+                out.flush();
+                continue;
+            }
+            int id = buffer.getInt();
+            Replica replica = replicas.get(id);
+            switch (op) {
+                case Replication.OP_CREATE: {
+                    byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(name);
+                    int capacity = buffer.getInt();
+                    boolean dynamic = buffer.get() != 0;
+                    if (replica == null) {
+                        replica = new Replica(registry.getOrCreate(new String(name, StandardCharsets.UTF_8), capacity, dynamic));
+                        replicas.put(id, replica);
+                    }
+                    break;
+                }
+                case Replication.OP_SNAPSHOT: {
+                    int count = buffer.getInt();
+                    if (replica == null) {
+                        buffer.position(buffer.position() + 4 * count);
+                        break;
+                    }
+                    replica.clear();
+                    for (int i = 0; i < count; i++) {
+                        replica.add(buffer.getInt());
+                    }
+                    break;
+                }
+                case Replication.OP_ENQUEUE: {
+                    int item = buffer.getInt();
+                    if (replica != null) {
+                        replica.add(item);
+                    }
+                    break;
+                }
+                default: // OP_DEQUEUE
+                    if (replica != null) {
+                        replica.remove();
+                    }
+            }
+            if (replica != null && !replica.changed) {
+                replica.changed = true;
+                changed.add(replica);
+            }
+        }
+    }
+
+    // Reads until the buffer holds at least the given number of unread bytes; false at end of stream
+    private static boolean fill(InputStream in, ByteBuffer buffer, int bytes) throws IOException {
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    return false;
+                }
+                buffer.position(buffer.position() + read);
+            }
+            return true;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    // One queue on this side and its change in the current batch. Only the receiver thread
+    // changes a backup's queues, so it can track their sizes itself.
+    private class Replica {
+        final NamedQueue queue;
+        int size;        // Items in the queue before this batch
+        int removed;     // Of those, how many the batch took
+        boolean cleared; // A snapshot replaces the queue's items
+        int[] added = new int[64];
+        int addedHead;   // Items before this one were added and taken again in this batch
+        int addedTail;
+        boolean changed;
+
+        Replica(NamedQueue queue) {
+            this.queue = queue;
+            this.size = queue.size();
+        }
+
+        void clear() {
+            cleared = true;
+            removed = size;
+            addedHead = addedTail = 0;
+        }
+
+        void add(int item) {
+            if (addedTail == added.length) {
+                added = Arrays.copyOf(added, added.length * 2);
+            }
+            added[addedTail++] = item;
+        }
+
+        void remove() {
+            if (removed < size) {
+                removed++;
+            } else if (addedHead < addedTail) {
+                addedHead++;
+            }
+        }
+
+        void apply() {
+            if (cleared) {
+                while (queue.poll() != null) {
+                    // Drop the items the snapshot replaces
+                }
+            } else {
+                int remaining = removed;
+                while (remaining > 0) {
+                    int count = queue.pollUpTo(scratch, 0, Math.min(remaining, scratch.length));
+                    if (count == 0) {
+                        break;
+                    }
+                    remaining -= count;
+                }
+            }
+            int count = addedTail - addedHead;
+            int put = count > 0 ? queue.offerAll(added, addedHead, count) : 0;
+            if (put < count && dropped++ == 0) {
+                System.err.println("Backup queue " + queue.getName() + " is smaller than the primary's, dropping items");
+            }
+            size = (cleared ? 0 : size - removed) + put;
+            removed = 0;
+            addedHead = addedTail = 0;
+            cleared = false;
+            changed = false;
+        }
+    }
+}
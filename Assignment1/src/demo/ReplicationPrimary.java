@@ -0,0 +1,302 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ships every change of a registry's queues to a backup QueueServer (see Replication).
+//
+// Each queue gets a change listener that encodes the change into an in-memory log while the
+// queue's lock is still held, which keeps each queue's records in the order it changed at
+// the cost of a few bytes copied per operation. A single shipper thread sends whatever has
+// collected in the log as one batch and waits for the backup's ack before sending the next,
+// so batches grow by themselves under load and the queues never wait for the network. In
+// ASYNC mode a batch may also linger for a moment to collect more records.
+//
+// In SYNC mode a connection handler calls awaitReplicated() before it writes its replies,
+// which holds them until the backup has applied everything logged so far; pipelined
+// commands share one wait. While no backup is connected the listeners are removed and the
+// queues run as fast as without replication.
+public class ReplicationPrimary implements Runnable {
+    private final QueueRegistry registry;
+    private final String backupHost;
+    private final int backupPort;
+    private final Replication.AckMode ackMode;
+    private final long ackTimeoutMs;
+
+    private final ConcurrentHashMap<String, Integer> queueIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextQueueId = new AtomicInteger();
+
+    // Log of records not sent yet, and the buffer being sent; guarded by "this"
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer shipping = ByteBuffer.allocate(64 * 1024);
+    private boolean shipperWaiting;
+    private boolean overflowed;
+    private volatile boolean connected;
+    private volatile long appended; // Records logged since the current connection started
+    private volatile long acked;    // Records the backup has applied
+
+    private final Object ackLock = new Object();
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private Thread shipper;
+
+    // Constructor for a primary replicating to host:port with the given ack level
+    public ReplicationPrimary(QueueRegistry registry, String backupHost, int backupPort,
+                              Replication.AckMode ackMode, long ackTimeoutMs) {
+        this.registry = registry;
+        this.backupHost = backupHost;
+        this.backupPort = backupPort;
+        this.ackMode = ackMode;
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    public void start() {
+        registry.setReplication(this);
+        shipper = new Thread(this, "replication-shipper");
+        shipper.setDaemon(true);
+        shipper.start();
+    }
+
+    // Stops shipping and closes the stream; the backup sees the primary go away
+    public void stop() throws InterruptedException {
+        running = false;
+        closeSocket();
+        shipper.interrupt();
+        shipper.join();
+        registry.setReplication(null);
+    }
+
+    public Replication.AckMode getAckMode() {
+        return ackMode;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getAppended() {
+        return appended;
+    }
+
+    public long getAcked() {
+        return acked;
+    }
+
+    // Starts logging a queue's changes; called by the registry for every new queue
+    public void attach(NamedQueue queue) {
+        if (connected) {
+            int id = queueIds.computeIfAbsent(queue.getName(), name -> nextQueueId.incrementAndGet());
+            queue.setChangeListener(new QueueLog(id, queue));
+        }
+    }
+
+    // Waits until the backup has applied everything logged so far (SYNC mode only). Gives
+    // up after the ack timeout, so an unresponsive backup slows clients down but never
+    // stops them; the shipper drops such a backup once its log overflows.
+    public void awaitReplicated() throws InterruptedException {
+        if (ackMode != Replication.AckMode.SYNC || !connected) {
+            return;
+        }
+        long target = appended;
+        if (acked >= target) {
+            return;
+        }
+        long deadline = System.nanoTime() + ackTimeoutMs * 1_000_000L;
+        synchronized (ackLock) {
+            while (connected && acked < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                ackLock.wait(remaining / 1_000_000L + 1);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try (Socket backup = new Socket()) {
+                backup.connect(new InetSocketAddress(backupHost, backupPort));
+                backup.setTcpNoDelay(true);
+                socket = backup;
+                System.out.println("Replicating to backup " + backupHost + ":" + backupPort);
+                ship(backup);
+            } catch (IOException e) {
+                if (connected && running) {
+                    System.err.println("Replication to backup lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                disconnect();
+            }
+            try {
+                Thread.sleep(Replication.RECONNECT_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    // Sends batches over one connection until it fails or the primary stops
+    private void ship(Socket backup) throws IOException, InterruptedException {
+        OutputStream out = backup.getOutputStream();
+        DataInputStream in = new DataInputStream(backup.getInputStream());
+        ByteBuffer header = ByteBuffer.allocate(9);
+        out.write(header.putInt(Replication.MAGIC).array(), 0, 4);
+
+        synchronized (this) {
+            pending.clear();
+            overflowed = false;
+            appended = 0;
+            acked = 0;
+            connected = true;
+        }
+        // Every queue starts with a snapshot; queues created from now on attach themselves
+        for (NamedQueue queue : registry.list()) {
+            attach(queue);
+        }
+
+        while (running) {
+            long sequence;
+            synchronized (this) {
+                if (pending.position() == 0 && !overflowed) {
+                    shipperWaiting = true;
+                    wait(Replication.HEARTBEAT_MS);
+                    shipperWaiting = false;
+                }
+                if (ackMode == Replication.AckMode.ASYNC && pending.position() > 0
+                        && pending.position() < Replication.BATCH_BYTES) {
+                    // Nobody waits for this batch: let it fill up a little
+                    wait(Replication.ASYNC_LINGER_MS);
+                }
+                if (overflowed) {
+                    throw new IOException("Backup fell more than " + Replication.MAX_PENDING_BYTES + " bytes behind");
+                }
+                ByteBuffer batch = pending;
+                pending = shipping;
+                shipping = batch;
+                pending.clear();
+                sequence = appended;
+            }
+            out.write(shipping.array(), 0, shipping.position());
+            header.clear();
+            header.put(Replication.OP_BATCH_END).putLong(sequence);
+            out.write(header.array(), 0, header.position());
+            out.flush();
+
+            long ack = in.readLong();
+            synchronized (ackLock) {
+                acked = ack;
+                ackLock.notifyAll();
+            }
+        }
+    }
+
+    private void disconnect() {
+        socket = null;
+        if (!connected) {
+            return;
+        }
+        connected = false;
+        for (NamedQueue queue : registry.list()) {
+            queue.setChangeListener(null);
+        }
+        synchronized (ackLock) {
+            ackLock.notifyAll();
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    // Makes room for a record of the given size, or marks the log overflowed; caller holds "this"
+    private boolean reserve(int bytes) {
+        if (!connected || overflowed) {
+            return false;
+        }
+        if (pending.remaining() < bytes) {
+            if (pending.position() + bytes > Replication.MAX_PENDING_BYTES) {
+                overflowed = true;
+                notify();
+                return false;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        return true;
+    }
+
+    // Counts a logged record and wakes the shipper if it is idle; caller holds "this"
+    private void logged() {
+        appended++;
+        if (shipperWaiting) {
+            shipperWaiting = false;
+            notify();
+        }
+    }
+
+    // Encodes one queue's changes into the log; runs under the queue's lock
+    private class QueueLog implements QueueChangeListener {
+        private final int id;
+        private final NamedQueue queue;
+
+        QueueLog(int id, NamedQueue queue) {
+            this.id = id;
+            this.queue = queue;
+        }
+
+        @Override
+        public void onSnapshot(int[] items) {
+            byte[] name = queue.getName().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            synchronized (ReplicationPrimary.this) {
+                if (!reserve(1 + 4 + 2 + name.length + 4 + 1 + 1 + 4 + 4 + 4 * items.length)) {
+                    return;
+                }
+                pending.put(Replication.OP_CREATE).putInt(id)
+                       .putShort((short) name.length).put(name)
+                       .putInt(queue.getInitialCapacity()).put((byte) (queue.isDynamic() ? 1 : 0));
+                pending.put(Replication.OP_SNAPSHOT).putInt(id).putInt(items.length);
+                for (int item : items) {
+                    pending.putInt(item);
+                }
+                logged();
+            }
+        }
+
+        @Override
+        public void onEnqueue(int item) {
+            synchronized (ReplicationPrimary.this) {
+                if (reserve(9)) {
+                    pending.put(Replication.OP_ENQUEUE).putInt(id).putInt(item);
+                    logged();
+                }
+            }
+        }
+
+        @Override
+        public void onDequeue() {
+            synchronized (ReplicationPrimary.this) {
+                if (reserve(5)) {
+                    pending.put(Replication.OP_DEQUEUE).putInt(id);
+                    logged();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Serves one shared-memory ring (RING command) for the thread-per-connection servers: moves
+// the items a SharedMemoryProducer publishes into the queue, in batches of up to
+// MAX_BATCH items under one queue lock. The connection that sent RING carries nothing but
+// doorbell bytes from then on, and its end detaches the ring once the items left in it
+// are in the queue.
+//
+// While items keep coming the handler thread polls the ring and a handoff costs no system
+// call. After SPIN_NANOS without an item it sets the ring's sleeping flag and blocks
+// reading the connection until the producer rings. A full queue blocks the thread in
+// putAll like a PUTN, whatever the backpressure mode; the ring then fills up and the
+// producer waits for room, which is the ring's backpressure.
+public class RingSession {
+    public static final int MAX_BATCH = BatchCommands.MAX_BATCH;
+    // Polling needs a core of its own; with a single one it only delays the producer
+    static final long SPIN_NANOS = Runtime.getRuntime().availableProcessors() > 1 ? 50_000 : 0;
+
+    private final SharedMemoryRing ring;
+    private final InputStream doorbell;
+    private final NamedQueue queue;
+    private final ServerStats.Connection stats;
+    private final int[] batch = new int[MAX_BATCH];
+    private final byte[] rings = new byte[64];
+
+    // Constructor for a session on the connection's input stream, after the RING reply was sent
+    public RingSession(SharedMemoryRing ring, InputStream doorbell, NamedQueue queue, ServerStats.Connection stats) {
+        this.ring = ring;
+        this.doorbell = doorbell;
+        this.queue = queue;
+        this.stats = stats;
+    }
+
+    // Maps the ring file named by RING's argument, which must be an absolute path
+    public static SharedMemoryRing open(String args) throws IOException {
+        Path path = args == null ? null : Paths.get(args.trim());
+        if (path == null || !path.isAbsolute()) {
+            throw new IllegalArgumentException("Usage: RING [<queue>] <absolute path of the ring file>");
+        }
+        return SharedMemoryRing.open(path);
+    }
+
+    // Moves items into the queue until the connection ends
+    public void run() throws IOException, InterruptedException {
+        long idleSince = 0;
+        while (true) {
+            if (drain() > 0) {
+                idleSince = 0;
+                continue;
+            }
+            long now = System.nanoTime();
+            if (idleSince == 0) {
+                idleSince = now;
+            }
+            if (now - idleSince < SPIN_NANOS) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            ring.setConsumerSleeping(true);
+            if (ring.hasItems()) {
+                // Published before the flag was visible, so no doorbell is coming for it
+                ring.setConsumerSleeping(false);
+                continue;
+            }
+            int read = doorbell.read(rings);
+            ring.setConsumerSleeping(false);
+            idleSince = 0;
+            if (read < 0) {
+                // The producer is gone; keep what it published before leaving
+                while (drain() > 0) {
+                    // Until the ring is empty
+                }
+                return;
+            }
+        }
+    }
+
+    // Moves one batch into the queue; returns its size
+    private int drain() throws InterruptedException {
+        int count = ring.peek(batch, batch.length);
+        if (count == 0) {
+            return 0;
+        }
+        int added = queue.offerAll(batch, 0, count);
+        if (added < count) {
+            long blockedAt = System.nanoTime();
+            queue.putAll(batch, added, count - added);
+            stats.blockedPut(System.nanoTime() - blockedAt);
+        }
+        ring.release(count);
+        return count;
+    }
+}
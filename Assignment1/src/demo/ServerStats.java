@@ -0,0 +1,323 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters behind the STATS command, one set per server process (held by its QueueRegistry)
+// and shared by all connections, whatever the protocol or mode.
+//
+// Recording never takes a lock and never touches a queue's lock: counts are LongAdders,
+// which stripe their cells so that connections on different cores do not fight over one
+// cache line, and times go into lock-free LatencyHistograms. Queue resizes are counted by
+// the dynamic queues themselves and read without their lock. Only STATS, which is rare,
+// synchronizes, to work out the rates since the previous STATS.
+//
+// Reply, on one line:
+//   OK uptime_ms=.. interval_ms=.. connections=.. connections_total=.. connections_queued=..
+//      connections_rejected=.. connections_shed=.. bytes_in=.. bytes_out=..
+//      blocked_puts=<count>,<totalMs>,<p99Us>,<maxUs> blocked_takes=<same> rejected_puts=..
+//      delayed=.. expired=.. grows=.. shrinks=..
+//      conn_commands=.. conn_bytes_in=.. conn_bytes_out=..
+//      <COMMAND>=<count>,<perSecond>,<p50Us>,<p99Us>,<p99.9Us>,<maxUs> ..
+// The conn_ fields are the asking connection's own; per-second rates cover interval_ms, the
+// time since the previous STATS. Commands that were never used are left out. rejected_puts
+// counts PUTs and PUTNs answered FULL by a server in reject mode (not TRYPUTs). The
+// connections_ counters beyond the total come from --max-connections (see HandlerPool):
+// connections waiting for a handler now, and those turned away or closed to make room.
+// delayed is the number of PUTDELAY items waiting in the DelayScheduler, expired the number
+// of items all queues dropped because their TTL ran out.
+public class ServerStats {
+    // Text commands, then the binary operations that have no text equivalent
+    private static final String[] COMMANDS = {
+        "PUT", "PUTN", "TRYPUT", "PUTDELAY", "TAKE", "TAKEN", "TRYTAKE", "SIZE", "STATUS", "TTL", "STATS", "SNAPSHOT", "SUBSCRIBE",
+        "CREDIT", "UNSUBSCRIBE", "RING", "CREATE", "QUEUES", "ROLE", "PROMOTE", "RATE", "QUIT",
+        "PUT_BATCH", "TAKE_BATCH"
+    };
+    // Unknown commands share one entry, so clients cannot grow the map
+    public static final String OTHER = "OTHER";
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, CommandStats> commands = new HashMap<>(); // Not changed after construction
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram blockedPuts = new LatencyHistogram();
+    private final LatencyHistogram blockedTakes = new LatencyHistogram();
+    private final LongAdder rejectedPuts = new LongAdder();
+    private final LongAdder connectionsQueued = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder connectionsShed = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private long lastStatsNanos = startNanos; // Guarded by this
+
+    // Service times of one command
+    private static final class CommandStats {
+        final String name;
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+        long countAtLastStats; // Guarded by the ServerStats
+
+        CommandStats(String name) {
+            this.name = name;
+        }
+    }
+
+    public ServerStats() {
+        for (String command : COMMANDS) {
+            commands.put(command, new CommandStats(command));
+        }
+        commands.put(OTHER, new CommandStats(OTHER));
+    }
+
+    // Counts a new connection; call close() on the result when it ends
+    public Connection open() {
+        connectionsOpened.increment();
+        return new Connection();
+    }
+
+    // A connection waits for a free handler (--max-connections with the queue policy)
+    public void connectionQueued() {
+        connectionsQueued.increment();
+    }
+
+    // A waiting connection got its handler
+    public void connectionDequeued() {
+        connectionsQueued.decrement();
+    }
+
+    // A connection beyond the limit was answered "ERROR Server busy" and closed
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    // An idle connection was closed to make room for a new one
+    public void connectionShed() {
+        connectionsShed.increment();
+    }
+
+    // An item was scheduled by PUTDELAY
+    public void delayScheduled() {
+        delayed.increment();
+    }
+
+    // Delayed items went into their queue
+    public void delayDelivered(int count) {
+        delayed.add(-count);
+    }
+
+    public long getDelayedItems() {
+        return delayed.sum();
+    }
+
+    public long getQueuedConnections() {
+        return connectionsQueued.sum();
+    }
+
+    public long getRejectedConnections() {
+        return connectionsRejected.sum();
+    }
+
+    public long getShedConnections() {
+        return connectionsShed.sum();
+    }
+
+    public long getCommandCount(String command) {
+        return commandStats(command).serviceTime.getCount();
+    }
+
+    public LatencyHistogram getServiceTime(String command) {
+        return commandStats(command).serviceTime;
+    }
+
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public LatencyHistogram getBlockedPuts() {
+        return blockedPuts;
+    }
+
+    public LatencyHistogram getBlockedTakes() {
+        return blockedTakes;
+    }
+
+    public long getRejectedPuts() {
+        return rejectedPuts.sum();
+    }
+
+    private CommandStats commandStats(String command) {
+        CommandStats stats = commands.get(command);
+        return stats != null ? stats : commands.get(OTHER);
+    }
+
+    // Reply to STATS from the given connection
+    public String statsResponse(QueueRegistry registry, Connection conn) {
+        long grows = 0;
+        long shrinks = 0;
+        long expired = 0;
+        for (NamedQueue queue : registry.list()) {
+            grows += queue.getGrowCount();
+            shrinks += queue.getShrinkCount();
+            expired += queue.getExpiredCount();
+        }
+        StringBuilder response = new StringBuilder(512);
+        synchronized (this) {
+            long now = System.nanoTime();
+            long intervalNanos = Math.max(1, now - lastStatsNanos);
+            lastStatsNanos = now;
+            response.append("OK uptime_ms=").append((now - startNanos) / 1_000_000)
+                    .append(" interval_ms=").append(intervalNanos / 1_000_000)
+                    .append(" connections=").append(getActiveConnections())
+                    .append(" connections_total=").append(connectionsOpened.sum())
+                    .append(" connections_queued=").append(connectionsQueued.sum())
+                    .append(" connections_rejected=").append(connectionsRejected.sum())
+                    .append(" connections_shed=").append(connectionsShed.sum())
+                    .append(" bytes_in=").append(bytesIn.sum())
+                    .append(" bytes_out=").append(bytesOut.sum());
+            appendBlocked(response, "blocked_puts", blockedPuts);
+            appendBlocked(response, "blocked_takes", blockedTakes);
+            response.append(" rejected_puts=").append(rejectedPuts.sum());
+            response.append(" delayed=").append(delayed.sum());
+            response.append(" expired=").append(expired);
+            response.append(" grows=").append(grows).append(" shrinks=").append(shrinks);
+            if (conn != null) {
+                response.append(" conn_commands=").append(conn.commands)
+                        .append(" conn_bytes_in=").append(conn.bytesIn)
+                        .append(" conn_bytes_out=").append(conn.bytesOut);
+            }
+            for (String command : COMMANDS) {
+                appendCommand(response, commands.get(command), intervalNanos);
+            }
+            appendCommand(response, commands.get(OTHER), intervalNanos);
+        }
+        return response.toString();
+    }
+
+    private static void appendBlocked(StringBuilder response, String name, LatencyHistogram histogram) {
+        response.append(' ').append(name).append('=').append(histogram.getCount())
+                .append(',').append((long) (histogram.getMean() * histogram.getCount() / 1_000_000))
+                .append(',').append(histogram.getValueAtPercentile(99) / 1000)
+                .append(',').append(histogram.getMax() / 1000);
+    }
+
+    // Called with this locked
+    private static void appendCommand(StringBuilder response, CommandStats stats, long intervalNanos) {
+        LatencyHistogram histogram = stats.serviceTime;
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+        double perSecond = (count - stats.countAtLastStats) * 1e9 / intervalNanos;
+        stats.countAtLastStats = count;
+        response.append(' ').append(stats.name).append('=').append(count)
+                .append(',').append(Math.round(perSecond))
+                .append(',').append(histogram.getValueAtPercentile(50) / 1000)
+                .append(',').append(histogram.getValueAtPercentile(99) / 1000)
+                .append(',').append(histogram.getValueAtPercentile(99.9) / 1000)
+                .append(',').append(histogram.getMax() / 1000);
+    }
+
+    // One connection's own counters, next to the server-wide ones they also feed. Only the
+    // connection's handler thread or event loop updates them; replies that a subscription
+    // thread writes go through the handler's locked writer, so updates never overlap.
+    public final class Connection {
+        private volatile long commands;
+        private volatile long bytesIn;
+        private volatile long bytesOut;
+        private boolean closed;
+
+        // Records a command and the time from reading it to having its reply ready
+        public void command(String name, long nanos) {
+            commandStats(name).serviceTime.recordValue(nanos);
+            commands++;
+        }
+
+        // Time a PUT, PUTN or PUT_BATCH waited for room in a full queue
+        public void blockedPut(long nanos) {
+            blockedPuts.recordValue(nanos);
+        }
+
+        // Time a TAKE, TAKEN or TAKE_BATCH waited for an item
+        public void blockedTake(long nanos) {
+            blockedTakes.recordValue(nanos);
+        }
+
+        // A PUT or PUTN turned away with FULL because the queue was full
+        public void rejectedPut() {
+            rejectedPuts.increment();
+        }
+
+        public void bytesIn(long count) {
+            bytesIn += count;
+            ServerStats.this.bytesIn.add(count);
+        }
+
+        public void bytesOut(long count) {
+            bytesOut += count;
+            ServerStats.this.bytesOut.add(count);
+        }
+
+        public long getCommands() {
+            return commands;
+        }
+
+        public void close() {
+            if (!closed) {
+                closed = true;
+                connectionsClosed.increment();
+            }
+        }
+
+        // Counts the bytes read from a socket stream
+        public InputStream countIn(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesIn(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        bytesIn(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        // Counts the bytes written to a socket stream
+        public OutputStream countOut(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytesOut(1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                    bytesOut(length);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+// Producer for a QueueServer or DynamicQueueServer (thread-per-connection mode) on the same
+// host that puts items through a SharedMemoryRing instead of the socket. It creates the ring
+// file, connects (TCP or unix:<path>) and sends RING [<queue>] <file>; from then on put() is a
+// store into shared memory, and the connection only carries a doorbell byte when the
+// server's ring thread has gone to sleep. A put completes once the item is in the ring, not
+// in the queue: there is no reply, so use awaitDrained() to know the queue has everything.
+//
+// Not thread-safe: the ring has a single producer, use one SharedMemoryProducer per thread.
+public class SharedMemoryProducer implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    // How long close() waits for the server to move the items left in the ring
+    public static final long CLOSE_WAIT_MS = 1000;
+    private static final int SPINS_BEFORE_PARKING = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final SharedMemoryRing ring;
+    private final StreamConnection connection;
+    private final OutputStream doorbell;
+    private volatile boolean serverGone;
+    private long doorbells;
+
+    // Creates the ring file with the given capacity (a power of two) and hands it to the
+    // server for the queue (null for its default queue)
+    public SharedMemoryProducer(String host, int port, String queueName, Path ringFile, int capacity) throws IOException {
+        if (queueName != null && !QueueRegistry.looksLikeName(queueName)) {
+            throw new IllegalArgumentException("Invalid queue name " + queueName);
+        }
+        Path path = ringFile.toAbsolutePath();
+        this.ring = SharedMemoryRing.create(path, capacity);
+        StreamConnection connection = null;
+        try {
+            connection = StreamConnection.connect(host, port);
+            OutputStream out = connection.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            out.write(("RING " + (queueName == null ? "" : queueName + " ") + path + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            String reply = in.readLine();
+            if (reply == null || !reply.startsWith("OK")) {
+                throw new IOException("Server refused the ring: " + reply);
+            }
+            // Nothing else arrives on the connection; its end means the server is gone
+            Thread watcher = new Thread(() -> {
+                try {
+                    while (in.read() >= 0) {
+                        // Not expected
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+                serverGone = true;
+            }, "ring-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+            this.connection = connection;
+            this.doorbell = out;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    // Adds the item, waiting while the ring is full
+    public void put(int item) throws IOException, InterruptedException {
+        checkServer();
+        int spins = 0;
+        while (!ring.offer(item)) {
+            spins = waitForRoom(spins);
+        }
+        ringIfSleeping();
+    }
+
+    // Adds the item if the ring has room; returns false if it is full
+    public boolean offer(int item) throws IOException {
+        checkServer();
+        if (!ring.offer(item)) {
+            return false;
+        }
+        ringIfSleeping();
+        return true;
+    }
+
+    // Adds the items in order, publishing as many at a time as there is room for
+    public void putAll(int[] items, int offset, int count) throws IOException, InterruptedException {
+        checkServer();
+        int spins = 0;
+        while (count > 0) {
+            int added = ring.offerAll(items, offset, count);
+            if (added > 0) {
+                ringIfSleeping();
+                offset += added;
+                count -= added;
+                spins = 0;
+            } else {
+                spins = waitForRoom(spins);
+            }
+        }
+    }
+
+    // Waits until the server has moved every item put so far into the queue; returns false
+    // on timeout
+    public boolean awaitDrained(long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        int spins = 0;
+        while (ring.size() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            spins = waitForRoom(spins);
+        }
+        return true;
+    }
+
+    // Items in the ring that the server has not moved yet
+    public int pending() {
+        return ring.size();
+    }
+
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+
+    // Times put() had to wake the server's ring thread
+    public long getDoorbells() {
+        return doorbells;
+    }
+
+    // Gives the server a moment to move what is left, then disconnects and removes the file
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitDrained(CLOSE_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The server is gone, there is nobody to wait for
+        }
+        connection.close();
+        Files.deleteIfExists(ring.getPath());
+    }
+
+    private void ringIfSleeping() throws IOException {
+        if (ring.isConsumerSleeping()) {
+            doorbell.write(1);
+            doorbells++;
+        }
+    }
+
+    // Spins briefly, then parks for a short while; fails if the server went away
+    private int waitForRoom(int spins) throws IOException, InterruptedException {
+        checkServer();
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (spins < SPINS_BEFORE_PARKING) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return spins + 1;
+    }
+
+    private void checkServer() throws IOException {
+        if (serverGone) {
+            throw new IOException("Server closed the ring connection");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Single-producer, single-consumer ring of int items in a memory-mapped file, shared by a
+// client process (the producer, see SharedMemoryProducer) and a server on the same host (the
+// consumer, see RingSession). Handing an item over is a store into the mapped page and a
+// store of the tail index; the consumer sees it without any system call.
+//
+// Each side only ever writes its own index: the producer the tail, the consumer the head.
+// Both are ever-growing longs, so tail - head is the number of items in the ring. A slot is
+// written before the tail is published (a release store) and read after it was loaded (an
+// acquire load); the head is published only once the items were moved into the queue, so
+// a full ring holds back the producer like a full queue.
+//
+// A consumer with nothing to do for a while sets the sleeping flag and waits for a doorbell
+// byte on its connection. The producer checks the flag after every publish: both use
+// volatile accesses, so either the consumer sees the new tail or the producer sees the flag.
+//
+// File layout, in the host's byte order (the file never leaves the host):
+//   [int32 MAGIC][int32 VERSION][int32 capacity] ... tail at 64 ... head at 128,
+//   sleeping flag at 136 ... capacity x int32 slots from HEADER_SIZE
+// The indices sit on cache lines of their own, so the two sides do not slow each other down.
+public class SharedMemoryRing {
+    public static final int MAGIC = 0x51524E47; // "QRNG"
+    public static final int VERSION = 1;
+    public static final int MAX_CAPACITY = 1 << 24;
+    static final int HEADER_SIZE = 192;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int TAIL_OFFSET = 64;
+    private static final int HEAD_OFFSET = 128;
+    private static final int SLEEPING_OFFSET = 136;
+
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    // Each side's cached copy of the other side's index, refreshed only when it seems to
+    // have run out, so most calls touch no shared cache line besides the slots
+    private long cachedHead; // Producer side
+    private long cachedTail; // Consumer side
+
+    private SharedMemoryRing(Path path, MappedByteBuffer buffer, int capacity) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    // Creates (or overwrites) the ring file for a producer; capacity must be a power of two
+    public static SharedMemoryRing create(Path path, int capacity) throws IOException {
+        if (capacity < 2 || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two between 2 and " + MAX_CAPACITY);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 4L * capacity);
+            INT.set(buffer, CAPACITY_OFFSET, capacity);
+            INT.set(buffer, 4, VERSION);
+            // The magic number last: a consumer that sees it sees a complete header
+            INT.setVolatile(buffer, 0, MAGIC);
+            return new SharedMemoryRing(path, buffer, capacity);
+        }
+    }
+
+    // Maps an existing ring file for the consumer; fails on anything that is not a ring
+    public static SharedMemoryRing open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(path + " is not a ring file");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int capacity = (int) INT.get(buffer, CAPACITY_OFFSET);
+            if ((int) INT.getVolatile(buffer, 0) != MAGIC || (int) INT.get(buffer, 4) != VERSION
+                    || capacity < 2 || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1
+                    || size != HEADER_SIZE + 4L * capacity) {
+                throw new IOException(path + " is not a ring file");
+            }
+            SharedMemoryRing ring = new SharedMemoryRing(path, buffer, capacity);
+            ring.cachedTail = ring.head();
+            return ring;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Items published and not yet released by the consumer
+    public int size() {
+        return (int) ((long) LONG.getVolatile(buffer, TAIL_OFFSET) - head());
+    }
+
+    private long head() {
+        return (long) LONG.getAcquire(buffer, HEAD_OFFSET);
+    }
+
+    // Producer: adds the item if there is room; returns false if the ring is full
+    public boolean offer(int item) {
+        long tail = (long) LONG.get(buffer, TAIL_OFFSET);
+        if (tail - cachedHead == capacity) {
+            cachedHead = head();
+            if (tail - cachedHead == capacity) {
+                return false;
+            }
+        }
+        INT.set(buffer, slot(tail), item);
+        LONG.setVolatile(buffer, TAIL_OFFSET, tail + 1);
+        return true;
+    }
+
+    // Producer: adds as many of the items as there is room for, published together; returns
+    // the number added
+    public int offerAll(int[] items, int offset, int count) {
+        long tail = (long) LONG.get(buffer, TAIL_OFFSET);
+        if (capacity - (tail - cachedHead) < count) {
+            cachedHead = head();
+        }
+        int added = (int) Math.min(count, capacity - (tail - cachedHead));
+        for (int i = 0; i < added; i++) {
+            INT.set(buffer, slot(tail + i), items[offset + i]);
+        }
+        if (added > 0) {
+            LONG.setVolatile(buffer, TAIL_OFFSET, tail + added);
+        }
+        return added;
+    }
+
+    // Producer: true if the consumer waits for a doorbell (read after publishing)
+    public boolean isConsumerSleeping() {
+        return (int) INT.getVolatile(buffer, SLEEPING_OFFSET) != 0;
+    }
+
+    // Consumer: copies up to max published items into dest without releasing them; returns
+    // the number copied
+    public int peek(int[] dest, int max) {
+        long head = (long) LONG.get(buffer, HEAD_OFFSET);
+        if (cachedTail == head) {
+            cachedTail = (long) LONG.getAcquire(buffer, TAIL_OFFSET);
+            if (cachedTail - head < 0 || cachedTail - head > capacity) {
+                // The other process wrote past its own index
+                throw new IllegalStateException("Ring " + path + " is corrupt");
+            }
+        }
+        int count = (int) Math.min(max, cachedTail - head);
+        for (int i = 0; i < count; i++) {
+            dest[i] = (int) INT.get(buffer, slot(head + i));
+        }
+        return count;
+    }
+
+    // Consumer: frees the slots of the first count items for the producer
+    public void release(int count) {
+        LONG.setRelease(buffer, HEAD_OFFSET, (long) LONG.get(buffer, HEAD_OFFSET) + count);
+    }
+
+    // Consumer: announces a wait for the doorbell (or its end); check for items after setting it
+    public void setConsumerSleeping(boolean sleeping) {
+        INT.setVolatile(buffer, SLEEPING_OFFSET, sleeping ? 1 : 0);
+    }
+
+    // Consumer: true if items were published since the last peek found none
+    public boolean hasItems() {
+        return (long) LONG.getVolatile(buffer, TAIL_OFFSET) != (long) LONG.get(buffer, HEAD_OFFSET);
+    }
+
+    private int slot(long index) {
+        return HEADER_SIZE + 4 * (int) (index & mask);
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Binary snapshots of all queues of a server (the --snapshot option), taken every intervalMs
+// on a background thread, on SNAPSHOT and at shutdown, and read back when the server starts.
+// Instead of logging every change, a restarted server comes back with the queues as they were
+// at the last snapshot.
+//
+// Taking a snapshot copies each queue's items under its lock (QueueEngine.toArray()); that
+// copy, one queue at a time, is the only pause producers and consumers see. Each queue is
+// captured consistently on its own, not all queues at one instant. The copies are then
+// encoded and written sequentially to <path>.tmp, forced to disk and renamed over <path>, so
+// a crash while writing leaves the previous snapshot in place. Periodic snapshots are skipped
+// while no queue has changed.
+//
+// Restoring maps the file into memory, checks its CRC and copies each queue's items out with
+// one bulk read, so a queue of a million items restores in milliseconds.
+//
+// Expiry is not saved: QueueEngine.toArray() copies items without their deadlines and the
+// format has no field for a queue's TTL. A restore therefore resets expiry, and restored items
+// take the TTL of the queue they go into (the registry's default TTL), counted from the restore.
+//
+// File format, in network byte order:
+//   [int32 MAGIC][int32 VERSION][int64 taken at, epoch ms][int32 queue count]
+//   per queue: [UTF name][int32 capacity][bool dynamic][int32 count][count x int32 item]
+//   [int64 CRC32 of all bytes before it]
+public class Snapshotter implements AutoCloseable {
+    public static final int MAGIC = 0x51534E50; // "QSNP"
+    public static final int VERSION = 1;
+    public static final long DEFAULT_INTERVAL_MS = 60_000;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    private final QueueRegistry registry;
+    private final Path path;
+    private final Path tempPath;
+    private final long intervalMs;
+    private final ScheduledExecutorService thread;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE); // Guarded by this
+    private long changesAtLastSnapshot = -1; // Guarded by this
+    private volatile Result last;
+
+    // What one snapshot or restore covered
+    public static final class Result {
+        private final int queues;
+        private final long items;
+        private final long bytes;
+        private final long pauseNanos;
+        private final long totalNanos;
+
+        Result(int queues, long items, long bytes, long pauseNanos, long totalNanos) {
+            this.queues = queues;
+            this.items = items;
+            this.bytes = bytes;
+            this.pauseNanos = pauseNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        public int getQueues() {
+            return queues;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        // Longest time one queue was locked for its copy (0 for a restore)
+        public long getPauseNanos() {
+            return pauseNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return items + " items in " + queues + " queues, " + bytes + " bytes, " +
+                   (totalNanos / 1_000_000) + " ms";
+        }
+    }
+
+    // Constructor for snapshots of the registry's queues to path every intervalMs (0 for
+    // SNAPSHOT and close() only); start() begins the periodic ones
+    public Snapshotter(QueueRegistry registry, Path path, long intervalMs) {
+        this.registry = registry;
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.intervalMs = intervalMs;
+        this.thread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "queue-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        if (intervalMs > 0) {
+            thread.scheduleWithFixedDelay(this::periodicSnapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // The most recent snapshot, or null if none was taken yet
+    public Result getLastSnapshot() {
+        return last;
+    }
+
+    // Takes a snapshot on the snapshot thread, for callers that must not block (NioQueueServer)
+    public CompletableFuture<Result> request() {
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        try {
+            thread.execute(() -> {
+                try {
+                    result.complete(snapshot());
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Closed
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    // SNAPSHOT  ->  OK <queues> <items> <bytes> <longest pause us> <total ms>
+    public static String response(Result result, Throwable error) {
+        if (error != null) {
+            return "ERROR Snapshot failed: " + error.getMessage();
+        }
+        return "OK " + result.queues + " " + result.items + " " + result.bytes + " " +
+               (result.pauseNanos / 1000) + " " + (result.totalNanos / 1_000_000);
+    }
+
+    // Stops the periodic snapshots and takes a last one
+    @Override
+    public void close() {
+        thread.shutdown();
+        try {
+            thread.awaitTermination(10, TimeUnit.SECONDS);
+            snapshot();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
+
+    private void periodicSnapshot() {
+        try {
+            if (changes() != changesAtLastSnapshot()) {
+                snapshot();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
+
+    private synchronized long changesAtLastSnapshot() {
+        return changesAtLastSnapshot;
+    }
+
+    // Grows with every put, take and new queue, so equal values mean nothing changed
+    private long changes() {
+        long changes = registry.count();
+        for (NamedQueue queue : registry.list()) {
+            changes += queue.getItemsPut() + queue.getItemsTaken();
+        }
+        return changes;
+    }
+
+    // Copies every queue, then writes the copies out
+    public synchronized Result snapshot() throws IOException {
+        long started = System.nanoTime();
+        long changes = changes();
+        List<NamedQueue> queues = registry.list();
+        List<int[]> contents = new ArrayList<>(queues.size());
+        long longestPause = 0;
+        long items = 0;
+        for (NamedQueue queue : queues) {
+            long copyStarted = System.nanoTime();
+            int[] copy = queue.toArray();
+            longestPause = Math.max(longestPause, System.nanoTime() - copyStarted);
+            contents.add(copy);
+            items += copy.length;
+        }
+
+        CRC32 crc = new CRC32();
+        long bytes = 0;
+        try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = writeBuffer;
+            buffer.clear();
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(queues.size());
+            for (int i = 0; i < queues.size(); i++) {
+                NamedQueue queue = queues.get(i);
+                int[] copy = contents.get(i);
+                byte[] name = queue.getName().getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 2 + name.length + 4 + 1 + 4) {
+                    bytes += drain(out, buffer, crc);
+                }
+                buffer.putShort((short) name.length).put(name)
+                      .putInt(queue.getInitialCapacity()).put((byte) (queue.isDynamic() ? 1 : 0))
+                      .putInt(copy.length);
+                int from = 0;
+                while (from < copy.length) {
+                    if (buffer.remaining() < 4) {
+                        bytes += drain(out, buffer, crc);
+                    }
+                    int count = Math.min(copy.length - from, buffer.remaining() / 4);
+                    buffer.asIntBuffer().put(copy, from, count);
+                    buffer.position(buffer.position() + 4 * count);
+                    from += count;
+                }
+            }
+            if (buffer.remaining() < 8) {
+                bytes += drain(out, buffer, crc);
+            }
+            // The CRC covers everything up to here, including what is still in the buffer
+            ByteBuffer tail = buffer.duplicate();
+            tail.flip();
+            crc.update(tail);
+            buffer.putLong(crc.getValue());
+            buffer.flip();
+            bytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        changesAtLastSnapshot = changes;
+        last = new Result(queues.size(), items, bytes, longestPause, System.nanoTime() - started);
+        return last;
+    }
+
+    // Writes the buffer's contents and folds them into the CRC; returns the bytes written
+    private static int drain(FileChannel out, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        int written = buffer.remaining();
+        crc.update(buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    // Loads a snapshot into the registry: the default queue gets the default queue's items,
+    // every other queue is created as recorded unless it exists. Items start their queue's
+    // TTL afresh, as the snapshot holds no deadlines. Items that do not fit a
+    // fixed-size queue are dropped with a warning. Fails on a file that is not a complete
+    // snapshot, rather than starting with queues that are silently empty.
+    public static Result restore(QueueRegistry registry, Path path) throws IOException {
+        long started = System.nanoTime();
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < 4 + 4 + 8 + 4 + 8 || size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a queue snapshot");
+            }
+            MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int contentEnd = (int) size - 8;
+            CRC32 crc = new CRC32();
+            crc.update(map.duplicate().limit(contentEnd));
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw new IOException(path + " is not a queue snapshot");
+            }
+            if (map.getLong(contentEnd) != crc.getValue()) {
+                throw new IOException("Snapshot " + path + " is damaged (checksum mismatch)");
+            }
+
+            map.position(16);
+            int queueCount = map.getInt();
+            long items = 0;
+            for (int q = 0; q < queueCount; q++) {
+                byte[] nameBytes = new byte[map.getShort()];
+                map.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+                int capacity = map.getInt();
+                boolean dynamic = map.get() != 0;
+                int count = map.getInt();
+                if (count < 0 || count > (contentEnd - map.position()) / 4) {
+                    throw new IOException("Snapshot " + path + " is damaged (queue " + name + ")");
+                }
+                int[] contents = new int[count];
+                IntBuffer view = map.asIntBuffer();
+                view.get(contents);
+                map.position(map.position() + 4 * count);
+
+                NamedQueue queue = name.equals(QueueRegistry.DEFAULT_QUEUE)
+                        ? registry.getDefaultQueue()
+                        : registry.getOrCreate(name, capacity, dynamic);
+                int added = queue.offerAll(contents, 0, count);
+                if (added < count) {
+                    System.err.println("Queue " + name + " is smaller than in the snapshot, dropped " + (count - added) + " items");
+                }
+                items += added;
+            }
+            return new Result(queueCount, items, size, 0, System.nanoTime() - started);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// One connected byte stream, over TCP (a java.net.Socket) or a Unix domain socket (a
+// blocking SocketChannel, the only form in which the JDK offers them). The thread-per-
+// connection servers and QueueClient work with either through this class, so both
+// transports behave the same.
+//
+// Unix domain sockets skip the loopback TCP stack (no checksums, segmentation, ACKs or
+// Nagle), which makes them the cheaper choice for producers and consumers on the server's
+// host. Their streams read and write the channel directly: the JDK's Channels.newInputStream
+// and newOutputStream lock the channel for every call, so a thread blocked in a read would
+// hold up another thread's writes, such as a Subscription's pusher.
+public abstract class StreamConnection implements Closeable {
+    // Prefix of a host name that stands for a Unix domain socket, as in "unix:/tmp/queue.sock"
+    public static final String UNIX_PREFIX = "unix:";
+
+    public abstract InputStream getInputStream() throws IOException;
+
+    public abstract OutputStream getOutputStream() throws IOException;
+
+    // The peer's IP address, or null for a Unix domain socket
+    public abstract String getRemoteHost();
+
+    public static StreamConnection of(Socket socket) {
+        return new TcpConnection(socket);
+    }
+
+    public static StreamConnection of(SocketChannel channel) {
+        return new UnixConnection(channel);
+    }
+
+    // Connects to host:port over TCP, or to the socket file of a "unix:<path>" host
+    public static StreamConnection connect(String host, int port) throws IOException {
+        if (isUnix(host)) {
+            return connect(unixPath(host));
+        }
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        return new TcpConnection(socket);
+    }
+
+    // A missing socket file fails like a refused TCP connection, with a ConnectException
+    public static StreamConnection connect(Path socketFile) throws IOException {
+        try {
+            return new UnixConnection(SocketChannel.open(UnixDomainSocketAddress.of(socketFile)));
+        } catch (ConnectException e) {
+            throw e;
+        } catch (SocketException e) {
+            throw new ConnectException(socketFile + ": " + e.getMessage());
+        }
+    }
+
+    public static boolean isUnix(String host) {
+        return host.startsWith(UNIX_PREFIX);
+    }
+
+    public static Path unixPath(String host) {
+        return Path.of(host.substring(UNIX_PREFIX.length()));
+    }
+
+    // Listens on a Unix domain socket file, replacing the file a previous server left behind
+    public static ServerSocketChannel listenUnix(Path socketFile) throws IOException {
+        Files.deleteIfExists(socketFile);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(socketFile));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    // Stops listening and removes the socket file
+    public static void closeUnix(ServerSocketChannel channel, Path socketFile) {
+        try {
+            channel.close();
+            Files.deleteIfExists(socketFile);
+        } catch (IOException e) {
+            System.err.println("Error closing " + socketFile + ": " + e.getMessage());
+        }
+    }
+
+    private static final class TcpConnection extends StreamConnection {
+        private final Socket socket;
+
+        TcpConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public String getRemoteHost() {
+            return socket.getInetAddress().getHostAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // A blocking SocketChannel, which reads and writes under separate locks of its own
+    private static final class UnixConnection extends StreamConnection {
+        private final SocketChannel channel;
+        private final InputStream in;
+        private final OutputStream out;
+
+        UnixConnection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = new InputStream() {
+                private final byte[] one = new byte[1];
+
+                @Override
+                public int read() throws IOException {
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    return channel.read(ByteBuffer.wrap(buffer, offset, length));
+                }
+            };
+            this.out = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, offset, length);
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public String getRemoteHost() {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
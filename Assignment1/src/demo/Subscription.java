@@ -0,0 +1,113 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A SUBSCRIBE stream on a thread-per-connection server:
+//
+//   SUBSCRIBE [<queue>] [n]  ->  OK <n>, then one "ITEM <value>" line per item as items arrive
+//   CREDIT n                 ->  no reply; allows n more items and acknowledges up to n sent ones
+//   UNSUBSCRIBE              ->  OK <items sent>; no ITEM lines follow it
+//
+// The server never sends more items than the client granted credits for, so a slow
+// consumer is never flooded, and a consumer that returns credit before it runs out keeps
+// receiving without waiting for a round trip. Items sent but not yet credited back are
+// reported as in flight in STATUS.
+//
+// A pusher thread takes items from the queue while the connection's own thread keeps
+// reading CREDIT and UNSUBSCRIBE. Pushers of several subscribers wait on the same queue
+// condition, which wakes them in arrival order, so items are shared out fairly.
+public class Subscription implements Runnable {
+    public static final int DEFAULT_CREDITS = 1;
+    public static final int MAX_CREDITS = 1 << 20; // Limit on unused credit per subscriber
+
+    private final NamedQueue queue;
+    private final TextReply out;
+    private final Semaphore credits = new Semaphore(0);
+    private final AtomicLong unacknowledged = new AtomicLong();
+    private volatile boolean cancelled;
+    private long delivered; // Written by the pusher, read after it stopped
+    private Thread pusher;
+
+    // Constructor for a subscription that writes ITEM lines to out; TextReply makes each
+    // println atomic, so the connection's thread may keep writing its own replies
+    public Subscription(NamedQueue queue, TextReply out) {
+        this.queue = queue;
+        this.out = out;
+    }
+
+    // Parses the credit argument of SUBSCRIBE or CREDIT
+    public static int parseCredits(String args, int defaultCredits) {
+        if (args == null) {
+            if (defaultCredits > 0) {
+                return defaultCredits;
+            }
+            throw new IllegalArgumentException("Missing credit count");
+        }
+        int credits = Integer.parseInt(args.trim());
+        if (credits < 1 || credits > MAX_CREDITS) {
+            throw new IllegalArgumentException("Credits must be between 1 and " + MAX_CREDITS);
+        }
+        return credits;
+    }
+
+    // Starts pushing with the initial credits, on a virtual thread if requested
+    public void start(int initialCredits, boolean virtual) {
+        queue.onSubscribe();
+        credits.release(initialCredits);
+        if (virtual) {
+            pusher = VirtualThreads.start(this);
+        } else {
+            pusher = new Thread(this, "subscription-" + queue.getName());
+            pusher.setDaemon(true);
+            pusher.start();
+        }
+    }
+
+    // Handles CREDIT n
+    public void credit(int n) {
+        // Acknowledge up to n of the items sent so far
+        long acknowledged;
+        long current;
+        do {
+            current = unacknowledged.get();
+            acknowledged = Math.min(current, n);
+        } while (!unacknowledged.compareAndSet(current, current - acknowledged));
+        queue.onAcknowledged(acknowledged);
+
+        credits.release(Math.min(n, Math.max(0, MAX_CREDITS - credits.availablePermits())));
+    }
+
+    // Stops the pusher; returns the number of items sent. Every item taken from the queue
+    // has been written by the time this returns.
+    public long cancel() throws InterruptedException {
+        cancelled = true;
+        pusher.interrupt();
+        pusher.join();
+        queue.onUnsubscribe(unacknowledged.getAndSet(0));
+        return delivered;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!cancelled) {
+                credits.acquire();
+                Integer item = queue.poll();
+                if (item == null) {
+                    // About to wait: let the client see what was sent so far
+                    out.flush();
+                    item = queue.take();
+                }
+                // Once taken, an item is always sent, even if the subscription was just cancelled
+                out.println("ITEM ", item);
+                delivered++;
+                unacknowledged.incrementAndGet();
+                queue.onDelivered();
+                if (credits.availablePermits() == 0 || queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Cancelled
+        }
+    }
+}
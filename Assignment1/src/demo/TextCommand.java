@@ -0,0 +1,78 @@
+// One line of the text protocol, split into its parts:
+//
+//   <COMMAND> [<queue>] [<args>]
+//
+// Commands that work on a queue take an optional queue name before their arguments;
+// without one they use the default queue, so clients written before named queues keep
+// working. Names start with a letter and arguments are numbers, which keeps the two apart:
+// "TAKE 500" waits 500 ms on the default queue, "TAKE orders 500" on the queue "orders".
+public final class TextCommand {
+    public final String command;
+    public final String queueName; // null for the default queue or a command without a queue
+    public final String args;      // Everything after the command and queue name, or null
+
+    private TextCommand(String command, String queueName, String args) {
+        this.command = command;
+        this.queueName = queueName;
+        this.args = args;
+    }
+
+    public static TextCommand parse(String line) {
+        String[] parts = line.split(" ", 2);
+        String command = parts[0];
+        String rest = parts.length > 1 ? parts[1] : null;
+        if (rest == null || !takesQueueName(command)) {
+            return new TextCommand(command, null, rest);
+        }
+        String[] target = rest.split(" ", 2);
+        if (!QueueRegistry.looksLikeName(target[0])) {
+            return new TextCommand(command, null, rest);
+        }
+        return new TextCommand(command, target[0], target.length > 1 ? target[1] : null);
+    }
+
+    // Resolves the queue this command works on, creating a named queue on first use
+    public NamedQueue target(QueueRegistry registry) {
+        return queueName == null ? registry.getDefaultQueue() : registry.get(queueName);
+    }
+
+    // Commands that change a queue, which a backup refuses until it is promoted
+    public boolean changesQueue() {
+        switch (command) {
+            case "PUT":
+            case "TAKE":
+            case "TRYPUT":
+            case "TRYTAKE":
+            case "PUTN":
+            case "PUTDELAY":
+            case "TAKEN":
+            case "CREATE":
+            case "SUBSCRIBE":
+            case "RING":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean takesQueueName(String command) {
+        switch (command) {
+            case "PUT":
+            case "TAKE":
+            case "TRYPUT":
+            case "TRYTAKE":
+            case "PUTN":
+            case "PUTDELAY":
+            case "TAKEN":
+            case "SIZE":
+            case "STATUS":
+            case "TTL":
+            case "CREATE":
+            case "SUBSCRIBE":
+            case "RING":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
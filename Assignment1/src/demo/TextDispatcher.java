@@ -0,0 +1,233 @@
+// Parsing and dispatch of the text protocol, shared by all servers.
+// A line is split into a TextCommand and checked here, in the same order on every server:
+// the queue name, a read-only backup, an active subscription and the PUT rate limit. The
+// arguments are parsed here too, so a malformed command gets the same ERROR reply
+// everywhere, and commands whose reply does not depend on the server (SIZE, STATUS, TTL,
+// STATS, QUEUES, CREATE, ROLE, PROMOTE, RATE) are answered here.
+//
+// What is left to a subclass is how a command that may have to wait does so, and the
+// connection state that goes with it: TextSession blocks the connection's thread, while
+// NioQueueServer parks the command as a continuation on its event loop.
+public abstract class TextDispatcher {
+    protected final QueueRegistry registry;
+    protected final TokenBucketRateLimiter rateLimiter; // PUT limiter of the connection, or null
+    protected final ServerStats.Connection connStats;
+
+    protected TextDispatcher(QueueRegistry registry, TokenBucketRateLimiter rateLimiter, ServerStats.Connection connStats) {
+        this.registry = registry;
+        this.rateLimiter = rateLimiter;
+        this.connStats = connStats;
+    }
+
+    // Executes one command; returns false once the connection has to end (QUIT, or a RING
+    // that takes the connection over). If the command is interrupted while it waits, the
+    // InterruptedException reaches the caller, which answers ERROR Interrupted and ends the
+    // connection.
+    public final boolean execute(TextCommand cmd) throws InterruptedException {
+        String command = cmd.command;
+        NamedQueue queue = null;
+        try {
+            queue = command.equals("CREATE") ? null : cmd.target(registry);
+        } catch (RuntimeException e) {
+            // Invalid queue name or too many queues
+            reply("ERROR " + e.getMessage());
+            return true;
+        }
+        if (registry.isReadOnly() && cmd.changesQueue()) {
+            reply("ERROR Read-only backup, send PROMOTE to take over");
+            return true;
+        }
+        if (isSubscribed() && !command.equals("CREDIT") && !command.equals("UNSUBSCRIBE") && !command.equals("QUIT")) {
+            reply("ERROR Subscribed, send CREDIT, UNSUBSCRIBE or QUIT");
+            return true;
+        }
+        try {
+            return dispatch(cmd, queue);
+        } catch (RuntimeException e) {
+            reply("ERROR " + e.getMessage());
+            return true;
+        }
+    }
+
+    private boolean dispatch(TextCommand cmd, NamedQueue queue) throws InterruptedException {
+        switch (cmd.command) {
+            case "PUT": {
+                // Optional second argument: the item's own TTL in milliseconds
+                int item = ExpirySweeper.parseItem(cmd.args);
+                long ttlMs = ExpirySweeper.parseTtl(cmd.args);
+                throttle(1);
+                if (ttlMs > 0) {
+                    registry.enableExpiry();
+                }
+                put(queue, item, ttlMs);
+                return true;
+            }
+            case "PUTDELAY":
+                putDelayed(queue, cmd.args);
+                return true;
+            case "PUTN": {
+                int[] items = BatchCommands.parsePutN(cmd.args);
+                throttle(items.length);
+                putBatch(queue, items);
+                return true;
+            }
+            case "TRYPUT": {
+                int item = Integer.parseInt(cmd.args);
+                if (rateLimiter != null && !rateLimiter.tryAcquire(1)) {
+                    throw new IllegalStateException("Throttled");
+                }
+                tryPut(queue, item);
+                return true;
+            }
+            case "TAKE": {
+                // Optional argument: give up after this many milliseconds
+                long timeoutMs = cmd.args != null ? Long.parseLong(cmd.args.trim()) : -1;
+                if (cmd.args != null && timeoutMs < 0) {
+                    throw new IllegalArgumentException("Timeout must not be negative");
+                }
+                take(queue, timeoutMs);
+                return true;
+            }
+            case "TAKEN": {
+                int max = BatchCommands.parseTakeN(cmd.args);
+                long timeoutMs = BatchCommands.parseTakeNTimeout(cmd.args);
+                takeBatch(queue, max, timeoutMs);
+                return true;
+            }
+            case "TRYTAKE":
+                tryTake(queue);
+                return true;
+            case "SIZE":
+                reply(queue.sizeResponse());
+                return true;
+            case "STATUS":
+                reply(queue.statusResponse());
+                return true;
+            case "TTL":
+                reply(registry.ttlResponse(queue, cmd.args));
+                return true;
+            case "STATS":
+                reply(registry.getStats().statsResponse(registry, connStats));
+                return true;
+            case "SNAPSHOT":
+                snapshot();
+                return true;
+            case "SUBSCRIBE": {
+                int credits = Subscription.parseCredits(cmd.args, Subscription.DEFAULT_CREDITS);
+                reply("OK " + credits);
+                subscribe(queue, credits);
+                return true;
+            }
+            case "CREDIT":
+                // No reply, so that credit updates never interleave with the ITEM stream
+                if (!isSubscribed()) {
+                    throw new IllegalStateException("Not subscribed");
+                }
+                credit(Subscription.parseCredits(cmd.args, 0));
+                return true;
+            case "UNSUBSCRIBE":
+                if (!isSubscribed()) {
+                    throw new IllegalStateException("Not subscribed");
+                }
+                reply("OK " + unsubscribe());
+                return true;
+            case "RING":
+                if (rateLimiter != null) {
+                    throw new IllegalStateException("RING bypasses PUT rate limits, use PUT");
+                }
+                return ring(queue, cmd.args);
+            case "CREATE":
+                reply(registry.createResponse(cmd));
+                return true;
+            case "QUEUES":
+                reply(registry.queuesResponse());
+                return true;
+            case "ROLE":
+                reply(registry.roleResponse());
+                return true;
+            case "PROMOTE":
+                reply(registry.promoteResponse());
+                return true;
+            case "RATE":
+                // Throttling counters for this connection's limiter
+                if (rateLimiter == null) {
+                    reply("OK unlimited");
+                } else {
+                    reply("OK " + rateLimiter.getPermitsPerSecond() + " " +
+                          rateLimiter.getAcquiredCount() + " " + rateLimiter.getDelayedCount() +
+                          " " + rateLimiter.getRejectedCount());
+                }
+                return true;
+            case "QUIT":
+                if (isSubscribed()) {
+                    // Stop the stream while the connection can still carry its last items
+                    unsubscribe();
+                }
+                reply("OK");
+                return false;
+            default:
+                reply("ERROR Unknown command");
+                return true;
+        }
+    }
+
+    // Takes permits for items that are about to enter a queue, or fails with Throttled
+    private void throttle(int permits) throws InterruptedException {
+        if (rateLimiter != null && !rateLimiter.acquire(permits)) {
+            throw new IllegalStateException("Throttled");
+        }
+    }
+
+    // Sends one reply line
+    protected abstract void reply(String line);
+
+    // PUT of a parsed item, ttlMs 0 for the queue's own TTL: waits while the queue is full
+    // unless the registry rejects
+    protected abstract void put(NamedQueue queue, int item, long ttlMs) throws InterruptedException;
+
+    // PUTN: adds what fits, then waits for room for the rest unless the registry rejects
+    protected abstract void putBatch(NamedQueue queue, int[] items) throws InterruptedException;
+
+    // TAKE with a timeout of timeoutMs: -1 waits without a limit, 0 answers TIMEOUT right away
+    protected abstract void take(NamedQueue queue, long timeoutMs) throws InterruptedException;
+
+    // TAKEN: up to max items once at least one is there, timeoutMs as for take()
+    protected abstract void takeBatch(NamedQueue queue, int max, long timeoutMs) throws InterruptedException;
+
+    protected abstract boolean isSubscribed();
+
+    // Starts a SUBSCRIBE stream with the given credits; its OK has been sent
+    protected abstract void subscribe(NamedQueue queue, int credits);
+
+    // Returns credits to the active subscription
+    protected abstract void credit(int credits);
+
+    // Ends the active subscription; returns the number of items it delivered
+    protected abstract long unsubscribe() throws InterruptedException;
+
+    // Attaches a shared-memory ring; returns false if the connection now belongs to it
+    protected abstract boolean ring(NamedQueue queue, String args) throws InterruptedException;
+
+    // TRYPUT: adds the item only if there is room right now
+    protected void tryPut(NamedQueue queue, int item) {
+        reply(queue.offer(item) ? queue.putResponse() : "FULL");
+    }
+
+    // TRYTAKE: removes an item only if one is there right now
+    protected void tryTake(NamedQueue queue) {
+        Integer item = queue.poll();
+        reply(item != null ? queue.takeResponse(item) : "EMPTY");
+    }
+
+    // PUTDELAY: hands the item to the registry's timing wheel
+    protected void putDelayed(NamedQueue queue, String args) throws InterruptedException {
+        throttle(1);
+        registry.getDelays().schedule(queue, args);
+        reply("OK");
+    }
+
+    // SNAPSHOT: writes the snapshot on the calling thread
+    protected void snapshot() {
+        reply(registry.snapshotResponse());
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Reads text-protocol lines into a reused byte array, for the thread-per-connection servers.
+// Where BufferedReader.readLine() makes a String per line, this keeps the current line in its
+// buffer and lets the caller match the command and parse numbers in place; lineString() makes
+// the String only for commands that need one.
+//
+// Lines end at "\n", "\r" or "\r\n", as with BufferedReader, and are decoded as UTF-8. A line
+// longer than the buffer makes the buffer grow.
+public final class TextLineReader {
+    private final InputStream in;
+    private byte[] buffer;
+    private int start;     // Start of the current line
+    private int lineEnd;   // End of the current line, without its terminator
+    private int next;      // Start of the unread bytes
+    private int end;       // End of the bytes read from the stream
+    private boolean skipLF; // The last line ended with '\r'; a '\n' right after it belongs to it
+    private long parsedValue;
+
+    public TextLineReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    // Advances to the next line; returns false at the end of the stream
+    public boolean readLine() throws IOException {
+        while (true) {
+            if (skipLF && next < end) {
+                if (buffer[next] == '\n') {
+                    next++;
+                }
+                skipLF = false;
+            }
+            for (int i = next; i < end; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    start = next;
+                    lineEnd = i;
+                    next = i + 1;
+                    skipLF = b == '\r';
+                    return true;
+                }
+            }
+            if (!fill()) {
+                if (next == end) {
+                    return false;
+                }
+                // Last line without a terminator
+                start = next;
+                lineEnd = end;
+                next = end;
+                return true;
+            }
+        }
+    }
+
+    // Reads more bytes, first moving the unread ones to the front; returns false at end of stream
+    private boolean fill() throws IOException {
+        if (next > 0) {
+            System.arraycopy(buffer, next, buffer, 0, end - next);
+            end -= next;
+            next = 0;
+        }
+        if (end == buffer.length) {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, bigger, 0, end);
+            buffer = bigger;
+        }
+        int n = in.read(buffer, end, buffer.length - end);
+        if (n < 0) {
+            return false;
+        }
+        end += n;
+        return true;
+    }
+
+    // True if more input can be read without blocking, like BufferedReader.ready()
+    public boolean ready() throws IOException {
+        int unread = end - next;
+        if (skipLF && unread > 0 && buffer[next] == '\n') {
+            unread--;
+        }
+        return unread > 0 || in.available() > 0;
+    }
+
+    // ---- The current line ----
+
+    public int length() {
+        return lineEnd - start;
+    }
+
+    // Byte at the given index of the current line
+    public byte byteAt(int index) {
+        return buffer[start + index];
+    }
+
+    // The current line as a String
+    public String lineString() {
+        return new String(buffer, start, lineEnd - start, StandardCharsets.UTF_8);
+    }
+
+    // The given part of the current line as a String
+    public String substring(int from, int to) {
+        return new String(buffer, start + from, to - from, StandardCharsets.UTF_8);
+    }
+
+    // Index of the space that ends the token starting at from, or length() for the last token
+    public int tokenEnd(int from) {
+        int i = from;
+        while (i < length() && buffer[start + i] != ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    // True if the line's bytes from..to are exactly the given ASCII text
+    public boolean regionEquals(int from, int to, String ascii) {
+        if (to - from != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer[start + from + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True if the line's bytes from..to are exactly the given bytes
+    public boolean regionEquals(int from, int to, byte[] bytes) {
+        if (to - from != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer[start + from + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parses the bytes from..to as a decimal number of at most 18 digits, so it cannot
+    // overflow; callers check narrower ranges themselves. Returns false if the bytes are not
+    // such a number, leaving the error reply to the caller's general path. The value is read
+    // with parsedValue().
+    public boolean parseNumber(int from, int to) {
+        boolean negative = from < to && buffer[start + from] == '-';
+        int digitsFrom = negative ? from + 1 : from;
+        if (digitsFrom == to || to - digitsFrom > 18) {
+            return false;
+        }
+        long value = 0;
+        for (int i = digitsFrom; i < to; i++) {
+            byte b = buffer[start + i];
+            if (b < '0' || b > '9') {
+                return false;
+            }
+            value = value * 10 + (b - '0');
+        }
+        parsedValue = negative ? -value : value;
+        return true;
+    }
+
+    public long parsedValue() {
+        return parsedValue;
+    }
+}
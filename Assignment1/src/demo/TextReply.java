@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Output buffer for the text protocol of the thread-per-connection servers, used where a
+// PrintWriter used to be. Numbers are written as ASCII digits straight into a byte array.
+// The array starts small, so idle connections stay cheap, grows while pipelined replies pile
+// up, and once at its maximum size is written to the socket whenever it fills up; after
+// that, building a reply allocates nothing, however long it is.
+//
+// Like PrintWriter, every method locks the reply, which lets a Subscription's pusher write
+// whole lines with println() while the connection's own thread answers CREDIT, UNSUBSCRIBE
+// and QUIT. Replies built from several appends are not atomic, so the connection's thread
+// only builds them while no subscription is active. Also like PrintWriter, writes never
+// throw: a failed write discards the buffer and is reported by checkError(), and the
+// connection ends on its next read.
+public final class TextReply implements AutoCloseable {
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final int MAX_DIGITS = 20; // Long.MIN_VALUE with its sign
+
+    private final OutputStream out;
+    private final int maxSize;
+    private byte[] buffer;
+    private int length;
+    private boolean error;
+
+    // Constructor for a reply buffer on out that starts at initialSize bytes and grows up to maxSize
+    public TextReply(OutputStream out, int initialSize, int maxSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(initialSize, MAX_DIGITS)];
+        this.maxSize = Math.max(maxSize, buffer.length);
+    }
+
+    // Appends a string; ASCII text, which all replies but some error messages are, is copied
+    // without encoding it first, anything else is encoded as UTF-8
+    public synchronized TextReply append(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return append(text.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int from = 0;
+        while (from < text.length()) {
+            if (length == buffer.length) {
+                makeRoom(1);
+            }
+            int count = Math.min(text.length() - from, buffer.length - length);
+            for (int i = 0; i < count; i++) {
+                buffer[length++] = (byte) text.charAt(from + i);
+            }
+            from += count;
+        }
+        return this;
+    }
+
+    private TextReply append(byte[] bytes) {
+        int from = 0;
+        while (from < bytes.length) {
+            if (length == buffer.length) {
+                makeRoom(1);
+            }
+            int count = Math.min(bytes.length - from, buffer.length - length);
+            System.arraycopy(bytes, from, buffer, length, count);
+            length += count;
+            from += count;
+        }
+        return this;
+    }
+
+    public synchronized TextReply append(char c) {
+        if (length == buffer.length) {
+            makeRoom(1);
+        }
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    // Appends the decimal digits of value without going through a String
+    public synchronized TextReply append(long value) {
+        if (buffer.length - length < MAX_DIGITS) {
+            makeRoom(MAX_DIGITS);
+        }
+        // Works on the negative value, which also covers Long.MIN_VALUE
+        long rest = value;
+        if (value < 0) {
+            buffer[length++] = '-';
+        } else {
+            rest = -value;
+        }
+        int digits = 1;
+        for (long t = rest; t <= -10; t /= 10) {
+            digits++;
+        }
+        int pos = length + digits;
+        length = pos;
+        do {
+            buffer[--pos] = (byte) ('0' - (rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        return this;
+    }
+
+    public synchronized TextReply append(boolean value) {
+        return append(value ? TRUE : FALSE);
+    }
+
+    // Ends the current line
+    public synchronized void newLine() {
+        append('\n');
+    }
+
+    // Appends a whole line at once
+    public synchronized void println(String line) {
+        append(line);
+        append('\n');
+    }
+
+    // Appends a whole line of the form "<prefix><value>", such as "ITEM 42"
+    public synchronized void println(String prefix, long value) {
+        append(prefix);
+        append(value);
+        append('\n');
+    }
+
+    // Sends everything appended so far
+    public synchronized void flush() {
+        drain();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    // Sends what is left; the stream itself is closed by its owner
+    @Override
+    public void close() {
+        flush();
+    }
+
+    // True once a write has failed
+    public synchronized boolean checkError() {
+        return error;
+    }
+
+    // Number of bytes appended but not yet sent
+    public synchronized int pending() {
+        return length;
+    }
+
+    // Grows the buffer, or once it has reached maxSize writes it out, to fit needed more bytes
+    private void makeRoom(int needed) {
+        if (buffer.length < maxSize) {
+            byte[] bigger = new byte[Math.min(Math.max(buffer.length * 2, length + needed), maxSize)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+        if (buffer.length - length < needed) {
+            drain();
+        }
+    }
+
+    // Writes the buffer to the stream without flushing it
+    private void drain() {
+        if (length == 0) {
+            return;
+        }
+        if (!error) {
+            try {
+                out.write(buffer, 0, length);
+            } catch (IOException e) {
+                error = true;
+            }
+        }
+        length = 0;
+    }
+}
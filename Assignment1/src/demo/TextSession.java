@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+// Serves the text protocol of one connection for the thread-per-connection servers.
+// TextDispatcher parses and checks each command; this session holds the connection's
+// thread whenever a command has to wait, so a PUT on a full queue or a TAKE on an empty one
+// blocks in the queue itself. Before it blocks, the replies of earlier pipelined commands
+// are sent, in SYNC replication mode once the backup has applied them.
+public class TextSession extends TextDispatcher {
+    private final InputStream input;
+    private final TextReply out;
+    private final boolean virtualThreads;
+    private Subscription subscription; // Active SUBSCRIBE stream, if any
+    private SharedMemoryRing ring;     // Ring attached by RING, run by runRing()
+    private NamedQueue ringQueue;
+
+    // Constructor for a session replying into out; input is the connection's stream, which a
+    // RING takes over, and virtualThreads picks the thread type of SUBSCRIBE streams
+    public TextSession(InputStream input, TextReply out, QueueRegistry registry, TokenBucketRateLimiter rateLimiter,
+                       ServerStats.Connection connStats, boolean virtualThreads) {
+        super(registry, rateLimiter, connStats);
+        this.input = input;
+        this.out = out;
+        this.virtualThreads = virtualThreads;
+    }
+
+    // Writes the buffered replies; in sync replication mode only once the backup has
+    // applied the changes they report
+    public void flush() throws InterruptedException {
+        ReplicationPrimary replication = registry.getReplication();
+        if (replication != null) {
+            replication.awaitReplicated();
+        }
+        out.flush();
+    }
+
+    @Override
+    protected void reply(String line) {
+        out.println(line);
+    }
+
+    @Override
+    protected void put(NamedQueue queue, int item, long ttlMs) throws InterruptedException {
+        if (ttlMs > 0 ? queue.offerWithTtl(item, ttlMs) : queue.offer(item)) {
+            reply(queue.putResponse());
+        } else if (registry.rejectsWhenFull()) {
+            reply(queue.fullResponse());
+            connStats.rejectedPut();
+        } else {
+            // About to block: send the replies of earlier pipelined commands first
+            flush();
+            long blockedAt = System.nanoTime();
+            if (ttlMs > 0) {
+                queue.putWithTtl(item, ttlMs);
+            } else {
+                queue.put(item);
+            }
+            connStats.blockedPut(System.nanoTime() - blockedAt);
+            reply(queue.putResponse());
+        }
+    }
+
+    // A dynamic queue grows for the whole batch at once instead of blocking
+    @Override
+    protected void putBatch(NamedQueue queue, int[] items) throws InterruptedException {
+        int added = queue.offerAll(items, 0, items.length);
+        if (added == items.length) {
+            reply(queue.putResponse());
+        } else if (registry.rejectsWhenFull()) {
+            // The items that fit stay in; the client sends the rest again
+            reply(queue.fullResponse(items.length, added));
+            connStats.rejectedPut();
+        } else {
+            flush();
+            long blockedAt = System.nanoTime();
+            queue.putAll(items, added, items.length - added);
+            connStats.blockedPut(System.nanoTime() - blockedAt);
+            reply(queue.putResponse());
+        }
+    }
+
+    @Override
+    protected void take(NamedQueue queue, long timeoutMs) throws InterruptedException {
+        Integer item = queue.poll();
+        if (item == null && timeoutMs != 0) {
+            flush();
+            long blockedAt = System.nanoTime();
+            item = timeoutMs < 0 ? queue.take() : queue.poll(timeoutMs);
+            connStats.blockedTake(System.nanoTime() - blockedAt);
+        }
+        reply(item != null ? queue.takeResponse(item) : "TIMEOUT");
+    }
+
+    @Override
+    protected void takeBatch(NamedQueue queue, int max, long timeoutMs) throws InterruptedException {
+        int[] items = new int[max];
+        int count = queue.pollUpTo(items, 0, max);
+        if (count == 0 && timeoutMs < 0) {
+            flush();
+            long blockedAt = System.nanoTime();
+            count = queue.takeUpTo(items, 0, max);
+            connStats.blockedTake(System.nanoTime() - blockedAt);
+        } else if (count == 0 && timeoutMs > 0) {
+            // Wait for the first item, then take whatever else is there
+            flush();
+            long blockedAt = System.nanoTime();
+            Integer first = queue.poll(timeoutMs);
+            connStats.blockedTake(System.nanoTime() - blockedAt);
+            if (first != null) {
+                items[0] = first;
+                count = 1 + queue.pollUpTo(items, 1, max - 1);
+            }
+        }
+        reply(count > 0 ? queue.takeNResponse(items, count) : "TIMEOUT");
+    }
+
+    @Override
+    public boolean isSubscribed() {
+        return subscription != null;
+    }
+
+    // The stream's own thread pushes the items, sharing out with this one
+    @Override
+    protected void subscribe(NamedQueue queue, int credits) {
+        subscription = new Subscription(queue, out);
+        subscription.start(credits, virtualThreads);
+    }
+
+    @Override
+    protected void credit(int credits) {
+        subscription.credit(credits);
+    }
+
+    @Override
+    protected long unsubscribe() throws InterruptedException {
+        long delivered = subscription.cancel();
+        subscription = null;
+        return delivered;
+    }
+
+    // Opens the ring and answers with its capacity; runRing() then serves it
+    @Override
+    protected boolean ring(NamedQueue queue, String args) {
+        try {
+            ring = RingSession.open(args);
+        } catch (IOException e) {
+            reply("ERROR " + e.getMessage());
+            return true;
+        }
+        ringQueue = queue;
+        reply("OK " + ring.getCapacity());
+        return false;
+    }
+
+    // Makes the connection the doorbell of the ring a RING command attached, until the
+    // producer disconnects; does nothing without one
+    public void runRing() throws IOException {
+        if (ring == null) {
+            return;
+        }
+        try {
+            flush();
+            new RingSession(ring, input, ringQueue, connStats).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            System.err.println("Ring detached: " + e.getMessage());
+        }
+    }
+
+    // Stops the subscription, if any, as the connection closes
+    public void close() {
+        if (subscription != null) {
+            try {
+                subscription.cancel();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            subscription = null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+// Hierarchical timing wheel of int items, each due at a tick and carrying an int tag (the
+// DelayScheduler's queue index). Adding an item and expiring it are O(1) however many are
+// pending, where a priority queue would pay log n for each.
+//
+// LEVELS wheels of SLOTS slots each; level l covers ticks SLOTS^l apart, so the wheels
+// together cover 2^42 ticks (139 years of 1 ms ticks) from tick 0. An item goes to the level
+// of the highest 6-bit digit in which its tick differs from the current one, in the slot of
+// that digit. When the current tick reaches a slot of a higher level, its items move down
+// (cascade) to the level of their next differing digit; on level 0 they are due. An item is
+// moved at most LEVELS - 1 times.
+//
+// Items live in parallel primitive arrays linked into per-slot FIFO lists, so pending items
+// cost no objects: 20 bytes each, with freed entries reused. Each level keeps a bitmap of
+// its occupied slots, which lets advanceTo() jump straight to the next tick with work to do
+// instead of stepping through empty ones.
+//
+// Not thread-safe; DelayScheduler guards it with its lock.
+public class TimingWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    static final int LEVELS = 7;
+    public static final long MAX_TICK = (1L << (BITS * LEVELS)) - 1;
+    private static final int NONE = -1;
+    private static final int INITIAL_ENTRIES = 1024;
+
+    // Receives due items in tick order, in the order they were added within a tick
+    public interface Expiry {
+        void expired(int item, int tag);
+    }
+
+    private long now;
+    private int size;
+    private final long[] occupied = new long[LEVELS];     // Bit per non-empty slot
+    private final int[] heads = new int[LEVELS * SLOTS];  // First entry of each slot, or NONE
+    private final int[] tails = new int[LEVELS * SLOTS];  // Last entry of each slot
+    // Entries
+    private long[] deadlines = new long[INITIAL_ENTRIES];
+    private int[] items = new int[INITIAL_ENTRIES];
+    private int[] tags = new int[INITIAL_ENTRIES];
+    private int[] next = new int[INITIAL_ENTRIES];        // Next in the slot, or in the free list
+    private int freeList = NONE;
+    private int used;                                     // Entries ever handed out
+
+    // Constructor for a wheel whose current tick is 0
+    public TimingWheel() {
+        Arrays.fill(heads, NONE);
+    }
+
+    public long getNow() {
+        return now;
+    }
+
+    // Pending items
+    public int size() {
+        return size;
+    }
+
+    // Adds an item due at the given tick, which must lie after the current one
+    public void add(long tick, int item, int tag) {
+        if (tick <= now || tick > MAX_TICK) {
+            throw new IllegalArgumentException("Tick " + tick + " is not between " + (now + 1) + " and " + MAX_TICK);
+        }
+        int entry = allocate();
+        deadlines[entry] = tick;
+        items[entry] = item;
+        tags[entry] = tag;
+        link(entry);
+        size++;
+    }
+
+    // The next tick at which an item is due or has to move down a level (no later than its
+    // due tick), or -1 if nothing is pending
+    public long nextEventTick() {
+        long earliest = -1;
+        for (int level = 0; level < LEVELS; level++) {
+            if (occupied[level] == 0) {
+                continue;
+            }
+            int shift = BITS * level;
+            int current = (int) (now >>> shift) & MASK;
+            // Occupied slots always lie after the current one within the level's window
+            long ahead = occupied[level] & (-2L << current);
+            if (ahead == 0) {
+                continue;
+            }
+            long window = (now >>> (shift + BITS)) << (shift + BITS);
+            long tick = window | ((long) Long.numberOfTrailingZeros(ahead) << shift);
+            if (earliest < 0 || tick < earliest) {
+                earliest = tick;
+            }
+        }
+        return earliest;
+    }
+
+    // Moves the current tick forward to the given one, handing every item due by then to the
+    // expiry in order of due tick
+    public void advanceTo(long tick, Expiry expiry) {
+        if (tick > MAX_TICK) {
+            throw new IllegalArgumentException("Tick " + tick + " is beyond " + MAX_TICK);
+        }
+        while (now < tick) {
+            long event = nextEventTick();
+            if (event < 0 || event > tick) {
+                now = tick;
+                return;
+            }
+            now = event;
+            // Higher levels first, so their items can land in this very tick's level-0 slot
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = BITS * level;
+                if ((now & ((1L << shift) - 1)) == 0) {
+                    cascade(level * SLOTS + ((int) (now >>> shift) & MASK));
+                }
+            }
+            expire((int) now & MASK, expiry);
+        }
+    }
+
+    private void cascade(int slot) {
+        int entry = detach(slot);
+        while (entry != NONE) {
+            int following = next[entry];
+            link(entry);
+            entry = following;
+        }
+    }
+
+    private void expire(int slot, Expiry expiry) {
+        int entry = detach(slot);
+        while (entry != NONE) {
+            int following = next[entry];
+            size--;
+            int item = items[entry];
+            int tag = tags[entry];
+            next[entry] = freeList;
+            freeList = entry;
+            expiry.expired(item, tag);
+            entry = following;
+        }
+    }
+
+    // Empties the slot; returns its first entry
+    private int detach(int slot) {
+        int entry = heads[slot];
+        if (entry != NONE) {
+            heads[slot] = NONE;
+            occupied[slot / SLOTS] &= ~(1L << (slot % SLOTS));
+        }
+        return entry;
+    }
+
+    // Appends the entry to the slot for its deadline, relative to the current tick
+    private void link(int entry) {
+        long deadline = deadlines[entry];
+        int slot;
+        if (deadline <= now) {
+            // Due now; only a cascade at this tick gets here, before the tick's expiry
+            slot = (int) now & MASK;
+        } else {
+            int level = (63 - Long.numberOfLeadingZeros(deadline ^ now)) / BITS;
+            slot = level * SLOTS + ((int) (deadline >>> (BITS * level)) & MASK);
+        }
+        next[entry] = NONE;
+        if (heads[slot] == NONE) {
+            heads[slot] = entry;
+            occupied[slot / SLOTS] |= 1L << (slot % SLOTS);
+        } else {
+            next[tails[slot]] = entry;
+        }
+        tails[slot] = entry;
+    }
+
+    private int allocate() {
+        if (freeList != NONE) {
+            int entry = freeList;
+            freeList = next[entry];
+            return entry;
+        }
+        if (used == items.length) {
+            int capacity = items.length * 2;
+            deadlines = Arrays.copyOf(deadlines, capacity);
+            items = Arrays.copyOf(items, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        return used++;
+    }
+}
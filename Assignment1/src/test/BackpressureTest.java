@@ -0,0 +1,233 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Tests for --backpressure reject: FULL <retryAfterMs> replies on every server, the retry
+// estimate behind them, and QueueClient retrying what was turned away
+public class BackpressureTest {
+
+    // Starts a thread-per-connection QueueServer, or DynamicQueueServer for a dynamic queue
+    private static ServerSocket startServer(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        boolean dynamic = registry.getDefaultQueue().isDynamic();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Runnable handler = dynamic
+                            ? new DynamicQueueServer.ClientHandler(serverSocket.accept(), registry)
+                            : new QueueServer.ClientHandler(serverSocket.accept(), registry, null);
+                    new Thread(handler).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    private static QueueRegistry rejecting(QueueEngine queue) {
+        QueueRegistry registry = new QueueRegistry(queue);
+        registry.setBackpressure(QueueRegistry.Backpressure.REJECT);
+        return registry;
+    }
+
+    // Sends the commands in one write and returns the reply lines joined by '|'
+    private static String exchange(Socket socket, BufferedReader in, String... commands) throws IOException {
+        StringBuilder request = new StringBuilder();
+        for (String command : commands) {
+            request.append(command).append('\n');
+        }
+        socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder replies = new StringBuilder();
+        for (int i = 0; i < commands.length; i++) {
+            replies.append(i == 0 ? "" : "|").append(in.readLine());
+        }
+        return replies.toString();
+    }
+
+    // "<command>[ <queue>][ <args>]"
+    private static String command(String command, String queueName, String args) {
+        return command + (queueName == null ? "" : " " + queueName) + (args.isEmpty() ? "" : " " + args);
+    }
+
+    // The same PUT/PUTN sequence on a queue of capacity 2 that nothing takes from. A '+' sign
+    // on the items keeps QueueServer's PUTs off its direct path.
+    private static void checkReplies(int port, String q, String sign) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            String unknown = String.valueOf(NamedQueue.UNKNOWN_RATE_RETRY_MS);
+            String replies = exchange(socket, in, command("PUT", q, sign + "1"), command("PUT", q, sign + "2"),
+                                      command("PUT", q, sign + "3"), command("TRYPUT", q, "3"), command("SIZE", q, ""));
+            assert replies.equals("OK 1|OK 2|FULL " + unknown + "|FULL|OK 2 2") : "A full queue should reject PUT: " + replies;
+            replies = exchange(socket, in, command("TAKE", q, ""), command("PUTN", q, "3 7 8 9"));
+            assert replies.startsWith("OK 1 1|FULL ") && replies.endsWith(" 1") : "PUTN should add what fits: " + replies;
+            replies = exchange(socket, in, command("TAKE", q, ""), command("TAKE", q, ""));
+            assert replies.equals("OK 2 1|OK 7 0") : "The item that fit should be in the queue: " + replies;
+        }
+    }
+
+    // Test FULL replies from QueueServer (direct and general path) and DynamicQueueServer
+    public static void testReplies() {
+        System.out.println("Test: FULL Replies");
+
+        try {
+            QueueRegistry fixed = rejecting(new BoundedBlockingQueue(2));
+            try (ServerSocket server = startServer(fixed)) {
+                checkReplies(server.getLocalPort(), null, "");
+                checkReplies(server.getLocalPort(), "jobs", "+");
+                assert fixed.getStats().getRejectedPuts() == 4 : "Rejected PUTs and PUTNs should be counted";
+                assert fixed.getStats().getBlockedPuts().getCount() == 0 : "Nothing should have blocked";
+            }
+
+            QueueRegistry dynamic = rejecting(new DynamicBoundedBlockingQueue(2));
+            dynamic.create("fixed", 2, false);
+            try (ServerSocket server = startServer(dynamic)) {
+                checkReplies(server.getLocalPort(), "fixed", "");
+                try (QueueClient client = new QueueClient("localhost", server.getLocalPort())) {
+                    for (int i = 0; i < 5; i++) {
+                        client.put(i).get(5, TimeUnit.SECONDS);
+                    }
+                    assert client.size().get(5, TimeUnit.SECONDS) == 5 : "A dynamic queue grows instead of rejecting";
+                }
+            }
+            System.out.println("FULL replies test passed");
+        } catch (Exception e) {
+            System.out.println("FULL replies test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the NIO server in both modes: reject replies FULL, block parks the PUT
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        QueueRegistry registry = rejecting(new BoundedBlockingQueue(2));
+        NioQueueServer server = new NioQueueServer(registry, 0, 1);
+
+        try {
+            server.start();
+            checkReplies(server.getPort(), null, "");
+            assert registry.getStats().getRejectedPuts() == 2 : "Rejected PUTs and PUTNs should be counted";
+
+            // Back to blocking: a PUT on the full queue is parked until a TAKE makes room
+            registry.setBackpressure(QueueRegistry.Backpressure.BLOCK);
+            try (QueueClient producer = new QueueClient("localhost", server.getPort());
+                 QueueClient consumer = new QueueClient("localhost", server.getPort())) {
+                producer.put(1).get(5, TimeUnit.SECONDS);
+                producer.put(2).get(5, TimeUnit.SECONDS);
+                CompletableFuture<QueueClient.Reply> parked = producer.put(3);
+                CompletableFuture<String> behind = producer.call("SIZE");
+                Thread.sleep(100);
+                assert !parked.isDone() && !behind.isDone() : "The producer's connection should wait";
+                consumer.take().get(5, TimeUnit.SECONDS);
+                assert parked.get(5, TimeUnit.SECONDS).getSize() == 2 : "The parked PUT should complete";
+                assert behind.get(5, TimeUnit.SECONDS).equals("OK 2 2") : "Later commands should follow";
+            }
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test the retry time estimated from the recent take rate
+    public static void testRetryAfter() {
+        System.out.println("Test: Retry After");
+
+        try {
+            NamedQueue queue = new NamedQueue("q", new BoundedBlockingQueue(10_000));
+            assert queue.retryAfterMs(1) == NamedQueue.UNKNOWN_RATE_RETRY_MS : "Nothing taken yet";
+
+            // A consumer taking 10 items per ~1 ms sleep leaves 100 of 600 items behind
+            for (int i = 0; i < 600; i++) {
+                queue.offer(i);
+            }
+            for (int i = 1; i <= 500; i++) {
+                queue.poll();
+                if (i % 10 == 0) {
+                    Thread.sleep(1);
+                }
+            }
+            long one = queue.retryAfterMs(1);
+            long many = queue.retryAfterMs(50);
+            long backlog = queue.retryAfterMs(100);
+            long tooMany = queue.retryAfterMs(10_000_000);
+            assert one == NamedQueue.MIN_RETRY_MS : "One slot frees up almost at once: " + one;
+            assert many > one && many < NamedQueue.MAX_RETRY_MS : "50 slots take a while: " + many;
+            assert backlog > many : "100 slots take longer: " + backlog;
+            assert tooMany == backlog : "The wait is capped at draining the queue: " + tooMany;
+
+            // A consumer that stopped taking says nothing about the rate any more
+            Thread.sleep(110);
+            assert queue.retryAfterMs(1) == NamedQueue.UNKNOWN_RATE_RETRY_MS : "Nothing taken lately";
+            System.out.println("Retry after test passed");
+        } catch (Exception e) {
+            System.out.println("Retry after test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that QueueClient sends rejected items again until a slow consumer has taken them all
+    public static void testClientRetry() {
+        System.out.println("Test: Client Retry");
+        final int ITEMS = 500;
+        QueueRegistry registry = rejecting(new BoundedBlockingQueue(10));
+
+        try (ServerSocket server = startServer(registry);
+             QueueClient producer = new QueueClient("localhost", server.getLocalPort(), null, 2, 0);
+             QueueClient batching = new QueueClient("localhost", server.getLocalPort(), null, 1, 2);
+             QueueClient consumer = new QueueClient("localhost", server.getLocalPort())) {
+            int[] items = new int[ITEMS];
+            for (int i = 0; i < ITEMS; i++) {
+                items[i] = i;
+            }
+            CompletableFuture<QueueClient.Reply> bulk = producer.putAll(items, 0, ITEMS);
+            CompletableFuture<?>[] singles = new CompletableFuture<?>[ITEMS];
+            for (int i = 0; i < ITEMS; i++) {
+                singles[i] = (i % 2 == 0 ? producer : batching).put(ITEMS + i);
+            }
+
+            Set<Integer> taken = new HashSet<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 2 * ITEMS; i++) {
+                taken.add(consumer.take().get(10, TimeUnit.SECONDS).getItem());
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("  " + 2 * ITEMS + " items in " + elapsedMs + " ms");
+            // Producers that back off by the take rate keep the consumer busy: well over 200 items/s
+            assert elapsedMs < 5000 : "Retries should not starve the consumer: " + elapsedMs + " ms";
+            bulk.get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(singles).get(5, TimeUnit.SECONDS);
+            assert taken.size() == 2 * ITEMS : "Every item should arrive exactly once, got " + taken.size();
+            assert consumer.size().get(5, TimeUnit.SECONDS) == 0 : "Nothing should be left over";
+            assert registry.getStats().getRejectedPuts() > 0 : "The producers should have been turned away";
+            assert registry.getStats().getBlockedPuts().getCount() == 0 : "No handler thread should have waited";
+            System.out.println("Client retry test passed");
+        } catch (Exception e) {
+            System.out.println("Client retry test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Backpressure Tests ===\n");
+
+        testReplies();
+        testNioServer();
+        testRetryAfter();
+        testClientRetry();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
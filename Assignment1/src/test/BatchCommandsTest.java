@@ -0,0 +1,176 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.Function;
+
+// Tests for the PUTN/TAKEN text commands and request pipelining
+public class BatchCommandsTest {
+
+    // Starts a thread-per-connection server on a free port, with handlers made by the factory
+    private static ServerSocket startThreadPerConnection(Function<Socket, Runnable> handlerFactory) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(handlerFactory.apply(serverSocket.accept())).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Test parsing of the batch command arguments
+    public static void testParsing() {
+        System.out.println("Test: Parsing");
+
+        try {
+            int[] items = BatchCommands.parsePutN("3 10 -20 30");
+            assert items.length == 3 && items[0] == 10 && items[1] == -20 && items[2] == 30 : "PUTN items should parse";
+            assert BatchCommands.parseTakeN("5") == 5 : "TAKEN count should parse";
+            assert BatchCommands.takeNResponse(new int[] {1, 2}, 2, "0").equals("OK 2 1 2 0") : "TAKEN reply format";
+
+            String[] invalid = {"2 1", "1 1 2", "0", "x 1", String.valueOf(BatchCommands.MAX_BATCH + 1)};
+            for (String args : invalid) {
+                try {
+                    BatchCommands.parsePutN(args);
+                    assert false : "PUTN " + args + " should be rejected";
+                } catch (IllegalArgumentException e) {
+                    // Expected
+                }
+            }
+            System.out.println("Parsing test passed");
+        } catch (Exception e) {
+            System.out.println("Parsing test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Checks PUTN/TAKEN and a pipelined burst against a server on the given port
+    private static void checkServer(int port, String putReply, String takeReplySuffix) throws IOException {
+        final int PIPELINED = 1000;
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("PUTN 3 7 8 9");
+            out.flush();
+            assert in.readLine().equals(putReply) : "PUTN should reply like PUT";
+            out.println("TAKEN 2");
+            out.flush();
+            assert in.readLine().equals("OK 2 7 8 " + takeReplySuffix) : "TAKEN should return items in order";
+            out.println("PUTN 2 1");
+            out.flush();
+            assert in.readLine().startsWith("ERROR") : "Malformed PUTN should be rejected";
+            out.println("TAKEN 5");
+            out.flush();
+            assert in.readLine().startsWith("OK 1 9 ") : "TAKEN should return what is available";
+
+            // Pipelining: send every command before reading any reply
+            for (int i = 0; i < PIPELINED; i++) {
+                out.println("PUT " + i);
+                out.println("TAKE");
+            }
+            out.flush();
+            for (int i = 0; i < PIPELINED; i++) {
+                assert in.readLine().startsWith("OK") : "Pipelined PUT should succeed";
+                assert in.readLine().startsWith("OK " + i + " ") : "Pipelined replies should stay in order";
+            }
+        }
+    }
+
+    // Test the thread-per-connection servers
+    public static void testThreadPerConnection() {
+        System.out.println("Test: Thread-per-Connection Servers");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(10);
+        DynamicBoundedBlockingQueue dynamicQueue = new DynamicBoundedBlockingQueue(2);
+
+        try (ServerSocket fixed = startThreadPerConnection(socket -> new QueueServer.ClientHandler(socket, queue));
+             ServerSocket dynamic = startThreadPerConnection(socket -> new DynamicQueueServer.ClientHandler(socket, dynamicQueue))) {
+            checkServer(fixed.getLocalPort(), "OK 3", "1");
+            checkServer(dynamic.getLocalPort(), "OK 3 4", "1 2");
+
+            // A PUTN larger than the free space waits for a TAKEN from another client
+            try (Socket producer = new Socket("localhost", fixed.getLocalPort());
+                 Socket consumer = new Socket("localhost", fixed.getLocalPort())) {
+                PrintWriter producerOut = new PrintWriter(producer.getOutputStream(), true);
+                BufferedReader producerIn = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+                PrintWriter consumerOut = new PrintWriter(consumer.getOutputStream(), true);
+                BufferedReader consumerIn = new BufferedReader(new InputStreamReader(consumer.getInputStream()));
+
+                StringBuilder batch = new StringBuilder("PUTN 15");
+                for (int i = 0; i < 15; i++) {
+                    batch.append(' ').append(i);
+                }
+                producerOut.println(batch);
+                Thread.sleep(100);
+                assert !producerIn.ready() : "PUTN should wait for space";
+                consumerOut.println("TAKEN 10");
+                assert consumerIn.readLine().startsWith("OK 10 0 1 2 ") : "TAKEN should drain the first part";
+                assert producerIn.readLine().equals("OK 5") : "PUTN should complete after the TAKEN";
+            }
+            System.out.println("Thread-per-connection servers test passed");
+        } catch (Exception e) {
+            System.out.println("Thread-per-connection servers test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the event-loop server, including a parked PUTN
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(10), 0, 2);
+
+        try {
+            server.start();
+            checkServer(server.getPort(), "OK 3", "1");
+
+            try (Socket producer = new Socket("localhost", server.getPort());
+                 Socket consumer = new Socket("localhost", server.getPort())) {
+                PrintWriter producerOut = new PrintWriter(producer.getOutputStream(), true);
+                BufferedReader producerIn = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+                PrintWriter consumerOut = new PrintWriter(consumer.getOutputStream(), true);
+                BufferedReader consumerIn = new BufferedReader(new InputStreamReader(consumer.getInputStream()));
+
+                // TAKEN parks on an empty queue, PUTN parks its remainder on a full one
+                consumerOut.println("TAKEN 4");
+                Thread.sleep(100);
+                assert !consumerIn.ready() : "TAKEN should wait for an item";
+                StringBuilder batch = new StringBuilder("PUTN 15");
+                for (int i = 0; i < 15; i++) {
+                    batch.append(' ').append(i);
+                }
+                producerOut.println(batch);
+                assert consumerIn.readLine().startsWith("OK 4 0 1 2 3 ") : "Parked TAKEN should receive the first items";
+                Thread.sleep(100);
+                assert !producerIn.ready() : "PUTN should wait for space";
+                consumerOut.println("TAKEN 10");
+                assert consumerIn.readLine().startsWith("OK 10 4 5 6 ") : "TAKEN should keep FIFO order";
+                // 15 put, 4 + 10 taken
+                assert producerIn.readLine().equals("OK 1") : "Parked PUTN should complete";
+            }
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Batch Commands Tests ===\n");
+
+        testParsing();
+        testThreadPerConnection();
+        testNioServer();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+// Tests for the length-prefixed binary protocol on both server implementations
+public class BinaryProtocolTest {
+
+    // Starts a thread-per-connection server the way QueueServer does, on a free port
+    private static ServerSocket startThreadPerConnection(BoundedBlockingQueue queue) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    new Thread(new QueueServer.ClientHandler(socket, queue)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Test encoding and decoding of request frames
+    public static void testCodec() {
+        System.out.println("Test: Codec");
+
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BinaryProtocol.MAX_REQUEST_SIZE);
+            BinaryProtocol.writePut(buffer, 42);
+            BinaryProtocol.writePutBatch(buffer, new int[] {1, 2, 3}, 0, 3);
+            BinaryProtocol.writeTake(buffer);
+            buffer.flip();
+
+            assert BinaryProtocol.requestLength(buffer) == 5 : "PUT frame is opcode plus int32";
+            assert buffer.get() == BinaryProtocol.OP_PUT && buffer.getInt() == 42 : "PUT should decode";
+            assert BinaryProtocol.requestLength(buffer) == 17 : "PUT_BATCH frame is length-prefixed";
+            buffer.get();
+            assert buffer.getInt() == 3 : "Batch count should decode";
+            assert buffer.getInt() == 1 && buffer.getInt() == 2 && buffer.getInt() == 3 : "Batch items should decode";
+            assert BinaryProtocol.requestLength(buffer) == 1 : "TAKE frame is a single opcode";
+
+            // Incomplete and invalid frames
+            ByteBuffer partial = ByteBuffer.allocate(3).put(BinaryProtocol.OP_PUT_BATCH).put((byte) 0);
+            partial.flip();
+            assert BinaryProtocol.requestLength(partial) == 0 : "Batch length needs more bytes";
+            ByteBuffer bogus = ByteBuffer.wrap(new byte[] {99});
+            assert BinaryProtocol.requestLength(bogus) == BinaryProtocol.INVALID_REQUEST : "Unknown opcode is invalid";
+            ByteBuffer oversized = ByteBuffer.allocate(5).put(BinaryProtocol.OP_PUT_BATCH).putInt(BinaryProtocol.MAX_BATCH + 1);
+            oversized.flip();
+            assert BinaryProtocol.requestLength(oversized) == BinaryProtocol.INVALID_REQUEST : "Oversized batch is invalid";
+
+            System.out.println("Codec test passed");
+        } catch (Exception e) {
+            System.out.println("Codec test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the binary protocol against the thread-per-connection server
+    public static void testThreadPerConnectionServer() {
+        System.out.println("Test: Thread-per-Connection Server");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(4);
+
+        try (ServerSocket serverSocket = startThreadPerConnection(queue)) {
+            int port = serverSocket.getLocalPort();
+            try (BinaryQueueClient client = new BinaryQueueClient("localhost", port)) {
+                assert client.put(5) == 1 : "PUT should report the new size";
+                assert client.getLastCapacity() == 4 : "PUT should report capacity";
+                assert client.putBatch(new int[] {6, 7, 8}) == 4 : "PUT_BATCH should add every item";
+                assert client.take() == 5 : "TAKE should return the oldest item";
+
+                int[] items = new int[10];
+                int count = client.takeBatch(items);
+                assert count == 3 : "TAKE_BATCH should return the available items, got " + count;
+                assert items[0] == 6 && items[1] == 7 && items[2] == 8 : "TAKE_BATCH should keep FIFO order";
+                assert client.size() == 0 : "Queue should be empty";
+
+                // A batch larger than the free space blocks until a consumer makes room
+                Thread consumer = new Thread(() -> {
+                    try (BinaryQueueClient other = new BinaryQueueClient("localhost", port)) {
+                        int[] drained = new int[4];
+                        int total = 0;
+                        while (total < 6) {
+                            total += other.takeBatch(drained);
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Consumer failed: " + e.getMessage());
+                    }
+                });
+                consumer.start();
+                client.putBatch(new int[] {1, 2, 3, 4, 5, 6});
+                consumer.join(5000);
+                assert !consumer.isAlive() : "Consumer should drain the whole batch";
+            }
+
+            // Text clients keep working on the same server
+            try (Socket socket = new Socket("localhost", port);
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                out.println("PUT 9");
+                assert in.readLine().equals("OK 1") : "Text protocol should be unchanged";
+            }
+            System.out.println("Thread-per-connection server test passed");
+        } catch (Exception e) {
+            System.out.println("Thread-per-connection server test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the binary protocol against the event-loop server, including parked batches
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(2), 0, 2);
+
+        try {
+            server.start();
+            int port = server.getPort();
+            try (BinaryQueueClient producer = new BinaryQueueClient("localhost", port);
+                 BinaryQueueClient consumer = new BinaryQueueClient("localhost", port)) {
+                assert producer.put(1) == 1 : "PUT should report the new size";
+
+                // PUT_BATCH parks once the queue is full and finishes as TAKE_BATCH frees space
+                Thread batchProducer = new Thread(() -> {
+                    try {
+                        producer.putBatch(new int[] {2, 3, 4, 5});
+                    } catch (IOException e) {
+                        System.out.println("Batch producer failed: " + e.getMessage());
+                    }
+                });
+                batchProducer.start();
+
+                int[] items = new int[2];
+                int next = 1;
+                while (next <= 5) {
+                    int count = consumer.takeBatch(items);
+                    for (int i = 0; i < count; i++) {
+                        assert items[i] == next : "Items should arrive in order, expected " + next + " got " + items[i];
+                        next++;
+                    }
+                }
+                batchProducer.join(5000);
+                assert !batchProducer.isAlive() : "Parked batch should complete";
+
+                // TAKE parks on an empty queue and is completed by a later PUT
+                Thread taker = new Thread(() -> {
+                    try {
+                        assert consumer.take() == 42 : "Parked TAKE should receive the item";
+                    } catch (IOException e) {
+                        System.out.println("Taker failed: " + e.getMessage());
+                    }
+                });
+                taker.start();
+                Thread.sleep(100);
+                assert taker.isAlive() : "TAKE should wait for an item";
+                producer.put(42);
+                taker.join(5000);
+                assert !taker.isAlive() : "Parked TAKE should complete";
+            }
+
+            // A bad frame is answered with an error and closes the connection
+            try (Socket socket = new Socket("localhost", port)) {
+                OutputStream out = socket.getOutputStream();
+                out.write(new byte[] {BinaryProtocol.HANDSHAKE, BinaryProtocol.VERSION, 99});
+                out.flush();
+                byte[] response = socket.getInputStream().readNBytes(2 + BinaryProtocol.RESPONSE_HEADER_SIZE);
+                ByteBuffer buffer = ByteBuffer.wrap(response);
+                assert buffer.get() == BinaryProtocol.HANDSHAKE && buffer.get() == BinaryProtocol.VERSION : "Handshake should be echoed";
+                assert buffer.get() == BinaryProtocol.STATUS_ERROR : "Unknown opcode should be rejected";
+                assert buffer.getInt() == BinaryProtocol.ERROR_UNKNOWN_OPCODE : "Error code should name the problem";
+                assert socket.getInputStream().read() == -1 : "Connection should be closed";
+            }
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that the binary protocol puts fewer bytes on the wire than the text protocol
+    public static void testWireSize() {
+        System.out.println("Test: Wire Size");
+        final int NUM_ITEMS = 1000;
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(NUM_ITEMS), 0, 1);
+
+        try {
+            server.start();
+            long textBytes = 0;
+            try (Socket socket = new Socket("localhost", server.getPort());
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                for (int i = 0; i < NUM_ITEMS; i++) {
+                    String request = "PUT " + (1_000_000 + i);
+                    out.println(request);
+                    textBytes += request.length() + 1 + in.readLine().length() + 1;
+                }
+                for (int i = 0; i < NUM_ITEMS; i++) {
+                    out.println("TAKE");
+                    textBytes += 5 + in.readLine().length() + 1;
+                }
+            }
+
+            long binaryBytes;
+            long batchBytes;
+            int[] items = new int[NUM_ITEMS];
+            for (int i = 0; i < NUM_ITEMS; i++) {
+                items[i] = 1_000_000 + i;
+            }
+            try (BinaryQueueClient client = new BinaryQueueClient("localhost", server.getPort())) {
+                for (int item : items) {
+                    client.put(item);
+                }
+                for (int i = 0; i < NUM_ITEMS; i++) {
+                    client.take();
+                }
+                binaryBytes = client.getBytesSent() + client.getBytesReceived();
+
+                client.putBatch(items);
+                int taken = 0;
+                while (taken < NUM_ITEMS) {
+                    taken += client.takeBatch(new int[NUM_ITEMS]);
+                }
+                batchBytes = client.getBytesSent() + client.getBytesReceived() - binaryBytes;
+            }
+
+            assert binaryBytes < textBytes : "Binary frames should be smaller than text lines";
+            assert batchBytes * 4 < textBytes : "Batches should cut wire bytes by more than 4x";
+
+            System.out.println("Wire size test passed");
+            System.out.printf("  Bytes per PUT+TAKE: text %.1f, binary %.1f, binary batch %.1f%n",
+                              (double) textBytes / NUM_ITEMS, (double) binaryBytes / NUM_ITEMS,
+                              (double) batchBytes / NUM_ITEMS);
+        } catch (Exception e) {
+            System.out.println("Wire size test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== BinaryProtocol Tests ===\n");
+
+        testCodec();
+        testThreadPerConnectionServer();
+        testNioServer();
+        testWireSize();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -279,6 +279,137 @@ public class BoundedBlockingQueueTest {
                           ", Consumed: " + consumedCount.get());
     }
     
+    // Test latency tracing of sojourn times
+    public static void testLatencyTracing() {
+        System.out.println("Test: Latency Tracing");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(5);
+        SojournTracer tracer = new SojournTracer(2);
+        
+        try {
+            queue.put(0); // Put before tracing is enabled, must not be traced
+            queue.enableLatencyTracing(tracer);
+            assert queue.getLatencyTracer() == tracer : "Tracer should be active";
+            
+            queue.put(1);
+            queue.put(2);
+            Thread.sleep(20);
+            queue.put(3);
+            
+            queue.take();
+            queue.take();
+            queue.take();
+            queue.take();
+            
+            LatencyHistogram histogram = tracer.getHistogram();
+            assert histogram.getCount() == 3 : "Three items should be traced, got " + histogram.getCount();
+            assert histogram.getMax() >= 20_000_000L : "Slowest item should have waited at least 20ms";
+            assert histogram.getValueAtPercentile(100) == histogram.getMax() : "p100 should be the max";
+            assert histogram.getValueAtPercentile(0) <= histogram.getValueAtPercentile(50) : "Percentiles should be ordered";
+            
+            java.util.List<SojournTracer.TraceEntry> slowest = tracer.getSlowest();
+            assert slowest.size() == 2 : "Only the two slowest items should be kept";
+            assert slowest.get(0).getItem() == 1 || slowest.get(0).getItem() == 2 : "Items 1 and 2 waited longest";
+            assert slowest.get(0).getSojournNanos() >= slowest.get(1).getSojournNanos() : "Slowest first";
+            
+            queue.disableLatencyTracing();
+            queue.put(4);
+            queue.take();
+            assert histogram.getCount() == 3 : "Disabled tracing should not record";
+            
+            System.out.println("Latency tracing test passed");
+            tracer.dump(System.out);
+        } catch (Exception e) {
+            System.out.println("Latency tracing test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // Test batch put and take operations
+    public static void testBatchOperations() {
+        System.out.println("Test: Batch Operations");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(4);
+        
+        try {
+            assert queue.offerAll(new int[] {1, 2, 3, 4, 5, 6}, 0, 6) == 4 : "offerAll should stop when full";
+            int[] items = new int[10];
+            assert queue.pollUpTo(items, 0, 3) == 3 : "pollUpTo should respect max";
+            assert items[0] == 1 && items[1] == 2 && items[2] == 3 : "pollUpTo should keep FIFO order";
+            assert queue.pollUpTo(items, 0, 10) == 1 && items[0] == 4 : "pollUpTo should drain what is there";
+            assert queue.pollUpTo(items, 0, 10) == 0 : "pollUpTo should not block on an empty queue";
+            
+            // putAll blocks mid-batch until a consumer makes room
+            Thread producer = new Thread(() -> {
+                try {
+                    queue.putAll(new int[] {10, 11, 12, 13, 14, 15, 16}, 1, 6);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            Thread.sleep(100);
+            assert producer.isAlive() : "putAll should wait for space";
+            
+            int taken = 0;
+            int expected = 11;
+            while (taken < 6) {
+                int count = queue.takeUpTo(items, 0, 10);
+                for (int i = 0; i < count; i++) {
+                    assert items[i] == expected++ : "Batch items should arrive in order";
+                }
+                taken += count;
+            }
+            producer.join(1000);
+            assert !producer.isAlive() : "putAll should complete once space frees up";
+            assert queue.isEmpty() : "All items should be taken";
+            
+            System.out.println("Batch operations test passed");
+        } catch (Exception e) {
+            System.out.println("Batch operations test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // Test timed offer and poll
+    public static void testTimedOperations() {
+        System.out.println("Test: Timed Operations");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(1);
+        
+        try {
+            long start = System.nanoTime();
+            assert queue.poll(100) == null : "poll should time out on an empty queue";
+            long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs >= 90 && waitedMs < 1000 : "poll should wait about the timeout, waited " + waitedMs + "ms";
+            
+            assert queue.offer(1, 100) : "offer should succeed with space";
+            start = System.nanoTime();
+            assert !queue.offer(2, 100) : "offer should time out on a full queue";
+            waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs >= 90 && waitedMs < 1000 : "offer should wait about the timeout, waited " + waitedMs + "ms";
+            assert !queue.offer(2, 0) : "A zero timeout should not wait";
+            
+            // A timed poll returns as soon as an item arrives
+            assert queue.poll(0) == 1 : "poll(0) should take an available item";
+            Thread producer = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                    queue.put(7);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            start = System.nanoTime();
+            assert queue.poll(5000) == 7 : "poll should receive the item";
+            assert (System.nanoTime() - start) / 1_000_000 < 2000 : "poll should not wait for the full timeout";
+            producer.join(1000);
+            
+            System.out.println("Timed operations test passed");
+        } catch (Exception e) {
+            System.out.println("Timed operations test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
     // Run all tests
     public static void main(String[] args) {
         System.out.println("=== BoundedBlockingQueue Tests ===\n");
@@ -288,6 +419,9 @@ public class BoundedBlockingQueueTest {
         testBlockingWhenFull();
         testBlockingWhenEmpty();
         testThreadSafety();
+        testLatencyTracing();
+        testBatchOperations();
+        testTimedOperations();
         
         System.out.println("\n=== All Tests Completed ===");
     }
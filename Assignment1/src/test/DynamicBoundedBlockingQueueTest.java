@@ -288,6 +288,36 @@ public class DynamicBoundedBlockingQueueTest {
         }
     }
     
+    // Test that a batch grows the queue once and keeps order
+    public static void testBatchGrowth() {
+        System.out.println("Test: Batch Growth");
+        DynamicBoundedBlockingQueue queue = new DynamicBoundedBlockingQueue(5);
+        
+        try {
+            int[] batch = new int[23];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = i;
+            }
+            queue.putAll(batch, 0, 5);
+            assert queue.capacity() == 5 : "Batch that fits should not grow the queue";
+            assert queue.offerAll(batch, 5, 18) == 18 : "Dynamic queue should accept the whole batch";
+            assert queue.capacity() == 25 : "Queue should grow in initial-capacity steps, got " + queue.capacity();
+            
+            int[] items = new int[30];
+            int count = queue.takeUpTo(items, 0, 30);
+            assert count == 23 : "takeUpTo should drain every item";
+            for (int i = 0; i < count; i++) {
+                assert items[i] == i : "Items should keep FIFO order across the resize";
+            }
+            assert queue.capacity() == 5 : "Queue should shrink back once drained";
+            
+            System.out.println("Batch growth test passed");
+        } catch (Exception e) {
+            System.out.println("Batch growth test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
     // Run all tests
     public static void main(String[] args) {
         System.out.println("=== DynamicBoundedBlockingQueue Tests ===\n");
@@ -297,6 +327,7 @@ public class DynamicBoundedBlockingQueueTest {
         testQueueShrink();
         testThreadSafetyDuringResize();
         testRapidGrowthAndShrink();
+        testBatchGrowth();
         
         System.out.println("\n=== All Tests Completed ===");
     }
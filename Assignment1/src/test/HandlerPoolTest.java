@@ -0,0 +1,289 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+// Tests for --max-connections: the reject, queue and shed-idle overload policies with both
+// thread-per-connection servers' handlers, and their STATS counters
+public class HandlerPoolTest {
+
+    // A text connection to a test server
+    private static class Client implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(5000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+        }
+
+        void send(String command) throws IOException {
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String ask(String command) throws IOException {
+            send(command);
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // Accepts connections into the pool like the servers do, with QueueServer's handler or
+    // DynamicQueueServer's for a dynamic queue
+    private static ServerSocket startServer(QueueRegistry registry, HandlerPool pool) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        boolean dynamic = registry.getDefaultQueue().isDynamic();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    StreamConnection connection = StreamConnection.of(serverSocket.accept());
+                    HandlerPool.Handler handler = dynamic
+                            ? new DynamicQueueServer.ClientHandler(connection, registry)
+                            : new QueueServer.ClientHandler(connection, registry, null);
+                    pool.submit(connection, handler);
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    private static HandlerPool pool(QueueRegistry registry, int maxConnections, HandlerPool.Overload overload, int maxQueued) {
+        return new HandlerPool(maxConnections, overload, maxQueued, false, registry.getStats());
+    }
+
+    // Waits until the pool runs the given number of handlers
+    private static void awaitActive(HandlerPool pool, int active) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getActive() != active && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assert pool.getActive() == active : "Expected " + active + " handlers, got " + pool.getActive();
+    }
+
+    private static long number(String stats, String field) {
+        for (String pair : stats.split(" ")) {
+            if (pair.startsWith(field + "=")) {
+                return Long.parseLong(pair.substring(field.length() + 1));
+            }
+        }
+        throw new IllegalStateException("No " + field + " in " + stats);
+    }
+
+    // Test that connections beyond the limit are turned away and the admitted ones unaffected
+    public static void testReject() {
+        System.out.println("Test: Reject");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            HandlerPool pool = pool(registry, 2, HandlerPool.Overload.REJECT, 0);
+            try (ServerSocket server = startServer(registry, pool);
+                 Client first = new Client(server.getLocalPort());
+                 Client second = new Client(server.getLocalPort())) {
+                assert first.ask("PUT 1").startsWith("OK") && second.ask("SIZE").startsWith("OK") : "Both fit";
+                try (Client third = new Client(server.getLocalPort())) {
+                    assert third.in.readLine().startsWith("ERROR Server busy") : "The third is one too many";
+                    assert third.in.readLine() == null : "A rejected connection is closed";
+                }
+                assert first.ask("TAKE").startsWith("OK 1 ") : "Admitted connections keep working";
+
+                second.send("QUIT");
+                awaitActive(pool, 1);
+                try (Client fourth = new Client(server.getLocalPort())) {
+                    assert fourth.ask("SIZE").startsWith("OK") : "A finished handler frees its place";
+                }
+                String stats = first.ask("STATS");
+                assert number(stats, "connections_rejected") == 1 : stats;
+                assert number(stats, "connections_queued") == 0 && number(stats, "connections_shed") == 0 : stats;
+            }
+            System.out.println("Reject test passed");
+        } catch (Exception e) {
+            System.out.println("Reject test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that waiting connections are served in order once a handler finishes, and that
+    // the wait is bounded
+    public static void testQueue() {
+        System.out.println("Test: Queue");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new DynamicBoundedBlockingQueue(4));
+            HandlerPool pool = pool(registry, 1, HandlerPool.Overload.QUEUE, 2);
+            try (ServerSocket server = startServer(registry, pool);
+                 Client first = new Client(server.getLocalPort());
+                 Client second = new Client(server.getLocalPort());
+                 Client third = new Client(server.getLocalPort())) {
+                assert first.ask("SIZE").startsWith("OK") : "The first is served";
+                second.send("PUT 2");
+                third.send("PUT 3");
+                long deadline = System.currentTimeMillis() + 5000;
+                while (pool.getQueued() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assert registry.getStats().getQueuedConnections() == 2 : "Two should wait";
+                try (Client fourth = new Client(server.getLocalPort())) {
+                    assert fourth.in.readLine().startsWith("ERROR Server busy") : "The wait is bounded";
+                }
+                second.socket.setSoTimeout(200);
+                try {
+                    second.in.readLine();
+                    assert false : "A waiting connection is not read";
+                } catch (SocketTimeoutException e) {
+                    // Expected
+                }
+                second.socket.setSoTimeout(5000);
+                assert registry.getDefaultQueue().size() == 0 : "No command of a waiting connection runs";
+
+                first.send("QUIT");
+                assert second.in.readLine().startsWith("OK") : "The longest waiting connection goes next";
+                second.send("QUIT");
+                assert third.in.readLine().startsWith("OK") : "Then the next one";
+                assert third.ask("TAKE").startsWith("OK 2 ") && third.ask("TAKE").startsWith("OK 3 ") : "Both PUTs ran, in order";
+                String stats = third.ask("STATS");
+                assert number(stats, "connections_queued") == 0 && number(stats, "connections_rejected") == 1 : stats;
+            }
+            System.out.println("Queue test passed");
+        } catch (Exception e) {
+            System.out.println("Queue test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that the longest idle connection makes room, that busy ones never do, and that a
+    // shed connection loses no item
+    public static void testShedIdle() {
+        System.out.println("Test: Shed idle");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            HandlerPool pool = pool(registry, 2, HandlerPool.Overload.SHED_IDLE, 0);
+            try (ServerSocket server = startServer(registry, pool);
+                 Client oldest = new Client(server.getLocalPort());
+                 Client taker = new Client(server.getLocalPort())) {
+                assert oldest.ask("SIZE").startsWith("OK") : "The first is served";
+                taker.send("TAKE"); // Blocks on the empty queue: busy, not idle
+                Thread.sleep(50);
+
+                try (Client newcomer = new Client(server.getLocalPort())) {
+                    assert newcomer.ask("SIZE").startsWith("OK") : "The newcomer gets the idle one's place";
+                    assert oldest.in.readLine() == null : "The idle connection is closed";
+                    assert newcomer.ask("PUT 7").startsWith("OK") : "PUT";
+                    assert taker.in.readLine().startsWith("OK 7 ") : "The busy connection keeps its place";
+
+                    // Both are idle now; the one idle for longer goes
+                    Thread.sleep(20);
+                    assert newcomer.ask("SIZE").startsWith("OK") : "SIZE";
+                    try (Client last = new Client(server.getLocalPort())) {
+                        assert last.ask("SIZE").startsWith("OK") : "The last one gets a place";
+                        assert taker.in.readLine() == null : "The taker was idle for longer";
+                        assert newcomer.ask("SIZE").startsWith("OK") : "The newcomer stays";
+                    }
+                }
+                assert registry.getStats().getShedConnections() == 2 : "Two connections were shed";
+            }
+
+            // With every connection in the middle of a command there is nothing to shed
+            pool = pool(registry, 1, HandlerPool.Overload.SHED_IDLE, 0);
+            try (ServerSocket server = startServer(registry, pool);
+                 Client taker = new Client(server.getLocalPort())) {
+                taker.send("TAKE");
+                Thread.sleep(50);
+                try (Client second = new Client(server.getLocalPort())) {
+                    assert second.in.readLine().startsWith("ERROR Server busy") : "No idle connection to shed";
+                }
+                registry.getDefaultQueue().put(8);
+                assert taker.in.readLine().startsWith("OK 8 ") : "The busy connection is served";
+                assert registry.getStats().getRejectedConnections() == 1 : "The second was rejected";
+            }
+            System.out.println("Shed idle test passed");
+        } catch (Exception e) {
+            System.out.println("Shed idle test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a connection shed after a command arrived does not run it
+    public static void testShedRace() {
+        System.out.println("Test: Shed race");
+        final int ROUNDS = 200;
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(1000));
+            HandlerPool pool = pool(registry, 1, HandlerPool.Overload.SHED_IDLE, 0);
+            int acknowledged = 0;
+            try (ServerSocket server = startServer(registry, pool)) {
+                for (int i = 0; i < ROUNDS; i++) {
+                    // Each new connection sheds the previous one, often while its PUT is on the way
+                    Client client = new Client(server.getLocalPort());
+                    client.send("PUT " + i);
+                    try {
+                        String reply = client.in.readLine();
+                        if (reply != null && reply.startsWith("OK")) {
+                            acknowledged++;
+                        }
+                    } catch (IOException e) {
+                        // Shed before the reply
+                    }
+                    client.close();
+                }
+                awaitActive(pool, 0);
+            }
+            int size = registry.getDefaultQueue().size();
+            assert size >= acknowledged && size <= ROUNDS : "Every acknowledged PUT should be in the queue";
+            System.out.println("Shed race test passed");
+        } catch (Exception e) {
+            System.out.println("Shed race test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test option parsing
+    public static void testParseOverload() {
+        System.out.println("Test: Parse overload");
+
+        try {
+            assert HandlerPool.parseOverload("reject") == HandlerPool.Overload.REJECT : "reject";
+            assert HandlerPool.parseOverload("queue") == HandlerPool.Overload.QUEUE : "queue";
+            assert HandlerPool.parseOverload("shed-idle") == HandlerPool.Overload.SHED_IDLE : "shed-idle";
+            try {
+                HandlerPool.parseOverload("drop");
+                assert false : "Unknown policies are refused";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            System.out.println("Parse overload test passed");
+        } catch (AssertionError e) {
+            System.out.println("Parse overload test failed: " + e.getMessage());
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Handler Pool Tests ===\n");
+
+        testReject();
+        testQueue();
+        testShedIdle();
+        testShedRace();
+        testParseOverload();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
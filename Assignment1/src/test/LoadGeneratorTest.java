@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+
+// Tests for LoadGenerator and the coordinated-omission correction it relies on
+public class LoadGeneratorTest {
+
+    // Starts a thread-per-connection QueueServer (text and binary) on a free port
+    private static ServerSocket startServer(int capacity) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(capacity));
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    private static LoadGenerator.Settings settings(ServerSocket server, long durationMs) {
+        LoadGenerator.Settings settings = new LoadGenerator.Settings();
+        settings.port = server.getLocalPort();
+        settings.warmupMs = 200;
+        settings.durationMs = durationMs;
+        return settings;
+    }
+
+    // Test that one slow value in a closed loop stands for the requests it held back
+    public static void testCorrection() {
+        System.out.println("Test: Coordinated Omission Correction");
+
+        try {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 0; i < 99; i++) {
+                histogram.recordValue(1_000_000);
+            }
+            histogram.recordValue(100_000_000);
+            assert histogram.getValueAtPercentile(99) <= 1_100_000 : "Uncorrected p99 should hide the stall";
+
+            LatencyHistogram corrected = histogram.copyCorrectedForCoordinatedOmission(1_000_000);
+            assert corrected.getCount() >= 190 && corrected.getCount() <= 200 : "About 99 samples should be added, got " + corrected.getCount();
+            assert corrected.getValueAtPercentile(75) > 40_000_000 : "Corrected percentiles should show the stall";
+            assert corrected.getMax() == histogram.getMax() && corrected.getMin() == histogram.getMin() : "Min and max should not change";
+            assert histogram.copyCorrectedForCoordinatedOmission(0).getCount() == 100 : "No interval means no correction";
+            System.out.println("Coordinated omission correction test passed");
+        } catch (Exception e) {
+            System.out.println("Coordinated omission correction test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test a closed-loop text run and its JSON output
+    public static void testClosedLoop() {
+        System.out.println("Test: Closed Loop");
+
+        try (ServerSocket server = startServer(1000)) {
+            LoadGenerator.Settings settings = settings(server, 800);
+            settings.producers = 2;
+            settings.consumers = 2;
+            LoadGenerator.Result result = LoadGenerator.run(settings);
+
+            LoadGenerator.OperationStats put = result.getPut();
+            LoadGenerator.OperationStats take = result.getTake();
+            assert put.getItems() > 0 && take.getItems() > 0 : "Items should flow";
+            assert put.getErrors() == 0 && take.getErrors() == 0 : "There should be no errors";
+            assert put.getLatency().getCount() >= put.getServiceTime().getCount() : "Correction only adds samples";
+            assert put.getLatency().getValueAtPercentile(99) >= put.getServiceTime().getValueAtPercentile(99) : "Corrected latency is never lower";
+
+            File json = File.createTempFile("load", ".json");
+            json.deleteOnExit();
+            Files.writeString(json.toPath(), result.toJson());
+            String text = Files.readString(json.toPath());
+            assert text.contains("\"put\": {\"requests\": " + put.getRequests()) : "JSON should hold the put results";
+            assert text.contains("\"take\"") && text.contains("\"latencyUs\"") && text.contains("\"p99.9\"") : "JSON should hold the percentiles";
+            System.out.println("Closed loop test passed");
+            System.out.printf("  put: %.0f items/s, latency p99 %.1f us%n", result.itemsPerSecond(put),
+                              put.getLatency().getValueAtPercentile(99) / 1000.0);
+        } catch (Exception e) {
+            System.out.println("Closed loop test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a paced binary run keeps to its rate
+    public static void testPacedBinary() {
+        System.out.println("Test: Paced Binary");
+
+        try (ServerSocket server = startServer(1000)) {
+            LoadGenerator.Settings settings = settings(server, 1000);
+            settings.protocol = LoadGenerator.Protocol.BINARY;
+            settings.rate = 5000;
+            settings.batch = 10;
+            LoadGenerator.Result result = LoadGenerator.run(settings);
+
+            long items = result.getPut().getItems();
+            assert items >= 4000 && items <= 5500 : "About 5000 items should be put, got " + items;
+            assert result.getPut().getRequests() * 10 == items : "Each request should carry a batch";
+            assert result.getTake().getItems() > 0 : "The consumer should take items";
+            System.out.println("Paced binary test passed");
+        } catch (Exception e) {
+            System.out.println("Paced binary test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a stalled producer is charged for every request its schedule could not send
+    public static void testStallCounted() {
+        System.out.println("Test: Stall Counted");
+
+        try (ServerSocket server = startServer(10)) {
+            // Nothing consumes, so the producer blocks once 10 items are queued
+            LoadGenerator.Settings settings = settings(server, 1000);
+            settings.warmupMs = 0;
+            settings.consumers = 0;
+            settings.rate = 1000;
+            LoadGenerator.Result result = LoadGenerator.run(settings);
+
+            LatencyHistogram latency = result.getPut().getLatency();
+            LatencyHistogram service = result.getPut().getServiceTime();
+            assert service.getCount() <= 12 : "Only the few PUTs that got through have a service time";
+            assert latency.getCount() >= 900 : "Every scheduled PUT should be counted, got " + latency.getCount();
+            assert latency.getValueAtPercentile(50) > 300_000_000L : "Most PUTs were late by the stall";
+            System.out.println("Stall counted test passed");
+        } catch (Exception e) {
+            System.out.println("Stall counted test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Load Generator Tests ===\n");
+
+        testCorrection();
+        testClosedLoop();
+        testPacedBinary();
+        testStallCounted();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
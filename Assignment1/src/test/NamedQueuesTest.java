@@ -0,0 +1,244 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.Function;
+
+// Tests for named queues: the registry, command parsing and every server mode
+public class NamedQueuesTest {
+
+    // Starts a thread-per-connection server on a free port, with handlers made by the factory
+    private static ServerSocket startThreadPerConnection(Function<Socket, Runnable> handlerFactory) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(handlerFactory.apply(serverSocket.accept())).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Test creating, looking up and counting queues
+    public static void testRegistry() {
+        System.out.println("Test: Registry");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(3), 3);
+            assert registry.find(QueueRegistry.DEFAULT_QUEUE) == registry.getDefaultQueue() : "Default queue should be registered";
+
+            NamedQueue orders = registry.get("orders");
+            assert orders.capacity() == 3 && !orders.isDynamic() : "Queues made on first use copy the default queue";
+            assert registry.get("orders") == orders : "Lookups should return the same queue";
+
+            NamedQueue events = registry.create("events", 2, true);
+            assert events.isDynamic() && events.getInitialCapacity() == 2 : "CREATE should honour type and capacity";
+            try {
+                registry.create("events", 5, false);
+                assert false : "Duplicate names should be rejected";
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+            try {
+                registry.get("more");
+                assert false : "The queue limit should be enforced";
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+            String[] invalid = {"1abc", "a b", "a/b", "x".repeat(QueueRegistry.MAX_NAME_LENGTH + 1)};
+            for (String name : invalid) {
+                try {
+                    new QueueRegistry(new BoundedBlockingQueue(1)).get(name);
+                    assert false : "Name " + name + " should be rejected";
+                } catch (IllegalArgumentException e) {
+                    // Expected
+                }
+            }
+
+            // Per-queue counters
+            orders.put(1);
+            orders.offerAll(new int[] {2, 3, 4}, 0, 3);
+            orders.take();
+            assert orders.getItemsPut() == 3 && orders.getItemsTaken() == 1 : "Counters should track items in and out";
+            assert registry.getDefaultQueue().getItemsPut() == 0 : "Counters should be per queue";
+            assert registry.queuesResponse().equals("OK 3 default 0 3 0 0 events 0 2 0 0 orders 2 3 3 1") : "QUEUES lists every queue";
+
+            System.out.println("Registry test passed");
+        } catch (Exception e) {
+            System.out.println("Registry test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test splitting command lines into command, queue name and arguments
+    public static void testParsing() {
+        System.out.println("Test: Parsing");
+
+        try {
+            TextCommand put = TextCommand.parse("PUT 5");
+            assert put.command.equals("PUT") && put.queueName == null && put.args.equals("5") : "Unnamed PUT";
+            TextCommand named = TextCommand.parse("PUT orders 5");
+            assert named.queueName.equals("orders") && named.args.equals("5") : "Named PUT";
+            TextCommand take = TextCommand.parse("TAKE 500");
+            assert take.queueName == null && take.args.equals("500") : "TAKE timeout is not a queue name";
+            TextCommand namedTake = TextCommand.parse("TAKE orders");
+            assert namedTake.queueName.equals("orders") && namedTake.args == null : "Named TAKE";
+            TextCommand create = TextCommand.parse("CREATE events 10 dynamic");
+            assert create.queueName.equals("events") && create.args.equals("10 dynamic") : "CREATE";
+            TextCommand quit = TextCommand.parse("QUIT");
+            assert quit.queueName == null && quit.args == null : "Commands without arguments";
+
+            System.out.println("Parsing test passed");
+        } catch (Exception e) {
+            System.out.println("Parsing test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Checks named queues against a server whose default queue is fixed with capacity 2
+    private static void checkServer(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("PUT 1");
+            assert in.readLine().equals("OK 1") : "Unnamed PUT should use the default queue";
+            out.println("PUT orders 10");
+            assert in.readLine().equals("OK 1") : "PUT should create the queue on first use";
+            out.println("PUTN orders 1 11");
+            assert in.readLine().equals("OK 2") : "PUTN should use the named queue";
+
+            // A dynamic queue replies with its capacity, like DynamicQueueServer
+            out.println("CREATE events 1 dynamic");
+            assert in.readLine().equals("OK 1 dynamic") : "CREATE should report the new queue";
+            out.println("CREATE events 1");
+            assert in.readLine().startsWith("ERROR") : "CREATE should not replace a queue";
+            out.println("PUTN events 3 7 8 9");
+            assert in.readLine().equals("OK 3 3") : "Dynamic queue should grow for the batch";
+            out.println("SIZE events");
+            assert in.readLine().equals("OK 3 3 1") : "SIZE should report the named queue";
+
+            out.println("TAKE orders");
+            assert in.readLine().equals("OK 10 1") : "TAKE should use the named queue";
+            out.println("TAKEN events 5");
+            assert in.readLine().startsWith("OK 3 7 8 9 0 ") : "TAKEN should use the named queue";
+            out.println("TAKE events 0");
+            assert in.readLine().equals("TIMEOUT") : "Timeouts work on named queues";
+            out.println("TRYTAKE");
+            assert in.readLine().equals("OK 1 0") : "Default queue should be untouched";
+            out.println("STATUS orders");
+            assert in.readLine().equals("OK 1 2 false false 0 0 0") : "STATUS should report the named queue";
+
+            // The dynamic queue may have shrunk again, so its capacity is not checked
+            out.println("QUEUES");
+            String queues = in.readLine();
+            assert queues.startsWith("OK 3 default 0 2 1 1 events 0 ") && queues.endsWith(" 3 3 orders 1 2 2 1") : "QUEUES should list per-queue stats";
+            out.println("PUT 9orders 1");
+            assert in.readLine().startsWith("ERROR") : "Arguments that are not numbers should be rejected";
+            out.println("PUT bad/name 1");
+            assert in.readLine().startsWith("ERROR") : "Invalid names should be rejected";
+        }
+    }
+
+    // Test the thread-per-connection servers
+    public static void testThreadPerConnection() {
+        System.out.println("Test: Thread-per-Connection Servers");
+        QueueRegistry fixedRegistry = new QueueRegistry(new BoundedBlockingQueue(2));
+        QueueRegistry dynamicRegistry = new QueueRegistry(new BoundedBlockingQueue(2));
+
+        try (ServerSocket fixed = startThreadPerConnection(socket -> new QueueServer.ClientHandler(socket, fixedRegistry, null));
+             ServerSocket dynamic = startThreadPerConnection(socket -> new DynamicQueueServer.ClientHandler(socket, dynamicRegistry))) {
+            checkServer(fixed.getLocalPort());
+            checkServer(dynamic.getLocalPort());
+
+            // A TAKE on one queue is not woken by items on another
+            try (Socket consumer = new Socket("localhost", fixed.getLocalPort());
+                 Socket producer = new Socket("localhost", fixed.getLocalPort())) {
+                PrintWriter consumerOut = new PrintWriter(consumer.getOutputStream(), true);
+                BufferedReader consumerIn = new BufferedReader(new InputStreamReader(consumer.getInputStream()));
+                PrintWriter producerOut = new PrintWriter(producer.getOutputStream(), true);
+                BufferedReader producerIn = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+
+                consumerOut.println("TAKE jobs");
+                producerOut.println("PUT other 1");
+                assert producerIn.readLine().startsWith("OK") : "PUT should succeed";
+                Thread.sleep(100);
+                assert !consumerIn.ready() : "TAKE should wait on its own queue";
+                producerOut.println("PUT jobs 2");
+                assert producerIn.readLine().startsWith("OK") : "PUT should succeed";
+                assert consumerIn.readLine().equals("OK 2 0") : "TAKE should receive the item of its queue";
+            }
+            System.out.println("Thread-per-connection servers test passed");
+        } catch (Exception e) {
+            System.out.println("Thread-per-connection servers test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the event-loop server, where parked commands are kept per queue
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        NioQueueServer server = new NioQueueServer(new QueueRegistry(new BoundedBlockingQueue(2)), 0, 2);
+
+        try {
+            server.start();
+            checkServer(server.getPort());
+
+            try (Socket first = new Socket("localhost", server.getPort());
+                 Socket second = new Socket("localhost", server.getPort());
+                 Socket producer = new Socket("localhost", server.getPort())) {
+                PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+                BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+                PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+                BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+                PrintWriter producerOut = new PrintWriter(producer.getOutputStream(), true);
+                BufferedReader producerIn = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+
+                // Parked TAKEs on different queues, on different event loops
+                firstOut.println("TAKE jobs");
+                secondOut.println("TAKE mail");
+                Thread.sleep(100);
+                producerOut.println("PUT mail 5");
+                assert producerIn.readLine().startsWith("OK") : "PUT should succeed";
+                assert secondIn.readLine().equals("OK 5 0") : "Parked TAKE should receive the item of its queue";
+                Thread.sleep(100);
+                assert !firstIn.ready() : "TAKE on another queue should stay parked";
+
+                // A full named queue parks its producer without blocking other queues
+                producerOut.println("PUTN mail 2 1 2");
+                assert producerIn.readLine().equals("OK 2") : "PUTN should fill the queue";
+                producerOut.println("PUT mail 3");
+                secondOut.println("PUT jobs 6");
+                assert secondIn.readLine().startsWith("OK") : "Other queues should not wait for a full one";
+                assert firstIn.readLine().equals("OK 6 0") : "Parked TAKE should complete";
+                secondOut.println("TAKE mail");
+                assert secondIn.readLine().equals("OK 1 1") : "TAKE should free space";
+                assert producerIn.readLine().equals("OK 2") : "Parked PUT should complete";
+            }
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Named Queues Tests ===\n");
+
+        testRegistry();
+        testParsing();
+        testThreadPerConnection();
+        testNioServer();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
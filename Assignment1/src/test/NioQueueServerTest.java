@@ -0,0 +1,281 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Tests for the non-blocking NioQueueServer
+public class NioQueueServerTest {
+
+    // Small blocking client used to drive the server
+    private static class Client implements AutoCloseable {
+        final Socket socket;
+        final PrintWriter out;
+        final BufferedReader in;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        String call(String command) throws IOException {
+            out.println(command);
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // Test the basic text protocol
+    public static void testBasicCommands() {
+        System.out.println("Test: Basic Commands");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(3), 0, 2);
+
+        try {
+            server.start();
+            try (Client client = new Client(server.getPort())) {
+                assert client.call("PUT 7").equals("OK 1") : "PUT should report the new size";
+                assert client.call("PUT 8").equals("OK 2") : "PUT should report the new size";
+                assert client.call("SIZE").equals("OK 2 3") : "SIZE should report size and capacity";
+                assert client.call("STATUS").equals("OK 2 3 false false 0 0 0") : "STATUS should report flags";
+                assert client.call("TAKE").equals("OK 7 1") : "TAKE should return the oldest item";
+                assert client.call("BOGUS").equals("ERROR Unknown command") : "Unknown commands are rejected";
+                assert client.call("QUIT").equals("OK") : "QUIT should be acknowledged";
+            }
+            System.out.println("Basic commands test passed");
+        } catch (Exception e) {
+            System.out.println("Basic commands test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that TAKE on an empty queue and PUT on a full queue park without blocking the loop
+    public static void testParkedContinuations() {
+        System.out.println("Test: Parked Continuations");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(1), 0, 2);
+
+        try {
+            server.start();
+            try (Client consumer = new Client(server.getPort());
+                 Client producer = new Client(server.getPort());
+                 Client observer = new Client(server.getPort())) {
+
+                // TAKE on empty queue parks; the event loop must keep serving others
+                consumer.out.println("TAKE");
+                Thread.sleep(100);
+                assert !consumer.in.ready() : "TAKE should wait for an item";
+                assert observer.call("SIZE").equals("OK 0 1") : "Other clients are still served";
+
+                assert producer.call("PUT 5").startsWith("OK") : "PUT should succeed";
+                assert consumer.in.readLine().equals("OK 5 0") : "Parked TAKE should receive the item";
+
+                // PUT on full queue parks until a TAKE frees space
+                assert producer.call("PUT 6").equals("OK 1") : "Queue is now full";
+                producer.out.println("PUT 7");
+                Thread.sleep(100);
+                assert !producer.in.ready() : "PUT on a full queue should wait";
+                assert observer.call("TAKE").equals("OK 6 0") : "TAKE should succeed";
+                assert producer.in.readLine().equals("OK 1") : "Parked PUT should complete";
+                assert observer.call("TAKE").equals("OK 7 0") : "Item from the parked PUT should be in the queue";
+            }
+            System.out.println("Parked continuations test passed");
+        } catch (Exception e) {
+            System.out.println("Parked continuations test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that many connections are served without a thread per connection
+    public static void testManyConnections() {
+        System.out.println("Test: Many Connections");
+        final int NUM_CLIENTS = 200;
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(NUM_CLIENTS), 0, 2);
+        List<Client> clients = new ArrayList<>();
+
+        try {
+            int threadsBefore = Thread.activeCount();
+            server.start();
+            for (int i = 0; i < NUM_CLIENTS; i++) {
+                clients.add(new Client(server.getPort()));
+            }
+            // Half of the clients wait in TAKE, the other half feed them
+            for (int i = 0; i < NUM_CLIENTS / 2; i++) {
+                clients.get(i).out.println("TAKE");
+            }
+            Thread.sleep(100);
+            int serverThreads = Thread.activeCount() - threadsBefore;
+            assert serverThreads <= server.getIoThreads() : "Server should only use its event-loop threads, used " + serverThreads;
+
+            for (int i = NUM_CLIENTS / 2; i < NUM_CLIENTS; i++) {
+                assert clients.get(i).call("PUT " + i).startsWith("OK") : "PUT should succeed";
+            }
+            int received = 0;
+            for (int i = 0; i < NUM_CLIENTS / 2; i++) {
+                if (clients.get(i).in.readLine().startsWith("OK")) {
+                    received++;
+                }
+            }
+            assert received == NUM_CLIENTS / 2 : "Every parked TAKE should complete";
+
+            System.out.println("Many connections test passed");
+            System.out.println("  Connections: " + NUM_CLIENTS + ", server threads: " + serverThreads);
+        } catch (Exception e) {
+            System.out.println("Many connections test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            for (Client client : clients) {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // Ignore close failures during cleanup
+                }
+            }
+            server.stop();
+        }
+    }
+
+    // Test the dynamic queue protocol
+    public static void testDynamicQueue() {
+        System.out.println("Test: Dynamic Queue");
+        NioQueueServer server = new NioQueueServer(new DynamicBoundedBlockingQueue(2), 0, 1);
+
+        try {
+            server.start();
+            try (Client client = new Client(server.getPort())) {
+                assert client.call("PUT 1").equals("OK 1 2") : "PUT should report size and capacity";
+                assert client.call("PUT 2").equals("OK 2 2") : "Queue is full";
+                assert client.call("PUT 3").equals("OK 3 4") : "Dynamic queue should grow instead of parking";
+                assert client.call("SIZE").equals("OK 3 4 2") : "SIZE should include the initial capacity";
+                assert client.call("TAKE").equals("OK 1 2 4") : "TAKE should report size and capacity";
+            }
+            System.out.println("Dynamic queue test passed");
+        } catch (Exception e) {
+            System.out.println("Dynamic queue test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that the NIO server parses and answers text commands like the thread-per-connection
+    // servers: UTF-8 queue names and the commands every server shares
+    public static void testSharedCommands() {
+        System.out.println("Test: Shared Commands");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(3), 0, 1);
+
+        try {
+            server.start();
+            try (Client client = new Client(server.getPort())) {
+                assert client.call("CREATE caf\u00e9 5").equals("OK 5 fixed") : "A name in UTF-8 should be accepted";
+                assert client.call("PUT caf\u00e9 1").equals("OK 1") : "PUT should use the named queue";
+                String queues = client.call("QUEUES");
+                assert queues.contains(" caf\u00e9 1 5 1 0") : "QUEUES should list the name as sent, got " + queues;
+                assert client.call("RATE").equals("OK unlimited") : "RATE should be answered without a limiter";
+                assert client.call("ROLE").equals("OK primary") : "ROLE should be answered";
+                assert client.call("TAKE caf\u00e9 x").startsWith("ERROR") : "A bad timeout should be refused";
+            }
+            System.out.println("Shared commands test passed");
+        } catch (Exception e) {
+            System.out.println("Shared commands test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test that a client that sends commands without reading the replies is stopped being
+    // read, instead of the server buffering its replies without limit, and is served again
+    // once it reads them
+    public static void testUnreadReplies() {
+        System.out.println("Test: Unread Replies");
+        final int LIMIT = 32 * 1024 * 1024;
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(3), 0, 1);
+
+        try {
+            server.start();
+            try (SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+                client.configureBlocking(false);
+                byte[] command = "SIZE\n".getBytes(StandardCharsets.US_ASCII);
+                ByteBuffer commands = ByteBuffer.allocate(64 * 1024 / command.length * command.length);
+                while (commands.hasRemaining()) {
+                    commands.put(command);
+                }
+                long sent = 0;
+                long stalledSince = 0;
+                while (sent < LIMIT) {
+                    if (!commands.hasRemaining()) {
+                        commands.rewind();
+                    }
+                    int n = client.write(commands);
+                    sent += n;
+                    if (n > 0) {
+                        stalledSince = 0;
+                    } else if (stalledSince == 0) {
+                        stalledSince = System.currentTimeMillis();
+                    } else if (System.currentTimeMillis() - stalledSince > 500) {
+                        break;
+                    } else {
+                        Thread.sleep(10);
+                    }
+                }
+                assert sent < LIMIT : "The server should stop reading a client that does not read its replies";
+
+                // Reading the replies lets the server execute the rest
+                client.configureBlocking(true);
+                commands.flip();
+                long expected = sent / command.length;
+                long replies = 0;
+                ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+                client.socket().setSoTimeout(5000);
+                while (replies < expected) {
+                    in.clear();
+                    if (client.read(in) < 0) {
+                        break;
+                    }
+                    for (int i = 0; i < in.position(); i++) {
+                        if (in.get(i) == '\n') {
+                            replies++;
+                        }
+                    }
+                }
+                assert replies == expected : "Every command should be answered, got " + replies + " of " + expected;
+                System.out.println("  Sent " + (sent / 1024) + " KB of commands before the server stopped reading");
+            }
+            System.out.println("Unread replies test passed");
+        } catch (Exception e) {
+            System.out.println("Unread replies test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== NioQueueServer Tests ===\n");
+
+        testBasicCommands();
+        testParkedContinuations();
+        testManyConnections();
+        testDynamicQueue();
+        testSharedCommands();
+        testUnreadReplies();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
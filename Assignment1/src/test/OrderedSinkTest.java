@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Unit tests for OrderedSink and sequenced consumption
+public class OrderedSinkTest {
+
+    // Test that out-of-order submissions are emitted in sequence order
+    public static void testReordering() {
+        System.out.println("Test: Reordering");
+        List<Integer> destinationList = new ArrayList<>();
+        OrderedSink sink = new OrderedSink(destinationList, 4);
+
+        try {
+            sink.accept(2, 30);
+            sink.accept(1, 20);
+            assert destinationList.isEmpty() : "Nothing should be emitted before sequence 0";
+            assert sink.getBufferedCount() == 2 : "Two items should be buffered";
+
+            sink.accept(0, 10);
+            assert destinationList.equals(List.of(10, 20, 30)) : "Items should be emitted in order";
+            assert sink.getBufferedCount() == 0 : "Reorder buffer should be empty";
+            assert sink.getMaxBufferedCount() == 3 : "High-water mark should be 3";
+
+            sink.accept(4, 50);
+            sink.accept(3, null);
+            assert destinationList.equals(List.of(10, 20, 30, 50)) : "Null marks a skipped sequence";
+            assert sink.getNextSequence() == 5 : "Next sequence should be 5";
+
+            System.out.println("Reordering test passed");
+        } catch (Exception e) {
+            System.out.println("Reordering test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that items too far ahead block until the window moves
+    public static void testBoundedWindow() {
+        System.out.println("Test: Bounded Window");
+        List<Integer> destinationList = new ArrayList<>();
+        OrderedSink sink = new OrderedSink(destinationList, 2);
+
+        try {
+            Thread early = new Thread(() -> {
+                try {
+                    sink.accept(3, 4);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            early.start();
+            Thread.sleep(100);
+            assert early.isAlive() : "Sequence 3 is outside the window and should block";
+
+            sink.accept(0, 1);
+            sink.accept(1, 2);
+            Thread.sleep(100);
+            assert !early.isAlive() : "Sequence 3 should be accepted once the window moves";
+            assert sink.getBufferedCount() == 1 : "Sequence 3 waits for sequence 2";
+
+            sink.accept(2, 3);
+            assert destinationList.equals(List.of(1, 2, 3, 4)) : "All items should be emitted in order";
+            assert sink.getMaxBufferedCount() <= sink.getWindow() : "Buffer must never exceed the window";
+
+            System.out.println("Bounded window test passed");
+        } catch (Exception e) {
+            System.out.println("Bounded window test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that abandoned sequence numbers release the items behind them
+    public static void testAbandon() {
+        System.out.println("Test: Abandon");
+        List<Integer> destinationList = new ArrayList<>();
+        OrderedSink sink = new OrderedSink(destinationList, 2);
+
+        try {
+            sink.accept(1, 20);
+            sink.abandon(0);
+            assert destinationList.equals(List.of(20)) : "Abandoning 0 should release 1";
+
+            // Beyond the window: remembered instead of blocking
+            sink.abandon(5);
+            sink.accept(2, 30);
+            sink.accept(3, 40);
+            sink.accept(4, 50);
+            assert destinationList.equals(List.of(20, 30, 40, 50)) : "Items should be emitted in order";
+            assert sink.getNextSequence() == 6 : "Sequence 5 should be skipped once reached";
+            assert sink.getAbandonedCount() == 2 : "Two sequence numbers were abandoned";
+            assert sink.getBufferedCount() == 0 : "Reorder buffer should be empty";
+
+            // A consumer whose processing fails does not stall the others
+            final int NUM_ITEMS = 20;
+            BoundedBlockingQueue queue = new BoundedBlockingQueue(NUM_ITEMS);
+            List<Integer> ordered = Collections.synchronizedList(new ArrayList<>());
+            OrderedSink failing = new OrderedSink(ordered, 4);
+            AtomicBoolean shutdown = new AtomicBoolean(false);
+            for (int i = 1; i <= NUM_ITEMS; i++) {
+                queue.put(i);
+            }
+            List<Thread> consumerThreads = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Thread thread = new Thread(new Consumer(queue, failing, shutdown, "Failing-" + (i + 1), item -> {
+                    if (item == 5) {
+                        throw new IllegalStateException("Cannot process item 5");
+                    }
+                    return item;
+                }));
+                thread.setUncaughtExceptionHandler((t, e) -> { });
+                consumerThreads.add(thread);
+                thread.start();
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (failing.getNextSequence() < NUM_ITEMS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            shutdown.set(true);
+            synchronized (queue) {
+                queue.notifyAll();
+            }
+            for (Thread t : consumerThreads) {
+                t.join(2000);
+            }
+            assert failing.getNextSequence() == NUM_ITEMS : "Every sequence number should be released";
+            assert failing.getAbandonedCount() == 1 : "Only item 5 should be abandoned";
+            assert ordered.size() == NUM_ITEMS - 1 && !ordered.contains(5) : "All other items should arrive: " + ordered;
+            for (int i = 1; i < ordered.size(); i++) {
+                assert ordered.get(i - 1) < ordered.get(i) : "Items should stay in order: " + ordered;
+            }
+
+            System.out.println("Abandon test passed");
+        } catch (Exception e) {
+            System.out.println("Abandon test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that several parallel consumers preserve FIFO output order
+    public static void testParallelOrderedConsumers() {
+        System.out.println("Test: Parallel Ordered Consumers");
+        final int NUM_ITEMS = 200;
+        final int NUM_CONSUMERS = 4;
+
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(NUM_ITEMS);
+        List<Integer> sourceList = new ArrayList<>();
+        List<Integer> destinationList = Collections.synchronizedList(new ArrayList<>());
+        OrderedSink sink = new OrderedSink(destinationList, 16);
+        AtomicBoolean shutdown = new AtomicBoolean(false);
+        for (int i = 1; i <= NUM_ITEMS; i++) {
+            sourceList.add(i);
+        }
+
+        List<Thread> consumerThreads = new ArrayList<>();
+        for (int i = 0; i < NUM_CONSUMERS; i++) {
+            Consumer consumer = new Consumer(queue, sink, shutdown, "Ordered-" + (i + 1), item -> {
+                // Uneven processing time shuffles completion order
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return item * 10;
+            });
+            Thread thread = new Thread(consumer);
+            consumerThreads.add(thread);
+            thread.start();
+        }
+
+        Thread producerThread = new Thread(new Producer(queue, sourceList, shutdown, "Producer-1"));
+        try {
+            producerThread.start();
+            producerThread.join();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sink.getEmittedCount() < NUM_ITEMS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            shutdown.set(true);
+            synchronized (queue) {
+                queue.notifyAll();
+            }
+            for (Thread t : consumerThreads) {
+                t.join(2000);
+            }
+
+            assert destinationList.size() == NUM_ITEMS : "All items should be emitted, got " + destinationList.size();
+            for (int i = 0; i < NUM_ITEMS; i++) {
+                assert destinationList.get(i) == (i + 1) * 10 : "Item " + i + " is out of order";
+            }
+            assert sink.getMaxBufferedCount() <= 16 : "Reorder buffer must stay within the window";
+
+            System.out.println("Parallel ordered consumers test passed");
+            System.out.println("  Consumers: " + NUM_CONSUMERS + ", max reorder buffer occupancy: " +
+                               sink.getMaxBufferedCount() + " / " + sink.getWindow());
+        } catch (Exception e) {
+            System.out.println("Parallel ordered consumers test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== OrderedSink Tests ===\n");
+
+        testReordering();
+        testBoundedWindow();
+        testAbandon();
+        testParallelOrderedConsumers();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
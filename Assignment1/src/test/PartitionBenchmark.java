@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Measures how aggregate throughput grows with the number of nodes behind a
+// PartitionedQueueClient. Each node is a QueueServer in its own JVM; for every node count
+// the same number of producer and consumer threads per node move items with putAll and
+// takeUpTo. Throughput can only scale with nodes that get their own cores, so compare the
+// result with the machine's core count.
+//
+// Usage: PartitionBenchmark [maxNodes] [itemsPerProducer] [clientsPerNode]
+public class PartitionBenchmark {
+    private static final int BATCH = 100;
+
+    public static void main(String[] args) throws Exception {
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int items = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int clientsPerNode = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        System.out.println("=== Partition Benchmark (" + clientsPerNode + " producers + " + clientsPerNode +
+                           " consumers per node, " + items + " items each, " +
+                           Runtime.getRuntime().availableProcessors() + " cores) ===\n");
+        double single = 0;
+        for (int nodes = 1; nodes <= maxNodes; nodes *= 2) {
+            double rate = run(nodes, items, clientsPerNode);
+            if (nodes == 1) {
+                single = rate;
+            }
+            System.out.printf("%d node%s %12.0f items/s  %5.2fx%n", nodes, nodes == 1 ? " " : "s", rate, rate / single);
+        }
+    }
+
+    // Returns items moved through the partitioned queue per second
+    private static double run(int nodeCount, int items, int clientsPerNode) throws Exception {
+        List<Process> processes = new ArrayList<>();
+        List<String> nodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                int port;
+                try (ServerSocket probe = new ServerSocket(0)) {
+                    port = probe.getLocalPort();
+                }
+                String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "QueueServer",
+                                                 "10000", String.valueOf(port))
+                                      .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start());
+                nodes.add("localhost:" + port);
+                awaitListening(port);
+            }
+
+            int clients = clientsPerNode * nodeCount;
+            List<Thread> threads = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                threads.add(new Thread(() -> {
+                    try (PartitionedQueueClient producer = new PartitionedQueueClient("bench", nodes)) {
+                        int[] batch = new int[BATCH];
+                        for (int done = 0; done < items; done += BATCH) {
+                            for (int i = 0; i < BATCH; i++) {
+                                batch[i] = done + i;
+                            }
+                            producer.putAll(batch, 0, BATCH);
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Producer failed: " + e.getMessage());
+                    }
+                }));
+                threads.add(new Thread(() -> {
+                    try (PartitionedQueueClient consumer = new PartitionedQueueClient("bench", nodes)) {
+                        int[] batch = new int[BATCH];
+                        for (int taken = 0; taken < items; ) {
+                            taken += consumer.takeUpTo(batch, Math.min(BATCH, items - taken));
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Consumer failed: " + e.getMessage());
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            return (double) items * clients / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            for (Process process : processes) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static void awaitListening(int port) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Tests for ConsistentHashRing and PartitionedQueueClient against several local servers
+public class PartitionedQueueTest {
+
+    // Starts a thread-per-connection QueueServer on a free port
+    private static ServerSocket startNode(int capacity) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(capacity));
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    private static String address(ServerSocket node) {
+        return "localhost:" + node.getLocalPort();
+    }
+
+    // Test that keys spread evenly and that a new node only takes keys from the others
+    public static void testRing() {
+        System.out.println("Test: Consistent Hash Ring");
+        final int KEYS = 20000;
+
+        try {
+            ConsistentHashRing ring = new ConsistentHashRing();
+            for (int i = 0; i < 4; i++) {
+                ring.addNode("node" + i);
+            }
+            Map<String, String> before = new HashMap<>();
+            Map<String, Integer> counts = new HashMap<>();
+            for (int i = 0; i < KEYS; i++) {
+                String node = ring.nodeFor("key-" + i);
+                before.put("key-" + i, node);
+                counts.merge(node, 1, Integer::sum);
+            }
+            for (int count : counts.values()) {
+                assert count > KEYS / 4 * 0.75 && count < KEYS / 4 * 1.25 : "Each node should own about a quarter of the keys, got " + count;
+            }
+
+            ring.addNode("node4");
+            int moved = 0;
+            for (int i = 0; i < KEYS; i++) {
+                String node = ring.nodeFor("key-" + i);
+                if (!node.equals(before.get("key-" + i))) {
+                    assert node.equals("node4") : "Keys should only move to the new node";
+                    moved++;
+                }
+            }
+            assert moved > KEYS / 5 * 0.7 && moved < KEYS / 5 * 1.3 : "About a fifth of the keys should move, moved " + moved;
+
+            ring.removeNode("node4");
+            for (int i = 0; i < KEYS; i++) {
+                assert ring.nodeFor("key-" + i).equals(before.get("key-" + i)) : "Removing the node should restore the old owners";
+            }
+            System.out.println("Consistent hash ring test passed");
+            System.out.println("  Keys moved by adding a fifth node: " + (100 * moved / KEYS) + "%");
+        } catch (Exception e) {
+            System.out.println("Consistent hash ring test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test routing: keyed items stay on their node in order, unkeyed items go round-robin
+    public static void testRouting() {
+        System.out.println("Test: Routing");
+
+        try (ServerSocket a = startNode(100); ServerSocket b = startNode(100); ServerSocket c = startNode(100);
+             PartitionedQueueClient client = new PartitionedQueueClient("orders", List.of(address(a), address(b), address(c)))) {
+            for (int i = 0; i < 30; i++) {
+                client.put(i);
+            }
+            // Every node got its turn: each partition holds 10 items
+            for (ServerSocket node : new ServerSocket[] {a, b, c}) {
+                try (PartitionedQueueClient single = new PartitionedQueueClient("orders", List.of(address(node)))) {
+                    assert single.size() == 10 : "Round-robin should spread evenly, got " + single.size();
+                }
+            }
+            int[] drain = new int[100];
+            int drained = 0;
+            while (drained < 30) {
+                drained += client.takeUpTo(drain, 100);
+            }
+
+            // All items of one key come back from one node, in put order
+            String node = client.nodeFor("customer-42");
+            for (int i = 0; i < 20; i++) {
+                client.put("customer-42", i);
+            }
+            try (PartitionedQueueClient owner = new PartitionedQueueClient("orders", List.of(node))) {
+                assert owner.size() == 20 : "Keyed items should all go to the owning node";
+                for (int i = 0; i < 20; i++) {
+                    assert owner.take() == i : "Keyed items should keep their order";
+                }
+            }
+            assert client.poll(0) == null : "Other partitions should be empty";
+            System.out.println("Routing test passed");
+        } catch (Exception e) {
+            System.out.println("Routing test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a consumer takes from every partition in turn rather than draining one first
+    public static void testFairPolling() {
+        System.out.println("Test: Fair Polling");
+
+        try (ServerSocket a = startNode(1000); ServerSocket b = startNode(1000); ServerSocket c = startNode(1000);
+             PartitionedQueueClient client = new PartitionedQueueClient("jobs", List.of(address(a), address(b), address(c)))) {
+            // Partition i holds only items i*1000 ..
+            for (int p = 0; p < 3; p++) {
+                String[] nodes = {address(a), address(b), address(c)};
+                try (PartitionedQueueClient single = new PartitionedQueueClient("jobs", List.of(nodes[p]))) {
+                    int[] items = new int[300];
+                    for (int i = 0; i < items.length; i++) {
+                        items[i] = p * 1000 + i;
+                    }
+                    single.putAll(items, 0, items.length);
+                }
+            }
+            int[] perPartition = new int[3];
+            int[] batch = new int[10];
+            for (int round = 0; round < 30; round++) {
+                int count = client.takeUpTo(batch, 10);
+                for (int i = 0; i < count; i++) {
+                    perPartition[batch[i] / 1000]++;
+                }
+            }
+            for (int p = 0; p < 3; p++) {
+                assert perPartition[p] == 100 : "Each partition should get an equal share, got " + perPartition[p];
+            }
+
+            // An idle consumer is woken by an item on any partition
+            int[] drain = new int[1024];
+            while (client.poll(0) != null || client.pollUpTo(drain, 1024, 0) > 0) {
+                // Empty the partitions
+            }
+            Thread producer = new Thread(() -> {
+                try (PartitionedQueueClient single = new PartitionedQueueClient("jobs", List.of(address(c)))) {
+                    Thread.sleep(100);
+                    single.put(77);
+                } catch (Exception e) {
+                    System.out.println("Producer failed: " + e.getMessage());
+                }
+            });
+            producer.start();
+            long start = System.nanoTime();
+            assert client.poll(5000) == 77 : "Consumer should find the item on any partition";
+            assert (System.nanoTime() - start) / 1_000_000 < 2000 : "Consumer should not wait for the timeout";
+            producer.join();
+            assert client.poll(50) == null : "poll should time out on empty partitions";
+            System.out.println("Fair polling test passed");
+        } catch (Exception e) {
+            System.out.println("Fair polling test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test adding a node while items are queued: nothing is lost and new puts use the node
+    public static void testAddNode() {
+        System.out.println("Test: Add Node");
+
+        try (ServerSocket a = startNode(1000); ServerSocket b = startNode(1000); ServerSocket c = startNode(1000);
+             PartitionedQueueClient client = new PartitionedQueueClient("events", List.of(address(a), address(b)))) {
+            Map<String, String> owners = new HashMap<>();
+            for (int i = 0; i < 200; i++) {
+                owners.put("k" + i, client.nodeFor("k" + i));
+                client.put("k" + i, i);
+            }
+            client.addNode(address(c));
+            int moved = 0;
+            for (int i = 0; i < 200; i++) {
+                String owner = client.nodeFor("k" + i);
+                if (!owner.equals(owners.get("k" + i))) {
+                    assert owner.equals(address(c)) : "Keys should only move to the new node";
+                    moved++;
+                }
+            }
+            assert moved > 0 && moved < 120 : "Only part of the keys should move, moved " + moved;
+            for (int i = 200; i < 260; i++) {
+                client.put(i);
+            }
+            try (PartitionedQueueClient added = new PartitionedQueueClient("events", List.of(address(c)))) {
+                assert added.size() == 20 : "Round-robin should include the new node";
+            }
+
+            Set<Integer> taken = new HashSet<>();
+            int[] batch = new int[64];
+            while (taken.size() < 260) {
+                int count = client.pollUpTo(batch, 64, 2000);
+                assert count > 0 : "Every item should still be taken";
+                for (int i = 0; i < count; i++) {
+                    assert taken.add(batch[i]) : "No item should be taken twice";
+                }
+            }
+            System.out.println("Add node test passed");
+        } catch (Exception e) {
+            System.out.println("Add node test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Partitioned Queue Tests ===\n");
+
+        testRing();
+        testRouting();
+        testFairPolling();
+        testAddNode();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Unit tests for Pipeline
+public class PipelineTest {
+
+    // Test that items flow through all stages and are transformed
+    public static void testBasicPipeline() {
+        System.out.println("Test: Basic Pipeline");
+        List<Integer> sourceList = new ArrayList<>();
+        List<Integer> destinationList = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 1; i <= 100; i++) {
+            sourceList.add(i);
+        }
+
+        Pipeline pipeline = Pipeline.builder()
+            .stage("double", 2, 4, x -> x * 2)
+            .statefulStage("count", 1, 4, x -> x)
+            .stage("increment", 3, 4, x -> x + 1)
+            .build();
+
+        try {
+            pipeline.run(sourceList, destinationList);
+
+            assert destinationList.size() == 100 : "All items should reach the destination";
+            List<Integer> sorted = new ArrayList<>(destinationList);
+            Collections.sort(sorted);
+            for (int i = 0; i < 100; i++) {
+                assert sorted.get(i) == (i + 1) * 2 + 1 : "Item should be transformed by every stage";
+            }
+            for (Pipeline.Stage stage : pipeline.getStages()) {
+                assert stage.getProcessedCount() == 100 : "Each stage should process every item";
+                assert stage.getQueueDepth() == 0 : "Queues should be drained";
+            }
+
+            System.out.println("Basic pipeline test passed");
+            pipeline.printStats();
+        } catch (Exception e) {
+            System.out.println("Basic pipeline test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that adjacent stateless stages with matching parallelism are fused
+    public static void testStageFusion() {
+        System.out.println("Test: Stage Fusion");
+
+        Pipeline pipeline = Pipeline.builder()
+            .stage("a", 2, 4, x -> x + 1)
+            .stage("b", 2, 4, x -> x * 10)
+            .stage("c", 1, 4, x -> x - 1)
+            .statefulStage("d", 1, 4, x -> x)
+            .stage("e", 1, 4, x -> x)
+            .build();
+
+        List<Pipeline.Stage> stages = pipeline.getStages();
+        assert stages.size() == 4 : "Only a and b should be fused, got " + stages.size() + " stages";
+        assert stages.get(0).getName().equals("a+b") : "First stage should be the fused a+b";
+
+        Pipeline unfused = Pipeline.builder()
+            .fusion(false)
+            .stage("a", 2, 4, x -> x + 1)
+            .stage("b", 2, 4, x -> x * 10)
+            .build();
+        assert unfused.getStages().size() == 2 : "Fusion can be disabled";
+
+        List<Integer> destinationList = Collections.synchronizedList(new ArrayList<>());
+        try {
+            pipeline.run(List.of(1, 2, 3), destinationList);
+            List<Integer> sorted = new ArrayList<>(destinationList);
+            Collections.sort(sorted);
+            assert sorted.equals(List.of(19, 29, 39)) : "Fused stages should apply both functions";
+            System.out.println("Stage fusion test passed");
+        } catch (Exception e) {
+            System.out.println("Stage fusion test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a slow final stage applies backpressure to the source
+    public static void testBackpressure() {
+        System.out.println("Test: Backpressure");
+        List<Integer> sourceList = new ArrayList<>();
+        List<Integer> destinationList = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 1; i <= 50; i++) {
+            sourceList.add(i);
+        }
+
+        AtomicInteger maxDepth = new AtomicInteger();
+        Pipeline pipeline = Pipeline.builder()
+            .stage("fast", 1, 3, x -> x)
+            .statefulStage("slow", 1, 3, x -> {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return x;
+            })
+            .build();
+
+        try {
+            pipeline.start(sourceList, destinationList);
+            Thread.sleep(50);
+            for (Pipeline.Stage stage : pipeline.getStages()) {
+                maxDepth.accumulateAndGet(stage.getQueueDepth(), Math::max);
+                assert stage.getQueueDepth() <= stage.getQueueCapacity() : "Queue depth must stay bounded";
+            }
+            assert destinationList.size() < 50 : "Source should be held back by the slow stage";
+            pipeline.awaitCompletion();
+
+            assert destinationList.size() == 50 : "All items should eventually be consumed";
+            System.out.println("Backpressure test passed");
+            System.out.println("  Max observed queue depth: " + maxDepth.get());
+        } catch (Exception e) {
+            System.out.println("Backpressure test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that null and Integer.MIN_VALUE items pass through without ending the stream
+    public static void testEndOfStream() {
+        System.out.println("Test: End Of Stream");
+        List<Integer> sourceList = Arrays.asList(1, null, Integer.MIN_VALUE, 3);
+        List<Integer> destinationList = Collections.synchronizedList(new ArrayList<>());
+
+        Pipeline pipeline = Pipeline.builder()
+            .stage("pass", 1, 2, x -> x)
+            .statefulStage("keep", 1, 2, x -> x)
+            .build();
+
+        try {
+            pipeline.start(sourceList, destinationList);
+            Thread waiter = new Thread(() -> {
+                try {
+                    pipeline.awaitCompletion();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            waiter.join(5000);
+            if (waiter.isAlive()) {
+                pipeline.stop();
+            }
+            assert !waiter.isAlive() : "The pipeline should drain, not stop at the null item";
+            assert destinationList.equals(List.of(1, Integer.MIN_VALUE, 3))
+                : "Null should be filtered and every other item delivered, got " + destinationList;
+            System.out.println("End of stream test passed");
+        } catch (Exception e) {
+            System.out.println("End of stream test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Pipeline Tests ===\n");
+
+        testBasicPipeline();
+        testStageFusion();
+        testBackpressure();
+        testEndOfStream();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
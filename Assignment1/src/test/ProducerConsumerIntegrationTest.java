@@ -225,42 +225,43 @@ public class ProducerConsumerIntegrationTest {
         }
     }
     
-    // Test 30-second flow control monitoring - producer waiting when queue is full for 30+ seconds
+    // Test 30-second flow control monitoring - producer waiting when queue is full for 30+ seconds.
+    // Runs on a virtual clock, so the 30-second monitoring completes in milliseconds.
     public static void test30SecondFlowControl() {
-        System.out.println("Test: 30-Second Flow Control Monitoring");
-        System.out.println("  (This test will take ~35 seconds to demonstrate the 30-second monitoring)");
+        System.out.println("Test: 30-Second Flow Control Monitoring (virtual time)");
         
         BoundedBlockingQueue queue = new BoundedBlockingQueue(3);
         List<Integer> sourceList = new ArrayList<>();
         List<Integer> destinationList = Collections.synchronizedList(new ArrayList<>());
         AtomicBoolean shutdown = new AtomicBoolean(false);
+        VirtualClock clock = new VirtualClock();
         
         for (int i = 1; i <= 20; i++) {
             sourceList.add(i);
         }
         
-        Producer producer = new Producer(queue, sourceList, shutdown, "Producer-30Sec");
-        Consumer consumer = new Consumer(queue, destinationList, shutdown, "Consumer-VerySlow");
+        Producer producer = new Producer(queue, sourceList, shutdown, "Producer-30Sec", null, clock, 30000);
+        Consumer consumer = new Consumer(queue, destinationList, shutdown, "Consumer-VerySlow", clock, 30000);
         
         Thread producerThread = new Thread(producer);
         Thread consumerThread = new Thread(consumer);
+        long realStart = System.currentTimeMillis();
         
         try {
-            consumerThread.start();
-            Thread.sleep(100);
+            // No consumer yet: the queue fills up and the producer monitors it for 30 virtual seconds
             producerThread.start();
+            waitForVirtualTime(clock, 30000);
+            assert queue.isFull() : "Queue should be full while the producer waits";
+            assert producerThread.isAlive() : "Producer should be paused by flow control";
             
-                Thread.sleep(2000);
-            
-            System.out.println("  Queue should be full now. Waiting 35 seconds to see flow control messages...");
-            System.out.println("  (You should see 'monitoring for 30 seconds' message, then 'waiting for consumers' message)");
-            
-            Thread.sleep(35000);
-            
-            Thread.sleep(5000);
-            
+            // Consumer drains the queue, producer resumes and finishes
+            consumerThread.start();
             producerThread.join(5000);
-            Thread.sleep(2000);
+            assert !producerThread.isAlive() : "Producer should finish once consumers catch up";
+            
+            // Consumer now sits on an empty queue long enough for its 30-second status message
+            long emptySince = clock.currentTimeMillis();
+            waitForVirtualTime(clock, emptySince + 30000);
             
             shutdown.set(true);
             synchronized (queue) {
@@ -268,17 +269,31 @@ public class ProducerConsumerIntegrationTest {
             }
             
             consumerThread.join(5000);
+            long realElapsed = System.currentTimeMillis() - realStart;
+            
+            assert sourceList.size() == destinationList.size() : "All items should be consumed";
+            assert clock.currentTimeMillis() >= 60000 : "At least 60 virtual seconds should have passed";
+            assert realElapsed < 10000 : "Virtual time test should not take real 30-second waits, took " + realElapsed + "ms";
             
-            System.out.println("30-second flow control test completed");
+            System.out.println("30-second flow control test passed");
             System.out.println("  Source items: " + sourceList.size() + 
                             ", Consumed items: " + destinationList.size());
-            System.out.println("  (Check output above for flow control messages)");
+            System.out.println("  Virtual time: " + (clock.currentTimeMillis() / 1000) + "s, real time: " + realElapsed + "ms");
         } catch (InterruptedException e) {
             System.out.println("30-second flow control test failed: " + e.getMessage());
             Thread.currentThread().interrupt();
         }
     }
     
+    // Waits (in real time, bounded) until the virtual clock reaches the target time
+    private static void waitForVirtualTime(VirtualClock clock, long targetMillis) throws InterruptedException {
+        long realDeadline = System.currentTimeMillis() + 5000;
+        while (clock.currentTimeMillis() < targetMillis && System.currentTimeMillis() < realDeadline) {
+            Thread.sleep(1);
+        }
+        assert clock.currentTimeMillis() >= targetMillis : "Virtual clock did not reach " + targetMillis + "ms";
+    }
+    
     // Run all integration tests
     public static void main(String[] args) {
         System.out.println("=== Producer-Consumer Integration Tests ===\n");
@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+// Compares the text and binary protocols against an in-process NioQueueServer.
+// Each mode pushes the same items through PUT and TAKE on one connection and reports wall
+// time, CPU time (client and server together) and bytes on the wire per operation.
+//
+// Usage: ProtocolBenchmark [operations] [batchSize]
+public class ProtocolBenchmark {
+    private static final int WARMUP_OPERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(Math.max(batchSize, 1024)), 0, 1);
+        server.start();
+        try {
+            System.out.println("=== Protocol Benchmark (" + operations + " PUT+TAKE pairs) ===\n");
+            runText(server.getPort(), WARMUP_OPERATIONS);
+            runTextPipelined(server.getPort(), WARMUP_OPERATIONS, batchSize);
+            runTextBatch(server.getPort(), WARMUP_OPERATIONS, batchSize);
+            runBinary(server.getPort(), WARMUP_OPERATIONS);
+            runBatch(server.getPort(), WARMUP_OPERATIONS, batchSize);
+
+            report("text", operations, runText(server.getPort(), operations));
+            report("text pipelined " + batchSize, operations, runTextPipelined(server.getPort(), operations, batchSize));
+            report("text PUTN/TAKEN " + batchSize, operations, runTextBatch(server.getPort(), operations, batchSize));
+            report("binary", operations, runBinary(server.getPort(), operations));
+            report("binary batch " + batchSize, operations, runBatch(server.getPort(), operations, batchSize));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Returns {wallNanos, cpuNanos, bytes}
+    private static long[] runText(int port, int operations) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setTcpNoDelay(true);
+            long bytes = 0;
+            long wallStart = System.nanoTime();
+            long cpuStart = processCpuNanos();
+            for (int i = 0; i < operations; i++) {
+                String request = "PUT " + i;
+                out.println(request);
+                bytes += request.length() + 1 + in.readLine().length() + 1;
+                out.println("TAKE");
+                bytes += 5 + in.readLine().length() + 1;
+            }
+            return new long[] {System.nanoTime() - wallStart, processCpuNanos() - cpuStart, bytes};
+        }
+    }
+
+    // Sends batchSize PUT and TAKE lines before reading their replies
+    private static long[] runTextPipelined(int port, int operations, int batchSize) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setTcpNoDelay(true);
+            long bytes = 0;
+            long wallStart = System.nanoTime();
+            long cpuStart = processCpuNanos();
+            for (int done = 0; done < operations; done += batchSize) {
+                for (int i = 0; i < batchSize; i++) {
+                    String request = "PUT " + (done + i);
+                    out.println(request);
+                    bytes += request.length() + 1;
+                }
+                for (int i = 0; i < batchSize; i++) {
+                    out.println("TAKE");
+                    bytes += 5;
+                }
+                out.flush();
+                for (int i = 0; i < 2 * batchSize; i++) {
+                    bytes += in.readLine().length() + 1;
+                }
+            }
+            return new long[] {System.nanoTime() - wallStart, processCpuNanos() - cpuStart, bytes};
+        }
+    }
+
+    private static long[] runTextBatch(int port, int operations, int batchSize) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setTcpNoDelay(true);
+            long bytes = 0;
+            long wallStart = System.nanoTime();
+            long cpuStart = processCpuNanos();
+            StringBuilder request = new StringBuilder();
+            for (int done = 0; done < operations; done += batchSize) {
+                request.setLength(0);
+                request.append("PUTN ").append(batchSize);
+                for (int i = 0; i < batchSize; i++) {
+                    request.append(' ').append(done + i);
+                }
+                out.println(request);
+                out.flush();
+                bytes += request.length() + 1 + in.readLine().length() + 1;
+                int taken = 0;
+                while (taken < batchSize) {
+                    out.println("TAKEN " + (batchSize - taken));
+                    out.flush();
+                    String response = in.readLine();
+                    bytes += 7 + String.valueOf(batchSize - taken).length() + response.length() + 1;
+                    taken += Integer.parseInt(response.substring(3, response.indexOf(' ', 3)));
+                }
+            }
+            return new long[] {System.nanoTime() - wallStart, processCpuNanos() - cpuStart, bytes};
+        }
+    }
+
+    private static long[] runBinary(int port, int operations) throws IOException {
+        try (BinaryQueueClient client = new BinaryQueueClient("localhost", port)) {
+            long bytesBefore = client.getBytesSent() + client.getBytesReceived();
+            long wallStart = System.nanoTime();
+            long cpuStart = processCpuNanos();
+            for (int i = 0; i < operations; i++) {
+                client.put(i);
+                client.take();
+            }
+            long cpu = processCpuNanos() - cpuStart;
+            long wall = System.nanoTime() - wallStart;
+            return new long[] {wall, cpu, client.getBytesSent() + client.getBytesReceived() - bytesBefore};
+        }
+    }
+
+    private static long[] runBatch(int port, int operations, int batchSize) throws IOException {
+        try (BinaryQueueClient client = new BinaryQueueClient("localhost", port)) {
+            int[] items = new int[batchSize];
+            int[] taken = new int[batchSize];
+            long bytesBefore = client.getBytesSent() + client.getBytesReceived();
+            long wallStart = System.nanoTime();
+            long cpuStart = processCpuNanos();
+            for (int done = 0; done < operations; done += batchSize) {
+                for (int i = 0; i < batchSize; i++) {
+                    items[i] = done + i;
+                }
+                client.putBatch(items);
+                int count = 0;
+                while (count < batchSize) {
+                    count += client.takeBatch(taken);
+                }
+            }
+            long cpu = processCpuNanos() - cpuStart;
+            long wall = System.nanoTime() - wallStart;
+            return new long[] {wall, cpu, client.getBytesSent() + client.getBytesReceived() - bytesBefore};
+        }
+    }
+
+    private static void report(String mode, int operations, long[] result) {
+        System.out.printf("%-22s %8.2f us/op wall  %8.2f us/op CPU  %6.1f bytes/op%n", mode,
+                          result[0] / 1000.0 / operations, result[1] / 1000.0 / operations,
+                          (double) result[2] / operations);
+    }
+
+    // CPU time of the whole JVM, or 0 where the platform does not expose it
+    private static long processCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Tests for QueueClient: pipelining, batching with a linger time, pooling and reconnect
+public class QueueClientTest {
+
+    // Starts a thread-per-connection QueueServer on the given port (0 picks a free one)
+    private static ServerSocket startServer(QueueRegistry registry, int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Test that requests sent without waiting are answered in order
+    public static void testPipelining() {
+        System.out.println("Test: Pipelining");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(1000);
+
+        try (ServerSocket server = startServer(new QueueRegistry(queue), 0);
+             QueueClient client = new QueueClient("localhost", server.getLocalPort())) {
+            List<CompletableFuture<QueueClient.Reply>> puts = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                puts.add(client.put(i));
+            }
+            for (int i = 0; i < 500; i++) {
+                QueueClient.Reply reply = puts.get(i).get(5, TimeUnit.SECONDS);
+                assert reply.getItem() == i && reply.getSize() == i + 1 : "PUT replies should come back in order";
+                assert reply.getCapacity() == -1 : "A fixed queue does not report its capacity";
+            }
+            assert client.size().get(5, TimeUnit.SECONDS) == 500 : "All items should be in the queue";
+
+            List<CompletableFuture<QueueClient.Reply>> takes = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                takes.add(client.take());
+            }
+            for (int i = 0; i < 500; i++) {
+                assert takes.get(i).get(5, TimeUnit.SECONDS).getItem() == i : "Items should be taken in order";
+            }
+            assert client.tryTake().get(5, TimeUnit.SECONDS) == null : "tryTake on an empty queue should give null";
+            assert client.poll(20).get(5, TimeUnit.SECONDS) == null : "poll should give null on timeout";
+            System.out.println("Pipelining test passed");
+        } catch (Exception e) {
+            System.out.println("Pipelining test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that puts wait for the linger time or a full batch and then go out as one PUTN
+    public static void testBatching() {
+        System.out.println("Test: Batching");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(10000);
+        final long LINGER_MS = 200;
+
+        try (ServerSocket server = startServer(new QueueRegistry(queue), 0);
+             QueueClient client = new QueueClient("localhost", server.getLocalPort(), null, 1, LINGER_MS)) {
+            long start = System.nanoTime();
+            CompletableFuture<QueueClient.Reply> first = client.put(1);
+            CompletableFuture<QueueClient.Reply> second = client.put(2);
+            assert !first.isDone() && queue.size() == 0 : "Items should wait for the linger time";
+            assert second.get(5, TimeUnit.SECONDS).getSize() == 2 : "Both items should go out together";
+            assert first.get().getSize() == 2 : "Every item gets the reply to its batch";
+            long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs >= LINGER_MS - 20 : "The batch should linger, waited " + waitedMs + " ms";
+
+            // A full batch does not wait
+            List<CompletableFuture<QueueClient.Reply>> puts = new ArrayList<>();
+            start = System.nanoTime();
+            for (int i = 0; i < QueueClient.MAX_BATCH; i++) {
+                puts.add(client.put(100 + i));
+            }
+            puts.get(QueueClient.MAX_BATCH - 1).get(5, TimeUnit.SECONDS);
+            assert (System.nanoTime() - start) / 1_000_000 < LINGER_MS : "A full batch should be sent at once";
+
+            // flush() sends a partial batch now
+            CompletableFuture<QueueClient.Reply> flushed = client.put(-1);
+            client.flush();
+            assert flushed.get(LINGER_MS / 2, TimeUnit.MILLISECONDS).getSize() == QueueClient.MAX_BATCH + 3 : "flush should send the batch";
+
+            assert queue.take() == 1 && queue.take() == 2 && queue.take() == 100 : "Batches should keep the put order";
+            System.out.println("Batching test passed");
+        } catch (Exception e) {
+            System.out.println("Batching test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a waiting TAKE on one pooled connection does not hold up the others
+    public static void testPooling() {
+        System.out.println("Test: Pooling");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (ServerSocket server = startServer(registry, 0);
+             QueueClient client = new QueueClient("localhost", server.getLocalPort(), "jobs", 2, 0)) {
+            client.call("CREATE jobs 10").get(5, TimeUnit.SECONDS);
+            CompletableFuture<QueueClient.Reply> take = client.take();
+            Thread.sleep(50);
+            assert !take.isDone() : "TAKE should wait on the empty queue";
+            assert client.getOutstanding() == 1 : "Only the TAKE should be unanswered";
+
+            // Goes to the other connection, so it is not stuck behind the TAKE
+            assert client.put(42).get(5, TimeUnit.SECONDS) != null : "PUT should not wait behind the TAKE";
+            assert take.get(5, TimeUnit.SECONDS).getItem() == 42 : "TAKE should get the item";
+            assert registry.getDefaultQueue().size() == 0 : "The named queue should be used, not the default one";
+            System.out.println("Pooling test passed");
+        } catch (Exception e) {
+            System.out.println("Pooling test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a lost connection fails its futures and the client connects again
+    public static void testReconnect() {
+        System.out.println("Test: Reconnect");
+
+        try {
+            List<Socket> accepted = new ArrayList<>();
+            ServerSocket server = new ServerSocket(0);
+            int port = server.getLocalPort();
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        synchronized (accepted) {
+                            accepted.add(socket);
+                        }
+                        new Thread(new QueueServer.ClientHandler(socket, registry, null)).start();
+                    }
+                } catch (IOException e) {
+                    // Server socket closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            try (QueueClient client = new QueueClient("localhost", port)) {
+                assert client.put(1).get(5, TimeUnit.SECONDS).getSize() == 1 : "PUT should succeed";
+                assert client.take().get(5, TimeUnit.SECONDS).getItem() == 1 : "TAKE should succeed";
+                CompletableFuture<QueueClient.Reply> waiting = client.take();
+
+                // The server goes away while the TAKE waits
+                server.close();
+                synchronized (accepted) {
+                    for (Socket socket : accepted) {
+                        socket.close();
+                    }
+                }
+                try {
+                    waiting.get(5, TimeUnit.SECONDS);
+                    assert false : "The waiting TAKE should fail";
+                } catch (ExecutionException e) {
+                    assert e.getCause() instanceof IOException : "The TAKE should fail with an IOException";
+                }
+                try {
+                    client.put(2).get(5, TimeUnit.SECONDS);
+                    assert false : "PUT should fail while the server is down";
+                } catch (ExecutionException e) {
+                    assert e.getCause() instanceof IOException : "PUT should fail with an IOException";
+                }
+
+                // A new server on the same port: the next request connects again
+                QueueRegistry restarted = new QueueRegistry(new BoundedBlockingQueue(10));
+                try (ServerSocket again = startServer(restarted, port)) {
+                    assert again.getLocalPort() == port : "The new server should listen on the old port";
+                    Thread.sleep(QueueClient.RECONNECT_MS);
+                    assert client.put(7).get(5, TimeUnit.SECONDS).getSize() == 1 : "The client should connect again";
+                    assert restarted.getDefaultQueue().size() == 1 : "The item should reach the new server";
+                }
+            }
+            System.out.println("Reconnect test passed");
+        } catch (Exception e) {
+            System.out.println("Reconnect test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Queue Client Tests ===\n");
+
+        testPipelining();
+        testBatching();
+        testPooling();
+        testReconnect();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
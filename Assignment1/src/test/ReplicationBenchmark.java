@@ -0,0 +1,129 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+// Measures what replication costs a QueueServer. Several clients push pipelined PUT+TAKE
+// pairs through an in-process thread-per-connection server, once without replication and
+// once each with async and sync acks to a backup QueueServer in a second JVM.
+//
+// Usage: ReplicationBenchmark [operationsPerClient] [clients] [pipelineDepth]
+public class ReplicationBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        System.out.println("=== Replication Benchmark (" + clients + " clients x " + operations +
+                           " PUT+TAKE pairs, pipeline depth " + depth + ") ===\n");
+        // Modes take turns and each reports its best round, so a noisy moment on the machine
+        // does not count against one mode only
+        double single = 0;
+        double async = 0;
+        double sync = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            single = Math.max(single, run(null, operations, clients, depth));
+            async = Math.max(async, run(Replication.AckMode.ASYNC, operations, clients, depth));
+            sync = Math.max(sync, run(Replication.AckMode.SYNC, operations, clients, depth));
+        }
+        report("single node", single, single);
+        report("async replication", async, single);
+        report("sync replication", sync, single);
+    }
+
+    // Returns PUT+TAKE pairs per second
+    private static double run(Replication.AckMode ackMode, int operations, int clients, int depth) throws Exception {
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(clients * depth));
+        Process backup = null;
+        ReplicationPrimary primary = null;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            if (ackMode != null) {
+                int replicationPort;
+                try (ServerSocket probe = new ServerSocket(0)) {
+                    replicationPort = probe.getLocalPort();
+                }
+                backup = startBackup(replicationPort, clients * depth);
+                primary = new ReplicationPrimary(registry, "localhost", replicationPort, ackMode, Replication.DEFAULT_ACK_TIMEOUT_MS);
+                primary.start();
+                while (!primary.isConnected() || primary.getAcked() == 0) {
+                    Thread.sleep(10);
+                }
+            }
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                    }
+                } catch (Exception e) {
+                    // Server socket closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            // Warm up both JVMs before timing
+            runClients(serverSocket.getLocalPort(), operations / 5, clients, depth);
+            long start = System.nanoTime();
+            runClients(serverSocket.getLocalPort(), operations, clients, depth);
+            return (double) operations * clients / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            if (primary != null) {
+                primary.stop();
+            }
+            if (backup != null) {
+                backup.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private static void runClients(int port, int operations, int clients, int depth) throws InterruptedException {
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                try (Socket socket = new Socket("localhost", port);
+                     PrintWriter out = new PrintWriter(socket.getOutputStream());
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                    socket.setTcpNoDelay(true);
+                    for (int done = 0; done < operations; done += depth) {
+                        for (int i = 0; i < depth; i++) {
+                            out.println("PUT " + (done + i));
+                            out.println("TRYTAKE");
+                        }
+                        out.flush();
+                        for (int i = 0; i < 2 * depth; i++) {
+                            in.readLine();
+                        }
+                    }
+                } catch (Exception e) {
+                    System.out.println("Client failed: " + e.getMessage());
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static Process startBackup(int replicationPort, int capacity) throws Exception {
+        int clientPort;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            clientPort = probe.getLocalPort();
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "QueueServer",
+                                  String.valueOf(capacity), String.valueOf(clientPort), "--backup", String.valueOf(replicationPort))
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+    }
+
+    private static void report(String mode, double pairsPerSecond, double single) {
+        System.out.printf("%-20s %10.0f PUT+TAKE/s  %+6.1f%% vs single node%n", mode, pairsPerSecond,
+                          100.0 * (pairsPerSecond - single) / single);
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Tests for primary-backup replication. The primary runs in this JVM, the backup is a
+// QueueServer started in a second JVM, the way the two would run in production.
+public class ReplicationTest {
+
+    // A backup QueueServer in its own JVM
+    private static class BackupProcess implements AutoCloseable {
+        final Process process;
+        final int clientPort;
+        final int replicationPort;
+
+        BackupProcess(String... options) throws Exception {
+            clientPort = freePort();
+            replicationPort = freePort();
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("QueueServer");
+            command.add("10");
+            command.add(String.valueOf(clientPort));
+            command.add("--backup");
+            command.add(String.valueOf(replicationPort));
+            for (String option : options) {
+                command.add(option);
+            }
+            process = new ProcessBuilder(command).redirectErrorStream(true)
+                                                 .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            // Ready once it answers ROLE
+            long deadline = System.currentTimeMillis() + 10000;
+            while (true) {
+                try {
+                    if (send(clientPort, "ROLE").startsWith("OK backup")) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        process.destroyForcibly();
+                        throw new IOException("Backup did not start");
+                    }
+                    Thread.sleep(50);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            process.destroyForcibly();
+        }
+    }
+
+    // A backup in this JVM that skips every record and acknowledges each batch only after
+    // ackDelayMs, so that a reply sent without waiting for the ack is caught
+    private static class SlowBackup implements AutoCloseable {
+        final ServerSocket serverSocket;
+
+        SlowBackup(long ackDelayMs) throws IOException {
+            serverSocket = new ServerSocket(0);
+            Thread receiver = new Thread(() -> {
+                try (Socket socket = serverSocket.accept();
+                     DataInputStream in = new DataInputStream(socket.getInputStream());
+                     DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                    in.readInt(); // MAGIC
+                    while (true) {
+                        byte op = in.readByte();
+                        switch (op) {
+                            case Replication.OP_CREATE:
+                                in.readInt();
+                                in.readUTF();
+                                in.readInt();
+                                in.readBoolean();
+                                break;
+                            case Replication.OP_SNAPSHOT:
+                                in.readInt();
+                                in.skipBytes(4 * in.readInt());
+                                break;
+                            case Replication.OP_ENQUEUE:
+                                in.skipBytes(8);
+                                break;
+                            case Replication.OP_DEQUEUE:
+                                in.skipBytes(4);
+                                break;
+                            default: // OP_BATCH_END
+                                long sequence = in.readLong();
+                                Thread.sleep(ackDelayMs);
+                                out.writeLong(sequence);
+                                out.flush();
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Primary stopped or socket closed
+                }
+            });
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Starts a thread-per-connection server for the registry on a free port
+    private static ServerSocket startPrimary(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Sends one command on a new connection and returns the reply
+    private static String send(int port, String command) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println(command);
+            return in.readLine();
+        }
+    }
+
+    // Waits until the backup has acknowledged everything the primary logged, at least the
+    // snapshot of the default queue
+    private static void awaitCaughtUp(ReplicationPrimary primary) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!primary.isConnected() || primary.getAppended() == 0 || primary.getAcked() < primary.getAppended()) {
+            assert System.currentTimeMillis() < deadline : "Backup should catch up";
+            Thread.sleep(10);
+        }
+    }
+
+    // Test that queues, including items put before the backup connected, reach the backup
+    public static void testAsyncReplication() {
+        System.out.println("Test: Async Replication");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (BackupProcess backup = new BackupProcess();
+             ServerSocket server = startPrimary(registry)) {
+            int port = server.getLocalPort();
+            send(port, "PUT 1");
+            send(port, "PUT 2");
+
+            ReplicationPrimary primary = new ReplicationPrimary(registry, "localhost", backup.replicationPort,
+                                                                Replication.AckMode.ASYNC, Replication.DEFAULT_ACK_TIMEOUT_MS);
+            primary.start();
+            try {
+                awaitCaughtUp(primary);
+                assert send(backup.clientPort, "SIZE").equals("OK 2 10") : "Snapshot should carry the earlier items";
+
+                send(port, "PUT 3");
+                assert send(port, "TAKE").equals("OK 1 2") : "Primary should serve clients as before";
+                assert send(port, "CREATE jobs 5 dynamic").equals("OK 5 dynamic") : "CREATE should work on the primary";
+                send(port, "PUTN jobs 3 7 8 9");
+                assert send(port, "ROLE").startsWith("OK primary connected") : "ROLE should report the stream";
+                awaitCaughtUp(primary);
+
+                assert send(backup.clientPort, "SIZE").equals("OK 2 10") : "PUT and TAKE should be replicated";
+                assert send(backup.clientPort, "STATUS jobs").startsWith("OK 3 5 5 ") : "New queues should be replicated with their type";
+                assert send(backup.clientPort, "TAKE").startsWith("ERROR Read-only") : "Backup should refuse changes";
+                assert send(backup.clientPort, "PUT 4").startsWith("ERROR Read-only") : "Backup should refuse changes";
+            } finally {
+                primary.stop();
+            }
+            System.out.println("Async replication test passed");
+        } catch (Exception e) {
+            System.out.println("Async replication test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that in sync mode a reply is only sent once the backup has the change
+    public static void testSyncAcks() {
+        System.out.println("Test: Sync Acks");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (BackupProcess backup = new BackupProcess();
+             ServerSocket server = startPrimary(registry)) {
+            ReplicationPrimary primary = new ReplicationPrimary(registry, "localhost", backup.replicationPort,
+                                                                Replication.AckMode.SYNC, Replication.DEFAULT_ACK_TIMEOUT_MS);
+            primary.start();
+            try {
+                awaitCaughtUp(primary);
+                try (Socket socket = new Socket("localhost", server.getLocalPort());
+                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                    for (int i = 1; i <= 5; i++) {
+                        out.println("PUT " + i);
+                        assert in.readLine().equals("OK " + i) : "PUT should succeed";
+                        assert send(backup.clientPort, "SIZE").equals("OK " + i + " 10") : "Backup should have the item before the reply";
+                    }
+                    out.println("TAKE");
+                    assert in.readLine().equals("OK 1 4") : "TAKE should succeed";
+                    assert send(backup.clientPort, "SIZE").equals("OK 4 10") : "Backup should have the TAKE before the reply";
+                }
+            } finally {
+                primary.stop();
+            }
+            System.out.println("Sync acks test passed");
+        } catch (Exception e) {
+            System.out.println("Sync acks test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that binary-protocol replies wait for the backup too in sync mode
+    public static void testSyncAcksBinary() {
+        System.out.println("Test: Sync Acks Binary");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (SlowBackup backup = new SlowBackup(200);
+             ServerSocket server = startPrimary(registry)) {
+            ReplicationPrimary primary = new ReplicationPrimary(registry, "localhost", backup.getPort(),
+                                                                Replication.AckMode.SYNC, Replication.DEFAULT_ACK_TIMEOUT_MS);
+            primary.start();
+            try {
+                awaitCaughtUp(primary);
+                try (BinaryQueueClient client = new BinaryQueueClient("localhost", server.getLocalPort())) {
+                    assert client.put(1) == 1 : "PUT should succeed";
+                    assert primary.getAcked() == primary.getAppended() : "Backup should have acked the PUT before the reply";
+                    assert client.putBatch(new int[] {2, 3}) == 3 : "PUT_BATCH should succeed";
+                    assert primary.getAcked() == primary.getAppended() : "Backup should have acked the batch before the reply";
+                    assert client.take() == 1 : "TAKE should succeed";
+                    assert primary.getAcked() == primary.getAppended() : "Backup should have acked the TAKE before the reply";
+                }
+            } finally {
+                primary.stop();
+            }
+            System.out.println("Sync acks binary test passed");
+        } catch (Exception e) {
+            System.out.println("Sync acks binary test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test PROMOTE: the backup takes over with the replicated items and accepts changes
+    public static void testManualPromotion() {
+        System.out.println("Test: Manual Promotion");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (BackupProcess backup = new BackupProcess();
+             ServerSocket server = startPrimary(registry)) {
+            ReplicationPrimary primary = new ReplicationPrimary(registry, "localhost", backup.replicationPort,
+                                                                Replication.AckMode.ASYNC, Replication.DEFAULT_ACK_TIMEOUT_MS);
+            primary.start();
+            try {
+                send(server.getLocalPort(), "PUT 10");
+                send(server.getLocalPort(), "PUT 20");
+                awaitCaughtUp(primary);
+            } finally {
+                // The primary fails
+                primary.stop();
+            }
+
+            assert send(backup.clientPort, "PROMOTE").equals("OK primary") : "PROMOTE should succeed";
+            assert send(backup.clientPort, "ROLE").equals("OK primary") : "ROLE should report the new role";
+            assert send(backup.clientPort, "TAKE").equals("OK 10 1") : "Promoted backup should serve the replicated items";
+            assert send(backup.clientPort, "PUT 30").equals("OK 2") : "Promoted backup should accept changes";
+            System.out.println("Manual promotion test passed");
+        } catch (Exception e) {
+            System.out.println("Manual promotion test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a backup with --auto-promote takes over once the primary goes quiet
+    public static void testAutoPromotion() {
+        System.out.println("Test: Auto Promotion");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (BackupProcess backup = new BackupProcess("--auto-promote", "500");
+             ServerSocket server = startPrimary(registry)) {
+            ReplicationPrimary primary = new ReplicationPrimary(registry, "localhost", backup.replicationPort,
+                                                                Replication.AckMode.ASYNC, Replication.DEFAULT_ACK_TIMEOUT_MS);
+            primary.start();
+            send(server.getLocalPort(), "PUT 5");
+            awaitCaughtUp(primary);
+
+            // Heartbeats keep an idle primary alive
+            Thread.sleep(1000);
+            assert send(backup.clientPort, "ROLE").startsWith("OK backup") : "Idle primary should not be replaced";
+
+            primary.stop();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!send(backup.clientPort, "ROLE").equals("OK primary")) {
+                assert System.currentTimeMillis() < deadline : "Backup should promote itself";
+                Thread.sleep(50);
+            }
+            assert send(backup.clientPort, "TAKE").equals("OK 5 0") : "Promoted backup should serve the replicated items";
+            System.out.println("Auto promotion test passed");
+        } catch (Exception e) {
+            System.out.println("Auto promotion test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Replication Tests ===\n");
+
+        testAsyncReplication();
+        testSyncAcks();
+        testSyncAcksBinary();
+        testManualPromotion();
+        testAutoPromotion();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
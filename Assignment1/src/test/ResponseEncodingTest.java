@@ -0,0 +1,201 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// Tests for the allocation-free text path of QueueServer: TextReply, TextLineReader,
+// QueueSnapshot and the replies of the commands it serves directly
+public class ResponseEncodingTest {
+
+    // Starts a QueueServer handler for one connection on its own thread
+    private static Thread serveOne(ServerSocket server, QueueRegistry registry) {
+        Thread handler = new Thread(() -> {
+            try {
+                new QueueServer.ClientHandler(server.accept(), registry, null).run();
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        handler.setDaemon(true);
+        handler.start();
+        return handler;
+    }
+
+    // Sends the commands in one write and returns the reply lines joined by '|'
+    private static String exchange(Socket socket, BufferedReader in, String... commands) throws IOException {
+        StringBuilder request = new StringBuilder();
+        for (String command : commands) {
+            request.append(command).append('\n');
+        }
+        socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder replies = new StringBuilder();
+        for (int i = 0; i < commands.length; i++) {
+            replies.append(i == 0 ? "" : "|").append(in.readLine());
+        }
+        return replies.toString();
+    }
+
+    // Test that numbers and booleans are encoded like String.valueOf and long replies are drained
+    public static void testTextReply() {
+        System.out.println("Test: Text Reply");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            TextReply reply = new TextReply(bytes, 16, 64);
+            long[] values = {0, 7, -1, 10, 1234567890, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+            StringBuilder expected = new StringBuilder();
+            for (long value : values) {
+                reply.append(value).append(' ');
+                expected.append(value).append(' ');
+            }
+            reply.append(true).append(' ').append(false).newLine();
+            expected.append("true false\n");
+            for (int i = 0; i < 100; i++) {
+                reply.println("ITEM ", i);
+                expected.append("ITEM ").append(i).append('\n');
+            }
+            reply.println("ERROR Invalid queue name été");
+            expected.append("ERROR Invalid queue name été\n");
+            assert bytes.size() > 0 && reply.pending() <= 64 : "A full buffer should be written out";
+            reply.flush();
+            assert reply.pending() == 0 : "flush should send everything";
+            assert bytes.toString(StandardCharsets.UTF_8).equals(expected.toString()) : "Output should match String.valueOf";
+
+            OutputStream broken = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            };
+            TextReply failing = new TextReply(broken, 16, 16);
+            failing.println("OK");
+            failing.flush();
+            assert failing.checkError() && failing.pending() == 0 : "A failed write should be reported, not thrown";
+            System.out.println("Text reply test passed");
+        } catch (Exception e) {
+            System.out.println("Text reply test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test line splitting like BufferedReader and parsing numbers in place
+    public static void testLineReader() {
+        System.out.println("Test: Line Reader");
+
+        try {
+            String longLine = "PUTN " + "1 ".repeat(100) + "1";
+            String input = "PUT 5\r\nTAKE\rSIZE\n\n" + longLine + "\nQUIT";
+            TextLineReader reader = new TextLineReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII)), 16);
+            BufferedReader expected = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.US_ASCII))));
+            String line;
+            while ((line = expected.readLine()) != null) {
+                assert reader.readLine() : "The reader should have the line " + line;
+                assert reader.lineString().equals(line) : "Expected " + line + ", got " + reader.lineString();
+            }
+            assert !reader.readLine() : "The reader should end with BufferedReader";
+
+            reader = new TextLineReader(new ByteArrayInputStream("TAKE q -250 12x 1234567890123456789\n".getBytes(StandardCharsets.US_ASCII)), 64);
+            assert reader.readLine();
+            assert reader.tokenEnd(0) == 4 && reader.regionEquals(0, 4, "TAKE") && !reader.regionEquals(0, 4, "TAKEN") : "Tokens should match";
+            assert reader.parseNumber(7, 11) && reader.parsedValue() == -250 : "Negative numbers should parse";
+            assert !reader.parseNumber(12, 15) : "Trailing letters are not a number";
+            assert !reader.parseNumber(16, reader.length()) : "Numbers that could overflow are left to the general path";
+            assert !reader.parseNumber(5, 5) : "An empty token is not a number";
+            System.out.println("Line reader test passed");
+        } catch (Exception e) {
+            System.out.println("Line reader test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that the directly served commands answer exactly like the general path did
+    public static void testReplies() {
+        System.out.println("Test: Replies");
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(2));
+            serveOne(server, registry);
+            try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                assert exchange(socket, in, "PUT 5", "SIZE", "STATUS", "TRYPUT -6", "TRYPUT 7", "STATUS")
+                        .equals("OK 1|OK 1 2|OK 1 2 false false 0 0 0|OK 2|FULL|OK 2 2 false true 0 0 0") : "PUT replies";
+                assert exchange(socket, in, "TAKE", "TRYTAKE", "TRYTAKE", "TAKE 0", "TAKE 10")
+                        .equals("OK 5 1|OK -6 0|EMPTY|TIMEOUT|TIMEOUT") : "TAKE replies";
+                assert exchange(socket, in, "PUT jobs 9", "SIZE jobs", "TAKE jobs", "SIZE jobs")
+                        .equals("OK 1|OK 1 2|OK 9 0|OK 0 2") : "Named queue replies";
+                String errors = exchange(socket, in, "PUT 1x", "PUT 99999999999", "TAKE -5", "FOO");
+                assert errors.equals("ERROR For input string: \"1x\"|ERROR For input string: \"99999999999\"|ERROR Timeout must not be negative|ERROR Unknown command")
+                        : "Errors should come from the general path: " + errors;
+            }
+
+            QueueRegistry dynamic = new QueueRegistry(new DynamicBoundedBlockingQueue(2));
+            serveOne(server, dynamic);
+            try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                assert exchange(socket, in, "PUT 1", "PUT 2", "PUT 3", "SIZE", "STATUS", "TAKE")
+                        .equals("OK 1 2|OK 2 2|OK 3 4|OK 3 4 2|OK 3 4 2 false false 0 0 0|OK 1 2 4") : "Dynamic queue replies";
+            }
+            System.out.println("Replies test passed");
+        } catch (Exception e) {
+            System.out.println("Replies test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that the steady-state request loop allocates (close to) nothing per command
+    public static void testNoAllocation() {
+        System.out.println("Test: No Allocation");
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            System.out.println("No allocation test skipped: the JVM does not count allocated bytes per thread");
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(100));
+            Thread handler = serveOne(server, registry);
+            try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                // Items below 128 come from the Integer cache, so boxing them allocates nothing either
+                String[] batch = {"PUT 1", "PUT jobs 100", "TAKE", "TRYTAKE jobs", "SIZE", "STATUS jobs", "TRYPUT 5", "TAKE 10"};
+                final int ROUNDS = 2000;
+                for (int i = 0; i < ROUNDS; i++) {
+                    exchange(socket, in, batch);
+                }
+
+                long before = allocations.getThreadAllocatedBytes(handler.getId());
+                for (int i = 0; i < ROUNDS; i++) {
+                    exchange(socket, in, batch);
+                }
+                long allocated = allocations.getThreadAllocatedBytes(handler.getId()) - before;
+                long commands = (long) ROUNDS * batch.length;
+                System.out.printf("  %d bytes allocated for %d commands%n", allocated, commands);
+                assert allocated < commands : "Commands should not allocate, " + allocated + " bytes for " + commands;
+            }
+            System.out.println("No allocation test passed");
+        } catch (Exception e) {
+            System.out.println("No allocation test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Response Encoding Tests ===\n");
+
+        testTextReply();
+        testLineReader();
+        testReplies();
+        testNoAllocation();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
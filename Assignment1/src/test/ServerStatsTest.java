@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Tests for the STATS command and the ServerStats counters behind it
+public class ServerStatsTest {
+
+    // Starts a thread-per-connection QueueServer, or DynamicQueueServer for a dynamic queue
+    private static ServerSocket startServer(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        boolean dynamic = registry.getDefaultQueue().isDynamic();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Runnable handler = dynamic
+                            ? new DynamicQueueServer.ClientHandler(serverSocket.accept(), registry)
+                            : new QueueServer.ClientHandler(serverSocket.accept(), registry, null);
+                    new Thread(handler).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Splits a STATS reply into its name=value fields
+    private static Map<String, String> fields(String reply) {
+        assert reply.startsWith("OK ") : "STATS should succeed: " + reply;
+        Map<String, String> fields = new HashMap<>();
+        for (String field : reply.substring(3).split(" ")) {
+            int eq = field.indexOf('=');
+            fields.put(field.substring(0, eq), field.substring(eq + 1));
+        }
+        return fields;
+    }
+
+    private static long number(Map<String, String> fields, String name) {
+        return Long.parseLong(fields.get(name));
+    }
+
+    // The index-th comma-separated value of a field, e.g. the count of a command
+    private static long part(Map<String, String> fields, String name, int index) {
+        String value = fields.get(name);
+        assert value != null : name + " should be reported";
+        return Long.parseLong(value.split(",")[index]);
+    }
+
+    private static Map<String, String> stats(QueueClient client) throws Exception {
+        return fields(client.call("STATS").get(5, TimeUnit.SECONDS));
+    }
+
+    // Test per-command counts, rates, bytes and connections
+    public static void testCommandCounts() {
+        System.out.println("Test: Command Counts");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(100));
+
+        try (ServerSocket server = startServer(registry);
+             QueueClient client = new QueueClient("localhost", server.getLocalPort())) {
+            for (int i = 0; i < 20; i++) {
+                client.put(i);
+            }
+            client.take();
+            client.size();
+            try {
+                client.call("FOO").get(5, TimeUnit.SECONDS);
+                assert false : "Unknown commands should still fail";
+            } catch (ExecutionException e) {
+                // ERROR Unknown command
+            }
+
+            Map<String, String> first = stats(client);
+            assert part(first, "PUT", 0) == 20 : "20 PUTs should be counted";
+            assert part(first, "TAKE", 0) == 1 && part(first, "SIZE", 0) == 1 : "TAKE and SIZE should be counted";
+            assert part(first, "OTHER", 0) == 1 : "Unknown commands are counted together";
+            assert part(first, "PUT", 1) > 0 : "PUT should have a rate";
+            assert part(first, "PUT", 5) >= part(first, "PUT", 2) : "max should not be below p50";
+            assert !first.containsKey("TRYPUT") : "Unused commands should be left out";
+            assert number(first, "connections") == 1 && number(first, "connections_total") == 1 : "One connection should be open";
+            assert number(first, "conn_commands") == 23 : "The connection's own commands should be counted";
+            assert number(first, "bytes_in") == number(first, "conn_bytes_in") : "Only this connection sent bytes";
+            assert number(first, "bytes_in") > 20 * "PUT 1\n".length() : "Request bytes should be counted";
+            assert number(first, "bytes_out") > 0 : "Reply bytes should be counted";
+
+            // Rates cover the time since the previous STATS
+            Thread.sleep(20);
+            Map<String, String> second = stats(client);
+            assert part(second, "PUT", 0) == 20 && part(second, "PUT", 1) == 0 : "No PUTs since the last STATS";
+            assert part(second, "STATS", 0) == 1 : "The first STATS should be counted";
+            assert number(second, "interval_ms") >= 20 : "The interval should start at the previous STATS";
+            assert registry.getStats().getCommandCount("PUT") == 20 : "The counters should be readable directly";
+            System.out.println("Command counts test passed");
+        } catch (Exception e) {
+            System.out.println("Command counts test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that waits on a full or empty queue are counted and timed
+    public static void testBlocked() {
+        System.out.println("Test: Blocked Commands");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(1));
+
+        try (ServerSocket server = startServer(registry);
+             QueueClient producer = new QueueClient("localhost", server.getLocalPort());
+             QueueClient consumer = new QueueClient("localhost", server.getLocalPort())) {
+            producer.put(1).get(5, TimeUnit.SECONDS);
+            CompletableFuture<QueueClient.Reply> blockedPut = producer.put(2);
+            Thread.sleep(100);
+            consumer.take().get(5, TimeUnit.SECONDS);
+            blockedPut.get(5, TimeUnit.SECONDS);
+            consumer.take().get(5, TimeUnit.SECONDS);
+
+            CompletableFuture<QueueClient.Reply> blockedTake = consumer.take();
+            Thread.sleep(100);
+            producer.put(3).get(5, TimeUnit.SECONDS);
+            blockedTake.get(5, TimeUnit.SECONDS);
+
+            Map<String, String> stats = stats(producer);
+            assert part(stats, "blocked_puts", 0) == 1 : "One PUT should have waited";
+            assert part(stats, "blocked_puts", 1) >= 80 : "The PUT waited about 100 ms";
+            assert part(stats, "blocked_takes", 0) == 1 : "One TAKE should have waited";
+            assert part(stats, "blocked_takes", 3) >= 80_000 : "The TAKE waited about 100 ms";
+            assert number(stats, "connections") == 2 : "Two connections should be open";
+            System.out.println("Blocked commands test passed");
+        } catch (Exception e) {
+            System.out.println("Blocked commands test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a dynamic queue's grows and shrinks are reported
+    public static void testResizeEvents() {
+        System.out.println("Test: Resize Events");
+        QueueRegistry registry = new QueueRegistry(new DynamicBoundedBlockingQueue(2));
+
+        try (ServerSocket server = startServer(registry);
+             QueueClient client = new QueueClient("localhost", server.getLocalPort())) {
+            for (int i = 0; i < 5; i++) {
+                client.put(i);
+            }
+            Map<String, String> grown = stats(client);
+            assert number(grown, "grows") == 2 && number(grown, "shrinks") == 0 : "Capacity 2 should grow twice to hold 5 items";
+
+            for (int i = 0; i < 5; i++) {
+                client.take();
+            }
+            Map<String, String> shrunk = stats(client);
+            assert number(shrunk, "shrinks") == 1 : "The emptied queue should shrink back once";
+            System.out.println("Resize events test passed");
+        } catch (Exception e) {
+            System.out.println("Resize events test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test STATS on the NIO server, including parked commands and binary requests
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+        NioQueueServer server = new NioQueueServer(registry, 0, 2);
+
+        try {
+            server.start();
+            try (QueueClient client = new QueueClient("localhost", server.getPort());
+                 BinaryQueueClient binary = new BinaryQueueClient("localhost", server.getPort())) {
+                CompletableFuture<QueueClient.Reply> parked = client.take();
+                Thread.sleep(100);
+                binary.put(7);
+                binary.putBatch(new int[] {8, 9});
+                assert parked.get(5, TimeUnit.SECONDS).getItem() == 7 : "The parked TAKE should get the item";
+
+                Map<String, String> stats = stats(client);
+                assert part(stats, "TAKE", 0) == 1 : "The parked TAKE should be counted once it completes";
+                assert part(stats, "TAKE", 5) >= 80_000 : "Its service time includes the wait";
+                assert part(stats, "blocked_takes", 0) == 1 : "The parked TAKE should count as blocked";
+                assert part(stats, "PUT", 0) == 1 && part(stats, "PUT_BATCH", 0) == 1 : "Binary requests should be counted";
+                assert number(stats, "connections") == 2 : "Both connections should be open";
+                assert number(stats, "bytes_in") >= binary.getBytesSent() : "Binary request bytes should be counted";
+            }
+            Thread.sleep(100);
+            try (QueueClient client = new QueueClient("localhost", server.getPort())) {
+                Map<String, String> stats = stats(client);
+                assert number(stats, "connections") == 1 && number(stats, "connections_total") == 3 : "Closed connections should be counted";
+                assert part(stats, "QUIT", 0) >= 1 : "The binary client's QUIT should be counted";
+            }
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Server Stats Tests ===\n");
+
+        testCommandCounts();
+        testBlocked();
+        testResizeEvents();
+        testNioServer();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Tests for the shared-memory transport: SharedMemoryRing itself, SharedMemoryProducer
+// feeding both thread-per-connection servers through RING, the doorbell and the handoff time
+public class SharedMemoryRingTest {
+
+    // Starts a thread-per-connection QueueServer, or DynamicQueueServer for a dynamic queue
+    private static ServerSocket startServer(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        boolean dynamic = registry.getDefaultQueue().isDynamic();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Runnable handler = dynamic
+                            ? new DynamicQueueServer.ClientHandler(serverSocket.accept(), registry)
+                            : new QueueServer.ClientHandler(serverSocket.accept(), registry, null);
+                    new Thread(handler).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    private static Path ringFile() throws IOException {
+        Path path = Files.createTempFile("queue", ".ring");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    private static String send(int port, String command) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+        }
+    }
+
+    // Test the ring on its own: full and empty, wrapping around, batches and bad files
+    public static void testRing() {
+        System.out.println("Test: Ring");
+
+        try {
+            Path path = ringFile();
+            SharedMemoryRing producer = SharedMemoryRing.create(path, 8);
+            SharedMemoryRing consumer = SharedMemoryRing.open(path);
+            int[] batch = new int[8];
+            assert consumer.peek(batch, 8) == 0 && !consumer.hasItems() : "A new ring is empty";
+
+            int next = 0;
+            int expected = 0;
+            for (int round = 0; round < 100; round++) {
+                while (producer.offer(next)) {
+                    next++;
+                }
+                assert producer.size() == 8 : "The ring should hold exactly its capacity";
+                int count = consumer.peek(batch, 3);
+                assert count == 3 && batch[0] == expected : "Items should come out in order";
+                assert producer.offerAll(new int[] {1, 2}, 0, 2) == 0 : "Peeked items still take up room";
+                consumer.release(count);
+                expected += count;
+                count = consumer.peek(batch, 8);
+                for (int i = 0; i < count; i++) {
+                    assert batch[i] == expected + i : "Expected " + (expected + i) + ", got " + batch[i];
+                }
+                consumer.release(count);
+                expected += count;
+            }
+            assert producer.offerAll(new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, 0, 10) == 8 : "offerAll adds what fits";
+
+            try {
+                SharedMemoryRing.create(path, 6);
+                assert false : "The capacity must be a power of two";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            Files.write(path, new byte[SharedMemoryRing.HEADER_SIZE + 32]);
+            try {
+                SharedMemoryRing.open(path);
+                assert false : "A file without the header is not a ring";
+            } catch (IOException e) {
+                // Expected
+            }
+            System.out.println("Ring test passed");
+        } catch (Exception e) {
+            System.out.println("Ring test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test many items through a small ring into a smaller queue that a consumer empties
+    public static void testProducer() {
+        System.out.println("Test: Producer");
+        final int ITEMS = 100_000;
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            registry.create("jobs", 16, false);
+            try (ServerSocket server = startServer(registry);
+                 QueueClient consumer = new QueueClient("localhost", server.getLocalPort(), "jobs", 1, 0)) {
+                Thread taker = new Thread(() -> {
+                    try {
+                        int expected = 0;
+                        while (expected < ITEMS) {
+                            for (int item : consumer.pollUpTo(100, 1000).get(10, TimeUnit.SECONDS)) {
+                                assert item == expected : "Expected " + expected + ", got " + item;
+                                expected++;
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                taker.start();
+                try (SharedMemoryProducer producer = new SharedMemoryProducer("localhost", server.getLocalPort(), "jobs",
+                                                                              ringFile(), 64)) {
+                    int[] items = new int[100];
+                    for (int i = 0; i < ITEMS / 2; i++) {
+                        producer.put(i);
+                    }
+                    for (int from = ITEMS / 2; from < ITEMS; from += items.length) {
+                        for (int i = 0; i < items.length; i++) {
+                            items[i] = from + i;
+                        }
+                        producer.putAll(items, 0, items.length);
+                    }
+                    assert producer.awaitDrained(10_000) : "The server should move every item";
+                }
+                taker.join(10_000);
+                assert !taker.isAlive() : "The consumer should get every item";
+                assert registry.find("jobs").getItemsPut() == ITEMS : "The queue should count the items put";
+                assert registry.getStats().getBlockedPuts().getCount() > 0 : "The full queue should have held the ring back";
+                assert registry.getStats().getCommandCount("RING") == 1 : "RING should be counted";
+            }
+            System.out.println("Producer test passed");
+        } catch (Exception e) {
+            System.out.println("Producer test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that an idle ring thread sleeps and the doorbell wakes it, over a Unix domain
+    // socket and DynamicQueueServer
+    public static void testDoorbell() {
+        System.out.println("Test: Doorbell");
+
+        try {
+            Path socket = Files.createTempDirectory("queue-ring").resolve("queue.sock");
+            QueueRegistry registry = new QueueRegistry(new DynamicBoundedBlockingQueue(2));
+            try (ServerSocketChannel server = StreamConnection.listenUnix(socket)) {
+                Thread acceptor = new Thread(() -> {
+                    try {
+                        while (true) {
+                            new Thread(new DynamicQueueServer.ClientHandler(StreamConnection.of(server.accept()), registry)).start();
+                        }
+                    } catch (IOException e) {
+                        // Server socket closed
+                    }
+                });
+                acceptor.setDaemon(true);
+                acceptor.start();
+
+                try (SharedMemoryProducer producer = new SharedMemoryProducer(StreamConnection.UNIX_PREFIX + socket, 0, null,
+                                                                              ringFile(), 8)) {
+                    for (int round = 0; round < 5; round++) {
+                        Thread.sleep(20); // Far beyond the spin time
+                        producer.put(round);
+                        assert registry.getDefaultQueue().poll(2000) == round : "The doorbell should wake the ring thread";
+                    }
+                    assert producer.getDoorbells() >= 1 : "A sleeping ring thread needs the doorbell";
+                }
+            } finally {
+                Files.deleteIfExists(socket);
+            }
+            System.out.println("Doorbell test passed");
+        } catch (Exception e) {
+            System.out.println("Doorbell test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test refused rings, the final drain after the producer leaves and a server that goes away
+    public static void testEnds() {
+        System.out.println("Test: Ends");
+        NioQueueServer nio = new NioQueueServer(new BoundedBlockingQueue(10), 0, 1);
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(1000));
+            try (ServerSocket server = startServer(registry)) {
+                int port = server.getLocalPort();
+                assert send(port, "RING relative.ring").startsWith("ERROR Usage") : "The path must be absolute";
+                Path notRing = ringFile();
+                assert send(port, "RING " + notRing).startsWith("ERROR") : "Only ring files are mapped";
+
+                // Items still in the ring when the producer disconnects reach the queue
+                Path path = ringFile();
+                SharedMemoryProducer producer = new SharedMemoryProducer("localhost", port, null, path, 1024);
+                for (int i = 0; i < 500; i++) {
+                    producer.put(i);
+                }
+                producer.close();
+                assert !Files.exists(path) : "close() should remove the ring file";
+                long deadline = System.currentTimeMillis() + 5000;
+                while (registry.getDefaultQueue().size() < 500 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assert registry.getDefaultQueue().size() == 500 : "Every item should be in the queue";
+            }
+
+            nio.start();
+            try {
+                new SharedMemoryProducer("localhost", nio.getPort(), null, ringFile(), 8).close();
+                assert false : "The NIO server has no thread for a ring";
+            } catch (IOException e) {
+                assert e.getMessage().contains("thread-per-connection") : e.getMessage();
+            }
+
+            // A producer whose server went away fails instead of waiting for room forever
+            try (ServerSocket gone = new ServerSocket(0)) {
+                Thread server = new Thread(() -> {
+                    try (Socket socket = gone.accept()) {
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+                        socket.getOutputStream().write("OK 2\n".getBytes(StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        // Test failure shows up below
+                    }
+                });
+                server.start();
+                try (SharedMemoryProducer producer = new SharedMemoryProducer("localhost", gone.getLocalPort(), null, ringFile(), 2)) {
+                    producer.put(1);
+                    producer.put(2);
+                    producer.put(3);
+                    assert false : "Nobody empties the ring";
+                } catch (IOException e) {
+                    assert e.getMessage().contains("closed") : e.getMessage();
+                }
+            }
+            System.out.println("Ends test passed");
+        } catch (Exception e) {
+            System.out.println("Ends test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            nio.stop();
+        }
+    }
+
+    // Reports the time from put() to the item being in the queue
+    public static void testHandoff() {
+        System.out.println("Test: Handoff");
+        final int ROUNDS = 20_000;
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            try (ServerSocket server = startServer(registry);
+                 SharedMemoryProducer producer = new SharedMemoryProducer("localhost", server.getLocalPort(), null, ringFile(), 1024)) {
+                NamedQueue queue = registry.getDefaultQueue();
+                LatencyHistogram handoff = new LatencyHistogram();
+                for (int i = 0; i < 2 * ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    producer.put(i);
+                    Integer item;
+                    while ((item = queue.poll()) == null) {
+                        Thread.onSpinWait();
+                    }
+                    if (i >= ROUNDS) {
+                        // The first half warms up
+                        handoff.recordValue(System.nanoTime() - start);
+                    }
+                    assert item == i : "Expected " + i + ", got " + item;
+                }
+                System.out.printf("  handoff p50 %.2f us, p99 %.2f us (%d cores, ring thread %s)%n",
+                                  handoff.getValueAtPercentile(50) / 1000.0, handoff.getValueAtPercentile(99) / 1000.0,
+                                  Runtime.getRuntime().availableProcessors(), RingSession.SPIN_NANOS > 0 ? "spinning" : "sleeping");
+            }
+            System.out.println("Handoff test passed");
+        } catch (Exception e) {
+            System.out.println("Handoff test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Shared Memory Ring Tests ===\n");
+
+        testRing();
+        testProducer();
+        testDoorbell();
+        testEnds();
+        testHandoff();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Tests for Snapshotter: the file round trip, expiry after a restore, restoring a large queue,
+// damaged files, periodic snapshots and the SNAPSHOT command
+public class SnapshotTest {
+
+    // Starts a thread-per-connection QueueServer
+    private static ServerSocket startServer(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    private static Path tempFile() throws IOException {
+        Path path = Files.createTempFile("queues", ".snapshot");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    // Test that every queue comes back with its items in order, its type and its capacity
+    public static void testRoundTrip() {
+        System.out.println("Test: Round Trip");
+
+        try {
+            Path path = tempFile();
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            NamedQueue jobs = registry.create("jobs", 4, true);
+            NamedQueue orders = registry.create("orders", 3, false);
+            registry.create("empty", 5, false);
+            for (int i = 0; i < 8; i++) {
+                registry.getDefaultQueue().offer(i);
+            }
+            registry.getDefaultQueue().poll(); // Head no longer at the start of the buffer
+            for (int i = 0; i < 9; i++) {
+                jobs.offer(-i);
+            }
+            orders.offer(Integer.MIN_VALUE);
+            orders.offer(Integer.MAX_VALUE);
+
+            Snapshotter.Result written = new Snapshotter(registry, path, 0).snapshot();
+            assert written.getQueues() == 4 && written.getItems() == 7 + 9 + 2 : "Every item should be written";
+            assert written.getBytes() == Files.size(path) : "The reported size should match the file";
+
+            QueueRegistry restored = new QueueRegistry(new BoundedBlockingQueue(10));
+            Snapshotter.Result read = Snapshotter.restore(restored, path);
+            assert read.getItems() == written.getItems() && read.getQueues() == 4 : "Everything should be read back";
+            for (NamedQueue queue : registry.list()) {
+                NamedQueue copy = restored.find(queue.getName());
+                assert copy != null : queue.getName() + " should be restored";
+                assert Arrays.equals(copy.toArray(), queue.toArray()) : queue.getName() + " should have the same items";
+                assert copy.isDynamic() == queue.isDynamic() : queue.getName() + " should keep its type";
+                assert copy.getInitialCapacity() == queue.getInitialCapacity() : queue.getName() + " should keep its capacity";
+            }
+            assert !Files.exists(path.resolveSibling(path.getFileName() + ".tmp")) : "The temporary file should be renamed";
+            System.out.println("Round trip test passed");
+        } catch (Exception e) {
+            System.out.println("Round trip test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a restore resets expiry: items come back with the default TTL, not their deadlines
+    public static void testExpiryReset() {
+        System.out.println("Test: Expiry Reset");
+
+        try {
+            Path path = tempFile();
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            NamedQueue jobs = registry.create("jobs", 4, false);
+            jobs.offerWithTtl(1, 50);
+            jobs.offer(2);
+            new Snapshotter(registry, path, 0).snapshot();
+            Thread.sleep(100); // Item 1's deadline passes
+
+            QueueRegistry restored = new QueueRegistry(new BoundedBlockingQueue(10));
+            restored.setDefaultTtl(60_000);
+            Snapshotter.restore(restored, path);
+            NamedQueue copy = restored.find("jobs");
+            assert copy.getTtl() == 60_000 : "The restored queue should get the default TTL";
+            assert copy.removeExpired(10) == 0 : "No restored item should have expired";
+            assert Arrays.equals(copy.toArray(), new int[] {1, 2}) : "Both items should be restored";
+            System.out.println("Expiry reset test passed");
+        } catch (Exception e) {
+            System.out.println("Expiry reset test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test a million-item queue: a short copy pause and a fast restore
+    public static void testLargeQueue() {
+        System.out.println("Test: Large Queue");
+        final int ITEMS = 1_000_000;
+
+        try {
+            Path path = tempFile();
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(ITEMS));
+            int[] items = new int[ITEMS];
+            for (int i = 0; i < ITEMS; i++) {
+                items[i] = i * 7;
+            }
+            registry.getDefaultQueue().offerAll(items, 0, ITEMS);
+
+            Snapshotter.Result written = new Snapshotter(registry, path, 0).snapshot();
+            QueueRegistry restored = new QueueRegistry(new BoundedBlockingQueue(ITEMS));
+            Snapshotter.Result read = Snapshotter.restore(restored, path);
+            System.out.printf("  snapshot: %d ms (queue paused %d us), restore: %d ms, %d bytes%n",
+                              written.getTotalNanos() / 1_000_000, written.getPauseNanos() / 1000,
+                              read.getTotalNanos() / 1_000_000, written.getBytes());
+            assert Arrays.equals(restored.getDefaultQueue().toArray(), items) : "The items should come back in order";
+            assert written.getPauseNanos() < written.getTotalNanos() : "The queue should be paused only for the copy";
+            assert read.getTotalNanos() < TimeUnit.SECONDS.toNanos(2) : "A million items should restore quickly";
+            System.out.println("Large queue test passed");
+        } catch (Exception e) {
+            System.out.println("Large queue test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that damaged or foreign files are refused instead of restoring empty queues
+    public static void testDamagedFile() {
+        System.out.println("Test: Damaged File");
+
+        try {
+            Path path = tempFile();
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            registry.getDefaultQueue().offer(42);
+            new Snapshotter(registry, path, 0).snapshot();
+            byte[] good = Files.readAllBytes(path);
+
+            byte[] flipped = good.clone();
+            flipped[good.length - 12] ^= 1; // Inside the item
+            byte[] truncated = Arrays.copyOf(good, good.length - 3);
+            byte[] foreign = new byte[good.length];
+            for (byte[] bad : new byte[][] {flipped, truncated, foreign}) {
+                Files.write(path, bad);
+                try {
+                    Snapshotter.restore(new QueueRegistry(new BoundedBlockingQueue(10)), path);
+                    assert false : "A damaged file should be refused";
+                } catch (IOException e) {
+                    // Expected
+                }
+            }
+
+            // Items that do not fit a smaller queue are dropped, the rest restored
+            Files.write(path, good);
+            QueueRegistry small = new QueueRegistry(new BoundedBlockingQueue(1));
+            small.getDefaultQueue().offer(1);
+            assert Snapshotter.restore(small, path).getItems() == 0 : "A full queue takes nothing";
+            System.out.println("Damaged file test passed");
+        } catch (Exception e) {
+            System.out.println("Damaged file test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test background snapshots, which skip intervals without changes
+    public static void testPeriodic() {
+        System.out.println("Test: Periodic Snapshots");
+
+        try {
+            Path path = tempFile();
+            Files.delete(path);
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            registry.getDefaultQueue().offer(1);
+            Snapshotter snapshotter = new Snapshotter(registry, path, 30);
+            snapshotter.start();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (snapshotter.getLastSnapshot() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Snapshotter.Result first = snapshotter.getLastSnapshot();
+            assert first != null && Files.exists(path) : "A snapshot should have been taken";
+            Thread.sleep(150);
+            assert snapshotter.getLastSnapshot() == first : "Nothing changed, so no new snapshot";
+
+            registry.getDefaultQueue().offer(2);
+            deadline = System.currentTimeMillis() + 5000;
+            while (snapshotter.getLastSnapshot() == first && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assert snapshotter.getLastSnapshot().getItems() == 2 : "The change should be picked up";
+
+            registry.getDefaultQueue().offer(3);
+            snapshotter.close();
+            QueueRegistry restored = new QueueRegistry(new BoundedBlockingQueue(10));
+            Snapshotter.restore(restored, path);
+            assert restored.getDefaultQueue().size() == 3 : "close() should take a last snapshot";
+            System.out.println("Periodic snapshots test passed");
+        } catch (Exception e) {
+            System.out.println("Periodic snapshots test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test SNAPSHOT on the thread-per-connection and the NIO server
+    public static void testSnapshotCommand() {
+        System.out.println("Test: SNAPSHOT Command");
+        NioQueueServer nio = null;
+
+        try {
+            Path path = tempFile();
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            try (ServerSocket server = startServer(registry);
+                 QueueClient client = new QueueClient("localhost", server.getLocalPort())) {
+                String off = client.call("SNAPSHOT")
+                        .handle((reply, error) -> error != null ? error.getMessage() : reply).get(5, TimeUnit.SECONDS);
+                assert off.contains("Snapshots are off") : "Without --snapshot there is nothing to write: " + off;
+
+                registry.setSnapshotter(new Snapshotter(registry, path, 0));
+                client.put(1);
+                client.put(2);
+                String reply = client.call("SNAPSHOT").get(5, TimeUnit.SECONDS);
+                assert reply.startsWith("OK 1 2 " + Files.size(path) + " ") : "SNAPSHOT should report the file: " + reply;
+            }
+
+            nio = new NioQueueServer(registry, 0, 1);
+            nio.start();
+            try (QueueClient client = new QueueClient("localhost", nio.getPort())) {
+                client.put(3);
+                // The SIZE behind it waits for the snapshot's reply
+                String reply = client.call("SNAPSHOT").get(5, TimeUnit.SECONDS);
+                String size = client.call("SIZE").get(5, TimeUnit.SECONDS);
+                assert reply.startsWith("OK 1 3 ") && size.equals("OK 3 10") : "SNAPSHOT on NIO: " + reply + ", " + size;
+            }
+            assert registry.getStats().getCommandCount("SNAPSHOT") == 3 : "SNAPSHOT should be counted";
+            System.out.println("SNAPSHOT command test passed");
+        } catch (Exception e) {
+            System.out.println("SNAPSHOT command test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (nio != null) {
+                nio.stop();
+            }
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Snapshot Tests ===\n");
+
+        testRoundTrip();
+        testExpiryReset();
+        testLargeQueue();
+        testDamagedFile();
+        testPeriodic();
+        testSnapshotCommand();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.Function;
+
+// Tests for SUBSCRIBE streams with CREDIT flow control on every server mode
+public class SubscribeTest {
+
+    // Starts a thread-per-connection server on a free port, with handlers made by the factory
+    private static ServerSocket startThreadPerConnection(Function<Socket, Runnable> handlerFactory) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(handlerFactory.apply(serverSocket.accept())).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Sends UNSUBSCRIBE and returns the delivered count, checking the ITEM lines still in transit
+    private static int unsubscribe(PrintWriter out, BufferedReader in) throws IOException {
+        out.println("UNSUBSCRIBE");
+        String line;
+        while ((line = in.readLine()).startsWith("ITEM ")) {
+            // Sent before the UNSUBSCRIBE was processed
+        }
+        assert line.startsWith("OK ") : "UNSUBSCRIBE should reply OK, got " + line;
+        return Integer.parseInt(line.substring(3));
+    }
+
+    // Checks streaming and credits against a server whose default queue is fixed with capacity 10
+    private static void checkServer(int port) throws Exception {
+        try (Socket subscriber = new Socket("localhost", port);
+             Socket producer = new Socket("localhost", port)) {
+            PrintWriter subOut = new PrintWriter(subscriber.getOutputStream(), true);
+            BufferedReader subIn = new BufferedReader(new InputStreamReader(subscriber.getInputStream()));
+            PrintWriter out = new PrintWriter(producer.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+
+            subOut.println("CREDIT 1");
+            assert subIn.readLine().startsWith("ERROR") : "CREDIT needs a subscription";
+            subOut.println("SUBSCRIBE jobs 2");
+            assert subIn.readLine().equals("OK 2") : "SUBSCRIBE should confirm the credits";
+
+            // Only as many items as credits are pushed
+            out.println("PUTN jobs 5 1 2 3 4 5");
+            assert in.readLine().startsWith("OK") : "PUTN should succeed";
+            assert subIn.readLine().equals("ITEM 1") && subIn.readLine().equals("ITEM 2") : "Items should be pushed in order";
+            Thread.sleep(100);
+            assert !subIn.ready() : "No item should be pushed without credit";
+            out.println("STATUS jobs");
+            assert in.readLine().equals("OK 3 10 false false 1 2 0") : "STATUS should count subscribers and items in flight";
+
+            // CREDIT acknowledges the items sent and allows more
+            subOut.println("CREDIT 3");
+            for (int i = 3; i <= 5; i++) {
+                assert subIn.readLine().equals("ITEM " + i) : "Credited items should be pushed";
+            }
+            out.println("STATUS jobs");
+            assert in.readLine().equals("OK 0 10 true false 1 3 0") : "Acknowledged items should leave the in-flight count";
+
+            // Items arriving later are pushed without another request
+            subOut.println("CREDIT 5");
+            out.println("PUT jobs 6");
+            assert in.readLine().startsWith("OK") : "PUT should succeed";
+            assert subIn.readLine().equals("ITEM 6") : "New items should be pushed as they arrive";
+
+            subOut.println("TAKE");
+            assert subIn.readLine().startsWith("ERROR") : "Other commands are rejected while subscribed";
+            assert unsubscribe(subOut, subIn) == 6 : "UNSUBSCRIBE should report the items sent";
+            out.println("STATUS jobs");
+            assert in.readLine().equals("OK 0 10 true false 0 0 0") : "UNSUBSCRIBE should clear the counts";
+            out.println("PUT jobs 7");
+            assert in.readLine().startsWith("OK") : "PUT should succeed";
+            Thread.sleep(100);
+            assert !subIn.ready() : "Nothing should be pushed after UNSUBSCRIBE";
+            subOut.println("TAKE jobs");
+            assert subIn.readLine().equals("OK 7 0") : "Commands work again after UNSUBSCRIBE";
+        }
+    }
+
+    // Checks that items arriving one by one are shared between two subscribers
+    private static void checkFairness(int port) throws Exception {
+        final int ITEMS = 40;
+        try (Socket first = new Socket("localhost", port);
+             Socket second = new Socket("localhost", port);
+             Socket producer = new Socket("localhost", port)) {
+            PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+            BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+            PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+            BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+            PrintWriter out = new PrintWriter(producer.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+
+            firstOut.println("SUBSCRIBE fair 100");
+            secondOut.println("SUBSCRIBE fair 100");
+            assert firstIn.readLine().equals("OK 100") && secondIn.readLine().equals("OK 100") : "Both should subscribe";
+            Thread.sleep(100);
+            for (int i = 0; i < ITEMS; i++) {
+                out.println("PUT fair " + i);
+                assert in.readLine().startsWith("OK") : "PUT should succeed";
+                Thread.sleep(2);
+            }
+            Thread.sleep(200);
+            out.println("SIZE fair");
+            assert in.readLine().startsWith("OK 0 ") : "Every item should have been pushed";
+
+            int firstCount = unsubscribe(firstOut, firstIn);
+            int secondCount = unsubscribe(secondOut, secondIn);
+            assert firstCount + secondCount == ITEMS : "Every item should be delivered once";
+            assert firstCount >= ITEMS / 4 && secondCount >= ITEMS / 4 : "Items should be shared, got " + firstCount + "/" + secondCount;
+        }
+    }
+
+    // Test the thread-per-connection servers
+    public static void testThreadPerConnection() {
+        System.out.println("Test: Thread-per-Connection Servers");
+        QueueRegistry fixedRegistry = new QueueRegistry(new BoundedBlockingQueue(10));
+        QueueRegistry dynamicRegistry = new QueueRegistry(new BoundedBlockingQueue(10));
+
+        try (ServerSocket fixed = startThreadPerConnection(socket -> new QueueServer.ClientHandler(socket, fixedRegistry, null));
+             ServerSocket dynamic = startThreadPerConnection(socket -> new DynamicQueueServer.ClientHandler(socket, dynamicRegistry))) {
+            checkServer(fixed.getLocalPort());
+            checkServer(dynamic.getLocalPort());
+            checkFairness(fixed.getLocalPort());
+            System.out.println("Thread-per-connection servers test passed");
+        } catch (Exception e) {
+            System.out.println("Thread-per-connection servers test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the event-loop server, with subscribers on different event loops
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        NioQueueServer server = new NioQueueServer(new QueueRegistry(new BoundedBlockingQueue(10)), 0, 2);
+
+        try {
+            server.start();
+            checkServer(server.getPort());
+            checkFairness(server.getPort());
+
+            // A closed subscriber stops counting
+            try (Socket subscriber = new Socket("localhost", server.getPort())) {
+                PrintWriter out = new PrintWriter(subscriber.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(subscriber.getInputStream()));
+                out.println("SUBSCRIBE gone 5");
+                assert in.readLine().equals("OK 5") : "SUBSCRIBE should succeed";
+            }
+            Thread.sleep(100);
+            assert server.getRegistry().find("gone").getSubscribers() == 0 : "Closing should end the subscription";
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Subscribe Tests ===\n");
+
+        testThreadPerConnection();
+        testNioServer();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
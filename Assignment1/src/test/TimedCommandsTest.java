@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.Function;
+
+// Tests for TAKE <timeoutMs>, TAKEN <count> <timeoutMs>, TRYTAKE and TRYPUT on every server mode
+public class TimedCommandsTest {
+
+    // Starts a thread-per-connection server on a free port, with handlers made by the factory
+    private static ServerSocket startThreadPerConnection(Function<Socket, Runnable> handlerFactory) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(handlerFactory.apply(serverSocket.accept())).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Checks the timed and non-blocking commands against a server with an empty queue of capacity 2
+    private static void checkServer(int port, String takeReplySuffix) throws Exception {
+        try (Socket socket = new Socket("localhost", port);
+             Socket producer = new Socket("localhost", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+             PrintWriter producerOut = new PrintWriter(producer.getOutputStream(), true);
+             BufferedReader producerIn = new BufferedReader(new InputStreamReader(producer.getInputStream()))) {
+            out.println("TRYTAKE");
+            assert in.readLine().equals("EMPTY") : "TRYTAKE should not wait on an empty queue";
+            out.println("TAKE 0");
+            assert in.readLine().equals("TIMEOUT") : "TAKE 0 should not wait";
+            out.println("TAKE -1");
+            assert in.readLine().startsWith("ERROR") : "Negative timeouts should be rejected";
+
+            // The TIMEOUT reply arrives at about the deadline
+            long start = System.nanoTime();
+            out.println("TAKE 200");
+            assert in.readLine().equals("TIMEOUT") : "TAKE should time out on an empty queue";
+            long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs >= 180 && waitedMs < 2000 : "TAKE should wait about the timeout, waited " + waitedMs + "ms";
+
+            // A timed TAKE is answered as soon as an item arrives
+            out.println("TAKE 5000");
+            Thread.sleep(50);
+            assert !in.ready() : "TAKE should wait for an item";
+            start = System.nanoTime();
+            producerOut.println("PUT 7");
+            assert producerIn.readLine().startsWith("OK") : "PUT should succeed";
+            assert in.readLine().equals("OK 7 " + takeReplySuffix) : "Timed TAKE should receive the item";
+            assert (System.nanoTime() - start) / 1_000_000 < 2000 : "Timed TAKE should not wait for the deadline";
+
+            // TAKEN takes the same optional timeout
+            out.println("TAKEN 5 0");
+            assert in.readLine().equals("TIMEOUT") : "TAKEN 5 0 should not wait";
+            start = System.nanoTime();
+            out.println("TAKEN 5 200");
+            assert in.readLine().equals("TIMEOUT") : "TAKEN should time out on an empty queue";
+            waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs >= 180 && waitedMs < 2000 : "TAKEN should wait about the timeout, waited " + waitedMs + "ms";
+            out.println("TAKEN 5 5000");
+            Thread.sleep(50);
+            assert !in.ready() : "TAKEN should wait for an item";
+            producerOut.println("PUT 8");
+            assert producerIn.readLine().startsWith("OK") : "PUT should succeed";
+            assert in.readLine().equals("OK 1 8 " + takeReplySuffix) : "Timed TAKEN should receive the item";
+
+            // The connection stays usable after a timeout
+            out.println("TRYPUT 1");
+            assert in.readLine().startsWith("OK 1") : "TRYPUT should add with space";
+            out.println("TRYTAKE");
+            assert in.readLine().equals("OK 1 " + takeReplySuffix) : "TRYTAKE should take an available item";
+        }
+    }
+
+    // Test the thread-per-connection servers
+    public static void testThreadPerConnection() {
+        System.out.println("Test: Thread-per-Connection Servers");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(2);
+        DynamicBoundedBlockingQueue dynamicQueue = new DynamicBoundedBlockingQueue(2);
+
+        try (ServerSocket fixed = startThreadPerConnection(socket -> new QueueServer.ClientHandler(socket, queue));
+             ServerSocket dynamic = startThreadPerConnection(socket -> new DynamicQueueServer.ClientHandler(socket, dynamicQueue))) {
+            checkServer(fixed.getLocalPort(), "0");
+            checkServer(dynamic.getLocalPort(), "0 2");
+
+            // TRYPUT reports FULL instead of waiting
+            try (Socket socket = new Socket("localhost", fixed.getLocalPort());
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                out.println("PUTN 2 1 2");
+                assert in.readLine().equals("OK 2") : "PUTN should fill the queue";
+                out.println("TRYPUT 3");
+                assert in.readLine().equals("FULL") : "TRYPUT should not wait on a full queue";
+                out.println("TAKEN 2");
+                assert in.readLine().startsWith("OK 2 1 2 ") : "Queue should hold only the PUTN items";
+            }
+            System.out.println("Thread-per-connection servers test passed");
+        } catch (Exception e) {
+            System.out.println("Thread-per-connection servers test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the event-loop server, where timed TAKEs are parked with a deadline
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(2), 0, 1);
+
+        try {
+            server.start();
+            checkServer(server.getPort(), "0");
+
+            try (Socket first = new Socket("localhost", server.getPort());
+                 Socket second = new Socket("localhost", server.getPort());
+                 Socket producer = new Socket("localhost", server.getPort())) {
+                PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+                BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+                PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+                BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+                PrintWriter producerOut = new PrintWriter(producer.getOutputStream(), true);
+                BufferedReader producerIn = new BufferedReader(new InputStreamReader(producer.getInputStream()));
+
+                // An expired TAKE leaves the parked queue, so the next item goes to the one still waiting
+                firstOut.println("TAKE 100");
+                secondOut.println("TAKE");
+                assert firstIn.readLine().equals("TIMEOUT") : "Short TAKE should time out";
+                producerOut.println("PUT 5");
+                assert producerIn.readLine().startsWith("OK") : "PUT should succeed";
+                assert secondIn.readLine().equals("OK 5 0") : "Untimed TAKE should receive the item";
+                firstOut.println("TRYTAKE");
+                assert firstIn.readLine().equals("EMPTY") : "Timed-out connection should keep working";
+
+                // Commands pipelined behind a timed TAKE run after its TIMEOUT
+                firstOut.println("TAKE 50");
+                firstOut.println("TRYPUT 9");
+                assert firstIn.readLine().equals("TIMEOUT") : "Pipelined TAKE should time out";
+                assert firstIn.readLine().equals("OK 1") : "Pipelined TRYPUT should follow";
+
+                producerOut.println("PUT 10");
+                assert producerIn.readLine().equals("OK 2") : "PUT should fill the queue";
+                producerOut.println("TRYPUT 11");
+                assert producerIn.readLine().equals("FULL") : "TRYPUT should not park on a full queue";
+            }
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Timed Commands Tests ===\n");
+
+        testThreadPerConnection();
+        testNioServer();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Tests for TimingWheel on its own and for PUTDELAY through DelayScheduler and QueueServer
+public class TimingWheelTest {
+
+    // Collects expired items with the tick they expired at
+    private static class Collector implements TimingWheel.Expiry {
+        final List<long[]> expired = new ArrayList<>();
+        TimingWheel wheel;
+
+        @Override
+        public void expired(int item, int tag) {
+            expired.add(new long[] {wheel.getNow(), item, tag});
+        }
+    }
+
+    private static ServerSocket startServer(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Test that items expire exactly at their tick, in order, across every level
+    public static void testExpiry() {
+        System.out.println("Test: Expiry");
+
+        try {
+            TimingWheel wheel = new TimingWheel();
+            Collector collector = new Collector();
+            collector.wheel = wheel;
+            long[] ticks = {1, 63, 64, 65, 4095, 4096, 4097, 262_143, 262_144, 300_000, 1L << 30, (1L << 36) + 5};
+            for (int i = ticks.length - 1; i >= 0; i--) {
+                wheel.add(ticks[i], i, 7);
+            }
+            wheel.add(64, 100, 8); // Same tick as an earlier one: after it
+            assert wheel.size() == ticks.length + 1 : "Every item should be pending";
+            assert wheel.nextEventTick() == 1 : "The first tick with work is 1";
+
+            wheel.advanceTo(1L << 40, collector);
+            assert collector.expired.size() == ticks.length + 1 : "Every item should expire";
+            int index = 0;
+            for (long[] expired : collector.expired) {
+                if (expired[1] == 100) {
+                    assert expired[0] == 64 && collector.expired.get(index - 1)[1] == 2 : "Same tick keeps the order added";
+                } else {
+                    assert expired[0] == ticks[(int) expired[1]] : "Item " + expired[1] + " expired at " + expired[0];
+                    assert expired[2] == 7 : "The tag comes along";
+                }
+                index++;
+            }
+            assert wheel.size() == 0 && wheel.nextEventTick() == -1 : "The wheel should be empty";
+
+            try {
+                wheel.add(wheel.getNow(), 1, 0);
+                assert false : "Only future ticks can be added";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            System.out.println("Expiry test passed");
+        } catch (Exception e) {
+            System.out.println("Expiry test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test random adds while the wheel moves in random steps against the expected order
+    public static void testRandom() {
+        System.out.println("Test: Random");
+
+        try {
+            Random random = new Random(42);
+            TimingWheel wheel = new TimingWheel();
+            Collector collector = new Collector();
+            collector.wheel = wheel;
+            List<long[]> added = new ArrayList<>(); // {due tick, item}
+            int item = 0;
+            for (int round = 0; round < 2000; round++) {
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    int range = random.nextBoolean() ? 100 : 1_000_000;
+                    long tick = wheel.getNow() + 1 + random.nextInt(range);
+                    wheel.add(tick, item, 0);
+                    added.add(new long[] {tick, item++});
+                }
+                wheel.advanceTo(wheel.getNow() + random.nextInt(random.nextBoolean() ? 10 : 5000), collector);
+            }
+            wheel.advanceTo(wheel.getNow() + 2_000_000, collector);
+
+            // Expected: by due tick, then by the order added
+            added.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+            assert collector.expired.size() == added.size() : "Expected " + added.size() + ", got " + collector.expired.size();
+            for (int i = 0; i < added.size(); i++) {
+                long[] expired = collector.expired.get(i);
+                assert expired[0] == added.get(i)[0] && expired[1] == added.get(i)[1]
+                        : "Item " + added.get(i)[1] + " due at " + added.get(i)[0] + ", got " + expired[1] + " at " + expired[0];
+            }
+            System.out.println("Random test passed");
+        } catch (Exception e) {
+            System.out.println("Random test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Reports the cost of adding and expiring a million items
+    public static void testMillion() {
+        System.out.println("Test: Million");
+        final int ITEMS = 1_000_000;
+
+        try {
+            Random random = new Random(7);
+            TimingWheel wheel = new TimingWheel();
+            long[] count = new long[1];
+            TimingWheel.Expiry expiry = (item, tag) -> count[0]++;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITEMS; i++) {
+                wheel.add(1 + random.nextInt(3_600_000), i, 0); // Within an hour of 1 ms ticks
+            }
+            long added = System.nanoTime();
+            for (long tick = 0; tick < 3_600_000; tick += 10) {
+                wheel.advanceTo(tick + 10, expiry);
+            }
+            long expired = System.nanoTime();
+            assert count[0] == ITEMS && wheel.size() == 0 : "Every item should expire";
+            System.out.printf("  %d items: add %.0f ns, expire %.0f ns per item%n", ITEMS,
+                              (added - start) / (double) ITEMS, (expired - added) / (double) ITEMS);
+            System.out.println("Million test passed");
+        } catch (Exception e) {
+            System.out.println("Million test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test PUTDELAY: items stay invisible until due, arrive in due order and in batches
+    public static void testPutDelay() {
+        System.out.println("Test: PUTDELAY");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(100));
+            try (ServerSocket server = startServer(registry);
+                 Socket socket = new Socket("localhost", server.getLocalPort())) {
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+                long start = System.nanoTime();
+                out.println("PUTDELAY 300 3");
+                assert in.readLine().equals("OK") : "PUTDELAY should be accepted";
+                out.println("PUTDELAY 100 1");
+                assert in.readLine().equals("OK") : "PUTDELAY";
+                out.println("PUTDELAY jobs 100 2");
+                assert in.readLine().equals("OK") : "PUTDELAY on a named queue";
+                out.println("TRYTAKE");
+                assert in.readLine().equals("EMPTY") : "A delayed item is not visible yet";
+
+                out.println("TAKE 2000");
+                assert in.readLine().startsWith("OK 1 ") : "The earlier item comes first";
+                assert System.nanoTime() - start >= 100_000_000L : "Not before its delay";
+                out.println("TAKE jobs 2000");
+                assert in.readLine().startsWith("OK 2") : "The named queue gets its item";
+                out.println("TAKE 2000");
+                assert in.readLine().startsWith("OK 3 ") : "Then the later one";
+                assert System.nanoTime() - start >= 300_000_000L : "Not before its delay";
+
+                // Many items due at once go in together, in the order sent
+                for (int i = 0; i < 50; i++) {
+                    out.println("PUTDELAY 50 " + i);
+                }
+                for (int i = 0; i < 50; i++) {
+                    assert in.readLine().equals("OK") : "PUTDELAY";
+                }
+                for (int i = 0; i < 50; i++) {
+                    out.println("TAKE 2000");
+                    assert in.readLine().startsWith("OK " + i + " ") : "Items due together keep their order";
+                }
+
+                out.println("PUTDELAY 0 9");
+                assert in.readLine().equals("OK") : "No delay is fine";
+                out.println("TAKE 2000");
+                assert in.readLine().startsWith("OK 9 ") : "It arrives at the next tick";
+
+                out.println("PUTDELAY 100");
+                assert in.readLine().startsWith("ERROR Usage") : "The item is required";
+                out.println("PUTDELAY -5 1");
+                assert in.readLine().startsWith("ERROR Delay") : "The delay cannot be negative";
+
+                out.println("PUTDELAY 60000 5");
+                assert in.readLine().equals("OK") : "PUTDELAY";
+                out.println("STATS");
+                String stats = in.readLine();
+                assert stats.contains(" delayed=1 ") : "STATS should count the pending item: " + stats;
+                assert stats.contains(" PUTDELAY=57,") : "PUTDELAY should be counted: " + stats;
+                assert registry.getDelays().pending() == 1 : "One item is still pending";
+            }
+            registry.getDelays().close();
+            System.out.println("PUTDELAY test passed");
+        } catch (Exception e) {
+            System.out.println("PUTDELAY test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a full queue holds delivery back without losing items, and that NIO refuses
+    public static void testFullQueue() {
+        System.out.println("Test: Full queue");
+        NioQueueServer nio = new NioQueueServer(new BoundedBlockingQueue(10), 0, 1);
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(5));
+            DelayScheduler delays = registry.getDelays();
+            for (int i = 0; i < 20; i++) {
+                delays.schedule(registry.getDefaultQueue(), 10, i);
+            }
+            long deadline = System.currentTimeMillis() + 2000;
+            while (registry.getDefaultQueue().size() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assert registry.getDefaultQueue().isFull() : "Delivery should fill the queue";
+            for (int i = 0; i < 20; i++) {
+                Integer item = registry.getDefaultQueue().poll(2000);
+                assert item != null && item == i : "Expected " + i + ", got " + item;
+            }
+            assert delays.pending() == 0 && registry.getStats().getDelayedItems() == 0 : "Everything was delivered";
+            delays.close();
+
+            nio.start();
+            try (Socket socket = new Socket("localhost", nio.getPort())) {
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out.println("PUTDELAY 10 1");
+                assert in.readLine().contains("thread-per-connection") : "The NIO server has no scheduler";
+            }
+            System.out.println("Full queue test passed");
+        } catch (Exception e) {
+            System.out.println("Full queue test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            nio.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Timing Wheel Tests ===\n");
+
+        testExpiry();
+        testRandom();
+        testMillion();
+        testPutDelay();
+        testFullQueue();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Unit tests for TokenBucketRateLimiter
+public class TokenBucketRateLimiterTest {
+
+    // Test that a burst is admitted and the next request is rejected
+    public static void testBurstAndReject() {
+        System.out.println("Test: Burst and Reject");
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 5, TokenBucketRateLimiter.Mode.REJECT);
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                assert limiter.acquire() : "Permit " + (i + 1) + " of the burst should be admitted";
+            }
+            assert !limiter.acquire() : "Request beyond the burst should be rejected";
+            assert limiter.getAcquiredCount() == 5 : "Five permits should be counted";
+            assert limiter.getRejectedCount() == 1 : "One rejection should be counted";
+            assert limiter.nanosUntilAvailable() > 0 : "Next permit should be in the future";
+
+            Thread.sleep(150);
+            assert limiter.acquire() : "A permit should be refilled after 100ms";
+
+            System.out.println("Burst and reject test passed");
+        } catch (Exception e) {
+            System.out.println("Burst and reject test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that delay mode paces acquisitions at the configured rate
+    public static void testDelayPacing() {
+        System.out.println("Test: Delay Pacing");
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(100, 1, TokenBucketRateLimiter.Mode.DELAY);
+
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < 21; i++) {
+                assert limiter.acquire() : "Delay mode always admits";
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assert elapsedMs >= 180 : "21 permits at 100/s should take about 200ms, took " + elapsedMs;
+            assert limiter.getDelayedCount() >= 19 : "Most acquisitions should have been delayed";
+            assert limiter.getRejectedCount() == 0 : "Delay mode never rejects";
+
+            System.out.println("Delay pacing test passed");
+            System.out.println("  Elapsed: " + elapsedMs + "ms, " + limiter);
+        } catch (Exception e) {
+            System.out.println("Delay pacing test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that concurrent callers never get more than the allowed permits
+    public static void testConcurrentAccess() {
+        System.out.println("Test: Concurrent Access");
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 50, TokenBucketRateLimiter.Mode.REJECT);
+        AtomicInteger admitted = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    if (limiter.tryAcquire(1)) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+            assert admitted.get() <= 51 : "At most the burst should be admitted, got " + admitted.get();
+            assert admitted.get() >= 50 : "The full burst should be admitted, got " + admitted.get();
+            assert limiter.getRejectedCount() == 800 - admitted.get() : "Every other attempt should be rejected";
+
+            System.out.println("Concurrent access test passed");
+        } catch (InterruptedException e) {
+            System.out.println("Concurrent access test failed: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Test that a rate-limited Producer is paced by its limiter
+    public static void testRateLimitedProducer() {
+        System.out.println("Test: Rate-Limited Producer");
+        BoundedBlockingQueue queue = new BoundedBlockingQueue(50);
+        List<Integer> sourceList = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            sourceList.add(i);
+        }
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(100, 1, TokenBucketRateLimiter.Mode.REJECT);
+        Producer producer = new Producer(queue, sourceList, new AtomicBoolean(false), "Producer-Limited", limiter);
+
+        try {
+            long start = System.nanoTime();
+            Thread producerThread = new Thread(producer);
+            producerThread.start();
+            producerThread.join(5000);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assert queue.size() == 20 : "All items should be produced";
+            assert elapsedMs >= 150 : "20 items at 100/s should take about 200ms, took " + elapsedMs;
+            assert limiter.getAcquiredCount() == 20 : "One permit per item";
+
+            System.out.println("Rate-limited producer test passed");
+        } catch (InterruptedException e) {
+            System.out.println("Rate-limited producer test failed: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Test that a batch larger than the burst is paced in delay mode and refused in reject mode
+    public static void testLargeBatch() {
+        System.out.println("Test: Large Batch");
+        TokenBucketRateLimiter rejecting = new TokenBucketRateLimiter(100, 5, TokenBucketRateLimiter.Mode.REJECT);
+        TokenBucketRateLimiter delaying = new TokenBucketRateLimiter(100, 5, TokenBucketRateLimiter.Mode.DELAY);
+
+        try {
+            try {
+                rejecting.acquire(6);
+                assert false : "A batch larger than the burst can never be admitted in reject mode";
+            } catch (IllegalArgumentException e) {
+                assert e.getMessage().contains("exceeds burst") : "The error should name the burst, got " + e.getMessage();
+            }
+            assert rejecting.getRejectedCount() == 0 : "A refused batch is not a throttled one";
+            assert rejecting.acquire(5) : "A batch of the full burst should still be admitted";
+
+            // 5 permits now, 5 after 50ms and the last 2 after another 20ms
+            long start = System.nanoTime();
+            assert delaying.acquire(12) : "Delay mode always admits";
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assert elapsedMs >= 60 : "12 permits with a burst of 5 at 100/s should take about 70ms, took " + elapsedMs;
+            assert delaying.getAcquiredCount() == 12 : "Every permit of the batch should be counted";
+            assert delaying.getDelayedCount() == 1 : "The batch should count as one delayed acquisition";
+
+            System.out.println("Large batch test passed");
+            System.out.println("  Elapsed: " + elapsedMs + "ms");
+        } catch (Exception e) {
+            System.out.println("Large batch test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that an interrupted wait in delay mode gives its permits back
+    public static void testInterruptedDelay() {
+        System.out.println("Test: Interrupted Delay");
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 1, TokenBucketRateLimiter.Mode.DELAY);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        try {
+            assert limiter.acquire() : "The first permit should be free";
+            Thread waiter = new Thread(() -> {
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            });
+            waiter.start();
+            Thread.sleep(20);
+            waiter.interrupt();
+            waiter.join(1000);
+
+            assert interrupted.get() : "The waiting acquire should be interrupted";
+            long waitMs = limiter.nanosUntilAvailable() / 1_000_000;
+            assert waitMs < 100 : "The next permit should come 100ms after the first, not after the abandoned one, waits " + waitMs + "ms";
+            assert limiter.getAcquiredCount() == 1 : "The interrupted acquire should not be counted";
+
+            System.out.println("Interrupted delay test passed");
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted delay test failed: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== TokenBucketRateLimiter Tests ===\n");
+
+        testBurstAndReject();
+        testDelayPacing();
+        testConcurrentAccess();
+        testRateLimitedProducer();
+        testLargeBatch();
+        testInterruptedDelay();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,393 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Tests for item expiry: queue and per-item TTLs in both queue types, sequenced takes, the
+// ExpirySweeper, and the TTL and PUT <item> <ttlMs> commands with their STATUS and STATS fields
+public class TtlTest {
+
+    private static ServerSocket startServer(QueueRegistry registry) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(serverSocket.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket;
+    }
+
+    // Test that a queue TTL expires items at take time, and only items put after it was set
+    public static void testQueueTtl() {
+        System.out.println("Test: Queue TTL");
+
+        try {
+            BoundedBlockingQueue queue = new BoundedBlockingQueue(10);
+            queue.put(1); // Before the TTL: never expires
+            queue.setTtl(50);
+            assert queue.getTtl() == 50 : "The TTL should be kept";
+            queue.put(2);
+            queue.put(3);
+            Thread.sleep(100);
+            queue.put(4);
+
+            assert queue.take() == 1 : "An item without a TTL stays";
+            assert queue.take() == 4 : "Expired items are skipped";
+            assert queue.getExpiredCount() == 2 : "Two items expired";
+            assert queue.isEmpty() : "Expired items leave the queue";
+
+            queue.put(5);
+            Thread.sleep(100);
+            assert queue.poll() == null : "Only an expired item is left";
+            assert queue.poll(50) == null : "A timed poll waits past expired items";
+            assert queue.getExpiredCount() == 3 : "It was dropped";
+
+            queue.setTtl(0);
+            queue.put(6);
+            Thread.sleep(60);
+            assert queue.poll() == 6 : "TTL 0 turns expiry off";
+            try {
+                queue.setTtl(-1);
+                assert false : "Negative TTLs are refused";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            System.out.println("Queue TTL test passed");
+        } catch (Exception e) {
+            System.out.println("Queue TTL test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test per-item TTLs, that a live head shields expired items behind it, and batch takes
+    public static void testItemTtl() {
+        System.out.println("Test: Item TTL");
+
+        try {
+            BoundedBlockingQueue queue = new BoundedBlockingQueue(4);
+            queue.put(1);
+            queue.putWithTtl(2, 30);
+            assert queue.offerWithTtl(3, 30) : "There is room";
+            queue.putWithTtl(4, 60_000);
+            assert !queue.offerWithTtl(5, 30) : "The queue is full";
+            Thread.sleep(80);
+
+            assert queue.size() == 4 : "The live head shields the expired items behind it";
+            assert queue.take() == 1 : "The head";
+            int[] items = new int[4];
+            assert queue.takeUpTo(items, 0, 4) == 1 && items[0] == 4 : "Expired items are never handed out";
+            assert queue.getExpiredCount() == 2 : "Two items expired";
+
+            try {
+                queue.putWithTtl(6, 0);
+                assert false : "An item TTL must be positive";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            System.out.println("Item TTL test passed");
+        } catch (Exception e) {
+            System.out.println("Item TTL test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test removeExpired in batches, and that a producer waiting on a full queue does not need it
+    public static void testRemoveExpired() {
+        System.out.println("Test: Remove expired");
+
+        try {
+            BoundedBlockingQueue queue = new BoundedBlockingQueue(3000);
+            assert queue.removeExpired(10) == 0 : "Nothing to remove without a TTL";
+            queue.setTtl(20);
+            for (int i = 0; i < 3000; i++) {
+                queue.put(i);
+            }
+            Thread.sleep(50);
+            assert queue.removeExpired(1024) == 1024 : "A full batch";
+            assert queue.removeExpired(1024) == 1024 : "Another";
+            assert queue.removeExpired(1024) == 952 : "The rest";
+            assert queue.size() == 0 && queue.getExpiredCount() == 3000 : "All expired";
+
+            BoundedBlockingQueue full = new BoundedBlockingQueue(1);
+            full.putWithTtl(1, 30);
+            Thread producer = new Thread(() -> {
+                try {
+                    full.put(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            producer.join(2000);
+            assert !producer.isAlive() && full.poll() == 2 : "The producer got its room when the head expired";
+            assert full.getExpiredCount() == 1 && full.removeExpired(10) == 0 : "The put dropped the expired item";
+            System.out.println("Remove expired test passed");
+        } catch (Exception e) {
+            System.out.println("Remove expired test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that deadlines follow the items when a dynamic queue grows and shrinks
+    public static void testDynamic() {
+        System.out.println("Test: Dynamic queue");
+
+        try {
+            DynamicBoundedBlockingQueue queue = new DynamicBoundedBlockingQueue(4);
+            queue.put(0);
+            queue.put(1); // Moves the head, so the buffer wraps before it grows
+            assert queue.take() == 0 : "Head";
+            for (int i = 2; i < 12; i++) {
+                if (i % 2 == 0) {
+                    queue.putWithTtl(i, 30);
+                } else {
+                    queue.putWithTtl(i, 60_000);
+                }
+            }
+            assert queue.capacity() > 4 : "The queue should have grown";
+            Thread.sleep(80);
+            for (int i = 1; i < 12; i += 2) {
+                Integer item = queue.poll();
+                assert item != null && item == i : "Expected " + i + ", got " + item;
+            }
+            assert queue.poll() == null && queue.getExpiredCount() == 5 : "The even items expired";
+            assert queue.capacity() == 4 : "The queue should have shrunk back";
+
+            queue.setTtl(30);
+            assert queue.offerWithTtl(20, 60_000) : "A dynamic queue has room";
+            queue.put(21);
+            Thread.sleep(80);
+            assert queue.take() == 20 : "The item TTL overrides the queue's";
+            assert queue.removeExpired(10) == 1 && queue.isEmpty() : "The queue TTL applied to the other";
+            System.out.println("Dynamic queue test passed");
+        } catch (Exception e) {
+            System.out.println("Dynamic queue test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a queue holding only expired items has room: puts drop them instead of
+    // waiting for the sweeper, and a blocked put goes in when the head expires
+    public static void testPutOnExpired() {
+        System.out.println("Test: Put on expired");
+
+        try {
+            BoundedBlockingQueue queue = new BoundedBlockingQueue(2);
+            queue.setTtl(30);
+            queue.put(1);
+            queue.put(2);
+            assert !queue.offer(3) : "Full of live items";
+            Thread.sleep(50);
+            assert !queue.isFull() && queue.size() == 0 : "Expired items do not count";
+            queue.put(3);
+            queue.put(4);
+            Thread.sleep(50);
+            assert queue.offer(5) && queue.offer(6, 0) : "Expired items make room";
+            assert queue.getExpiredCount() == 4 : "They were dropped";
+
+            // Blocks until the head expires, with no sweeper running
+            long start = System.nanoTime();
+            queue.put(7);
+            long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs >= 20 && waitedMs < 1000 : "The put should wait for the head to expire, waited " + waitedMs + " ms";
+            Thread.sleep(40);
+            start = System.nanoTime();
+            queue.putAll(new int[] {8, 9}, 0, 2);
+            assert queue.offer(10, 1000) : "A timed offer goes in when the head expires";
+            waitedMs = (System.nanoTime() - start) / 1_000_000;
+            assert waitedMs < 1000 : "Batches and timed offers do not wait for a sweep, waited " + waitedMs + " ms";
+
+            DynamicBoundedBlockingQueue dynamic = new DynamicBoundedBlockingQueue(4);
+            dynamic.setTtl(30);
+            for (int i = 0; i < 4; i++) {
+                dynamic.put(i);
+            }
+            Thread.sleep(50);
+            dynamic.put(4);
+            assert dynamic.capacity() == 4 && dynamic.size() == 1 : "Expired items make room instead of growing";
+            System.out.println("Put on expired test passed");
+        } catch (Exception e) {
+            System.out.println("Put on expired test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that expired items use up no sequence numbers, so an OrderedSink keeps emitting
+    public static void testOrderedSink() {
+        System.out.println("Test: Ordered sink");
+
+        try {
+            BoundedBlockingQueue queue = new BoundedBlockingQueue(10);
+            List<Integer> destinationList = new ArrayList<>();
+            OrderedSink sink = new OrderedSink(destinationList, 4);
+            queue.putWithTtl(1, 1);
+            queue.put(2);
+            queue.putWithTtl(3, 1);
+            queue.putWithTtl(4, 1);
+            queue.put(5);
+            Thread.sleep(20);
+
+            // Dropped lazily by the take, and by a sweep
+            sink.accept(queue.takeSequenced());
+            assert queue.removeExpired(10) == 2 : "The sweep should drop items 3 and 4";
+            sink.accept(queue.takeSequenced());
+            assert destinationList.equals(List.of(2, 5)) : "Live items should be emitted in order: " + destinationList;
+            assert sink.getNextSequence() == 2 && sink.getBufferedCount() == 0 : "No gap should be left behind";
+            System.out.println("Ordered sink test passed");
+        } catch (Exception e) {
+            System.out.println("Ordered sink test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that the sweeper empties queues nobody takes from, including ones made later
+    public static void testSweeper() {
+        System.out.println("Test: Sweeper");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            registry.setDefaultTtl(50);
+            NamedQueue later = registry.get("later");
+            NamedQueue jobs = registry.create("jobs", 5000, false);
+            NamedQueue dynamic = registry.create("burst", 4, true);
+            assert later.getTtl() == 50 && jobs.getTtl() == 50 && dynamic.getTtl() == 50 : "Queues made later get the TTL";
+            long start = System.nanoTime();
+            for (int i = 0; i < 5000; i++) {
+                jobs.put(i);
+            }
+            for (int i = 0; i < 100; i++) {
+                dynamic.put(i);
+            }
+            // Polls the counters only: size() would drop the items itself
+            long deadline = System.currentTimeMillis() + 3000;
+            while ((jobs.getExpiredCount() < 5000 || dynamic.getExpiredCount() < 100) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assert jobs.getExpiredCount() == 5000 && dynamic.getExpiredCount() == 100 : "The sweeper should empty both queues";
+            assert elapsedMs < 1000 : "A few sweeps should do, took " + elapsedMs + " ms";
+            assert dynamic.capacity() == 4 : "Sweeping shrinks a dynamic queue";
+            registry.getSweeper().close();
+            System.out.println("Sweeper test passed");
+        } catch (Exception e) {
+            System.out.println("Sweeper test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the TTL command, PUT with a TTL and the STATUS and STATS fields
+    public static void testCommands() {
+        System.out.println("Test: Commands");
+
+        try {
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            try (ServerSocket server = startServer(registry);
+                 Socket socket = new Socket("localhost", server.getLocalPort())) {
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+                out.println("TTL");
+                assert in.readLine().equals("OK 0") : "No TTL by default";
+                out.println("TTL jobs 40");
+                assert in.readLine().equals("OK 40") : "TTL sets the queue's";
+                out.println("PUT jobs 1");
+                assert in.readLine().equals("OK 1") : "PUT";
+                out.println("PUT jobs 2 60000");
+                assert in.readLine().equals("OK 2") : "PUT with its own TTL";
+                out.println("PUT 3 40");
+                assert in.readLine().equals("OK 1") : "PUT with a TTL on the default queue";
+                Thread.sleep(100);
+
+                out.println("TAKE jobs");
+                assert in.readLine().startsWith("OK 2 ") : "The expired item is skipped";
+                out.println("TRYTAKE");
+                assert in.readLine().equals("EMPTY") : "The default queue's item expired";
+                out.println("STATUS jobs");
+                assert in.readLine().equals("OK 0 10 true false 0 0 1") : "STATUS ends with the expired count";
+                out.println("STATS");
+                String stats = in.readLine();
+                assert stats.contains(" expired=2 ") : "STATS totals the expired items: " + stats;
+                assert stats.contains(" TTL=2,") : "TTL should be counted: " + stats;
+
+                out.println("PUT 4 0");
+                assert in.readLine().equals("ERROR TTL must be positive") : "A zero item TTL is refused";
+                out.println("PUT 4 x");
+                assert in.readLine().startsWith("ERROR") : "The TTL must be a number";
+                out.println("TTL -1");
+                assert in.readLine().equals("ERROR TTL must not be negative") : "Negative TTLs are refused";
+                out.println("TTL jobs 0");
+                assert in.readLine().equals("OK 0") : "TTL 0 turns expiry off";
+            }
+            registry.getSweeper().close();
+            System.out.println("Commands test passed");
+        } catch (Exception e) {
+            System.out.println("Commands test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that on the NIO server a PUT parked on a full queue goes in once the sweeper drops
+    // the expired item in its way
+    public static void testNioParkedPut() {
+        System.out.println("Test: NIO parked PUT");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(1));
+        NioQueueServer nio = new NioQueueServer(registry, 0, 2);
+
+        try {
+            nio.start();
+            try (Socket first = new Socket("localhost", nio.getPort());
+                 Socket second = new Socket("localhost", nio.getPort())) {
+                PrintWriter out1 = new PrintWriter(first.getOutputStream(), true);
+                BufferedReader in1 = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter out2 = new PrintWriter(second.getOutputStream(), true);
+                BufferedReader in2 = new BufferedReader(new InputStreamReader(second.getInputStream(), StandardCharsets.UTF_8));
+
+                out1.println("PUT 1 50");
+                assert in1.readLine().equals("OK 1") : "PUT with a TTL";
+                long start = System.nanoTime();
+                out2.println("PUT 2 60000");
+                assert in2.readLine().equals("OK 1") : "The parked PUT goes in after the sweep";
+                assert System.nanoTime() - start >= 40_000_000L : "Not before the item expired";
+                out1.println("STATUS");
+                assert in1.readLine().equals("OK 1 1 false true 0 0 1") : "One expired, the new item is in";
+                out1.println("TTL 100");
+                assert in1.readLine().equals("OK 100") : "TTL on the NIO server";
+            }
+            registry.getSweeper().close();
+            System.out.println("NIO parked PUT test passed");
+        } catch (Exception e) {
+            System.out.println("NIO parked PUT test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            nio.stop();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== TTL Tests ===\n");
+
+        testQueueTtl();
+        testItemTtl();
+        testRemoveExpired();
+        testDynamic();
+        testPutOnExpired();
+        testOrderedSink();
+        testSweeper();
+        testCommands();
+        testNioParkedPut();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
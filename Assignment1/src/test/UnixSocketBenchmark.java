@@ -0,0 +1,144 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Compares loopback TCP with a Unix domain socket on the thread-per-connection QueueServer
+// and the NIO server, both in-process. For each transport it reports the round-trip latency
+// of single PUT and TAKE commands (p50/p99/mean) and the throughput of pipelined ones
+// (window PUTs, then window TAKEs, per round trip). Both transports use the same client
+// code (StreamConnection), so the difference is the kernel path alone.
+//
+// Usage: UnixSocketBenchmark [operations] [window]
+public class UnixSocketBenchmark {
+    private static final int WARMUP_OPERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        Path dir = Files.createTempDirectory("queue-bench");
+        Path threadSocket = dir.resolve("thread.sock");
+        Path nioSocket = dir.resolve("nio.sock");
+        QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(Math.max(window, 1024)));
+        NioQueueServer nio = new NioQueueServer(new BoundedBlockingQueue(Math.max(window, 1024)), 0, 1);
+        nio.setUnixSocket(nioSocket);
+        try (ServerSocket tcp = new ServerSocket(0);
+             ServerSocketChannel unix = StreamConnection.listenUnix(threadSocket)) {
+            serve(tcp, unix, registry);
+            nio.start();
+            String[][] targets = {
+                {"thread, tcp", "localhost:" + tcp.getLocalPort()},
+                {"thread, unix", StreamConnection.UNIX_PREFIX + threadSocket},
+                {"nio, tcp", "localhost:" + nio.getPort()},
+                {"nio, unix", StreamConnection.UNIX_PREFIX + nioSocket},
+            };
+
+            System.out.println("=== Unix Domain Socket Benchmark (" + operations + " PUT+TAKE pairs, window " + window + ") ===\n");
+            for (String[] target : targets) {
+                runRoundTrips(target[1], WARMUP_OPERATIONS);
+                runPipelined(target[1], WARMUP_OPERATIONS, window);
+            }
+            for (String[] target : targets) {
+                LatencyHistogram latency = runRoundTrips(target[1], operations);
+                long pipelinedNanos = runPipelined(target[1], operations, window);
+                System.out.printf("%-14s round trip p50 %6.1f us  p99 %6.1f us  mean %6.1f us   pipelined %,10.0f ops/s%n",
+                                  target[0], latency.getValueAtPercentile(50) / 1000.0,
+                                  latency.getValueAtPercentile(99) / 1000.0, latency.getMean() / 1000.0,
+                                  2.0 * operations / (pipelinedNanos / 1e9));
+            }
+        } finally {
+            nio.stop();
+            Files.deleteIfExists(threadSocket);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // Serves both listeners with QueueServer handlers, a thread per connection
+    private static void serve(ServerSocket tcp, ServerSocketChannel unix, QueueRegistry registry) {
+        Thread tcpAcceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(tcp.accept(), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        Thread unixAcceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    new Thread(new QueueServer.ClientHandler(StreamConnection.of(unix.accept()), registry, null)).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        tcpAcceptor.setDaemon(true);
+        unixAcceptor.setDaemon(true);
+        tcpAcceptor.start();
+        unixAcceptor.start();
+    }
+
+    // "host:port" or "unix:<path>"
+    private static StreamConnection connect(String address) throws IOException {
+        if (StreamConnection.isUnix(address)) {
+            return StreamConnection.connect(StreamConnection.unixPath(address));
+        }
+        int colon = address.lastIndexOf(':');
+        return StreamConnection.connect(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    // One PUT, then one TAKE, each waiting for its reply; records every round trip
+    private static LatencyHistogram runRoundTrips(String address, int operations) throws IOException {
+        LatencyHistogram latency = new LatencyHistogram();
+        try (StreamConnection connection = connect(address)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            for (int i = 0; i < operations; i++) {
+                long start = System.nanoTime();
+                out.write("PUT " + i + "\n");
+                out.flush();
+                in.readLine();
+                long put = System.nanoTime();
+                out.write("TAKE\n");
+                out.flush();
+                in.readLine();
+                long take = System.nanoTime();
+                latency.recordValue(put - start);
+                latency.recordValue(take - put);
+            }
+        }
+        return latency;
+    }
+
+    // Sends window PUT and window TAKE lines before reading their replies; returns wall nanos
+    private static long runPipelined(String address, int operations, int window) throws IOException {
+        try (StreamConnection connection = connect(address)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            long start = System.nanoTime();
+            for (int done = 0; done < operations; done += window) {
+                int count = Math.min(window, operations - done);
+                for (int i = 0; i < count; i++) {
+                    out.write("PUT " + (done + i) + "\n");
+                }
+                for (int i = 0; i < count; i++) {
+                    out.write("TAKE\n");
+                }
+                out.flush();
+                for (int i = 0; i < 2 * count; i++) {
+                    in.readLine();
+                }
+            }
+            return System.nanoTime() - start;
+        }
+    }
+}
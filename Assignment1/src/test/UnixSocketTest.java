@@ -0,0 +1,178 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Tests for the Unix domain socket transport: both thread-per-connection servers and the
+// NIO server serve it like TCP, QueueClient connects with a unix:<path> host
+public class UnixSocketTest {
+
+    private static Path socketFile(String name) throws IOException {
+        Path dir = Files.createTempDirectory("queue-unix");
+        dir.toFile().deleteOnExit();
+        return dir.resolve(name);
+    }
+
+    // Serves the socket with QueueServer handlers, or DynamicQueueServer ones for a dynamic queue
+    private static ServerSocketChannel startServer(QueueRegistry registry, Path path) throws IOException {
+        ServerSocketChannel channel = StreamConnection.listenUnix(path);
+        boolean dynamic = registry.getDefaultQueue().isDynamic();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    StreamConnection connection = StreamConnection.of(channel.accept());
+                    Runnable handler = dynamic
+                            ? new DynamicQueueServer.ClientHandler(connection, registry)
+                            : new QueueServer.ClientHandler(connection, registry, null);
+                    new Thread(handler).start();
+                }
+            } catch (IOException e) {
+                // Server socket closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return channel;
+    }
+
+    // The same commands through QueueClient, whatever the server
+    private static void checkCommands(String host) throws Exception {
+        try (QueueClient client = new QueueClient(host, 0, "jobs", 2, 0)) {
+            client.put(1).get(5, TimeUnit.SECONDS);
+            client.putAll(new int[] {2, 3, 4}, 0, 3).get(5, TimeUnit.SECONDS);
+            assert client.take().get(5, TimeUnit.SECONDS).getItem() == 1 : "Items should come back in order";
+            assert client.size().get(5, TimeUnit.SECONDS) == 3 : "PUTN should have added three items";
+            int[] rest = client.pollUpTo(10, 0).get(5, TimeUnit.SECONDS);
+            assert rest.length == 3 && rest[0] == 2 && rest[2] == 4 : "TAKEN should return the rest";
+        }
+    }
+
+    // Test both thread-per-connection servers over a Unix domain socket
+    public static void testThreadServers() {
+        System.out.println("Test: Thread Servers");
+
+        try {
+            Path path = socketFile("queue.sock");
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(10));
+            try (ServerSocketChannel server = startServer(registry, path)) {
+                assert server.getLocalAddress().equals(UnixDomainSocketAddress.of(path)) : "The server should listen on the socket file";
+                checkCommands(StreamConnection.UNIX_PREFIX + path);
+                assert registry.getStats().getCommandCount("PUTN") == 1 : "Commands should be counted like on TCP";
+            }
+
+            // A socket file left behind by a previous server is replaced
+            assert Files.exists(path) : "The socket file stays until it is removed";
+            QueueRegistry dynamic = new QueueRegistry(new DynamicBoundedBlockingQueue(2));
+            try (ServerSocketChannel server = startServer(dynamic, path);
+                 QueueClient client = new QueueClient(StreamConnection.UNIX_PREFIX + path, 0)) {
+                assert server.getLocalAddress().equals(UnixDomainSocketAddress.of(path)) : "The new server should take over the socket file";
+                for (int i = 0; i < 5; i++) {
+                    client.put(i).get(5, TimeUnit.SECONDS);
+                }
+                assert client.take().get(5, TimeUnit.SECONDS).getCapacity() >= 5 : "The dynamic queue should have grown";
+                checkCommands(StreamConnection.UNIX_PREFIX + path);
+            }
+            Files.deleteIfExists(path);
+            System.out.println("Thread servers test passed");
+        } catch (Exception e) {
+            System.out.println("Thread servers test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test the NIO server listening on TCP and a Unix domain socket at once
+    public static void testNioServer() {
+        System.out.println("Test: NIO Server");
+        NioQueueServer server = new NioQueueServer(new BoundedBlockingQueue(10), 0, 2);
+
+        try {
+            Path path = socketFile("nio.sock");
+            server.setUnixSocket(path);
+            server.start();
+            checkCommands(StreamConnection.UNIX_PREFIX + path);
+            try (QueueClient unix = new QueueClient(StreamConnection.UNIX_PREFIX + path, 0);
+                 QueueClient tcp = new QueueClient("localhost", server.getPort())) {
+                // Both transports reach the same queues
+                unix.put(7).get(5, TimeUnit.SECONDS);
+                assert tcp.take().get(5, TimeUnit.SECONDS).getItem() == 7 : "TCP should see the item put over the socket file";
+            }
+            server.stop();
+            assert !Files.exists(path) : "stop() should remove the socket file";
+            System.out.println("NIO server test passed");
+        } catch (Exception e) {
+            System.out.println("NIO server test failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Test a subscription: the handler reads CREDIT while its pusher writes on the same channel
+    public static void testSubscribe() {
+        System.out.println("Test: Subscribe");
+        final int ITEMS = 200;
+
+        try {
+            Path path = socketFile("subscribe.sock");
+            QueueRegistry registry = new QueueRegistry(new BoundedBlockingQueue(ITEMS));
+            try (ServerSocketChannel server = startServer(registry, path);
+                 StreamConnection subscriber = StreamConnection.connect(path);
+                 QueueClient producer = new QueueClient(StreamConnection.UNIX_PREFIX + path, 0)) {
+                assert server.getLocalAddress().equals(UnixDomainSocketAddress.of(path)) : "The server should listen on the socket file";
+                BufferedReader in = new BufferedReader(new InputStreamReader(subscriber.getInputStream(), StandardCharsets.UTF_8));
+                subscriber.getOutputStream().write("SUBSCRIBE 4\n".getBytes(StandardCharsets.UTF_8));
+                assert in.readLine().startsWith("OK") : "SUBSCRIBE should be accepted";
+                for (int i = 0; i < ITEMS; i++) {
+                    producer.put(i);
+                }
+                for (int i = 0; i < ITEMS; i++) {
+                    String line = in.readLine();
+                    assert line != null && line.equals("ITEM " + i) : "Expected item " + i + ", got " + line;
+                    // The handler blocks reading the next CREDIT while the pusher waits to write
+                    subscriber.getOutputStream().write("CREDIT 1\n".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            System.out.println("Subscribe test passed");
+        } catch (Exception e) {
+            System.out.println("Subscribe test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Test that a missing socket file is refused like a closed TCP port
+    public static void testNoServer() {
+        System.out.println("Test: No Server");
+
+        try {
+            Path path = socketFile("missing.sock");
+            try {
+                new QueueClient(StreamConnection.UNIX_PREFIX + path, 0).close();
+                assert false : "There is no server to connect to";
+            } catch (ConnectException e) {
+                // Expected: the interactive tools print their "start the server" hint for this
+            }
+            System.out.println("No server test passed");
+        } catch (Exception e) {
+            System.out.println("No server test failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Run all tests
+    public static void main(String[] args) {
+        System.out.println("=== Unix Domain Socket Tests ===\n");
+
+        testThreadServers();
+        testNioServer();
+        testSubscribe();
+        testNoServer();
+
+        System.out.println("\n=== All Tests Completed ===");
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Virtual-time clock for tests.
+// Time only moves when the test calls advance() (manual mode) or, in auto-advance mode, when
+// every thread that sleeps or waits through the clock is doing so at the same moment: it then
+// jumps to the earliest of their deadlines, like a discrete-event simulation. Which deadline
+// comes first depends only on the deadlines, not on how the threads happen to be scheduled,
+// so flow-control logic that normally waits 30 seconds runs in a few milliseconds of real time.
+//
+// A thread takes part from its first sleep or wait until it ends. waitOn cannot block on the
+// clock and on the caller's monitor at once, so it waits on the monitor for slices of real
+// time and returns early unless time reached its deadline; its callers re-check their
+// condition and wait again, as they must after any Object.wait().
+public class VirtualClock implements Clock {
+    private static final long REAL_WAIT_SLICE_MS = 1;
+
+    private final boolean autoAdvance;
+    private final Set<Thread> participants = new HashSet<>();
+    private final Map<Thread, Long> deadlines = new HashMap<>(); // Participants sleeping or waiting now
+    private long now;
+    private long sleepCount;
+
+    // Creates an auto-advancing clock: time jumps ahead whenever all participants sleep or wait
+    public VirtualClock() {
+        this(true);
+    }
+
+    // Creates a clock; when autoAdvance is false, sleepers block until advance() is called
+    public VirtualClock(boolean autoAdvance) {
+        this.autoAdvance = autoAdvance;
+        this.now = 0;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return now;
+    }
+
+    // Blocks until virtual time reaches the sleeper's deadline: in auto mode as soon as every
+    // other participant sleeps or waits too and no deadline comes earlier, in manual mode once
+    // the test advances time past it
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        synchronized (this) {
+            sleepCount++;
+            long deadline = now + millis;
+            if (autoAdvance) {
+                Thread self = Thread.currentThread();
+                participants.add(self);
+                deadlines.put(self, deadline);
+                try {
+                    while (now < deadline) {
+                        advanceIfAllWaiting();
+                        if (now < deadline) {
+                            // A participant that ends notifies nobody: look again after a slice
+                            wait(REAL_WAIT_SLICE_MS);
+                        }
+                    }
+                } finally {
+                    deadlines.remove(self);
+                }
+            } else {
+                while (now < deadline) {
+                    wait();
+                }
+            }
+        }
+        // Let other threads run as they would during a real sleep
+        Thread.yield();
+    }
+
+    // Waits on the monitor for a slice of real time, so real notifications still wake the
+    // caller; in auto mode time then moves on if every participant is waiting
+    @Override
+    public void waitOn(Object monitor, long millis) throws InterruptedException {
+        if (!autoAdvance) {
+            monitor.wait(REAL_WAIT_SLICE_MS);
+            return;
+        }
+        Thread self = Thread.currentThread();
+        synchronized (this) {
+            participants.add(self);
+            deadlines.put(self, now + millis);
+        }
+        try {
+            monitor.wait(REAL_WAIT_SLICE_MS);
+            synchronized (this) {
+                advanceIfAllWaiting();
+            }
+        } finally {
+            synchronized (this) {
+                deadlines.remove(self);
+            }
+        }
+    }
+
+    // Moves virtual time to the earliest deadline once every live participant sleeps or waits;
+    // caller holds this clock's lock
+    private void advanceIfAllWaiting() {
+        participants.removeIf(thread -> !thread.isAlive());
+        if (deadlines.size() < participants.size()) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (long deadline : deadlines.values()) {
+            earliest = Math.min(earliest, deadline);
+        }
+        if (earliest > now) {
+            now = earliest;
+            notifyAll();
+        }
+    }
+
+    // Moves virtual time forward and wakes sleepers whose deadline has passed
+    public synchronized void advance(long millis) {
+        now += millis;
+        notifyAll();
+    }
+
+    // Number of sleep calls made through this clock
+    public synchronized long getSleepCount() {
+        return sleepCount;
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Load test for the virtual-thread-per-connection mode.
+// Starts QueueServer --virtual-threads in a separate JVM with a bounded heap, parks a large
+// number of idle consumers in TAKE, and checks that the server stays responsive on that heap
+// with no more than MAX_SERVER_THREADS OS threads however many consumers are parked (Linux
+// only; elsewhere the thread count is not checked). Needs Java 21+, and for large counts a
+// high open-file limit, e.g.:
+//
+//   ulimit -n 120000
+//   java -cp bin -ea VirtualThreadLoadTest 50000
+//
+// Usage: VirtualThreadLoadTest [connections] [serverHeap] [--allow-platform-threads]
+public class VirtualThreadLoadTest {
+    private static final int DEFAULT_CONNECTIONS = 50000;
+    private static final String DEFAULT_SERVER_HEAP = "512m";
+    private static final int CONNECTIONS_PER_SOURCE_ADDRESS = 20000; // Stay below the ephemeral port range
+    // JVM threads (GC, JIT, carriers, acceptor) of the server; one per connection would exceed it
+    private static final int MAX_SERVER_THREADS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int connections = DEFAULT_CONNECTIONS;
+        String serverHeap = DEFAULT_SERVER_HEAP;
+        boolean allowPlatformThreads = false;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--allow-platform-threads")) {
+                allowPlatformThreads = true;
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() > 0) {
+            connections = Integer.parseInt(positional.get(0));
+        }
+        if (positional.size() > 1) {
+            serverHeap = positional.get(1);
+        }
+
+        System.out.println("=== Virtual Thread Load Test ===\n");
+        if (!VirtualThreads.isSupported() && !allowPlatformThreads) {
+            System.out.println("Skipped: virtual threads need Java 21+ (running " +
+                               System.getProperty("java.version") + ")");
+            return;
+        }
+        testIdleConsumers(connections, serverHeap, VirtualThreads.isSupported());
+        System.out.println("\n=== Load Test Completed ===");
+    }
+
+    // Parks many idle consumers in TAKE and checks the server still serves PUTs, and with
+    // checkThreads that it did not start an OS thread per consumer
+    public static void testIdleConsumers(int connections, String serverHeap, boolean checkThreads) throws Exception {
+        System.out.println("Test: " + connections + " idle consumers blocked in TAKE (server heap " + serverHeap + ")");
+        int port = findFreePort();
+        Process server = startServer(port, serverHeap);
+        List<SocketChannel> consumers = new ArrayList<>(connections);
+        Selector selector = Selector.open();
+
+        try {
+            waitForServer(port);
+            long rssBefore = procStatus(server.pid(), "VmRSS:");
+
+            // Open every consumer connection and send TAKE
+            long start = System.nanoTime();
+            ByteBuffer take = ByteBuffer.wrap("TAKE\n".getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                // Spread connections over several loopback addresses to avoid running out of ephemeral ports
+                String source = "127.0.0." + (1 + i / CONNECTIONS_PER_SOURCE_ADDRESS);
+                channel.bind(new InetSocketAddress(source, 0));
+                channel.connect(new InetSocketAddress("127.0.0.1", port));
+                take.rewind();
+                channel.write(take);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ);
+                consumers.add(channel);
+            }
+            long connectMs = (System.nanoTime() - start) / 1_000_000;
+
+            // Give the server time to start a handler for every connection
+            Thread.sleep(2000);
+            assert server.isAlive() : "Server should survive " + connections + " idle consumers";
+            long rssAfter = procStatus(server.pid(), "VmRSS:");
+            long threads = procStatus(server.pid(), "Threads:");
+            assert !checkThreads || threads <= MAX_SERVER_THREADS
+                    : connections + " idle consumers should not need " + threads + " server threads";
+
+            // Server must still be responsive: every PUT should reach one parked consumer
+            final int ITEMS = 100;
+            long putStart = System.nanoTime();
+            try (Socket control = new Socket("127.0.0.1", port);
+                 PrintWriter out = new PrintWriter(control.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream()))) {
+                for (int i = 0; i < ITEMS; i++) {
+                    out.println("PUT " + i);
+                    String response = in.readLine();
+                    assert response != null && response.startsWith("OK") : "PUT should succeed, got " + response;
+                }
+            }
+            long putMs = (System.nanoTime() - putStart) / 1_000_000;
+
+            int delivered = 0;
+            long deadline = System.currentTimeMillis() + 10000;
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            while (delivered < ITEMS && System.currentTimeMillis() < deadline) {
+                if (selector.select(500) == 0) {
+                    continue;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    buffer.clear();
+                    if (((SocketChannel) key.channel()).read(buffer) > 0) {
+                        delivered++;
+                    }
+                    key.cancel();
+                }
+                selector.selectedKeys().clear();
+            }
+            assert delivered == ITEMS : "Each PUT should wake one parked consumer, woke " + delivered;
+            assert server.isAlive() : "Server should still be running";
+
+            System.out.println("Idle consumers test passed");
+            System.out.println("  Connections: " + connections + " opened in " + connectMs + "ms");
+            System.out.println("  " + ITEMS + " PUTs served in " + putMs + "ms, delivered to " + delivered + " consumers");
+            if (threads > 0) {
+                System.out.println("  Server threads: " + threads);
+            }
+            if (rssBefore > 0 && rssAfter > 0) {
+                System.out.println("  Server resident memory: " + (rssBefore / 1024) + "MB -> " + (rssAfter / 1024) +
+                                   "MB (" + ((rssAfter - rssBefore) * 1024 / connections) + " bytes per connection)");
+            }
+        } finally {
+            for (SocketChannel channel : consumers) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore close failures during cleanup
+                }
+            }
+            selector.close();
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // Starts QueueServer in virtual-thread mode in a child JVM with a bounded heap
+    private static Process startServer(int port, String heap) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Xmx" + heap, "-cp", System.getProperty("java.class.path"),
+                                                    "QueueServer", "1000", String.valueOf(port), "--virtual-threads");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        return builder.start();
+    }
+
+    private static void waitForServer(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Reads a number from /proc/<pid>/status (Linux only), such as "VmRSS:" in KB or
+    // "Threads:"; returns -1 when unavailable
+    private static long procStatus(long pid, String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"))) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not on Linux or process already gone
+        }
+        return -1;
+    }
+}